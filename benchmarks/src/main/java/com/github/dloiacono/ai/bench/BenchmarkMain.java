@@ -0,0 +1,133 @@
+package com.github.dloiacono.ai.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks with the GC profiler and saves the results as a JSON baseline.
+ * <p>
+ * The usual JMH options are accepted, e.g. {@code -p files=100,1000} or a benchmark regex. The
+ * results go to {@code baselines/<timestamp>.json}, or to {@code -Dswarm.bench.result}. With
+ * {@code -Dswarm.bench.baseline=<file>}, they are compared with an earlier baseline and the process
+ * exits with status 2 if a benchmark got slower, or allocates more per operation, by more than
+ * {@code swarm.bench.tolerance} (default 0.10, i.e. 10%).
+ */
+public final class BenchmarkMain {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+    /** Allocation differences below this many bytes per operation are noise. */
+    private static final double ALLOCATION_SLACK = 64;
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path result = Paths.get(System.getProperty("swarm.bench.result",
+                "baselines/" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json"));
+        if (result.getParent() != null) {
+            Files.createDirectories(result.getParent());
+        }
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(BenchmarkMain.class.getPackageName() + ".*");
+        }
+        Options options = builder
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.toString())
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+        System.out.println("Results saved to " + result.toAbsolutePath());
+
+        String baseline = System.getProperty("swarm.bench.baseline");
+        if (baseline != null) {
+            double tolerance = Double.parseDouble(System.getProperty("swarm.bench.tolerance", "0.10"));
+            List<String> regressions = compare(results, Paths.get(baseline), tolerance);
+            if (!regressions.isEmpty()) {
+                System.out.println("Regressions against " + baseline + ":");
+                regressions.forEach(regression -> System.out.println("  " + regression));
+                System.exit(2);
+            }
+            System.out.println("No regression against " + baseline);
+        }
+    }
+
+    /**
+     * @return a description of each benchmark that regressed beyond the tolerance
+     */
+    static List<String> compare(Collection<RunResult> results, Path baseline, double tolerance) throws IOException {
+        Map<String, JsonNode> previous = new HashMap<>();
+        for (JsonNode node : new ObjectMapper().readTree(baseline.toFile())) {
+            Map<String, String> params = new TreeMap<>();
+            for (Map.Entry<String, JsonNode> param : node.path("params").properties()) {
+                params.put(param.getKey(), param.getValue().asText());
+            }
+            previous.put(key(node.path("benchmark").asText(), node.path("mode").asText(), params), node);
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            Map<String, String> values = new TreeMap<>();
+            for (String param : params.getParamsKeys()) {
+                values.put(param, params.getParam(param));
+            }
+            String key = key(params.getBenchmark(), params.getMode().shortLabel(), values);
+            JsonNode before = previous.get(key);
+            if (before == null) {
+                continue;
+            }
+
+            double was = before.path("primaryMetric").path("score").asDouble();
+            double now = result.getPrimaryResult().getScore();
+            boolean higherIsBetter = params.getMode() == Mode.Throughput;
+            if (higherIsBetter ? now < was * (1 - tolerance) : now > was * (1 + tolerance)) {
+                regressions.add(describe(key, result.getPrimaryResult().getScoreUnit(), was, now));
+            }
+
+            Result<?> allocation = result.getSecondaryResults().get(ALLOCATION);
+            JsonNode allocatedBefore = before.path("secondaryMetrics").path(ALLOCATION).path("score");
+            if (allocation != null && allocatedBefore.isNumber()) {
+                double allocatedWas = allocatedBefore.asDouble();
+                double allocatedNow = allocation.getScore();
+                if (allocatedNow > allocatedWas * (1 + tolerance) && allocatedNow - allocatedWas > ALLOCATION_SLACK) {
+                    regressions.add(describe(key + " allocation", allocation.getScoreUnit(), allocatedWas, allocatedNow));
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private static String key(String benchmark, String mode, Map<String, String> params) {
+        return benchmark + " [" + mode + "] " + params;
+    }
+
+    private static String describe(String key, String unit, double was, double now) {
+        return String.format("%s: %.3f -> %.3f %s (%+.1f%%)", key, was, now, unit, (now - was) / was * 100);
+    }
+}
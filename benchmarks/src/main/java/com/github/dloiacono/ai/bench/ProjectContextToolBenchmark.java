@@ -0,0 +1,62 @@
+package com.github.dloiacono.ai.bench;
+
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import com.github.dloiacono.ai.tools.ProjectContextTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading whole projects: every file with {@link ProjectContextTool#readAllProjectFiles}, and the
+ * Java sources through the project index with {@link ProjectContextTool#getProjectFiles}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ProjectContextToolBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    int files;
+
+    private ProjectContextTool tool;
+    private RunContext.Scope run;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticProject project = SyntheticProject.of(files);
+        tool = Tools.projectContextTool(project.root().resolveSibling("index"));
+        run = RunContext.bind(RunContext.create("bench", RunContext.DEFAULT_FILE_CACHE_CHARS,
+                Workspace.onDisk(project.root())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        run.close();
+    }
+
+    @Benchmark
+    public String readAllProjectFiles() {
+        return tool.readAllProjectFiles(".");
+    }
+
+    @Benchmark
+    public String getProjectFiles() {
+        return tool.getProjectFiles(".", "**/*.java");
+    }
+}
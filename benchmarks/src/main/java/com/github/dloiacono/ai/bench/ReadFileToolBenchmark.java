@@ -0,0 +1,67 @@
+package com.github.dloiacono.ai.bench;
+
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import com.github.dloiacono.ai.tools.ReadFileTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the files of a project one by one with {@link ReadFileTool#readFile}, in a fixed
+ * shuffled order, with the run's file cache (whose hit rate drops as the tree outgrows it) and
+ * without it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadFileToolBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    int files;
+
+    /** The size of the run's file cache in characters, 0 to read every file from disk. */
+    @Param({"0", "16777216"})
+    long fileCacheChars;
+
+    private ReadFileTool tool;
+    private List<String> paths;
+    private int next;
+    private RunContext.Scope run;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticProject project = SyntheticProject.of(files);
+        tool = Tools.readFileTool();
+        paths = project.files();
+        run = RunContext.bind(RunContext.create("bench", fileCacheChars, Workspace.onDisk(project.root())));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        run.close();
+    }
+
+    @Benchmark
+    public String readFile() {
+        String path = paths.get(next);
+        next = next + 1 == paths.size() ? 0 : next + 1;
+        return tool.readFile(path);
+    }
+}
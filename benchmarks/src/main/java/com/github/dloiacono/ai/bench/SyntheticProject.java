@@ -0,0 +1,126 @@
+package com.github.dloiacono.ai.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * A generated project tree, the same for a given number of files on every run.
+ * <p>
+ * Most files are Java sources, with some Markdown, XML and properties files in between. Their sizes
+ * are mixed the way they are in real projects: 70% under 2 KB, 25% up to 16 KB, 4.5% up to 64 KB
+ * and 0.5% between 128 KB and 512 KB, about 6 KB per file on average. Trees are generated once
+ * under {@code swarm.bench.trees} (default {@code target/bench-trees}) and reused by later runs.
+ */
+public final class SyntheticProject {
+
+    private static final int FILES_PER_DIRECTORY = 50;
+    private static final long SEED = 42;
+    private static final String[] WORDS = {
+            "project", "index", "entry", "content", "workspace", "agent", "tool", "request", "response",
+            "cache", "budget", "token", "file", "path", "line", "module", "result", "context", "event", "run"
+    };
+
+    private final Path root;
+    private final List<String> files;
+
+    private SyntheticProject(Path root, List<String> files) {
+        this.root = root;
+        this.files = files;
+    }
+
+    /**
+     * Returns the tree with the given number of files, generating it if it does not exist yet.
+     */
+    public static synchronized SyntheticProject of(int fileCount) {
+        Path trees = Paths.get(System.getProperty("swarm.bench.trees", "target/bench-trees")).toAbsolutePath();
+        Path root = trees.resolve("files-" + fileCount);
+        // Written last, so an interrupted generation is started over
+        Path complete = trees.resolve("files-" + fileCount + ".complete");
+        List<String> files = layout(fileCount);
+        try {
+            if (!Files.exists(complete)) {
+                generate(root, files);
+                Files.createFile(complete);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not generate " + root, e);
+        }
+        return new SyntheticProject(root, files);
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * @return the relative paths of the files, in a fixed shuffled order
+     */
+    public List<String> files() {
+        return files;
+    }
+
+    private static List<String> layout(int fileCount) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        List<String> files = new ArrayList<>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            int directory = i / FILES_PER_DIRECTORY;
+            String base = "module-" + (directory / 100) + "/src/main/java/com/example/p" + directory + "/";
+            int kind = random.nextInt(100);
+            if (kind < 85) {
+                files.add(base + "Generated" + i + ".java");
+            } else if (kind < 92) {
+                files.add(base + "notes-" + i + ".md");
+            } else if (kind < 97) {
+                files.add(base + "config-" + i + ".xml");
+            } else {
+                files.add(base + "settings-" + i + ".properties");
+            }
+        }
+        Collections.shuffle(files, new Random(SEED));
+        return List.copyOf(files);
+    }
+
+    private static void generate(Path root, List<String> files) throws IOException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (String file : files) {
+            Path path = root.resolve(file);
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, text(random, size(random)));
+        }
+    }
+
+    private static int size(SplittableRandom random) {
+        int bucket = random.nextInt(1000);
+        if (bucket < 700) {
+            return random.nextInt(256, 2 * 1024);
+        } else if (bucket < 950) {
+            return random.nextInt(2 * 1024, 16 * 1024);
+        } else if (bucket < 995) {
+            return random.nextInt(16 * 1024, 64 * 1024);
+        }
+        return random.nextInt(128 * 1024, 512 * 1024);
+    }
+
+    private static String text(SplittableRandom random, int size) {
+        StringBuilder text = new StringBuilder(size + 128);
+        while (text.length() < size) {
+            String first = WORDS[random.nextInt(WORDS.length)];
+            String second = WORDS[random.nextInt(WORDS.length)];
+            text.append("    public String ").append(first)
+                    .append(Character.toUpperCase(second.charAt(0))).append(second, 1, second.length())
+                    .append(random.nextInt(1000)).append("(String ").append(second).append(") {\n")
+                    .append("        return \"").append(first).append(' ').append(second).append("\";\n")
+                    .append("    }\n");
+        }
+        text.setLength(size);
+        return text.append('\n').toString();
+    }
+}
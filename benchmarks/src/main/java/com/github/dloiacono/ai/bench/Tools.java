@@ -0,0 +1,76 @@
+package com.github.dloiacono.ai.bench;
+
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.project.ProjectIndex;
+import com.github.dloiacono.ai.tools.ProjectContextTool;
+import com.github.dloiacono.ai.tools.ReadFileTool;
+import com.github.dloiacono.ai.tools.WriteFileTool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import jakarta.enterprise.event.Event;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Creates the tools the way Quarkus would, with their configuration defaults, without starting
+ * the application: the benchmarks measure the tools themselves, not the CDI interceptors around
+ * them. Telemetry goes to an in-memory registry and a no-op tracer, and events are dropped.
+ */
+final class Tools {
+
+    private Tools() {
+    }
+
+    static ProjectContextTool projectContextTool(Path indexDirectory) {
+        ProjectIndex projectIndex = new ProjectIndex();
+        inject(projectIndex, "indexDirectory", indexDirectory.toString());
+        inject(projectIndex, "refreshInterval", Duration.ofSeconds(5));
+        inject(projectIndex, "maxCachedFileBytes", 262144L);
+
+        ProjectContextTool tool = new ProjectContextTool();
+        inject(tool, "defaultMaxTokens", 50000);
+        inject(tool, "projectIndex", projectIndex);
+        inject(tool, "telemetry", telemetry());
+        return tool;
+    }
+
+    static ReadFileTool readFileTool() {
+        ReadFileTool tool = new ReadFileTool();
+        inject(tool, "telemetry", telemetry());
+        inject(tool, "maxRangeBytes", 262144);
+        inject(tool, "pageBytes", 16384);
+        return tool;
+    }
+
+    static WriteFileTool writeFileTool() {
+        WriteFileTool tool = new WriteFileTool();
+        inject(tool, "fileChanged", droppedEvents());
+        inject(tool, "telemetry", telemetry());
+        return tool;
+    }
+
+    private static SwarmTelemetry telemetry() {
+        SwarmTelemetry telemetry = new SwarmTelemetry();
+        inject(telemetry, "registry", new SimpleMeterRegistry());
+        inject(telemetry, "tracer", OpenTelemetry.noop().getTracer("benchmarks"));
+        return telemetry;
+    }
+
+    private static Event<?> droppedEvents() {
+        return (Event<?>) Proxy.newProxyInstance(Tools.class.getClassLoader(), new Class<?>[]{Event.class},
+                (proxy, method, args) -> method.getName().equals("select") ? proxy : null);
+    }
+
+    private static void inject(Object bean, String field, Object value) {
+        try {
+            Field target = bean.getClass().getDeclaredField(field);
+            target.setAccessible(true);
+            target.set(bean, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + bean.getClass().getSimpleName() + "." + field, e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.dloiacono.ai.bench;
+
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import com.github.dloiacono.ai.tools.WriteFileTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Writing files with {@link WriteFileTool#writeFile}, over a rotating set of 256 files, and
+ * appending to a log with {@link WriteFileTool#appendToFile}, reset at every iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteFileToolBenchmark {
+
+    private static final int ROTATING_FILES = 256;
+    private static final String LOG = "out/append.log";
+
+    /** The size of the content written by each call, in characters. */
+    @Param({"1024", "16384", "262144"})
+    int chars;
+
+    private WriteFileTool tool;
+    private String content;
+    private String line;
+    private int next;
+    private Path workspace;
+    private RunContext.Scope run;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = Paths.get(System.getProperty("swarm.bench.trees", "target/bench-trees"))
+                .toAbsolutePath().resolve("writes-" + ProcessHandle.current().pid());
+        delete(workspace);
+        Files.createDirectories(workspace);
+        tool = Tools.writeFileTool();
+        content = "x".repeat(chars - 1) + "\n";
+        line = "appended line\n";
+        run = RunContext.bind(RunContext.create("bench", RunContext.DEFAULT_FILE_CACHE_CHARS, Workspace.onDisk(workspace)));
+    }
+
+    @Setup(Level.Iteration)
+    public void resetLog() {
+        tool.writeFile("log\n", LOG);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        run.close();
+        delete(workspace);
+    }
+
+    @Benchmark
+    public String writeFile() {
+        String path = "out/file-" + next + ".txt";
+        next = (next + 1) % ROTATING_FILES;
+        return tool.writeFile(content, path);
+    }
+
+    @Benchmark
+    public String appendToFile() {
+        return tool.appendToFile(line, LOG);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -1,24 +1,106 @@
 package com.github.dloiacono.ai;
 
-import com.github.dloiacono.ai.agents.SupervisorAgent;
+import com.github.dloiacono.ai.loadtest.LoadTest;
+import com.github.dloiacono.ai.replay.RunReplay;
+import com.github.dloiacono.ai.run.RunCheckpoints;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
 import io.quarkus.runtime.Quarkus;
 import io.quarkus.runtime.QuarkusApplication;
 import jakarta.enterprise.context.control.ActivateRequestContext;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.Optional;
 
 @ActivateRequestContext
 public class AgentApplication implements QuarkusApplication {
 
+    private static final Logger LOG = Logger.getLogger(AgentApplication.class);
+
+    private static final String DEFAULT_NEEDS =
+            "Create a REST API using Quarkus that perform simple calculations between two numbers";
+
+    @Inject
+    SwarmRunner swarmRunner;
+
+    @Inject
+    LoadTest loadTest;
+
     @Inject
-    SupervisorAgent supervisorAgent;
+    RunReplay runReplay;
+
+    @ConfigProperty(name = "swarm.file-cache.max-chars", defaultValue = "16777216")
+    long fileCacheChars;
+
+    @ConfigProperty(name = "swarm.run.id")
+    Optional<String> runId;
+
+    @ConfigProperty(name = "swarm.run.resume", defaultValue = "false")
+    boolean resume;
+
+    @ConfigProperty(name = "swarm.run.stream", defaultValue = "false")
+    boolean stream;
+
+    @ConfigProperty(name = "swarm.server.enabled", defaultValue = "false")
+    boolean serverEnabled;
 
     @Override
     public int run(String... args) throws Exception {
+        if (serverEnabled) {
+            // Jobs are submitted through the HTTP API, see JobResource
+            LOG.info("Swarm server started, submit jobs with POST /jobs");
+            Quarkus.waitForExit();
+            return 0;
+        }
 
+        if (runReplay.enabled()) {
+            // The needs are those of the recorded run
+            RunReplay.Report report = runReplay.replay();
+            System.out.print(report.format());
+            Quarkus.asyncExit();
+            return report.passed() ? 0 : 1;
+        }
 
-        System.out.println(supervisorAgent.invoke(
-                        "Create a REST API using Quarkus that perform simple calculations between two numbers"));
+        String needs = args.length > 0 ? String.join(" ", args) : DEFAULT_NEEDS;
+        if (loadTest.enabled()) {
+            LoadTest.Report report = loadTest.run(needs);
+            System.out.print(report.format());
+            Quarkus.asyncExit();
+            return report.failed() == 0 ? 0 : 1;
+        }
+
+        RunContext run = runId.isPresent()
+                ? RunContext.create(RunCheckpoints.checkRunId(runId.get()), fileCacheChars)
+                : RunContext.create(fileCacheChars);
+        if (stream) {
+            run = run.withEvents(AgentApplication::print);
+        }
+        String response = swarmRunner.run(run, needs, resume);
+        if (!stream) {
+            System.out.println(response);
+        }
         Quarkus.asyncExit();
         return 0;
     }
+
+    /**
+     * Prints the supervisor's response as it is generated, and the progress of the other agents.
+     */
+    private static synchronized void print(RunEvent event) {
+        switch (event.type()) {
+            case TOKEN -> {
+                if (event.source().equals("supervisor")) {
+                    System.out.print(event.text());
+                    System.out.flush();
+                }
+            }
+            case PHASE_STARTED -> LOG.infof("Phase %s started", event.source());
+            case PHASE_FINISHED -> LOG.infof("Phase %s %s", event.source(), event.text());
+            case RUN_FINISHED -> System.out.println();
+            default -> {
+            }
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package com.github.dloiacono.ai;
+
+import com.github.dloiacono.ai.agents.SupervisorAgent;
+import com.github.dloiacono.ai.model.ModelRouter;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.replay.RunLog;
+import com.github.dloiacono.ai.run.RunCheckpoints;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the whole swarm workflow for one request, from the command line or for a server job.
+ */
+@ApplicationScoped
+public class SwarmRunner {
+
+    private static final Logger LOG = Logger.getLogger(SwarmRunner.class);
+
+    @Inject
+    SupervisorAgent supervisorAgent;
+
+    @Inject
+    RunCheckpoints checkpoints;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    @Inject
+    RunLog runLog;
+
+    @Inject
+    ModelRouter modelRouter;
+
+    /**
+     * Runs the supervisor on the user needs. The caller must have activated a request context.
+     * <p>
+     * When the run {@linkplain RunContext#streaming() streams its events}, every agent is called
+     * through its streaming variant and the run ends with a {@link RunEvent.Type#RUN_FINISHED} event
+     * carrying the final response or the error.
+     *
+     * @param run the context of the run, with its identifier and workspace
+     * @param needs the user needs
+     * @param resume whether to resume the run from its checkpoints
+     * @return the supervisor's final response
+     */
+    public String run(RunContext run, String needs, boolean resume) throws Exception {
+        List<String> completed = checkpoints.start(run, resume);
+        if (resume) {
+            LOG.infof("Resuming run %s, completed steps: %s", run.runId(), completed.isEmpty() ? "none" : completed);
+        } else {
+            LOG.infof("Starting run %s in %s", run.runId(), run.workspace());
+        }
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        runLog.runStarted(run, needs);
+        boolean succeeded = false;
+        try (RunContext.Scope scope = RunContext.bind(run)) {
+            String response = telemetry.step(run.runId(), "run", () -> supervise(run, needs));
+            run.emit(RunEvent.Type.RUN_FINISHED, "supervisor", response);
+            runLog.runFinished(run, response, startedAt, System.nanoTime() - start);
+            succeeded = true;
+            return response;
+        } catch (Exception e) {
+            String error = "Error: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+            run.emit(RunEvent.Type.RUN_FINISHED, "supervisor", error);
+            runLog.runFinished(run, error, startedAt, System.nanoTime() - start);
+            throw e;
+        } finally {
+            checkpoints.finish(run, succeeded);
+            LOG.infof("Run %s %s", run.runId(), run.fileCache().stats());
+            String routing = modelRouter.finish(run);
+            if (routing != null) {
+                LOG.infof("Run %s model routing: %s", run.runId(), routing);
+            }
+        }
+    }
+
+    private String supervise(RunContext run, String needs) {
+        if (!run.streaming()) {
+            return supervisorAgent.invoke(needs);
+        }
+        return supervisorAgent.stream(needs)
+                .onItem().invoke(token -> run.emit(RunEvent.Type.TOKEN, "supervisor", token))
+                .collect().with(Collectors.joining())
+                .await().indefinitely();
+    }
+}
@@ -1,16 +1,18 @@
 package com.github.dloiacono.ai.agents;
 
+import com.github.dloiacono.ai.model.SwarmModels;
 import com.github.dloiacono.ai.tools.WriteFileTool;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
 import io.quarkiverse.langchain4j.RegisterAiService;
+import io.smallrye.mutiny.Multi;
 
-@RegisterAiService(modelName = "researcher", tools = {WriteFileTool.class})
+@RegisterAiService(modelName = "researcher", tools = {WriteFileTool.class},
+        chatLanguageModelSupplier = SwarmModels.Researcher.class, streamingChatLanguageModelSupplier = SwarmModels.StreamingResearcher.class)
 public interface ResearcherAgent {
 
-  @SystemMessage(
-      """
+  String SYSTEM_MESSAGE = """
     Goal: Analyze and prepare a foundation for design.
     Instructions:
        - Read the user’s request carefully.
@@ -30,12 +32,22 @@ public interface ResearcherAgent {
    
    Available Tools:
         - Use WriteFileTool to create new files or modify existing files.
-    """)
-  @UserMessage(
-    """
+    """;
+
+  String USER_MESSAGE = """
     You convert the user needs into a research report and return list of requirements for the architect agent
     
     The user needs are: '{needs}'.
-    """)
+    """;
+
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
   String invoke(@V("needs") String needs);
+
+  /**
+   * Streaming variant of {@link #invoke}: the response is emitted as the model generates it.
+   */
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
+  Multi<String> stream(@V("needs") String needs);
 }
@@ -1,16 +1,19 @@
 package com.github.dloiacono.ai.agents;
 
+import com.github.dloiacono.ai.model.SwarmModels;
+import com.github.dloiacono.ai.tools.ReadFileTool;
 import com.github.dloiacono.ai.tools.WriteFileTool;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
 import io.quarkiverse.langchain4j.RegisterAiService;
+import io.smallrye.mutiny.Multi;
 
-@RegisterAiService(modelName = "architect", tools = {WriteFileTool.class})
+@RegisterAiService(modelName = "architect", tools = {ReadFileTool.class, WriteFileTool.class},
+        chatLanguageModelSupplier = SwarmModels.Architect.class, streamingChatLanguageModelSupplier = SwarmModels.StreamingArchitect.class)
 public interface SoftwareArchitectAgent {
 
-  @SystemMessage(
-      """
+  String SYSTEM_MESSAGE = """
     Goal: Design a comprehensive system architecture.
     Instructions:
         - Use the user’s request + Research Report as input.
@@ -29,13 +32,24 @@ public interface SoftwareArchitectAgent {
         
    Available Tools:
         - Use WriteFileTool to create new files or modify existing files.
-    """)
-  @UserMessage(
-    """
+        - Use ReadFileTool (readLines) to read the parts of a compacted input you need, from the file it refers to.
+    """;
+
+  String USER_MESSAGE = """
         You convert the requirements into a architecture specification and give specifications to the code agent.
         
         The requirements are: '{requirements}'.
         You produce a Architecture Specifications.
-    """)
+    """;
+
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
   String invoke(@V("requirements") String requirements);
+
+  /**
+   * Streaming variant of {@link #invoke}: the response is emitted as the model generates it.
+   */
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
+  Multi<String> stream(@V("requirements") String requirements);
 }
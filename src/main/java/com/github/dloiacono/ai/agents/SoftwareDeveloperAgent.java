@@ -1,17 +1,23 @@
 package com.github.dloiacono.ai.agents;
 
+import com.github.dloiacono.ai.model.SwarmModels;
+import com.github.dloiacono.ai.tools.BuildTool;
+import com.github.dloiacono.ai.tools.EditFileTool;
 import com.github.dloiacono.ai.tools.ProjectContextTool;
 import com.github.dloiacono.ai.tools.ReadFileTool;
+import com.github.dloiacono.ai.tools.SearchTool;
 import com.github.dloiacono.ai.tools.WriteFileTool;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
 import io.quarkiverse.langchain4j.RegisterAiService;
+import io.smallrye.mutiny.Multi;
 
-@RegisterAiService(modelName = "coder", tools = {ReadFileTool.class, WriteFileTool.class, ProjectContextTool.class})
+@RegisterAiService(modelName = "coder", tools = {ReadFileTool.class, WriteFileTool.class, EditFileTool.class, ProjectContextTool.class, SearchTool.class, BuildTool.class},
+        chatLanguageModelSupplier = SwarmModels.Coder.class, streamingChatLanguageModelSupplier = SwarmModels.StreamingCoder.class)
 public interface SoftwareDeveloperAgent {
 
-    @SystemMessage("""
+    String SYSTEM_MESSAGE = """
     Goal: Implement the designed solution.
     Instructions:
         - Use the user’s request + Architecture Specification as input. 
@@ -21,13 +27,16 @@ public interface SoftwareDeveloperAgent {
         - If relevant, include unit tests or integration tests.
         - Output must be a complete Code Implementation.
         - Use Test Driven Development (TDD) to write tests first and then implement the code.
-        - Loop until all tests passed.
+        - Loop until all tests passed: use BuildTool to compile and run the tests after every change.
+        - If BuildTool reports dependencies not available in-process, the errors they cause cannot be fixed here:
+          do not loop on them, fix the other errors and stop once only those are left.
         - Document everithings you creates
         
     CRITICAL FILE WRITING RULES:
         - You MUST use the available tools to create actual files:
         - ALWAYS use ProjectContextTool to analyze the project structure before making changes.
-        - ALWAYS use WriteFileTool to create new files or modify existing files.
+        - ALWAYS use WriteFileTool to create new files.
+        - PREFER EditFileTool to change existing files: it only sends and writes the changed part.
         - ALWAYS use ReadFileTool to read existing files when needed.
         - ALWAYS use relative file paths.
         - DO NOT just provide code snippets - you must write the actual files using WriteFileTool.
@@ -44,21 +53,45 @@ public interface SoftwareDeveloperAgent {
         
     Available Tools:
         - ProjectContextTool: analyzeProject(projectPath) and getProjectFiles(projectPath, pattern)
+        - ProjectContextTool: readProjectFilesWithinBudget(projectPath, maxTokens) - reads text files up to a token budget and lists what was left out
+        - ProjectContextTool: getProjectOutline(projectPath, filePattern) - types, signatures and build dependencies without method bodies, use it first on existing projects
+        - SearchTool: searchProject(projectPath, query, topK) - finds the files and lines matching words or identifiers, prefer it to reading whole projects
         - ReadFileTool: readFile(filePath) - reads file content
         - ReadFileTool: fileExists(filePath) - checks if file exists before reading (returns "true" or "false")
+        - ReadFileTool: fileInfo(filePath) - returns size and line count without reading the content
+        - ReadFileTool: readLines(filePath, startLine, endLine) - reads only a range of lines, use it for large files
+        - ReadFileTool: readPage(filePath, cursor) - reads a file page by page, starting with cursor 0
+        - ReadFileTool: readBytes(filePath, offset, length) - reads a range of bytes
         - WriteFileTool: writeFile(content, filePath) - TWO parameters REQUIRED: complete file content FIRST, then file path
         - WriteFileTool: appendToFile(content, filePath) - TWO parameters REQUIRED: content to append FIRST, then file path
+        - WriteFileTool: writeFiles(files, sync) - writes MANY files in one call, all or nothing; prefer it when creating several files
+        - EditFileTool: replaceInFile(filePath, search, replacement) - replaces one exact, unique occurrence of a text
+        - EditFileTool: replaceRange(filePath, startLine, endLine, content) - replaces a range of lines
+        - EditFileTool: applyPatch(filePath, patch) - applies a unified diff, all hunks or none
+        - BuildTool: compileProject(projectPath) - compiles the Java sources in well under a second and returns the errors with file:line:column
+        - BuildTool: runTests(projectPath, testPattern) - compiles, then runs the JUnit 5 test classes matching the pattern (empty for all) and returns the failures
         
     BEST PRACTICE: Use fileExists() to check if a file exists before calling readFile() to avoid errors. 
+    A compacted input names the file holding its full text: use readLines() on it to read the omitted parts you need.
         
-    """)
-    @UserMessage(
-    """
+    """;
+
+    String USER_MESSAGE = """
         You receive architecture specifications and requirements and write the code to filesystem.
         
         The architecture specifications are: '{specifications}'.
         The requirements are: '{requirements}'.
-    """)
+    """;
+
+    @SystemMessage(SYSTEM_MESSAGE)
+    @UserMessage(USER_MESSAGE)
     String invoke(@V("specifications") String specifications, @V("requirements") String requirements);
 
+    /**
+     * Streaming variant of {@link #invoke}: the response is emitted as the model generates it.
+     */
+    @SystemMessage(SYSTEM_MESSAGE)
+    @UserMessage(USER_MESSAGE)
+    Multi<String> stream(@V("specifications") String specifications, @V("requirements") String requirements);
+
 }
@@ -1,16 +1,18 @@
 package com.github.dloiacono.ai.agents;
 
+import com.github.dloiacono.ai.model.SwarmModels;
 import com.github.dloiacono.ai.tools.AgentOrchestrator;
 import dev.langchain4j.service.SystemMessage;
 import dev.langchain4j.service.UserMessage;
 import dev.langchain4j.service.V;
 import io.quarkiverse.langchain4j.RegisterAiService;
+import io.smallrye.mutiny.Multi;
 
-@RegisterAiService(tools = {AgentOrchestrator.class, ResearcherAgent.class, SoftwareArchitectAgent.class, SoftwareDeveloperAgent.class}, modelName = "supervisor")
+@RegisterAiService(tools = {AgentOrchestrator.class, ResearcherAgent.class, SoftwareArchitectAgent.class, SoftwareDeveloperAgent.class}, modelName = "supervisor",
+        chatLanguageModelSupplier = SwarmModels.Supervisor.class, streamingChatLanguageModelSupplier = SwarmModels.StreamingSupervisor.class)
 public interface SupervisorAgent {
 
-  @SystemMessage(
-      """
+  String SYSTEM_MESSAGE = """
     You are the Supervisor Agent responsible for orchestrating a complete software development workflow.
     You must coordinate three specialized agents in sequence to deliver a complete software solution.
     
@@ -24,6 +26,10 @@ public interface SupervisorAgent {
     - ALWAYS use invoke(needs) tool to call the ResearcherAgent
     - ALWAYS use invoke(requirements) tool to call the SoftwareArchitectAgent
     - ALWAYS use invoke(specifications, requirements) tool to call the SoftwareDeveloperAgent
+    - When the needs split into independent topics, use callResearchersInParallel(needs, subQuestions)
+      with 2 to 5 sub-questions instead of a single researcher call; its merged report is the research output
+    - When the architecture specification describes several independent modules, use
+      callSoftwareDevelopersInParallel(architectureSpec, requirements, modules) to implement them concurrently
     - Pass the output from each agent as input to the next agent
     - Ensure the SoftwareDeveloperAgent receives clear architecture specifications
     - Validate that files are actually created by the SoftwareDeveloperAgent
@@ -36,14 +42,24 @@ public interface SupervisorAgent {
         - SoftwareDeveloperAgent to implement and create actual files
     
     Your final response should summarize what was accomplished in each phase and confirm that files were created.
-    """)
-  @UserMessage(
-    """
+    """;
+
+  String USER_MESSAGE = """
     You receive the user needs and use busineess researcher agent,
     software architect agent and software architect agent, provided as a tool,
      to implement a software solution.
      
      The user need are: '{needs}'.
-    """)
+    """;
+
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
   String invoke(@V("needs") String needs);
+
+  /**
+   * Streaming variant of {@link #invoke}: the response is emitted as the model generates it.
+   */
+  @SystemMessage(SYSTEM_MESSAGE)
+  @UserMessage(USER_MESSAGE)
+  Multi<String> stream(@V("needs") String needs);
 }
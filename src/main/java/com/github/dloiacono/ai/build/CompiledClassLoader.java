@@ -0,0 +1,83 @@
+package com.github.dloiacono.ai.build;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the classes of a project from memory, before asking its parent, so that they never mix
+ * with the classes of the swarm or of another test run. A new loader is used for every run, and
+ * dropped with it. The resources of the project are read from its resource directories, which may
+ * be in an in-memory workspace, as streams only.
+ */
+final class CompiledClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Map<String, byte[]> classes;
+    private final List<Path> resourceRoots;
+
+    /**
+     * @param classes the compiled classes, by binary name, not changed while the loader is used
+     * @param resourceRoots the resource directories of the project, searched in order
+     * @param parent the loader of the test libraries
+     */
+    CompiledClassLoader(Map<String, byte[]> classes, List<Path> resourceRoots, ClassLoader parent) {
+        super("project", parent);
+        this.classes = classes;
+        this.resourceRoots = resourceRoots;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!classes.containsKey(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                loaded = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = classes.get(name);
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(".class")) {
+            byte[] bytes = classes.get(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+            if (bytes != null) {
+                return new ByteArrayInputStream(bytes);
+            }
+        }
+        for (Path root : resourceRoots) {
+            Path resource = root.resolve(name).normalize();
+            if (resource.startsWith(root) && Files.isRegularFile(resource)) {
+                try {
+                    return Files.newInputStream(resource);
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+}
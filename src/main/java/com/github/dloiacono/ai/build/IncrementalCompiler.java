@@ -0,0 +1,336 @@
+package com.github.dloiacono.ai.build;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the Java sources of one project in memory, recompiling only what changed.
+ * <p>
+ * For every source, the compiler remembers its hash, the classes it declares and the classes it
+ * refers to, as seen by the compiler's attribution. A call recompiles the sources whose hash
+ * changed, the sources that failed to compile last time, and every source referring, directly or
+ * through other recompiled sources, to a class declared by a changed or deleted source. The
+ * classes of the other sources are served from memory. References are taken from the attributed
+ * trees rather than the class files, so uses of inlined constants are tracked too.
+ * <p>
+ * Not thread safe: calls are serialized by {@link ProjectBuild}.
+ */
+final class IncrementalCompiler {
+
+    private final JavaCompiler compiler;
+    private final List<Path> classpath;
+    private final List<String> options;
+
+    /** Compiled classes, by binary name. */
+    private final Map<String, byte[]> classes = new HashMap<>();
+    private final Map<String, SourceState> sources = new HashMap<>();
+
+    /**
+     * What the compiler knows about a source.
+     *
+     * @param hash the hash of the content it was compiled from
+     * @param declared the binary names of the classes it declares
+     * @param referenced the binary names of the classes it refers to
+     * @param failed whether it had errors
+     */
+    private record SourceState(String hash, Set<String> declared, Set<String> referenced, boolean failed) {
+    }
+
+    /**
+     * A source to compile.
+     *
+     * @param relativePath the path relative to the project root, with '/' separators
+     * @param hash the hash of the content
+     * @param content the content, read only when the source is compiled
+     */
+    record Source(String relativePath, String hash, ContentSupplier content) {
+    }
+
+    /**
+     * Reads the content of a source.
+     */
+    @FunctionalInterface
+    interface ContentSupplier {
+
+        String get() throws IOException;
+    }
+
+    /**
+     * The outcome of a compilation.
+     *
+     * @param sources the number of sources of the project
+     * @param changed the sources that changed, were added or failed before
+     * @param dependents the unchanged sources recompiled because they depend on a changed one
+     * @param deleted the number of sources deleted since the last compilation
+     * @param diagnostics the errors and warnings, errors first
+     * @param errors the number of errors
+     */
+    record Outcome(int sources, List<String> changed, List<String> dependents, int deleted,
+                   List<Diagnostic<? extends JavaFileObject>> diagnostics, int errors) {
+    }
+
+    /**
+     * @param classpath the libraries the sources are compiled against
+     * @param options the compiler options
+     */
+    IncrementalCompiler(JavaCompiler compiler, List<Path> classpath, List<String> options) {
+        this.compiler = compiler;
+        this.classpath = classpath;
+        this.options = options;
+    }
+
+    /**
+     * Brings the compiled classes up to date with the sources.
+     *
+     * @param current all the sources of the project
+     */
+    Outcome compile(List<Source> current) throws IOException {
+        Map<String, Source> byPath = new LinkedHashMap<>();
+        current.forEach(source -> byPath.put(source.relativePath(), source));
+
+        List<String> changed = new ArrayList<>();
+        Set<String> dirtyClasses = new HashSet<>();
+        for (Source source : current) {
+            SourceState state = sources.get(source.relativePath());
+            if (state == null || state.failed() || !state.hash().equals(source.hash())) {
+                changed.add(source.relativePath());
+                if (state != null) {
+                    dirtyClasses.addAll(state.declared());
+                }
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, SourceState> entry : sources.entrySet()) {
+            if (!byPath.containsKey(entry.getKey())) {
+                deleted.add(entry.getKey());
+                dirtyClasses.addAll(entry.getValue().declared());
+            }
+        }
+        List<String> dependents = dependents(changed, dirtyClasses);
+        if (changed.isEmpty() && deleted.isEmpty()) {
+            return new Outcome(current.size(), List.of(), List.of(), 0, List.of(), 0);
+        }
+
+        for (String relativePath : deleted) {
+            classes.keySet().removeAll(sources.remove(relativePath).declared());
+        }
+        Set<String> recompiled = new LinkedHashSet<>(changed);
+        recompiled.addAll(dependents);
+        for (String relativePath : recompiled) {
+            SourceState state = sources.get(relativePath);
+            if (state != null) {
+                classes.keySet().removeAll(state.declared());
+            }
+        }
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+        if (!recompiled.isEmpty()) {
+            List<Source> toCompile = new ArrayList<>(recompiled.size());
+            for (String relativePath : recompiled) {
+                toCompile.add(byPath.get(relativePath));
+            }
+            diagnostics = run(toCompile);
+        }
+        int errors = (int) diagnostics.stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).count();
+        return new Outcome(current.size(), changed, dependents, deleted.size(), diagnostics, errors);
+    }
+
+    /**
+     * @return a snapshot of the compiled classes, by binary name
+     */
+    Map<String, byte[]> classes() {
+        return Map.copyOf(classes);
+    }
+
+    /**
+     * @return the binary names of the top level classes declared by the sources matching a filter
+     */
+    List<String> topLevelClasses(Predicate<String> relativePathFilter) {
+        List<String> names = new ArrayList<>();
+        sources.forEach((relativePath, state) -> {
+            if (relativePathFilter.test(relativePath)) {
+                state.declared().stream().filter(name -> name.indexOf('$') < 0).forEach(names::add);
+            }
+        });
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * @return the unchanged sources referring to a dirty class, transitively
+     */
+    private List<String> dependents(List<String> changed, Set<String> dirtyClasses) {
+        List<String> dependents = new ArrayList<>();
+        Set<String> done = new HashSet<>(changed);
+        Deque<String> dirty = new ArrayDeque<>(dirtyClasses);
+        Set<String> seen = new HashSet<>(dirtyClasses);
+        while (!dirty.isEmpty()) {
+            String dirtyClass = dirty.poll();
+            for (Map.Entry<String, SourceState> entry : sources.entrySet()) {
+                if (!done.contains(entry.getKey()) && entry.getValue().referenced().contains(dirtyClass)) {
+                    done.add(entry.getKey());
+                    dependents.add(entry.getKey());
+                    for (String declared : entry.getValue().declared()) {
+                        if (seen.add(declared)) {
+                            dirty.add(declared);
+                        }
+                    }
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private List<Diagnostic<? extends JavaFileObject>> run(List<Source> toCompile) throws IOException {
+        Map<URI, Source> byUri = new LinkedHashMap<>();
+        List<JavaFileObject> files = new ArrayList<>(toCompile.size());
+        for (Source source : toCompile) {
+            String content = source.content().get();
+            URI uri = uri(source.relativePath());
+            byUri.put(uri, source);
+            files.add(new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return content;
+                }
+            });
+        }
+
+        DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+        Map<URI, Set<String>> references = new HashMap<>();
+        try (StandardJavaFileManager standard = compiler.getStandardFileManager(collector, null, StandardCharsets.UTF_8)) {
+            standard.setLocationFromPaths(StandardLocation.CLASS_PATH, classpath);
+            MemoryFileManager fileManager = new MemoryFileManager(standard, classes);
+            JavacTask task = (JavacTask) compiler.getTask(null, fileManager, collector, options, null, files);
+            task.addTaskListener(new ReferenceCollector(Trees.instance(task), task.getElements(), references));
+            boolean succeeded = task.call();
+
+            Map<URI, Set<String>> declared = new HashMap<>();
+            fileManager.sources().forEach((className, source) ->
+                    declared.computeIfAbsent(source.toUri(), uri -> new LinkedHashSet<>()).add(className));
+            if (succeeded) {
+                classes.putAll(fileManager.compiled());
+            }
+            Set<URI> failed = new HashSet<>();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : collector.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic.getSource() != null) {
+                    failed.add(diagnostic.getSource().toUri());
+                }
+            }
+            byUri.forEach((uri, source) -> sources.put(source.relativePath(), new SourceState(source.hash(),
+                    succeeded ? declared.getOrDefault(uri, Set.of()) : Set.of(),
+                    references.getOrDefault(uri, Set.of()),
+                    // Without class files, none of them can be trusted
+                    !succeeded || failed.contains(uri))));
+        }
+
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(collector.getDiagnostics());
+        diagnostics.sort((a, b) -> Boolean.compare(b.getKind() == Diagnostic.Kind.ERROR, a.getKind() == Diagnostic.Kind.ERROR));
+        return diagnostics;
+    }
+
+    /**
+     * @return a URI ending with the file name, which the compiler checks against public class names
+     */
+    static URI uri(String relativePath) {
+        try {
+            return new URI("string", null, "/" + relativePath, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid source path " + relativePath, e);
+        }
+    }
+
+    /**
+     * Collects the classes each compilation unit refers to once it is attributed.
+     */
+    private static final class ReferenceCollector implements TaskListener {
+
+        private final Trees trees;
+        private final Elements elements;
+        private final Map<URI, Set<String>> references;
+        private final Set<URI> scanned = new HashSet<>();
+
+        ReferenceCollector(Trees trees, Elements elements, Map<URI, Set<String>> references) {
+            this.trees = trees;
+            this.elements = elements;
+            this.references = references;
+        }
+
+        @Override
+        public void finished(TaskEvent event) {
+            if (event.getKind() != TaskEvent.Kind.ANALYZE || event.getCompilationUnit() == null) {
+                return;
+            }
+            CompilationUnitTree unit = event.getCompilationUnit();
+            Set<String> referenced = references.computeIfAbsent(unit.getSourceFile().toUri(), uri -> new HashSet<>());
+            TreePathScanner<Void, Void> scanner = new TreePathScanner<>() {
+
+                @Override
+                public Void visitIdentifier(IdentifierTree node, Void unused) {
+                    add(trees.getElement(getCurrentPath()));
+                    return super.visitIdentifier(node, unused);
+                }
+
+                @Override
+                public Void visitMemberSelect(MemberSelectTree node, Void unused) {
+                    add(trees.getElement(getCurrentPath()));
+                    return super.visitMemberSelect(node, unused);
+                }
+
+                private void add(Element element) {
+                    // A member refers to its class, which is what a changed constant or signature affects
+                    while (element != null && !(element instanceof TypeElement)) {
+                        element = element.getEnclosingElement();
+                    }
+                    if (element != null) {
+                        referenced.add(elements.getBinaryName((TypeElement) element).toString());
+                    }
+                }
+            };
+            // Imports are attributed with the first class of the unit, and refer to classes as well
+            if (scanned.add(unit.getSourceFile().toUri())) {
+                for (ImportTree importTree : unit.getImports()) {
+                    scanner.scan(new TreePath(new TreePath(unit), importTree), null);
+                }
+            }
+            if (event.getTypeElement() != null) {
+                scanner.scan(trees.getPath(event.getTypeElement()), null);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.dloiacono.ai.build;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A file manager keeping class files in memory: the classes compiled before are found on the
+ * class path next to the libraries, and the classes being compiled are written to a map instead
+ * of the disk.
+ */
+final class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+    private final Map<String, byte[]> classes;
+    private final Map<String, byte[]> compiled = new LinkedHashMap<>();
+    private final Map<String, JavaFileObject> sources = new LinkedHashMap<>();
+
+    /**
+     * @param classes the previously compiled classes, by binary name
+     */
+    MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classes) {
+        super(fileManager);
+        this.classes = classes;
+    }
+
+    /**
+     * @return the classes written by the compilation, by binary name
+     */
+    Map<String, byte[]> compiled() {
+        return compiled;
+    }
+
+    /**
+     * @return the source each class written by the compilation was compiled from, by binary name
+     */
+    Map<String, JavaFileObject> sources() {
+        return sources;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                         boolean recurse) throws IOException {
+        Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS)) {
+            return listed;
+        }
+        List<JavaFileObject> files = new ArrayList<>();
+        listed.forEach(files::add);
+        String prefix = packageName.isEmpty() ? "" : packageName + ".";
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = entry.getKey();
+            if (name.startsWith(prefix) && (recurse || name.indexOf('.', prefix.length()) < 0)) {
+                files.add(new ClassFile(name, entry.getValue()));
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        return file instanceof ClassFile classFile ? classFile.binaryName : super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                               FileObject sibling) throws IOException {
+        if (kind != JavaFileObject.Kind.CLASS) {
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+        sources.put(className, (JavaFileObject) sibling);
+        return new ClassFile(className, null) {
+            @Override
+            public OutputStream openOutputStream() {
+                return new ByteArrayOutputStream() {
+                    @Override
+                    public void close() {
+                        compiled.put(className, toByteArray());
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * A class file held in memory.
+     */
+    private static class ClassFile extends SimpleJavaFileObject {
+
+        private final String binaryName;
+        private final byte[] bytes;
+
+        ClassFile(String binaryName, byte[] bytes) {
+            super(URI.create("memory:///" + binaryName.replace('.', '/') + ".class"), Kind.CLASS);
+            this.binaryName = binaryName;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.github.dloiacono.ai.build;
+
+import com.github.dloiacono.ai.project.ProjectIndex;
+import com.github.dloiacono.ai.project.WorkspaceClosedEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles projects and runs their tests in the swarm's own JVM, so that an agent can check its
+ * code in well under a second instead of starting a build.
+ * <p>
+ * Each project keeps an {@link IncrementalCompiler} fed from the {@link ProjectIndex}, which only
+ * recompiles the sources that changed and the sources depending on them. Main and test sources
+ * are compiled together against the JDK, the JUnit and Quarkus REST API libraries of the swarm
+ * and the jars of {@code swarm.build.classpath}; projects needing other libraries get the
+ * compiler's errors, with the packages missing from the class path named as such. Tests
+ * run on the JUnit Platform in a class loader of their own, dropped after the run. They are not
+ * sandboxed: they run in the swarm's JVM, with its permissions.
+ */
+@ApplicationScoped
+public class ProjectBuild {
+
+    private static final Logger LOG = Logger.getLogger(ProjectBuild.class);
+
+    /**
+     * Classes of the libraries projects are compiled against, found in the swarm's class path: JUnit
+     * 5, and the APIs of a Quarkus REST service the swarm itself is built on.
+     */
+    private static final List<String> LIBRARY_CLASSES = List.of(
+            "org.junit.jupiter.api.Test",
+            "org.junit.platform.commons.annotation.Testable",
+            "org.opentest4j.AssertionFailedError",
+            "org.apiguardian.api.API",
+            "jakarta.ws.rs.Path",
+            "jakarta.enterprise.context.ApplicationScoped",
+            "jakarta.inject.Inject",
+            "jakarta.annotation.PostConstruct",
+            "org.eclipse.microprofile.config.inject.ConfigProperty",
+            "com.fasterxml.jackson.annotation.JsonProperty",
+            "com.fasterxml.jackson.databind.ObjectMapper",
+            "io.quarkus.runtime.Quarkus");
+
+    /** A compiler error for an import of a package the class path lacks. */
+    private static final String MISSING_PACKAGE = "compiler.err.doesnt.exist";
+    private static final Pattern PACKAGE = Pattern.compile("package (\\S+) does not exist");
+
+    @ConfigProperty(name = "swarm.build.classpath")
+    Optional<List<String>> extraClasspath;
+
+    @ConfigProperty(name = "swarm.build.release", defaultValue = "21")
+    String release;
+
+    @ConfigProperty(name = "swarm.build.test-timeout", defaultValue = "60s")
+    Duration testTimeout;
+
+    @ConfigProperty(name = "swarm.build.test-method-timeout", defaultValue = "10s")
+    Duration testMethodTimeout;
+
+    @ConfigProperty(name = "swarm.build.max-diagnostics", defaultValue = "20")
+    int maxDiagnostics;
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    private final Map<Path, IncrementalCompiler> compilers = new ConcurrentHashMap<>();
+    private volatile List<Path> classpath;
+
+    /**
+     * The outcome of compiling a project.
+     *
+     * @param outcome the outcome, or null if no compiler is available
+     * @param elapsed the time the compilation took
+     */
+    public record CompileReport(IncrementalCompiler.Outcome outcome, Duration elapsed, int maxDiagnostics) {
+
+        public boolean succeeded() {
+            return outcome != null && outcome.errors() == 0;
+        }
+
+        public String format() {
+            if (outcome == null) {
+                return "Error: No Java compiler available, the swarm runs on a JRE";
+            }
+            int recompiled = outcome.changed().size() + outcome.dependents().size();
+            StringBuilder result = new StringBuilder();
+            if (recompiled == 0 && outcome.deleted() == 0) {
+                result.append("Up to date: ").append(outcome.sources()).append(" sources compiled\n");
+                return result.toString();
+            }
+            long warnings = outcome.diagnostics().size() - outcome.errors();
+            result.append("Compiled ").append(recompiled).append(" of ").append(outcome.sources())
+                    .append(" sources (").append(outcome.changed().size()).append(" changed, ")
+                    .append(outcome.dependents().size()).append(" dependent, ")
+                    .append(outcome.deleted()).append(" deleted) in ").append(elapsed.toMillis()).append(" ms: ")
+                    .append(outcome.errors() == 0 ? "OK" : outcome.errors() + " errors");
+            if (warnings > 0) {
+                result.append(", ").append(warnings).append(" warnings");
+            }
+            result.append('\n');
+            Set<String> missing = missingPackages();
+            if (!missing.isEmpty()) {
+                result.append("Dependencies not available in-process: ").append(String.join(", ", missing))
+                        .append(". The in-process build only has the JDK, JUnit 5, the Jakarta REST, CDI and")
+                        .append(" MicroProfile Config APIs, Jackson and Quarkus core; the errors these packages cause")
+                        .append(" cannot be fixed by changing the code, do not loop on them.\n");
+            }
+            List<Diagnostic<? extends JavaFileObject>> diagnostics = outcome.diagnostics();
+            int shown = Math.min(diagnostics.size(), maxDiagnostics);
+            for (int i = 0; i < shown; i++) {
+                appendDiagnostic(result, diagnostics.get(i));
+            }
+            if (diagnostics.size() > shown) {
+                result.append("... ").append(diagnostics.size() - shown).append(" more\n");
+            }
+            return result.toString();
+        }
+
+        /**
+         * @return the packages imported by the sources that are not on the in-process class path
+         */
+        public Set<String> missingPackages() {
+            Set<String> packages = new TreeSet<>();
+            if (outcome == null) {
+                return packages;
+            }
+            for (Diagnostic<? extends JavaFileObject> diagnostic : outcome.diagnostics()) {
+                if (MISSING_PACKAGE.equals(diagnostic.getCode())) {
+                    Matcher matcher = PACKAGE.matcher(diagnostic.getMessage(Locale.ROOT));
+                    if (matcher.find()) {
+                        packages.add(matcher.group(1));
+                    }
+                }
+            }
+            return packages;
+        }
+
+        private static void appendDiagnostic(StringBuilder result, Diagnostic<? extends JavaFileObject> diagnostic) {
+            if (diagnostic.getSource() != null) {
+                result.append(diagnostic.getSource().toUri().getPath().substring(1));
+                if (diagnostic.getLineNumber() != Diagnostic.NOPOS) {
+                    result.append(':').append(diagnostic.getLineNumber())
+                            .append(':').append(diagnostic.getColumnNumber());
+                }
+                result.append(": ");
+            }
+            result.append(diagnostic.getKind().toString().toLowerCase(Locale.ROOT)).append(": ");
+            // The message details the symbol on the next lines, the source line itself is left out
+            String[] lines = diagnostic.getMessage(Locale.ROOT).split("\n");
+            result.append(lines[0]).append('\n');
+            for (int i = 1; i < Math.min(lines.length, 3); i++) {
+                result.append("    ").append(lines[i].strip()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * The outcome of running the tests of a project.
+     *
+     * @param compile the compilation the tests ran on
+     * @param tests the outcome of the tests, or null if the compilation failed or no class matched
+     * @param pattern the pattern the test classes were selected with
+     */
+    public record TestReport(CompileReport compile, TestRunner.Outcome tests, String pattern) {
+
+        public boolean succeeded() {
+            return compile.succeeded() && tests != null && tests.failed() == 0 && !tests.timedOut();
+        }
+
+        public String format() {
+            if (!compile.succeeded()) {
+                return compile.format();
+            }
+            if (tests == null) {
+                return compile.format() + "No test class matches '" + pattern + "'\n";
+            }
+            StringBuilder result = new StringBuilder(compile.format());
+            int run = tests.succeeded() + tests.failed();
+            result.append("Tests: ").append(run).append(" run, ").append(tests.succeeded()).append(" passed, ")
+                    .append(tests.failed()).append(" failed, ").append(tests.skipped()).append(" skipped in ")
+                    .append(tests.classes()).append(" classes, ").append(tests.elapsed().toMillis()).append(" ms\n");
+            if (tests.timedOut()) {
+                result.append("TIMED OUT: the tests did not finish, the results are partial\n");
+            }
+            if (tests.threadsLeft() > 0) {
+                result.append("WARNING: ").append(tests.threadsLeft())
+                        .append(" test threads are still running, such as timed out tests that ignore interrupts\n");
+            }
+            int shown = Math.min(tests.failures().size(), compile.maxDiagnostics());
+            for (int i = 0; i < shown; i++) {
+                TestRunner.Failure failure = tests.failures().get(i);
+                result.append("FAILED ").append(failure.test()).append(": ").append(failure.message().strip()).append('\n');
+                if (!failure.location().isEmpty()) {
+                    result.append("    at ").append(failure.location()).append('\n');
+                }
+            }
+            if (tests.failures().size() > shown) {
+                result.append("... ").append(tests.failures().size() - shown).append(" more\n");
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Brings the compiled classes of a project up to date with its sources.
+     *
+     * @param root the project directory
+     */
+    public CompileReport compile(Path root) throws IOException {
+        long start = System.nanoTime();
+        IncrementalCompiler compiler = compiler(root);
+        if (compiler == null) {
+            return new CompileReport(null, Duration.ZERO, maxDiagnostics);
+        }
+        IncrementalCompiler.Outcome outcome;
+        synchronized (compiler) {
+            outcome = compiler.compile(sources(root));
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        LOG.debugf("Compiled %d of %d sources of %s in %d ms, %d errors",
+                outcome.changed().size() + outcome.dependents().size(), outcome.sources(), root,
+                elapsed.toMillis(), outcome.errors());
+        return new CompileReport(outcome, elapsed, maxDiagnostics);
+    }
+
+    /**
+     * Compiles a project, then runs its test classes matching a pattern.
+     *
+     * @param root the project directory
+     * @param pattern a glob on the simple or qualified names of the test classes, blank for all
+     */
+    public TestReport test(Path root, String pattern) throws IOException, InterruptedException {
+        CompileReport compile = compile(root);
+        String glob = pattern == null || pattern.isBlank() ? "*" : pattern.strip();
+        if (!compile.succeeded()) {
+            return new TestReport(compile, null, glob);
+        }
+        IncrementalCompiler compiler = compiler(root);
+        List<String> testClasses;
+        Map<String, byte[]> classes;
+        synchronized (compiler) {
+            testClasses = compiler.topLevelClasses(ProjectBuild::isTestSource);
+            classes = compiler.classes();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        testClasses = testClasses.stream()
+                .filter(name -> matcher.matches(Path.of(name)) || matcher.matches(Path.of(simpleName(name))))
+                .toList();
+        if (testClasses.isEmpty()) {
+            return new TestReport(compile, null, glob);
+        }
+        TestRunner.Outcome tests = TestRunner.run(classes, resourceRoots(root), testClasses, testTimeout,
+                testMethodTimeout);
+        LOG.debugf("Ran %d test classes of %s: %d passed, %d failed", testClasses.size(), root,
+                tests.succeeded(), tests.failed());
+        return new TestReport(compile, tests, glob);
+    }
+
+    void onWorkspaceClosed(@Observes WorkspaceClosedEvent event) {
+        compilers.keySet().removeIf(root -> root.startsWith(event.root()));
+    }
+
+    private IncrementalCompiler compiler(Path root) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return null;
+        }
+        return compilers.computeIfAbsent(root.toAbsolutePath().normalize(), key -> new IncrementalCompiler(javac,
+                classpath(), List.of("-proc:none", "-g", "-parameters", "--release", release)));
+    }
+
+    private List<IncrementalCompiler.Source> sources(Path root) {
+        List<IncrementalCompiler.Source> sources = new ArrayList<>();
+        for (ProjectIndex.Entry entry : projectIndex.find(root, "*.java")) {
+            if (!entry.binary()) {
+                sources.add(new IncrementalCompiler.Source(entry.relativePath(), entry.hash(),
+                        () -> projectIndex.content(root, entry)));
+            }
+        }
+        return sources;
+    }
+
+    private List<Path> classpath() {
+        List<Path> result = classpath;
+        if (result == null) {
+            List<Path> jars = new ArrayList<>();
+            for (String className : LIBRARY_CLASSES) {
+                try {
+                    Path jar = Path.of(Class.forName(className).getProtectionDomain().getCodeSource().getLocation().toURI());
+                    if (!jars.contains(jar)) {
+                        jars.add(jar);
+                    }
+                } catch (Exception e) {
+                    LOG.debugf("Library class %s not found for compiling projects: %s", className, e.getMessage());
+                }
+            }
+            extraClasspath.ifPresent(entries -> entries.forEach(entry -> jars.add(Path.of(entry))));
+            result = List.copyOf(jars);
+            classpath = result;
+        }
+        return result;
+    }
+
+    private static List<Path> resourceRoots(Path root) {
+        List<Path> roots = new ArrayList<>();
+        for (String directory : List.of("src/test/resources", "src/main/resources")) {
+            Path resources = root.resolve(directory).toAbsolutePath().normalize();
+            if (Files.isDirectory(resources)) {
+                roots.add(resources);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * @return whether a source holds tests: under a {@code src/test} directory, or named like a test
+     */
+    static boolean isTestSource(String relativePath) {
+        String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        return relativePath.startsWith("src/test/") || relativePath.contains("/src/test/")
+                || fileName.endsWith("Test.java") || fileName.endsWith("Tests.java");
+    }
+
+    private static String simpleName(String binaryName) {
+        return binaryName.substring(binaryName.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.dloiacono.ai.build;
+
+import org.junit.platform.engine.DiscoverySelector;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.discovery.DiscoverySelectors;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs JUnit tests on compiled classes through the JUnit Platform launcher, in a
+ * {@link CompiledClassLoader} of their own.
+ * <p>
+ * Tests are not sandboxed: they run in the swarm's JVM, with its permissions. Each test method
+ * runs on a thread of its own, abandoned when it exceeds the method timeout so that the other
+ * tests still run; the whole run is abandoned after the run timeout. Java cannot stop a thread,
+ * so an abandoned test that neither waits nor sleeps keeps running: the outcome counts the test
+ * threads still alive once the run is over.
+ */
+final class TestRunner {
+
+    private static final String TIMEOUT = "junit.jupiter.execution.timeout.default";
+    private static final String TIMEOUT_THREAD_MODE = "junit.jupiter.execution.timeout.thread.mode.default";
+
+    private TestRunner() {
+    }
+
+    /**
+     * A failed test, or a failed class when its setup failed.
+     *
+     * @param test the class and display name of the test
+     * @param message the message of the exception
+     * @param location the deepest frame of the project's classes, or of the exception if there is none
+     */
+    record Failure(String test, String message, String location) {
+    }
+
+    /**
+     * @param classes the number of test classes run
+     * @param succeeded the tests that passed
+     * @param failed the tests that failed, including failed classes
+     * @param skipped the disabled and aborted tests
+     * @param timedOut whether the tests were abandoned after the run timeout
+     * @param threadsLeft the threads of the tests still running after the run, such as abandoned tests
+     * @param elapsed the time the tests ran
+     */
+    record Outcome(int classes, int succeeded, int failed, int skipped, List<Failure> failures, boolean timedOut,
+                   int threadsLeft, Duration elapsed) {
+    }
+
+    /**
+     * @param classes the compiled classes of the project, by binary name
+     * @param resourceRoots the resource directories of the project
+     * @param testClasses the binary names of the classes to run
+     * @param timeout the time after which the whole run is abandoned
+     * @param methodTimeout the time after which a test method is abandoned and fails
+     */
+    static Outcome run(Map<String, byte[]> classes, List<Path> resourceRoots, List<String> testClasses,
+                       Duration timeout, Duration methodTimeout) throws InterruptedException {
+        CompiledClassLoader loader = new CompiledClassLoader(classes, resourceRoots, TestRunner.class.getClassLoader());
+        Listener listener = new Listener(classes);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long start = System.nanoTime();
+        Thread thread = Thread.ofPlatform().daemon().name("junit-" + Integer.toHexString(loader.hashCode()))
+                .unstarted(() -> {
+                    try {
+                        List<DiscoverySelector> selectors = new ArrayList<>(testClasses.size());
+                        for (String testClass : testClasses) {
+                            selectors.add(DiscoverySelectors.selectClass(loader.loadClass(testClass)));
+                        }
+                        LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder.request()
+                                .selectors(selectors)
+                                .configurationParameter(TIMEOUT, methodTimeout.toMillis() + " ms")
+                                .configurationParameter(TIMEOUT_THREAD_MODE, "SEPARATE_THREAD")
+                                .build();
+                        Launcher launcher = LauncherFactory.create();
+                        launcher.execute(request, listener);
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                });
+        thread.setContextClassLoader(loader);
+        thread.start();
+        thread.join(timeout);
+        boolean timedOut = thread.isAlive();
+        if (timedOut) {
+            thread.interrupt();
+        }
+        if (error.get() != null) {
+            listener.failed("(loading the tests)", error.get());
+        }
+        return new Outcome(testClasses.size(), listener.succeeded, listener.failed, listener.skipped,
+                List.copyOf(listener.failures), timedOut, threadsLeft(loader),
+                Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * @return the live platform threads started by the tests, which inherited their class loader
+     */
+    private static int threadsLeft(ClassLoader loader) {
+        int threads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getContextClassLoader() == loader) {
+                threads++;
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * Counts the tests as they finish. Read once the run is over or abandoned.
+     */
+    private static final class Listener implements TestExecutionListener {
+
+        private final Map<String, byte[]> projectClasses;
+        private final List<Failure> failures = new ArrayList<>();
+        private TestPlan plan;
+        private volatile int succeeded;
+        private volatile int failed;
+        private volatile int skipped;
+
+        Listener(Map<String, byte[]> projectClasses) {
+            this.projectClasses = projectClasses;
+        }
+
+        @Override
+        public void testPlanExecutionStarted(TestPlan testPlan) {
+            this.plan = testPlan;
+        }
+
+        @Override
+        public synchronized void executionSkipped(TestIdentifier identifier, String reason) {
+            if (identifier.isTest()) {
+                skipped++;
+            }
+        }
+
+        @Override
+        public synchronized void executionFinished(TestIdentifier identifier, TestExecutionResult result) {
+            switch (result.getStatus()) {
+                case SUCCESSFUL -> {
+                    if (identifier.isTest()) {
+                        succeeded++;
+                    }
+                }
+                case ABORTED -> {
+                    if (identifier.isTest()) {
+                        skipped++;
+                    }
+                }
+                case FAILED -> failed(name(identifier), result.getThrowable().orElse(null));
+            }
+        }
+
+        synchronized void failed(String test, Throwable error) {
+            failed++;
+            if (error == null) {
+                failures.add(new Failure(test, "failed", ""));
+                return;
+            }
+            StackTraceElement location = null;
+            for (StackTraceElement frame : error.getStackTrace()) {
+                if (projectClasses.containsKey(frame.getClassName())) {
+                    location = frame;
+                    break;
+                }
+            }
+            if (location == null && error.getStackTrace().length > 0) {
+                location = error.getStackTrace()[0];
+            }
+            String message = error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+            if (!(error instanceof AssertionError)) {
+                message = error.getClass().getSimpleName() + ": " + message;
+            }
+            failures.add(new Failure(test, message, location == null ? "" : location.getClassName() + "."
+                    + location.getMethodName() + "(" + location.getFileName() + ":" + location.getLineNumber() + ")"));
+        }
+
+        private String name(TestIdentifier identifier) {
+            if (plan == null || !identifier.isTest()) {
+                return identifier.getDisplayName();
+            }
+            String parent = plan.getParent(identifier).map(TestIdentifier::getDisplayName).orElse("");
+            return parent.isEmpty() ? identifier.getDisplayName() : parent + " > " + identifier.getDisplayName();
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.github.dloiacono.ai.cache;
+
+import com.github.dloiacono.ai.model.SwarmModels;
+import com.github.dloiacono.ai.project.ProjectIndex;
+import com.github.dloiacono.ai.replay.RunLog;
+import com.github.dloiacono.ai.replay.RunReplay;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.service.SystemMessage;
+import dev.langchain4j.service.UserMessage;
+import io.quarkiverse.langchain4j.RegisterAiService;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed, disk-backed cache of agent responses.
+ * <p>
+ * The key of a call is the SHA-256 of the model name, the system message, the rendered user
+ * message and the tool set of the agent, so re-running the same request skips the model entirely.
+ * Because agents also act through their tools, an entry keeps the content of the files the call
+ * wrote, so a hit can restore them as well as return the response. Since those files depend on
+ * what the agent read, the key also covers the path and hash of every file of the run's workspace,
+ * as seen by the {@link ProjectIndex}: a project changed since the entry was stored misses the
+ * cache instead of having its files overwritten with the old results. Runs that are not
+ * {@linkplain RunContext#persistent() persistent}, such as load test runs, bypass the cache.
+ */
+@ApplicationScoped
+public class AgentResponseCache {
+
+    private static final Logger LOG = Logger.getLogger(AgentResponseCache.class);
+
+    private static final int MAGIC = 0x53574152; // "SWAR"
+
+    @Inject
+    SwarmModels swarmModels;
+
+    @Inject
+    RunLog runLog;
+
+    @Inject
+    RunReplay runReplay;
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    @ConfigProperty(name = "swarm.response-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.response-cache.directory", defaultValue = "target/agent-cache")
+    String directory;
+
+    @ConfigProperty(name = "swarm.response-cache.ttl", defaultValue = "168h")
+    Duration ttl;
+
+    @ConfigProperty(name = "swarm.response-cache.max-bytes", defaultValue = "268435456")
+    long maxBytes;
+
+    @ConfigProperty(name = "swarm.response-cache.disabled-agents")
+    Optional<List<String>> disabledAgents;
+
+    private final AtomicLong cachedBytes = new AtomicLong(-1);
+
+    /**
+     * A cached agent response.
+     *
+     * @param response the text returned by the agent
+     * @param files the files the agent wrote, by path, with their content at the end of the call
+     */
+    public record CachedResponse(String response, Map<String, String> files) {
+    }
+
+    /**
+     * Computes the cache key of an agent call.
+     *
+     * @param agent the {@link RegisterAiService} interface of the agent
+     * @param variables the values of the {@code @V} parameters of its {@code invoke} method
+     * @return the key, or empty if caching is disabled for this agent
+     */
+    public Optional<String> key(Class<?> agent, Map<String, String> variables) {
+        RegisterAiService service = agent.getAnnotation(RegisterAiService.class);
+        if (!enabled || service == null || disabledAgents.orElse(List.of()).contains(service.modelName())) {
+            return Optional.empty();
+        }
+        if (!RunContext.current().persistent()) {
+            return Optional.empty();
+        }
+        if (runLog.recording() || runReplay.enabled()) {
+            // Recorded runs must reach the models, and replayed runs the recorded responses
+            return Optional.empty();
+        }
+        Method method = Arrays.stream(agent.getMethods())
+                .filter(m -> m.isAnnotationPresent(UserMessage.class))
+                .findFirst()
+                .orElse(null);
+        if (method == null) {
+            return Optional.empty();
+        }
+
+        String userMessage = String.join("\n", method.getAnnotation(UserMessage.class).value());
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            userMessage = userMessage.replace("{" + variable.getKey() + "}", String.valueOf(variable.getValue()));
+        }
+        SystemMessage systemMessage = method.getAnnotation(SystemMessage.class);
+        List<String> tools = Arrays.stream(service.tools()).map(Class::getName).sorted().toList();
+
+        MessageDigest digest = sha256();
+        for (String part : List.of(modelName(service.modelName()),
+                systemMessage == null ? "" : String.join("\n", systemMessage.value()),
+                userMessage,
+                String.join(",", tools))) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        for (ProjectIndex.Entry file : projectIndex.entries(RunContext.current().workspace().root())) {
+            digest.update(file.relativePath().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(file.hash().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return Optional.of(HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Looks up a response.
+     *
+     * @param key the key returned by {@link #key(Class, Map)}
+     * @return the cached response, unless missing or expired
+     */
+    public Optional<CachedResponse> get(String key) {
+        Path entry = entry(key);
+        try {
+            if (!Files.isRegularFile(entry)) {
+                return Optional.empty();
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+                if (in.readInt() != MAGIC) {
+                    return Optional.empty();
+                }
+                if (System.currentTimeMillis() - in.readLong() <= ttl.toMillis()) {
+                    String response = readString(in);
+                    int fileCount = in.readInt();
+                    Map<String, String> files = new LinkedHashMap<>();
+                    for (int i = 0; i < fileCount; i++) {
+                        files.put(readString(in), readString(in));
+                    }
+                    return Optional.of(new CachedResponse(response, files));
+                }
+            }
+            // Expired
+            delete(entry);
+            return Optional.empty();
+        } catch (IOException e) {
+            LOG.warnf("Ignoring unreadable agent cache entry %s: %s", entry, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a response together with the current content of the files the call wrote.
+     *
+     * @param key the key returned by {@link #key(Class, Map)}
+     * @param response the text returned by the agent
+     * @param writtenFiles the absolute paths of the files written during the call
+     */
+    public void put(String key, String response, Collection<Path> writtenFiles) {
+        Path entry = entry(key);
+        RunContext run = RunContext.current();
+        try {
+            Files.createDirectories(entry.getParent());
+            Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeLong(System.currentTimeMillis());
+                writeString(out, response);
+                List<Path> files = writtenFiles.stream().filter(Files::isRegularFile).sorted().toList();
+                out.writeInt(files.size());
+                for (Path file : files) {
+                    // Files in the workspace are stored relative to it, like the tools' paths
+                    writeString(out, run.relativize(file));
+                    writeString(out, Files.readString(file));
+                }
+            }
+            long size = Files.size(temp);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // The first store measures the directory; later ones only track what they add
+            if (cachedBytes.get() < 0 || cachedBytes.addAndGet(size) > maxBytes) {
+                evict();
+            }
+        } catch (IOException e) {
+            LOG.warnf("Could not store agent cache entry %s: %s", entry, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes expired entries, then the oldest ones until the cache is under its size limit.
+     */
+    private synchronized void evict() throws IOException {
+        Path root = Paths.get(directory);
+        List<Path> entries;
+        try (Stream<Path> list = Files.list(root)) {
+            entries = new ArrayList<>(list.filter(p -> p.toString().endsWith(".entry")).toList());
+        }
+        entries.sort(Comparator.comparingLong(AgentResponseCache::lastModified));
+
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (Path entry : entries) {
+            total += sizeOf(entry);
+        }
+        for (Path entry : entries) {
+            if (total <= maxBytes && now - lastModified(entry) <= ttl.toMillis()) {
+                break;
+            }
+            total -= sizeOf(entry);
+            delete(entry);
+        }
+        cachedBytes.set(total);
+    }
+
+    private Path entry(String key) {
+        return Paths.get(directory).resolve(key + ".entry");
+    }
+
+    private String modelName(String configName) {
+        if (swarmModels.isLocal(configName)) {
+            // Never mixed up with the responses of the configured model
+            return "local:" + configName + ":" + ConfigProvider.getConfig()
+                    .getOptionalValue("swarm.local-model." + configName + ".script", String.class)
+                    .orElse("bundled");
+        }
+        String provider = ConfigProvider.getConfig()
+                .getOptionalValue("quarkus.langchain4j." + configName + ".chat-model.provider", String.class)
+                .orElse("default");
+        return provider + ":" + ConfigProvider.getConfig()
+                .getOptionalValue("quarkus.langchain4j." + provider + "." + configName + ".chat-model.model-name", String.class)
+                .orElse(configName);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Deleted concurrently, or will be retried by the next eviction
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
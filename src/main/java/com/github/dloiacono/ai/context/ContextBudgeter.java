@@ -0,0 +1,323 @@
+package com.github.dloiacono.ai.context;
+
+import com.github.dloiacono.ai.run.RunContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the payloads handed from one agent to the next within a token budget.
+ * <p>
+ * A payload over the budget of its receiving agent is compacted in three passes, each one only
+ * run if the previous one was not enough:
+ * <ol>
+ *     <li>sections repeating an earlier section are replaced by a pointer to it;</li>
+ *     <li>long fenced code blocks are replaced by a reference to their lines;</li>
+ *     <li>the largest sections are condensed to their first paragraph, with a reference to the
+ *     rest.</li>
+ * </ol>
+ * Nothing is dropped silently: the full payload is written to a file of the run's workspace and
+ * every omission says which lines of that file it stands for, so the agent can read them back.
+ * A payload still over budget after the three passes is passed on as compacted as it got.
+ * <p>
+ * Tokens are estimated at four characters each, the models' tokenizers not being available
+ * locally.
+ */
+@ApplicationScoped
+public class ContextBudgeter {
+
+    private static final Logger LOG = Logger.getLogger(ContextBudgeter.class);
+
+    /** Rough number of characters per model token. */
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /** Sections shorter than this are never worth deduplicating or condensing. */
+    private static final int MIN_SECTION_CHARS = 200;
+
+    @ConfigProperty(name = "swarm.context-budget.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.context-budget.max-tokens", defaultValue = "12000")
+    int defaultMaxTokens;
+
+    @ConfigProperty(name = "swarm.context-budget.directory", defaultValue = ".swarm/context")
+    String directory;
+
+    @ConfigProperty(name = "swarm.context-budget.min-code-block-lines", defaultValue = "30")
+    int minCodeBlockLines;
+
+    /**
+     * @return the approximate number of tokens of a text
+     */
+    public static int estimateTokens(CharSequence text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * @param agent the model name of the receiving agent
+     * @return the token budget of the agent's input payloads, {@code swarm.context-budget.<agent>.max-tokens}
+     *         or the default one
+     */
+    public int budgetOf(String agent) {
+        return ConfigProvider.getConfig()
+                .getOptionalValue("swarm.context-budget." + agent + ".max-tokens", Integer.class)
+                .orElse(defaultMaxTokens);
+    }
+
+    /**
+     * Fits a payload in the budget of the agent receiving it.
+     *
+     * @param agent the model name of the receiving agent
+     * @param label what the payload is, such as {@code requirements}, used to name the full copy
+     * @param payload the payload
+     * @return the payload, compacted if it was over budget
+     */
+    public String fit(String agent, String label, String payload) {
+        return fit(agent, label, payload, 0);
+    }
+
+    /**
+     * Fits a payload in what is left of the budget of the agent receiving it once its other
+     * inputs are accounted for.
+     *
+     * @param reservedTokens the tokens already taken by the agent's other inputs
+     */
+    public String fit(String agent, String label, String payload, int reservedTokens) {
+        if (!enabled || payload == null) {
+            return payload;
+        }
+        int budget = Math.max(0, budgetOf(agent) - reservedTokens);
+        int tokens = estimateTokens(payload);
+        if (tokens <= budget) {
+            return payload;
+        }
+
+        String reference;
+        try {
+            reference = saveFullCopy(agent, label, payload);
+        } catch (IOException e) {
+            LOG.warnf(e, "Could not save the full %s for %s, passing it uncompacted (~%d tokens)", label, agent, tokens);
+            return payload;
+        }
+
+        List<Section> sections = Section.parse(payload);
+        int size = payload.length();
+        size -= deduplicate(sections);
+        if (size > budget * CHARS_PER_TOKEN) {
+            size -= omitCodeBlocks(sections, reference);
+        }
+        if (size > budget * CHARS_PER_TOKEN) {
+            condense(sections, reference, size - budget * CHARS_PER_TOKEN);
+        }
+
+        StringBuilder compacted = new StringBuilder();
+        for (Section section : sections) {
+            compacted.append(section.text);
+        }
+        String header = "[Compacted from ~" + tokens + " tokens to fit the context budget. The full text is in "
+                + reference + ": read the omitted lines from it when you need them.]\n\n";
+        String result = header + compacted;
+        int compactedTokens = estimateTokens(result);
+        if (compactedTokens > budget) {
+            LOG.warnf("%s for %s is still ~%d tokens after compaction, over its budget of %d",
+                    label, agent, compactedTokens, budget);
+        } else {
+            LOG.infof("Compacted %s for %s from ~%d to ~%d tokens", label, agent, tokens, compactedTokens);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the sections repeating an earlier one.
+     *
+     * @return the number of characters saved
+     */
+    private static int deduplicate(List<Section> sections) {
+        Map<String, Section> seen = new HashMap<>();
+        int saved = 0;
+        for (Section section : sections) {
+            if (section.text.length() < MIN_SECTION_CHARS) {
+                continue;
+            }
+            String normalized = section.body().replaceAll("\\s+", " ").strip();
+            Section first = seen.putIfAbsent(normalized, section);
+            if (first != null) {
+                saved += section.replaceBody("(Same content as the section starting at line " + first.firstLine
+                        + " above, omitted.)\n\n");
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Replaces the fenced code blocks of at least {@link #minCodeBlockLines} lines.
+     *
+     * @return the number of characters saved
+     */
+    private int omitCodeBlocks(List<Section> sections, String reference) {
+        int saved = 0;
+        for (Section section : sections) {
+            String[] lines = section.text.split("\n", -1);
+            StringBuilder kept = new StringBuilder();
+            int fenceStart = -1;
+            for (int i = 0; i < lines.length; i++) {
+                boolean fence = lines[i].strip().startsWith("```");
+                if (fenceStart < 0) {
+                    if (fence) {
+                        fenceStart = i;
+                    } else {
+                        kept.append(lines[i]).append(i < lines.length - 1 ? "\n" : "");
+                    }
+                } else if (fence || i == lines.length - 1) {
+                    int blockLines = i - fenceStart + 1;
+                    if (blockLines - 2 >= minCodeBlockLines) {
+                        kept.append("[Code block of ").append(blockLines - 2).append(" lines omitted, see lines ")
+                                .append(section.firstLine + fenceStart).append('-').append(section.firstLine + i)
+                                .append(" of ").append(reference).append("]\n");
+                    } else {
+                        for (int j = fenceStart; j <= i; j++) {
+                            kept.append(lines[j]).append(j < lines.length - 1 ? "\n" : "");
+                        }
+                    }
+                    fenceStart = -1;
+                }
+            }
+            if (fenceStart >= 0) {
+                // A fence opening on the last line
+                kept.append(lines[fenceStart]);
+            }
+            saved += section.text.length() - kept.length();
+            section.text = kept.toString();
+        }
+        return saved;
+    }
+
+    /**
+     * Condenses the largest sections first, until enough characters are saved.
+     */
+    private static void condense(List<Section> sections, String reference, int excess) {
+        List<Section> largest = new ArrayList<>(sections);
+        largest.sort(Comparator.comparingInt((Section section) -> section.text.length()).reversed());
+        for (Section section : largest) {
+            if (excess <= 0 || section.text.length() < MIN_SECTION_CHARS) {
+                return;
+            }
+            String body = section.body().strip();
+            int paragraphEnd = body.indexOf("\n\n");
+            String firstParagraph = paragraphEnd < 0 || paragraphEnd > MIN_SECTION_CHARS * 2
+                    ? "" : body.substring(0, paragraphEnd) + "\n";
+            String condensed = firstParagraph + "[Rest of the section condensed, see lines " + section.firstLine
+                    + "-" + section.lastLine + " of " + reference + "]\n\n";
+            if (condensed.length() < section.body().length()) {
+                excess -= section.replaceBody(condensed);
+            }
+        }
+    }
+
+    private String saveFullCopy(String agent, String label, String payload) throws IOException {
+        RunContext run = RunContext.current();
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        String name = agent + "-" + label + "-" + sha256(bytes).substring(0, 16) + ".md";
+        Path file = run.resolve(directory).resolve(name);
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            // Shards compacting the same payload write the same file, the last move wins
+            Path temp = Files.createTempFile(file.getParent(), name, ".tmp");
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return run.relativize(file);
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A markdown section of a payload: a heading line and the lines up to the next heading, or the
+     * lines before the first heading.
+     */
+    private static final class Section {
+
+        final int firstLine;
+        final int lastLine;
+        final String heading;
+        String text;
+
+        private Section(int firstLine, int lastLine, String heading, String text) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+            this.heading = heading;
+            this.text = text;
+        }
+
+        String body() {
+            return text.substring(heading.length());
+        }
+
+        /**
+         * @return the number of characters saved
+         */
+        int replaceBody(String replacement) {
+            int before = text.length();
+            text = heading + replacement;
+            return before - text.length();
+        }
+
+        static List<Section> parse(String payload) {
+            List<Section> sections = new ArrayList<>();
+            String[] lines = payload.split("\n", -1);
+            StringBuilder text = new StringBuilder();
+            String heading = "";
+            int first = 1;
+            boolean inFence = false;
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i];
+                if (line.strip().startsWith("```")) {
+                    inFence = !inFence;
+                }
+                if (!inFence && line.startsWith("#") && i > 0 && !text.isEmpty()) {
+                    sections.add(new Section(first, i, heading, text.toString()));
+                    text.setLength(0);
+                    first = i + 1;
+                }
+                if (!inFence && line.startsWith("#") && text.isEmpty()) {
+                    heading = i < lines.length - 1 ? line + "\n" : line;
+                } else if (text.isEmpty()) {
+                    heading = "";
+                }
+                text.append(line);
+                if (i < lines.length - 1) {
+                    text.append('\n');
+                }
+            }
+            if (!text.isEmpty()) {
+                sections.add(new Section(first, lines.length, heading, text.toString()));
+            }
+            return sections;
+        }
+    }
+}
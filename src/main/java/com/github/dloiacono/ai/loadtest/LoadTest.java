@@ -0,0 +1,252 @@
+package com.github.dloiacono.ai.loadtest;
+
+import com.github.dloiacono.ai.SwarmRunner;
+import com.github.dloiacono.ai.project.WorkspaceClosedEvent;
+import com.github.dloiacono.ai.run.RequestContexts;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import com.github.dloiacono.ai.run.Workspace;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives many concurrent swarm runs and measures the swarm itself: throughput, time spent
+ * queueing for a slot, latency of each phase and of whole runs, and the time left once the time
+ * spent in the models is taken out.
+ * <p>
+ * Meant to be used with {@linkplain com.github.dloiacono.ai.model.LocalChatModel local models},
+ * so runs are reproducible and free. Runs arrive at {@code swarm.load-test.arrival-rate} per
+ * second, or all at once, and at most {@code swarm.load-test.concurrency} of them run at the same
+ * time. Each run streams its events, which the measures are taken from, and works in its own
+ * in-memory workspace. The runs are not {@linkplain RunContext#persistent() persistent}: they
+ * write no checkpoints and neither use nor fill the response cache, so they leave nothing on disk
+ * and every run does all its work.
+ * <p>
+ * The model time of a run adds up all its model calls, including those of parallel branches, so
+ * the overhead derived from it is only exact for runs without parallel phases. When the
+ * {@linkplain com.github.dloiacono.ai.model.ModelRouter model router} is enabled, the time its
+ * routing saved is reported per run too.
+ */
+@ApplicationScoped
+public class LoadTest {
+
+    private static final Logger LOG = Logger.getLogger(LoadTest.class);
+
+    private static final Pattern MODEL_MILLIS = Pattern.compile("(\\d+) ms$");
+    private static final Pattern SAVED_MILLIS = Pattern.compile("saved (-?\\d+) ms$");
+    private static final Pattern BRANCH = Pattern.compile("-\\d+$");
+
+    @Inject
+    SwarmRunner swarmRunner;
+
+    @Inject
+    Event<WorkspaceClosedEvent> workspaceClosed;
+
+    @ConfigProperty(name = "swarm.load-test.runs", defaultValue = "0")
+    int runs;
+
+    @ConfigProperty(name = "swarm.load-test.concurrency", defaultValue = "4")
+    int concurrency;
+
+    @ConfigProperty(name = "swarm.load-test.arrival-rate", defaultValue = "0")
+    double arrivalRate;
+
+    @ConfigProperty(name = "swarm.file-cache.max-chars", defaultValue = "16777216")
+    long fileCacheChars;
+
+    /**
+     * The measures of a load test, in nanoseconds.
+     *
+     * @param runs the number of runs
+     * @param failed the number of failed runs
+     * @param concurrency the maximum number of concurrent runs
+     * @param elapsedNanos the time from the first arrival to the end of the last run
+     * @param series the measures by name, one value per run or per phase
+     */
+    public record Report(int runs, int failed, int concurrency, long elapsedNanos, Map<String, List<Long>> series) {
+
+        public double throughput() {
+            return runs * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the report as a table of latency percentiles, in milliseconds
+         */
+        public String format() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("Load test: %d runs, %d failed, concurrency %d, %.1f s, %.2f runs/s%n",
+                    runs, failed, concurrency, elapsedNanos / 1e9, throughput()));
+            report.append(String.format("%-36s %7s %9s %9s %9s %9s %9s%n", "ms", "count", "mean", "p50", "p95", "p99", "max"));
+            for (Map.Entry<String, List<Long>> entry : series.entrySet()) {
+                List<Long> values = new ArrayList<>(entry.getValue());
+                Collections.sort(values);
+                double mean = values.stream().mapToLong(Long::longValue).average().orElse(0);
+                report.append(String.format("%-36s %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(), values.size(),
+                        mean / 1e6, percentile(values, 0.50) / 1e6, percentile(values, 0.95) / 1e6,
+                        percentile(values, 0.99) / 1e6, percentile(values, 1.0) / 1e6));
+            }
+            return report.toString();
+        }
+
+        private static double percentile(List<Long> sorted, double quantile) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(quantile * sorted.size());
+            return sorted.get(Math.max(0, rank - 1));
+        }
+    }
+
+    /**
+     * @return whether a load test was requested with {@code swarm.load-test.runs}
+     */
+    public boolean enabled() {
+        return runs > 0;
+    }
+
+    /**
+     * Runs the load test and waits for all its runs to finish.
+     *
+     * @param needs the user needs of every run
+     */
+    public Report run(String needs) {
+        String prefix = "load-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        LOG.infof("Starting load test %s: %d runs, concurrency %d, %s", prefix, runs, concurrency,
+                arrivalRate > 0 ? arrivalRate + " arrivals/s" : "all arriving at once");
+        Semaphore slots = new Semaphore(concurrency);
+        List<RunStats> stats = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 1; i <= runs; i++) {
+                long arrival = arrivalRate > 0 ? start + (long) ((i - 1) * 1e9 / arrivalRate) : start;
+                LockSupport.parkNanos(arrival - System.nanoTime());
+                String runId = prefix + "-" + i;
+                executor.submit(() -> stats.add(execute(runId, needs, arrival, slots)));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Map<String, List<Long>> series = new LinkedHashMap<>();
+        Map<String, List<Long>> phases = new TreeMap<>();
+        int failed = 0;
+        for (RunStats run : stats) {
+            if (!run.succeeded) {
+                failed++;
+            }
+            add(series, "queue wait", run.queuedNanos);
+            add(series, "run", run.runNanos);
+            add(series, "model time", run.modelNanos);
+            add(series, "swarm overhead (run - model time)", Math.max(0, run.runNanos - run.modelNanos));
+            if (run.routedCalls > 0) {
+                add(series, "model time saved by routing", run.routingSavedNanos);
+            }
+            run.phaseNanos.forEach((phase, values) -> values.forEach(value -> add(phases, "phase " + phase, value)));
+        }
+        series.putAll(phases);
+        return new Report(runs, failed, concurrency, elapsed, series);
+    }
+
+    private RunStats execute(String runId, String needs, long arrival, Semaphore slots) {
+        RunStats stats = new RunStats();
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return stats;
+        }
+        long started = System.nanoTime();
+        stats.queuedNanos = started - arrival;
+        Workspace workspace = Workspace.inMemory(runId);
+        try {
+            RunContext run = RunContext.create(runId, fileCacheChars, workspace)
+                    .withoutPersistence()
+                    .withEvents(stats::record);
+            RequestContexts.call(() -> swarmRunner.run(run, needs, false));
+            stats.succeeded = true;
+        } catch (Exception e) {
+            LOG.warnf(e, "Load test run %s failed", runId);
+        } finally {
+            stats.runNanos = System.nanoTime() - started;
+            slots.release();
+            try {
+                workspace.close();
+            } catch (IOException e) {
+                LOG.warnf(e, "Could not close the workspace of run %s", runId);
+            }
+            workspaceClosed.fire(new WorkspaceClosedEvent(workspace.root()));
+        }
+        return stats;
+    }
+
+    private static void add(Map<String, List<Long>> series, String name, long value) {
+        series.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+    }
+
+    /**
+     * The measures of one run, taken from its events, which come from several threads.
+     */
+    private static final class RunStats {
+
+        private final Map<String, Instant> phaseStarts = new HashMap<>();
+        private final Map<String, List<Long>> phaseNanos = new TreeMap<>();
+        private long modelNanos;
+        private int routedCalls;
+        private long routingSavedNanos;
+        private volatile long queuedNanos;
+        private volatile long runNanos;
+        private volatile boolean succeeded;
+
+        synchronized void record(RunEvent event) {
+            switch (event.type()) {
+                case PHASE_STARTED -> phaseStarts.put(event.source(), event.at());
+                case PHASE_FINISHED -> {
+                    Instant started = phaseStarts.remove(event.source());
+                    if (started != null) {
+                        // Parallel branches are measured together, e.g. implementation/module-*
+                        String phase = BRANCH.matcher(event.source()).replaceAll("-*");
+                        phaseNanos.computeIfAbsent(phase, key -> new ArrayList<>())
+                                .add(Duration.between(started, event.at()).toNanos());
+                    }
+                }
+                case MODEL_CALL -> {
+                    Matcher millis = MODEL_MILLIS.matcher(event.text());
+                    if (millis.find()) {
+                        modelNanos += TimeUnit.MILLISECONDS.toNanos(Long.parseLong(millis.group(1)));
+                    }
+                }
+                case MODEL_ROUTED -> {
+                    Matcher saved = SAVED_MILLIS.matcher(event.text());
+                    if (saved.find()) {
+                        routedCalls++;
+                        routingSavedNanos += TimeUnit.MILLISECONDS.toNanos(Long.parseLong(saved.group(1)));
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.dloiacono.ai.memory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Function;
+
+/**
+ * Append-only text file holding the content spilled from one chat memory. Each entry is a header
+ * line followed by the spilled text, so the agent can read an entry back by its line range.
+ */
+final class MemorySegment {
+
+    private static final int MAX_NAME_CHARS = 64;
+
+    private final Path file;
+    private final String reference;
+    private long lines;
+
+    /**
+     * @param file the segment file, created empty
+     * @param reference the path of the file as the agent sees it
+     */
+    private MemorySegment(Path file, String reference) {
+        this.file = file;
+        this.reference = reference;
+    }
+
+    /**
+     * Creates a new, empty segment in a directory. A segment of the same name left over from an
+     * earlier run is emptied.
+     *
+     * @param directory the directory, created if needed
+     * @param name the name of the segment, the same for the same memory of a replayed run
+     * @param reference turns the path of the file into the path the agent sees
+     */
+    static MemorySegment create(Path directory, String name, Function<Path, String> reference) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve("memory-" + fileName(name) + ".txt");
+        Files.write(file, new byte[0], StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        return new MemorySegment(file, reference.apply(file));
+    }
+
+    /**
+     * Turns a segment name into a file name part. Names that are not already short, safe file
+     * names are cut down and given a hash of the full name, so they stay distinct.
+     */
+    static String fileName(String name) {
+        String safe = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (safe.equals(name) && safe.length() <= MAX_NAME_CHARS) {
+            return safe;
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(name.getBytes(StandardCharsets.UTF_8));
+            String hash = HexFormat.of().formatHex(digest, 0, 4);
+            return safe.substring(0, Math.min(safe.length(), MAX_NAME_CHARS - hash.length() - 1)) + "-" + hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Appends an entry.
+     *
+     * @param header what the text is, written on the line before it
+     * @param text the spilled text
+     * @return where the text is, such as {@code lines 12-80 of .swarm/memory/memory-ResearcherAgent-1.txt}
+     */
+    String append(String header, String text) throws IOException {
+        String body = text.endsWith("\n") ? text : text + "\n";
+        long bodyLines = body.chars().filter(c -> c == '\n').count();
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND)) {
+            writer.write("=== " + header + " ===\n");
+            writer.write(body);
+        }
+        long first = lines + 2;
+        lines += 1 + bodyLines;
+        return "lines " + first + "-" + lines + " of " + reference;
+    }
+}
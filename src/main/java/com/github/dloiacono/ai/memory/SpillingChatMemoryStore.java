@@ -0,0 +1,457 @@
+package com.github.dloiacono.ai.memory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.dloiacono.ai.project.WorkspaceClosedEvent;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Chat memory store of the AI services keeping each memory within a size bound.
+ * <p>
+ * The extension's message window keeps the last messages of a memory, whatever their size, and
+ * tool heavy loops fill it with file contents. On every update this store shrinks the memory in
+ * two passes:
+ * <ol>
+ *     <li>file contents made stale by a later version of the same file, read with
+ *     {@code readFile} or written with {@code writeFile} or {@code writeFiles}, are replaced by a
+ *     reference to that file;</li>
+ *     <li>while the memory is over {@code swarm.chat-memory.max-chars}, the oldest large tool
+ *     results and tool call arguments are spilled to a segment file of the run's workspace, and
+ *     replaced by the lines of that file they stand for, so the agent can read them back.</li>
+ * </ol>
+ * The last messages are never shrunk, the model having asked for them to act on them. Messages
+ * are only ever replaced, never removed, so tool calls keep their results.
+ */
+@ApplicationScoped
+public class SpillingChatMemoryStore implements ChatMemoryStore {
+
+    private static final Logger LOG = Logger.getLogger(SpillingChatMemoryStore.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Tools returning file content, as a whole or in part. */
+    private static final Set<String> READS = Set.of("readFile", "readLines", "readPage", "readBytes");
+
+    /** Tools sending file content in their arguments, as a whole or in part. */
+    private static final Set<String> WRITES = Set.of("writeFile", "writeFiles", "appendToFile",
+            "replaceInFile", "replaceRange", "applyPatch");
+
+    /** Tools carrying a whole version of a file, making the earlier contents of that file stale. */
+    private static final Set<String> WHOLE_FILE = Set.of("readFile", "writeFile", "writeFiles");
+
+    private static final String PATH_FIELD = "filePath";
+
+    @ConfigProperty(name = "swarm.chat-memory.max-chars", defaultValue = "131072")
+    int maxChars;
+
+    @ConfigProperty(name = "swarm.chat-memory.keep-recent-messages", defaultValue = "4")
+    int keepRecentMessages;
+
+    @ConfigProperty(name = "swarm.chat-memory.min-spill-chars", defaultValue = "512")
+    int minSpillChars;
+
+    @ConfigProperty(name = "swarm.chat-memory.replace-stale-files", defaultValue = "true")
+    boolean replaceStaleFiles;
+
+    @ConfigProperty(name = "swarm.chat-memory.directory", defaultValue = ".swarm/memory")
+    String directory;
+
+    private final Map<Object, Memory> memories = new ConcurrentHashMap<>();
+
+    /** Segments created so far in the workspace of each run, by agent and shard. */
+    private final Map<Workspace, Map<String, Integer>> segmentCounts = new WeakHashMap<>();
+
+    /**
+     * The messages of one memory, as the AI service sees them.
+     */
+    private static final class Memory {
+
+        private final Object id;
+        private List<ChatMessage> messages = List.of();
+        private MemorySegment segment;
+
+        Memory(Object id) {
+            this.id = id;
+        }
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        Memory memory = memories.get(memoryId);
+        if (memory == null) {
+            return new ArrayList<>();
+        }
+        synchronized (memory) {
+            return new ArrayList<>(memory.messages);
+        }
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        Memory memory = memories.computeIfAbsent(memoryId, Memory::new);
+        synchronized (memory) {
+            List<ChatMessage> shrunk = new ArrayList<>(messages);
+            int protectedFrom = Math.max(0, shrunk.size() - keepRecentMessages);
+            Map<String, ToolExecutionRequest> requests = requestsById(shrunk);
+            if (replaceStaleFiles) {
+                replaceStaleFiles(shrunk, requests, protectedFrom);
+            }
+            spill(memory, shrunk, requests, protectedFrom);
+            memory.messages = shrunk;
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        Memory memory = memories.remove(memoryId);
+        if (memory != null) {
+            synchronized (memory) {
+                deleteSegment(memory);
+            }
+        }
+    }
+
+    void onWorkspaceClosed(@Observes WorkspaceClosedEvent event) {
+        // The segments of the workspace are gone with it, later spills start new ones
+        for (Memory memory : memories.values()) {
+            synchronized (memory) {
+                if (memory.segment != null && memory.segment.file().toAbsolutePath().normalize().startsWith(event.root())) {
+                    memory.segment = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of a file older than a whole version of the same file with a reference
+     * to it, going from the newest message to the oldest.
+     */
+    private void replaceStaleFiles(List<ChatMessage> messages, Map<String, ToolExecutionRequest> requests,
+                                   int protectedFrom) {
+        Set<String> newerVersions = new HashSet<>();
+        Set<String> failedWrites = new HashSet<>();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            ChatMessage message = messages.get(i);
+            if (message instanceof ToolExecutionResultMessage result && WRITES.contains(result.toolName())) {
+                // Results come after their calls: a failed write is known before its call is seen
+                if (result.text() != null && result.text().startsWith("Error")) {
+                    failedWrites.add(result.id());
+                }
+            } else if (message instanceof ToolExecutionResultMessage result && READS.contains(result.toolName())) {
+                String path = readPath(requests.get(result.id()));
+                if (path == null || result.text() == null) {
+                    continue;
+                }
+                if (i < protectedFrom && result.text().length() >= minSpillChars && newerVersions.contains(path)) {
+                    messages.set(i, ToolExecutionResultMessage.from(result.id(), result.toolName(),
+                            "[Content of " + path + " omitted: a newer version of the file was read or written"
+                                    + " later in this conversation.]"));
+                }
+                if (WHOLE_FILE.contains(result.toolName()) && !result.text().startsWith("Error")) {
+                    newerVersions.add(path);
+                }
+            } else if (message instanceof AiMessage ai && ai.hasToolExecutionRequests()) {
+                List<ToolExecutionRequest> calls = new ArrayList<>(ai.toolExecutionRequests());
+                boolean changed = false;
+                for (int j = calls.size() - 1; j >= 0; j--) {
+                    ToolExecutionRequest call = calls.get(j);
+                    if (!WRITES.contains(call.name())) {
+                        continue;
+                    }
+                    ObjectNode arguments = parse(call);
+                    if (arguments == null) {
+                        continue;
+                    }
+                    List<String> written = new ArrayList<>();
+                    boolean replaced = false;
+                    for (ObjectNode file : files(arguments)) {
+                        String path = normalize(file.get(PATH_FIELD).asText());
+                        if (i < protectedFrom && newerVersions.contains(path)) {
+                            replaced |= replaceContent(file, value -> "[omitted: a newer version of " + path
+                                    + " was read or written later in this conversation]");
+                        }
+                        written.add(path);
+                    }
+                    if (replaced) {
+                        calls.set(j, withArguments(call, arguments));
+                        changed = true;
+                    }
+                    if (WHOLE_FILE.contains(call.name()) && !failedWrites.contains(call.id())) {
+                        newerVersions.addAll(written);
+                    }
+                }
+                if (changed) {
+                    messages.set(i, withCalls(ai, calls));
+                }
+            }
+        }
+    }
+
+    /**
+     * Spills the oldest large tool results and tool call arguments until the memory is within its
+     * bound, or nothing is left to spill.
+     */
+    private void spill(Memory memory, List<ChatMessage> messages, Map<String, ToolExecutionRequest> requests,
+                       int protectedFrom) {
+        long chars = 0;
+        for (ChatMessage message : messages) {
+            chars += chars(message);
+        }
+        long before = chars;
+        try {
+            for (int i = 0; i < protectedFrom && chars > maxChars; i++) {
+                ChatMessage message = messages.get(i);
+                if (message instanceof ToolExecutionResultMessage result && result.text() != null
+                        && result.text().length() >= minSpillChars) {
+                    ToolExecutionRequest request = requests.get(result.id());
+                    String call = request != null ? request.name() + " " + request.arguments() : result.toolName();
+                    String lines = segment(memory).append("Result of " + call, result.text());
+                    ToolExecutionResultMessage spilled = ToolExecutionResultMessage.from(result.id(), result.toolName(),
+                            "[Result of " + result.toolName() + " spilled from memory (" + result.text().length()
+                                    + " chars): " + lines + ". Read the lines back with readLines if you still need them.]");
+                    chars += spilled.text().length() - result.text().length();
+                    messages.set(i, spilled);
+                } else if (message instanceof AiMessage ai && ai.hasToolExecutionRequests()) {
+                    List<ToolExecutionRequest> calls = new ArrayList<>(ai.toolExecutionRequests());
+                    boolean changed = false;
+                    for (int j = 0; j < calls.size(); j++) {
+                        ToolExecutionRequest call = calls.get(j);
+                        if (call.arguments() == null || call.arguments().length() < minSpillChars) {
+                            continue;
+                        }
+                        ObjectNode arguments = parse(call);
+                        if (arguments == null) {
+                            continue;
+                        }
+                        MemorySegment segment = segment(memory);
+                        boolean replaced = false;
+                        for (ObjectNode file : files(arguments)) {
+                            String header = "Content sent to " + call.name() + " for " + file.get(PATH_FIELD).asText();
+                            replaced |= replaceContent(file, value -> "[spilled from memory (" + value.length()
+                                    + " chars): " + append(segment, header, value) + "]");
+                        }
+                        if (replaced) {
+                            ToolExecutionRequest spilled = withArguments(call, arguments);
+                            chars += spilled.arguments().length() - call.arguments().length();
+                            calls.set(j, spilled);
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        messages.set(i, withCalls(ai, calls));
+                    }
+                }
+            }
+        } catch (IOException | SpillException e) {
+            LOG.warnf("Could not spill chat memory to %s, keeping %d chars in memory: %s",
+                    directory, chars, e.getMessage());
+        }
+        if (chars < before) {
+            LOG.debugf("Chat memory shrunk from %d to %d chars", before, chars);
+        }
+    }
+
+    private MemorySegment segment(Memory memory) throws IOException {
+        if (memory.segment == null) {
+            RunContext run = RunContext.current();
+            memory.segment = MemorySegment.create(run.resolve(directory), segmentName(run, memory.id), run::relativize);
+        }
+        return memory.segment;
+    }
+
+    /**
+     * Names the next segment of an agent in a run, such as {@code ResearcherAgent-1}. The name
+     * leaves out the memory ID, which changes on every run, and the run ID, which a replay does
+     * not share, so a replayed run spills to the same segments as the recorded one.
+     */
+    private String segmentName(RunContext run, Object memoryId) {
+        String agent = agentOf(memoryId) + (run.shardId() != null ? "-" + run.shardId() : "");
+        int sequence;
+        synchronized (segmentCounts) {
+            sequence = segmentCounts.computeIfAbsent(run.workspace(), workspace -> new HashMap<>())
+                    .merge(agent, 1, Integer::sum);
+        }
+        return agent + "-" + sequence;
+    }
+
+    /**
+     * Returns the agent a memory belongs to. quarkus-langchain4j gives the memory of an AI service
+     * the ID {@code <request context state>#<interface>.<method>}; other IDs are kept whole.
+     */
+    static String agentOf(Object memoryId) {
+        String id = String.valueOf(memoryId);
+        int hash = id.lastIndexOf('#');
+        if (hash < 0) {
+            return id;
+        }
+        String method = id.substring(hash + 1);
+        String type = method.contains(".") ? method.substring(0, method.lastIndexOf('.')) : method;
+        return type.substring(type.lastIndexOf('.') + 1);
+    }
+
+    private static String append(MemorySegment segment, String header, String text) {
+        try {
+            return segment.append(header, text);
+        } catch (IOException e) {
+            throw new SpillException(e);
+        }
+    }
+
+    private static void deleteSegment(Memory memory) {
+        if (memory.segment != null) {
+            try {
+                Files.deleteIfExists(memory.segment.file());
+            } catch (IOException e) {
+                LOG.debugf("Could not delete chat memory segment %s: %s", memory.segment.file(), e.getMessage());
+            }
+            memory.segment = null;
+        }
+    }
+
+    /**
+     * Replaces the large string fields of a file entry of the arguments, except its path.
+     *
+     * @return whether a field was replaced
+     */
+    private boolean replaceContent(ObjectNode file, UnaryOperator<String> replacement) {
+        boolean replaced = false;
+        for (Map.Entry<String, JsonNode> field : file.properties()) {
+            if (!field.getKey().equals(PATH_FIELD) && field.getValue().isTextual()
+                    && field.getValue().asText().length() >= minSpillChars) {
+                field.setValue(file.textNode(replacement.apply(field.getValue().asText())));
+                replaced = true;
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * @return the objects of the arguments naming a file, the arguments themselves for single file
+     *         tools and the entries of {@code files} for {@code writeFiles}
+     */
+    private static List<ObjectNode> files(ObjectNode arguments) {
+        List<ObjectNode> files = new ArrayList<>();
+        if (arguments.path(PATH_FIELD).isTextual()) {
+            files.add(arguments);
+        }
+        for (JsonNode entry : arguments.path("files")) {
+            if (entry instanceof ObjectNode file && file.path(PATH_FIELD).isTextual()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static Map<String, ToolExecutionRequest> requestsById(List<ChatMessage> messages) {
+        Map<String, ToolExecutionRequest> requests = new HashMap<>();
+        for (ChatMessage message : messages) {
+            if (message instanceof AiMessage ai && ai.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : ai.toolExecutionRequests()) {
+                    if (request.id() != null) {
+                        requests.put(request.id(), request);
+                    }
+                }
+            }
+        }
+        return requests;
+    }
+
+    private static String readPath(ToolExecutionRequest request) {
+        if (request == null) {
+            return null;
+        }
+        ObjectNode arguments = parse(request);
+        return arguments != null && arguments.path(PATH_FIELD).isTextual()
+                ? normalize(arguments.get(PATH_FIELD).asText()) : null;
+    }
+
+    private static ObjectNode parse(ToolExecutionRequest request) {
+        if (request.arguments() == null || request.arguments().isBlank()) {
+            return null;
+        }
+        try {
+            return MAPPER.readTree(request.arguments()) instanceof ObjectNode arguments ? arguments : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static String normalize(String path) {
+        try {
+            return Path.of(path).normalize().toString();
+        } catch (RuntimeException e) {
+            return path;
+        }
+    }
+
+    private static ToolExecutionRequest withArguments(ToolExecutionRequest request, ObjectNode arguments) {
+        return ToolExecutionRequest.builder()
+                .id(request.id())
+                .name(request.name())
+                .arguments(arguments.toString())
+                .build();
+    }
+
+    private static AiMessage withCalls(AiMessage message, List<ToolExecutionRequest> calls) {
+        return AiMessage.builder()
+                .text(message.text())
+                .thinking(message.thinking())
+                .toolExecutionRequests(calls)
+                .attributes(message.attributes())
+                .build();
+    }
+
+    /**
+     * @return the approximate size of a message, in characters
+     */
+    static long chars(ChatMessage message) {
+        if (message instanceof ToolExecutionResultMessage result) {
+            return result.text() != null ? result.text().length() : 0;
+        }
+        if (message instanceof AiMessage ai) {
+            long chars = ai.text() != null ? ai.text().length() : 0;
+            if (ai.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : ai.toolExecutionRequests()) {
+                    chars += request.arguments() != null ? request.arguments().length() : 0;
+                }
+            }
+            return chars;
+        }
+        return message.toString().length();
+    }
+
+    /**
+     * Carries a failed write out of the argument rewriting.
+     */
+    private static final class SpillException extends RuntimeException {
+
+        SpillException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.github.dloiacono.ai.model;
+
+import com.github.dloiacono.ai.context.ContextBudgeter;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A chat model answering from a {@link LocalModelScript} instead of calling a provider, so the
+ * swarm can run offline, reproducibly and at no cost.
+ * <p>
+ * The turn played is the number of answers already given since the last user message, so the
+ * same conversation always gets the same answers. Each call waits for the configured latency,
+ * then produces its output tokens at the configured rate, streamed or not. Every call is
+ * reported to the current run as a {@link RunEvent.Type#MODEL_CALL} event.
+ * <p>
+ * Like a provider's quota, a maximum number of concurrent calls can be set: the calls beyond it
+ * fail at once with a rate limit error, so the rate limiting can be exercised offline.
+ */
+public class LocalChatModel implements ChatModel, StreamingChatModel {
+
+    /** Characters per streamed token, as estimated by {@link ContextBudgeter#estimateTokens}. */
+    private static final int TOKEN_CHARS = 4;
+
+    private final String name;
+    private final LocalModelScript script;
+    private final Duration latency;
+    private final double tokensPerSecond;
+    private final int maxConcurrency;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong callIds = new AtomicLong();
+
+    /**
+     * @param name the model name, used in tool call IDs and events
+     * @param script what the model answers
+     * @param latency the time before the first output token
+     * @param tokensPerSecond the output token rate, 0 or less for no limit
+     * @param maxConcurrency the concurrent calls allowed, 0 or less for no limit
+     */
+    public LocalChatModel(String name, LocalModelScript script, Duration latency, double tokensPerSecond,
+                          int maxConcurrency) {
+        this.name = name;
+        this.script = script;
+        this.latency = latency;
+        this.tokensPerSecond = tokensPerSecond;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // Both interfaces define these defaults, and they are the same
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return ChatModel.super.defaultRequestParameters();
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return ChatModel.super.listeners();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return ChatModel.super.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return ChatModel.super.supportedCapabilities();
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest request) {
+        long start = System.nanoTime();
+        enter();
+        try {
+            ChatResponse response = answer(request);
+            int outputTokens = response.tokenUsage().outputTokenCount();
+            sleepUntil(start + latency.toNanos() + tokenNanos(outputTokens));
+            report(response, start);
+            return response;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        long start = System.nanoTime();
+        ChatResponse response;
+        try {
+            enter();
+        } catch (RateLimitException e) {
+            handler.onError(e);
+            return;
+        }
+        try {
+            response = answer(request);
+            long firstToken = start + latency.toNanos();
+            sleepUntil(firstToken);
+            String text = response.aiMessage().text();
+            if (text != null) {
+                for (int i = 0, token = 1; i < text.length(); i += TOKEN_CHARS, token++) {
+                    handler.onPartialResponse(text.substring(i, Math.min(text.length(), i + TOKEN_CHARS)));
+                    sleepUntil(firstToken + tokenNanos(token));
+                }
+            } else {
+                sleepUntil(firstToken + tokenNanos(response.tokenUsage().outputTokenCount()));
+            }
+        } catch (RuntimeException e) {
+            handler.onError(e);
+            return;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        report(response, start);
+        handler.onCompleteResponse(response);
+    }
+
+    /**
+     * @throws RateLimitException if the call is beyond the maximum concurrency
+     */
+    private void enter() {
+        int calls = inFlight.incrementAndGet();
+        if (maxConcurrency > 0 && calls > maxConcurrency) {
+            inFlight.decrementAndGet();
+            throw new RateLimitException("429 rate_limit_error: " + calls + " concurrent calls to the local "
+                    + name + " model, at most " + maxConcurrency + " allowed");
+        }
+    }
+
+    private ChatResponse answer(ChatRequest request) {
+        List<ChatMessage> messages = request.messages();
+        int lastUser = -1;
+        for (int i = messages.size() - 1; i >= 0 && lastUser < 0; i--) {
+            if (messages.get(i) instanceof UserMessage) {
+                lastUser = i;
+            }
+        }
+        String input = lastUser >= 0 ? ((UserMessage) messages.get(lastUser)).singleText() : "";
+        int answers = 0;
+        List<String> results = new ArrayList<>();
+        for (ChatMessage message : messages.subList(lastUser + 1, messages.size())) {
+            if (message instanceof AiMessage) {
+                answers++;
+            } else if (message instanceof ToolExecutionResultMessage result) {
+                results.add(result.text());
+            }
+        }
+
+        LocalModelScript.Turn turn = script.turn(answers);
+        LocalModelScript.Bindings bindings = new LocalModelScript.Bindings(input, results,
+                31L * (31L * name.hashCode() + input.hashCode()) + answers);
+        int inputTokens = 0;
+        for (ChatMessage message : messages) {
+            inputTokens += ContextBudgeter.estimateTokens(message.toString());
+        }
+
+        AiMessage message;
+        int outputTokens = 0;
+        if (turn.isToolCalls()) {
+            List<ToolExecutionRequest> calls = new ArrayList<>(turn.calls().size());
+            for (LocalModelScript.Call call : turn.calls()) {
+                String arguments = LocalModelScript.render(call.arguments(), bindings, true);
+                outputTokens += ContextBudgeter.estimateTokens(arguments);
+                calls.add(ToolExecutionRequest.builder()
+                        .id(name + "-" + callIds.incrementAndGet())
+                        .name(call.tool())
+                        .arguments(arguments)
+                        .build());
+            }
+            message = AiMessage.from(calls);
+        } else {
+            String text = LocalModelScript.render(turn.text(), bindings, false);
+            outputTokens = ContextBudgeter.estimateTokens(text);
+            message = AiMessage.from(text);
+        }
+        return ChatResponse.builder()
+                .aiMessage(message)
+                .modelName("local-" + name)
+                .tokenUsage(new TokenUsage(inputTokens, outputTokens))
+                .finishReason(turn.isToolCalls() ? FinishReason.TOOL_EXECUTION : FinishReason.STOP)
+                .build();
+    }
+
+    private long tokenNanos(int tokens) {
+        return tokensPerSecond > 0 ? (long) (tokens * 1_000_000_000L / tokensPerSecond) : 0;
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while generating");
+            }
+        }
+    }
+
+    private void report(ChatResponse response, long start) {
+        TokenUsage usage = response.tokenUsage();
+        RunContext.current().emit(RunEvent.Type.MODEL_CALL, name, usage.inputTokenCount() + " in, "
+                + usage.outputTokenCount() + " out, " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.dloiacono.ai.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a {@link LocalChatModel} answers, turn after turn.
+ * <p>
+ * A script is a list of turns separated by {@code ---} lines. A turn is either tool calls, one
+ * {@code call <tool> <json arguments>} line per call, all made at once, or a text response. Lines
+ * starting with {@code #} are comments. Past the last turn, the model repeats it.
+ * <p>
+ * Turns can use placeholders: {@code {{input}}} for the user message, {@code {{result}}} for the
+ * last tool result and {@code {{result.N}}} for the Nth one, {@code {{text N}}} for about N tokens
+ * of filler text, the same for the same conversation. In tool call arguments, they are replaced
+ * with JSON strings, so they are written without quotes:
+ * <pre>
+ * call callResearcher {"needs": {{input}}}
+ * ---
+ * call callSoftwareArchitect {"researchOutput": {{result}}}
+ * ---
+ * Done: {{text 50}}
+ * </pre>
+ */
+public final class LocalModelScript {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*(input|result(?:\\.(\\d+))?|text\\s+(\\d+))\\s*}}");
+    private static final Pattern CALL = Pattern.compile("call\\s+(\\S+)\\s+(.*)");
+    private static final String[] WORDS = {
+            "service", "request", "module", "endpoint", "validation", "response", "model", "repository",
+            "client", "handler", "config", "error", "test", "schema", "result", "the", "a", "of", "to", "and"
+    };
+
+    /**
+     * A tool call of a turn.
+     *
+     * @param tool the tool name
+     * @param arguments the JSON arguments, with placeholders
+     */
+    public record Call(String tool, String arguments) {
+    }
+
+    /**
+     * A turn: tool calls, or a text response when there are none.
+     */
+    public record Turn(List<Call> calls, String text) {
+
+        public boolean isToolCalls() {
+            return !calls.isEmpty();
+        }
+    }
+
+    /**
+     * What the placeholders of a turn are replaced with.
+     *
+     * @param input the last user message
+     * @param results the results of the tool calls made since, in order
+     * @param seed the seed of the filler text
+     */
+    public record Bindings(String input, List<String> results, long seed) {
+    }
+
+    private final List<Turn> turns;
+
+    private LocalModelScript(List<Turn> turns) {
+        this.turns = turns;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the script is empty or a turn mixes calls and text
+     */
+    public static LocalModelScript parse(String script) {
+        List<Turn> turns = new ArrayList<>();
+        List<Call> calls = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (String line : (script + "\n---").split("\n")) {
+            String trimmed = line.strip();
+            if (trimmed.equals("---")) {
+                if (!calls.isEmpty() || !text.isEmpty()) {
+                    turns.add(new Turn(List.copyOf(calls), text.toString().strip()));
+                }
+                calls.clear();
+                text.setLength(0);
+            } else if (trimmed.startsWith("#")) {
+                continue;
+            } else if (trimmed.startsWith("call ")) {
+                Matcher call = CALL.matcher(trimmed);
+                if (!call.matches() || !text.toString().isBlank()) {
+                    throw new IllegalArgumentException("Invalid tool call, or tool call after text: " + trimmed);
+                }
+                calls.add(new Call(call.group(1), call.group(2)));
+            } else {
+                if (!calls.isEmpty() && !trimmed.isEmpty()) {
+                    throw new IllegalArgumentException("Text after tool calls in the same turn: " + trimmed);
+                }
+                text.append(line).append('\n');
+            }
+        }
+        if (turns.isEmpty()) {
+            throw new IllegalArgumentException("The script has no turn");
+        }
+        return new LocalModelScript(List.copyOf(turns));
+    }
+
+    /**
+     * @param index the 0-based index of the turn in the conversation
+     * @return the turn, or the last one past the end of the script
+     */
+    public Turn turn(int index) {
+        return turns.get(Math.min(index, turns.size() - 1));
+    }
+
+    /**
+     * Replaces the placeholders of a turn's text or tool call arguments.
+     *
+     * @param template the text or arguments
+     * @param bindings the values of the placeholders
+     * @param json whether to replace them with JSON strings
+     */
+    public static String render(String template, Bindings bindings, boolean json) {
+        Matcher matcher = PLACEHOLDER.matcher(template);
+        StringBuilder rendered = new StringBuilder();
+        while (matcher.find()) {
+            String value;
+            if (matcher.group(1).equals("input")) {
+                value = bindings.input();
+            } else if (matcher.group(3) != null) {
+                value = filler(Integer.parseInt(matcher.group(3)), bindings.seed() + matcher.start());
+            } else {
+                List<String> results = bindings.results();
+                int index = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) - 1 : results.size() - 1;
+                value = index >= 0 && index < results.size() ? results.get(index) : "";
+            }
+            matcher.appendReplacement(rendered, Matcher.quoteReplacement(json ? jsonString(value) : value));
+        }
+        matcher.appendTail(rendered);
+        return rendered.toString();
+    }
+
+    /**
+     * @return about {@code tokens} tokens of text made of common words, with a line break every 12 words
+     */
+    static String filler(int tokens, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder text = new StringBuilder(tokens * 5);
+        // A word and its separator are about 1.5 tokens
+        int words = Math.max(1, tokens * 2 / 3);
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(i % 12 == 11 ? '\n' : ' ');
+        }
+        return text.toString().strip();
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,359 @@
+package com.github.dloiacono.ai.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dloiacono.ai.context.ContextBudgeter;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes the calls of an agent between its own model and a faster, cheaper tier.
+ * <p>
+ * Each call is routed by the policy of its agent, {@code swarm.routing.<agent>.policy}:
+ * {@code large} keeps every call on the agent's model, {@code fast} sends every call to the fast
+ * tier, and {@code auto} only sends the turns following cheap tool calls, such as
+ * {@code fileExists} checks and small edits, listed in {@code swarm.routing.cheap-tools}. Whatever
+ * the policy, prompts over {@code swarm.routing.max-fast-prompt-tokens} and turns following a
+ * failed tool call go to the agent's model.
+ * <p>
+ * A response of the fast tier goes through a quick confidence check before it is used: it must
+ * not be empty or truncated, its tool calls must name the tools of the request with their
+ * required arguments, and its text must not hedge. A response failing the check, or a failed
+ * call, is escalated: the call is made again on the agent's model. After
+ * {@code swarm.routing.max-escalations} escalations of an agent in a run, its calls stay on its
+ * model for the rest of the run.
+ * <p>
+ * Every decision is published as a {@link RunEvent.Type#MODEL_ROUTED} event of the run and
+ * recorded in the metrics, with the time saved, estimated from the recent latency of the agent's
+ * model. The totals of a run are logged when it is over.
+ */
+@ApplicationScoped
+public class ModelRouter {
+
+    private static final Logger LOG = Logger.getLogger(ModelRouter.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** Weight of the latest call in the average latency of an agent's model. */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    @ConfigProperty(name = "swarm.routing.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.routing.policy", defaultValue = "auto")
+    String defaultPolicy;
+
+    @ConfigProperty(name = "swarm.routing.fast-model", defaultValue = "fast")
+    String defaultFastModel;
+
+    @ConfigProperty(name = "swarm.routing.max-fast-prompt-tokens", defaultValue = "8000")
+    int defaultMaxFastPromptTokens;
+
+    @ConfigProperty(name = "swarm.routing.cheap-tools",
+            defaultValue = "fileExists,fileInfo,getProjectFiles,replaceInFile,replaceRange,applyPatch")
+    List<String> cheapTools;
+
+    @ConfigProperty(name = "swarm.routing.low-confidence-phrases",
+            defaultValue = "i'm not sure,i am not sure,i don't know,i do not know,i cannot,i can't,unable to")
+    List<String> lowConfidencePhrases;
+
+    @ConfigProperty(name = "swarm.routing.max-escalations", defaultValue = "3")
+    int maxEscalations;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    /** Recent latency of the agents' models, in nanoseconds, by agent. */
+    private final Map<String, Double> largeLatency = new ConcurrentHashMap<>();
+    private final Map<String, RunRouting> runs = new ConcurrentHashMap<>();
+
+    /**
+     * The routing policy of an agent.
+     */
+    enum Policy {
+        LARGE, FAST, AUTO
+    }
+
+    /**
+     * Where a call goes, and why.
+     *
+     * @param fast whether the call goes to the fast tier
+     * @param reason a short, metric friendly reason, such as {@code cheap-tools} or {@code prompt-size}
+     */
+    record Decision(boolean fast, String reason) {
+    }
+
+    /**
+     * The routing totals of one run.
+     */
+    private static final class RunRouting {
+
+        private int fast;
+        private int large;
+        private int escalated;
+        private long savedNanos;
+        private final Map<String, Integer> escalations = new HashMap<>();
+    }
+
+    /**
+     * @return whether the calls of an agent are routed
+     */
+    public boolean routes(String agent) {
+        return enabled && policy(agent) != Policy.LARGE;
+    }
+
+    /**
+     * @return the model name of the fast tier of an agent, {@code swarm.routing.<agent>.fast-model}
+     */
+    public String fastModel(String agent) {
+        return ConfigProvider.getConfig()
+                .getOptionalValue("swarm.routing." + agent + ".fast-model", String.class)
+                .orElse(defaultFastModel);
+    }
+
+    /**
+     * @param agent the model name of the agent
+     * @param large the agent's own model
+     * @param fast the model of its fast tier
+     * @return a model routing each call to one of them
+     */
+    public ChatModel routed(String agent, ChatModel large, ChatModel fast) {
+        return new RoutedChatModel(agent, large, fast, this);
+    }
+
+    /**
+     * @see #routed(String, ChatModel, ChatModel)
+     */
+    public StreamingChatModel routed(String agent, StreamingChatModel large, StreamingChatModel fast) {
+        return new RoutedStreamingChatModel(agent, large, fast, this);
+    }
+
+    /**
+     * Chooses the tier of a call.
+     */
+    Decision decide(RunContext run, String agent, ChatRequest request) {
+        Policy policy = policy(agent);
+        if (policy == Policy.LARGE) {
+            return new Decision(false, "policy");
+        }
+        RunRouting routing = runs.get(run.runId());
+        if (routing != null) {
+            synchronized (routing) {
+                if (routing.escalations.getOrDefault(agent, 0) >= maxEscalations) {
+                    return new Decision(false, "escalated-before");
+                }
+            }
+        }
+        List<ChatMessage> messages = request.messages();
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += ContextBudgeter.estimateTokens(message.toString());
+        }
+        if (tokens > maxFastPromptTokens(agent)) {
+            return new Decision(false, "prompt-size");
+        }
+
+        // The tool results the model is about to answer, and the calls they come from
+        Map<String, String> toolNames = new HashMap<>();
+        boolean toolError = false;
+        int last = messages.size() - 1;
+        while (last >= 0 && messages.get(last) instanceof ToolExecutionResultMessage result) {
+            toolNames.put(result.id(), result.toolName());
+            toolError |= result.text() != null && result.text().startsWith("Error");
+            last--;
+        }
+        if (toolError) {
+            return new Decision(false, "tool-error");
+        }
+        if (policy == Policy.FAST) {
+            return new Decision(true, "policy");
+        }
+        if (!toolNames.isEmpty() && toolNames.values().stream().allMatch(cheapTools::contains)) {
+            return new Decision(true, "cheap-tools");
+        }
+        return new Decision(false, toolNames.isEmpty() ? "new-task" : "tools");
+    }
+
+    /**
+     * The quick confidence check of a response of the fast tier.
+     *
+     * @return why the response cannot be used, or null if it can
+     */
+    String reject(ChatRequest request, ChatResponse response) {
+        if (response == null || response.aiMessage() == null) {
+            return "empty";
+        }
+        if (response.finishReason() == FinishReason.LENGTH) {
+            return "truncated";
+        }
+        AiMessage message = response.aiMessage();
+        if (message.hasToolExecutionRequests()) {
+            Map<String, ToolSpecification> tools = new HashMap<>();
+            if (request.toolSpecifications() != null) {
+                request.toolSpecifications().forEach(tool -> tools.put(tool.name(), tool));
+            }
+            for (ToolExecutionRequest call : message.toolExecutionRequests()) {
+                ToolSpecification tool = tools.get(call.name());
+                if (tool == null) {
+                    return "unknown-tool";
+                }
+                if (!validArguments(tool, call.arguments())) {
+                    return "invalid-arguments";
+                }
+            }
+            return null;
+        }
+        String text = message.text();
+        if (text == null || text.isBlank()) {
+            return "empty";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (String phrase : lowConfidencePhrases) {
+            if (!phrase.isBlank() && lower.contains(phrase.toLowerCase(Locale.ROOT))) {
+                return "low-confidence";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a call answered by the agent's model.
+     */
+    void answeredByLarge(RunContext run, String agent, String reason, long nanos) {
+        largeLatency.merge(agent, (double) nanos,
+                (average, latest) -> average + LATENCY_WEIGHT * (latest - average));
+        RunRouting routing = routing(run);
+        synchronized (routing) {
+            routing.large++;
+        }
+        telemetry.modelRouted(agent, agent, reason, nanos);
+        run.emit(RunEvent.Type.MODEL_ROUTED, agent, "large (" + reason + ") in " + millis(nanos) + " ms, saved 0 ms");
+    }
+
+    /**
+     * Records a call answered by the fast tier.
+     */
+    void answeredByFast(RunContext run, String agent, String reason, long nanos) {
+        Double expected = largeLatency.get(agent);
+        // Nothing is known to be saved until the agent's model has answered once
+        long saved = expected != null ? (long) (expected - nanos) : 0;
+        RunRouting routing = routing(run);
+        synchronized (routing) {
+            routing.fast++;
+            routing.savedNanos += saved;
+        }
+        telemetry.modelRouted(agent, fastModel(agent), reason, nanos);
+        if (saved > 0) {
+            telemetry.routingSaved(agent, saved);
+        }
+        run.emit(RunEvent.Type.MODEL_ROUTED, agent, "fast (" + reason + ") in " + millis(nanos) + " ms, saved "
+                + millis(saved) + " ms");
+    }
+
+    /**
+     * Records a call of the fast tier escalated to the agent's model.
+     *
+     * @param fastNanos the time lost on the fast tier
+     * @param largeNanos the time the agent's model took
+     */
+    void escalated(RunContext run, String agent, String reason, long fastNanos, long largeNanos) {
+        largeLatency.merge(agent, (double) largeNanos,
+                (average, latest) -> average + LATENCY_WEIGHT * (latest - average));
+        RunRouting routing = routing(run);
+        int escalations;
+        synchronized (routing) {
+            routing.large++;
+            routing.escalated++;
+            routing.savedNanos -= fastNanos;
+            escalations = routing.escalations.merge(agent, 1, Integer::sum);
+        }
+        telemetry.modelRouted(agent, fastModel(agent), "rejected-" + reason, fastNanos);
+        telemetry.modelRouted(agent, agent, "escalated", largeNanos);
+        run.emit(RunEvent.Type.MODEL_ROUTED, agent, "large (escalated, " + reason + ") in "
+                + millis(fastNanos + largeNanos) + " ms, saved " + millis(-fastNanos) + " ms");
+        if (escalations == maxEscalations) {
+            LOG.infof("Model of %s escalated %d times in run %s, keeping its calls on %s", agent, escalations,
+                    run.runId(), agent);
+        }
+    }
+
+    /**
+     * Ends the routing of a run.
+     *
+     * @return the totals of the run, or null if none of its calls were routed
+     */
+    public String finish(RunContext run) {
+        RunRouting routing = runs.remove(run.runId());
+        if (routing == null) {
+            return null;
+        }
+        synchronized (routing) {
+            return String.format("%d calls on the fast tier, %d on the agents' models, %d escalated, ~%d ms saved",
+                    routing.fast, routing.large, routing.escalated, millis(routing.savedNanos));
+        }
+    }
+
+    private RunRouting routing(RunContext run) {
+        return runs.computeIfAbsent(run.runId(), id -> new RunRouting());
+    }
+
+    private Policy policy(String agent) {
+        String policy = ConfigProvider.getConfig()
+                .getOptionalValue("swarm.routing." + agent + ".policy", String.class)
+                .orElse(defaultPolicy);
+        return Policy.valueOf(policy.strip().toUpperCase(Locale.ROOT));
+    }
+
+    private int maxFastPromptTokens(String agent) {
+        return ConfigProvider.getConfig()
+                .getOptionalValue("swarm.routing." + agent + ".max-fast-prompt-tokens", Integer.class)
+                .orElse(defaultMaxFastPromptTokens);
+    }
+
+    private static boolean validArguments(ToolSpecification tool, String arguments) {
+        JsonNode json;
+        try {
+            json = arguments == null || arguments.isBlank() ? MAPPER.createObjectNode() : MAPPER.readTree(arguments);
+        } catch (Exception e) {
+            return false;
+        }
+        if (!json.isObject()) {
+            return false;
+        }
+        if (tool.parameters() != null && tool.parameters().required() != null) {
+            for (String required : tool.parameters().required()) {
+                JsonNode value = json.get(required);
+                if (value == null || value.isNull()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.dloiacono.ai.model;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.util.Set;
+
+/**
+ * A chat model whose calls are routed by the {@link ModelRouter} to an agent's own model or to a
+ * faster tier, escalating the rejected responses of the faster tier.
+ */
+final class RoutedChatModel implements ChatModel {
+
+    private final String agent;
+    private final ChatModel large;
+    private final ChatModel fast;
+    private final ModelRouter router;
+
+    RoutedChatModel(String agent, ChatModel large, ChatModel fast, ModelRouter router) {
+        this.agent = agent;
+        this.large = large;
+        this.fast = fast;
+        this.router = router;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        RunContext run = RunContext.current();
+        ModelRouter.Decision decision = router.decide(run, agent, request);
+        long start = System.nanoTime();
+        if (!decision.fast()) {
+            ChatResponse response = large.chat(request);
+            router.answeredByLarge(run, agent, decision.reason(), System.nanoTime() - start);
+            return response;
+        }
+
+        String rejection;
+        ChatResponse response = null;
+        try {
+            response = fast.chat(request);
+            rejection = router.reject(request, response);
+        } catch (RuntimeException e) {
+            rejection = "error";
+        }
+        long fastNanos = System.nanoTime() - start;
+        if (rejection == null) {
+            router.answeredByFast(run, agent, decision.reason(), fastNanos);
+            return response;
+        }
+        long escalatedAt = System.nanoTime();
+        response = large.chat(request);
+        router.escalated(run, agent, rejection, fastNanos, System.nanoTime() - escalatedAt);
+        return response;
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return large.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return large.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return large.supportedCapabilities();
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.dloiacono.ai.model;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/**
+ * A streaming chat model whose calls are routed by the {@link ModelRouter}.
+ * <p>
+ * A response of the faster tier is held back until it is complete, since it may still be
+ * rejected, and then passed on as one partial response. The agent's own model streams as usual.
+ */
+final class RoutedStreamingChatModel implements StreamingChatModel {
+
+    private final String agent;
+    private final StreamingChatModel large;
+    private final StreamingChatModel fast;
+    private final ModelRouter router;
+
+    RoutedStreamingChatModel(String agent, StreamingChatModel large, StreamingChatModel fast, ModelRouter router) {
+        this.agent = agent;
+        this.large = large;
+        this.fast = fast;
+        this.router = router;
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        RunContext run = RunContext.current();
+        ModelRouter.Decision decision = router.decide(run, agent, request);
+        long start = System.nanoTime();
+        if (!decision.fast()) {
+            large.chat(request, new Large(handler, start,
+                    nanos -> router.answeredByLarge(run, agent, decision.reason(), nanos)));
+            return;
+        }
+        fast.chat(request, new StreamingChatResponseHandler() {
+
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                // Held back until the response is checked
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse response) {
+                String rejection = router.reject(request, response);
+                if (rejection == null) {
+                    router.answeredByFast(run, agent, decision.reason(), System.nanoTime() - start);
+                    String text = response.aiMessage().text();
+                    if (text != null && !text.isEmpty()) {
+                        handler.onPartialResponse(text);
+                    }
+                    handler.onCompleteResponse(response);
+                } else {
+                    escalate(rejection);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                escalate("error");
+            }
+
+            private void escalate(String rejection) {
+                long fastNanos = System.nanoTime() - start;
+                try (RunContext.Scope scope = RunContext.bind(run)) {
+                    large.chat(request, new Large(handler, System.nanoTime(),
+                            nanos -> router.escalated(run, agent, rejection, fastNanos, nanos)));
+                }
+            }
+        });
+    }
+
+    /**
+     * Forwards a response of the agent's model, and records how long it took once complete.
+     */
+    private static final class Large implements StreamingChatResponseHandler {
+
+        private final StreamingChatResponseHandler handler;
+        private final long start;
+        private final LongConsumer completed;
+
+        Large(StreamingChatResponseHandler handler, long start, LongConsumer completed) {
+            this.handler = handler;
+            this.start = start;
+            this.completed = completed;
+        }
+
+        @Override
+        public void onPartialResponse(String partialResponse) {
+            handler.onPartialResponse(partialResponse);
+        }
+
+        @Override
+        public void onPartialThinking(PartialThinking partialThinking) {
+            handler.onPartialThinking(partialThinking);
+        }
+
+        @Override
+        public void onPartialToolCall(PartialToolCall partialToolCall) {
+            handler.onPartialToolCall(partialToolCall);
+        }
+
+        @Override
+        public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+            handler.onCompleteToolCall(completeToolCall);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse response) {
+            completed.accept(System.nanoTime() - start);
+            handler.onCompleteResponse(response);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            handler.onError(error);
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return large.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return large.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return large.supportedCapabilities();
+    }
+}
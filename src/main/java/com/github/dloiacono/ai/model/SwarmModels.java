@@ -0,0 +1,329 @@
+package com.github.dloiacono.ai.model;
+
+import com.github.dloiacono.ai.ratelimit.RateLimiter;
+import com.github.dloiacono.ai.replay.RunLog;
+import com.github.dloiacono.ai.replay.RunReplay;
+import com.github.dloiacono.ai.tools.ParallelToolCalls;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import io.quarkiverse.langchain4j.ModelName;
+import io.quarkus.arc.Arc;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The chat models of the agents, by model name: the ones configured under
+ * {@code quarkus.langchain4j.<name>}, or {@link LocalChatModel local stand-ins} for the names
+ * listed in {@code swarm.local-model.models}.
+ * <p>
+ * A local model plays the script {@code swarm.local-model.<name>.script}, or the bundled
+ * {@code local-models/<name>.script}, with the latency and token rate of
+ * {@code swarm.local-model.latency} and {@code swarm.local-model.tokens-per-second}, both of which
+ * can be overridden per model name.
+ * <p>
+ * The agents get their models through the suppliers nested here, which are created by the
+ * extension outside of CDI and look this bean up. Models are recorded to the {@link RunLog}, or
+ * replaced by its recorded responses, by the same means. Their calls are scheduled by the
+ * {@link RateLimiter}, and the file tool calls of their responses are started at once by
+ * {@link ParallelToolCalls}.
+ * <p>
+ * When the {@link ModelRouter} routes the calls of an agent, it gets both its own model and the
+ * model of its fast tier. A local fast tier plays the script of the agent, with the latency and
+ * token rate of the tier, so that routing can be tried locally with models of different speeds.
+ */
+@ApplicationScoped
+public class SwarmModels {
+
+    private static final Logger LOG = Logger.getLogger(SwarmModels.class);
+
+    @ConfigProperty(name = "swarm.local-model.models")
+    Optional<List<String>> localModels;
+
+    @ConfigProperty(name = "swarm.local-model.latency", defaultValue = "0ms")
+    Duration defaultLatency;
+
+    @ConfigProperty(name = "swarm.local-model.tokens-per-second", defaultValue = "0")
+    double defaultTokensPerSecond;
+
+    @ConfigProperty(name = "swarm.local-model.max-concurrency", defaultValue = "0")
+    int defaultMaxConcurrency;
+
+    @Inject
+    RunLog runLog;
+
+    @Inject
+    RunReplay runReplay;
+
+    @Inject
+    RateLimiter rateLimiter;
+
+    @Inject
+    ParallelToolCalls parallelToolCalls;
+
+    @Inject
+    ModelRouter modelRouter;
+
+    @Inject
+    @ModelName("supervisor")
+    Instance<ChatModel> supervisor;
+
+    @Inject
+    @ModelName("supervisor")
+    Instance<StreamingChatModel> streamingSupervisor;
+
+    @Inject
+    @ModelName("researcher")
+    Instance<ChatModel> researcher;
+
+    @Inject
+    @ModelName("researcher")
+    Instance<StreamingChatModel> streamingResearcher;
+
+    @Inject
+    @ModelName("architect")
+    Instance<ChatModel> architect;
+
+    @Inject
+    @ModelName("architect")
+    Instance<StreamingChatModel> streamingArchitect;
+
+    @Inject
+    @ModelName("coder")
+    Instance<ChatModel> coder;
+
+    @Inject
+    @ModelName("coder")
+    Instance<StreamingChatModel> streamingCoder;
+
+    @Inject
+    @ModelName("fast")
+    Instance<ChatModel> fast;
+
+    @Inject
+    @ModelName("fast")
+    Instance<StreamingChatModel> streamingFast;
+
+    private final Map<String, LocalChatModel> local = new ConcurrentHashMap<>();
+
+    /**
+     * @return the model of that name, served from the run log when replaying a run, or else rate
+     *         limited and recording its exchanges when recording runs
+     */
+    public ChatModel chatModel(String name) {
+        if (runReplay.enabled()) {
+            return parallelToolCalls.dispatching(runReplay.chatModel(name));
+        }
+        if (modelRouter.routes(name)) {
+            String tier = modelRouter.fastModel(name);
+            // The routed response is recorded once, whichever tier answered it, so a replay follows the run
+            return parallelToolCalls.dispatching(runLog.recorded(name, modelRouter.routed(name,
+                    rateLimiter.limited(name, isLocal(name), configuredChatModel(name)),
+                    rateLimiter.limited(tier, isLocal(tier), tierChatModel(name, tier)))));
+        }
+        return parallelToolCalls.dispatching(
+                rateLimiter.limited(name, isLocal(name), runLog.recorded(name, configuredChatModel(name))));
+    }
+
+    /**
+     * @see #chatModel(String)
+     */
+    public StreamingChatModel streamingChatModel(String name) {
+        if (runReplay.enabled()) {
+            return parallelToolCalls.dispatching(runReplay.streamingChatModel(name));
+        }
+        if (modelRouter.routes(name)) {
+            String tier = modelRouter.fastModel(name);
+            return parallelToolCalls.dispatching(runLog.recorded(name, modelRouter.routed(name,
+                    rateLimiter.limited(name, isLocal(name), configuredStreamingChatModel(name)),
+                    rateLimiter.limited(tier, isLocal(tier), tierStreamingChatModel(name, tier)))));
+        }
+        return parallelToolCalls.dispatching(
+                rateLimiter.limited(name, isLocal(name), runLog.recorded(name, configuredStreamingChatModel(name))));
+    }
+
+    private ChatModel configuredChatModel(String name) {
+        if (isLocal(name)) {
+            return local(name);
+        }
+        return switch (name) {
+            case "supervisor" -> supervisor.get();
+            case "researcher" -> researcher.get();
+            case "architect" -> architect.get();
+            case "coder" -> coder.get();
+            case "fast" -> fast.get();
+            default -> throw new IllegalArgumentException("Unknown model name " + name);
+        };
+    }
+
+    private StreamingChatModel configuredStreamingChatModel(String name) {
+        if (isLocal(name)) {
+            return local(name);
+        }
+        return switch (name) {
+            case "supervisor" -> streamingSupervisor.get();
+            case "researcher" -> streamingResearcher.get();
+            case "architect" -> streamingArchitect.get();
+            case "coder" -> streamingCoder.get();
+            case "fast" -> streamingFast.get();
+            default -> throw new IllegalArgumentException("Unknown model name " + name);
+        };
+    }
+
+    /**
+     * @return the model of a tier for an agent: a local model playing the agent's script, or the configured one
+     */
+    private ChatModel tierChatModel(String agent, String tier) {
+        return isLocal(tier) ? localTier(agent, tier) : configuredChatModel(tier);
+    }
+
+    private StreamingChatModel tierStreamingChatModel(String agent, String tier) {
+        return isLocal(tier) ? localTier(agent, tier) : configuredStreamingChatModel(tier);
+    }
+
+    public boolean isLocal(String name) {
+        return localModels.map(names -> names.contains(name)).orElse(false);
+    }
+
+    private LocalChatModel local(String name) {
+        return local.computeIfAbsent(name, key -> createLocal(key, name, name));
+    }
+
+    private LocalChatModel localTier(String agent, String tier) {
+        return local.computeIfAbsent(agent + "/" + tier, key -> createLocal(key, agent, tier));
+    }
+
+    /**
+     * @param name the name of the model
+     * @param scriptOf the model name whose script the model plays
+     * @param settingsOf the model name whose latency, token rate and concurrency the model has
+     */
+    private LocalChatModel createLocal(String name, String scriptOf, String settingsOf) {
+        Config config = ConfigProvider.getConfig();
+        Duration latency = config.getOptionalValue("swarm.local-model." + settingsOf + ".latency", Duration.class)
+                .orElse(defaultLatency);
+        double tokensPerSecond = config.getOptionalValue("swarm.local-model." + settingsOf + ".tokens-per-second", Double.class)
+                .orElse(defaultTokensPerSecond);
+        int maxConcurrency = config.getOptionalValue("swarm.local-model." + settingsOf + ".max-concurrency", Integer.class)
+                .orElse(defaultMaxConcurrency);
+        Optional<String> script = config.getOptionalValue("swarm.local-model." + scriptOf + ".script", String.class);
+        LOG.infof("Using a local %s model, latency %s, %s tokens/s, %s concurrent calls, script %s", name, latency,
+                tokensPerSecond > 0 ? tokensPerSecond : "unlimited", maxConcurrency > 0 ? maxConcurrency : "unlimited",
+                script.orElse("local-models/" + scriptOf + ".script"));
+        return new LocalChatModel(name, LocalModelScript.parse(script.map(SwarmModels::readFile)
+                .orElseGet(() -> readResource("local-models/" + scriptOf + ".script"))), latency, tokensPerSecond,
+                maxConcurrency);
+    }
+
+    private static String readFile(String path) {
+        try {
+            return Files.readString(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the local model script " + path, e);
+        }
+    }
+
+    private static String readResource(String name) {
+        try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalStateException("No local model script " + name + ", set swarm.local-model.<name>.script");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the local model script " + name, e);
+        }
+    }
+
+    private abstract static class ChatModelSupplier implements Supplier<ChatModel> {
+
+        private final String name;
+
+        ChatModelSupplier(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public ChatModel get() {
+            return Arc.container().instance(SwarmModels.class).get().chatModel(name);
+        }
+    }
+
+    private abstract static class StreamingChatModelSupplier implements Supplier<StreamingChatModel> {
+
+        private final String name;
+
+        StreamingChatModelSupplier(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public StreamingChatModel get() {
+            return Arc.container().instance(SwarmModels.class).get().streamingChatModel(name);
+        }
+    }
+
+    public static class Supervisor extends ChatModelSupplier {
+        public Supervisor() {
+            super("supervisor");
+        }
+    }
+
+    public static class StreamingSupervisor extends StreamingChatModelSupplier {
+        public StreamingSupervisor() {
+            super("supervisor");
+        }
+    }
+
+    public static class Researcher extends ChatModelSupplier {
+        public Researcher() {
+            super("researcher");
+        }
+    }
+
+    public static class StreamingResearcher extends StreamingChatModelSupplier {
+        public StreamingResearcher() {
+            super("researcher");
+        }
+    }
+
+    public static class Architect extends ChatModelSupplier {
+        public Architect() {
+            super("architect");
+        }
+    }
+
+    public static class StreamingArchitect extends StreamingChatModelSupplier {
+        public StreamingArchitect() {
+            super("architect");
+        }
+    }
+
+    public static class Coder extends ChatModelSupplier {
+        public Coder() {
+            super("coder");
+        }
+    }
+
+    public static class StreamingCoder extends StreamingChatModelSupplier {
+        public StreamingCoder() {
+            super("coder");
+        }
+    }
+}
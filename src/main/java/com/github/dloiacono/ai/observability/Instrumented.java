@@ -0,0 +1,18 @@
+package com.github.dloiacono.ai.observability;
+
+import jakarta.interceptor.InterceptorBinding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Records the latency and outcome of every {@link dev.langchain4j.agent.tool.Tool} method of the
+ * annotated bean, see {@link ToolCallInterceptor}.
+ */
+@InterceptorBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Instrumented {
+}
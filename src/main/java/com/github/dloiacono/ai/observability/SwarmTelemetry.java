@@ -0,0 +1,188 @@
+package com.github.dloiacono.ai.observability;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics and spans of the swarm itself, next to the ones the LangChain4j extension records for
+ * agents and model calls (latency, input and output tokens, one span per agent and tool call).
+ */
+@ApplicationScoped
+public class SwarmTelemetry {
+
+    public static final AttributeKey<String> RUN_ID = AttributeKey.stringKey("swarm.run.id");
+    public static final AttributeKey<String> STEP = AttributeKey.stringKey("swarm.step");
+    public static final AttributeKey<Boolean> RESUMED = AttributeKey.booleanKey("swarm.step.resumed");
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    Tracer tracer;
+
+    /**
+     * Records bytes read from disk by a tool.
+     */
+    public void bytesRead(String tool, long bytes) {
+        Counter.builder("swarm.tool.bytes.read")
+                .description("Bytes read from disk by the tools")
+                .baseUnit("bytes")
+                .tag("tool", tool)
+                .register(registry)
+                .increment(bytes);
+    }
+
+    /**
+     * Records bytes written to disk by a tool.
+     */
+    public void bytesWritten(String tool, long bytes) {
+        Counter.builder("swarm.tool.bytes.written")
+                .description("Bytes written to disk by the tools")
+                .baseUnit("bytes")
+                .tag("tool", tool)
+                .register(registry)
+                .increment(bytes);
+    }
+
+    /**
+     * Records a call to a model delayed by its request or token rate limit.
+     */
+    public void modelThrottled(String model, long waitNanos) {
+        Timer.builder("swarm.model.throttled")
+                .description("Time calls to the models waited for their rate limits")
+                .tag("model", model)
+                .register(registry)
+                .record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a retried call to a model.
+     *
+     * @param reason why the call failed, {@code rate_limited} or {@code transient}
+     */
+    public void modelRetried(String model, String reason) {
+        Counter.builder("swarm.model.retries")
+                .description("Calls to the models retried after a rate limit or a failure")
+                .tag("model", model)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Records a call to a model routed to a tier by the model router.
+     *
+     * @param agent the model name of the agent
+     * @param tier the model name of the tier that answered
+     * @param reason why the tier was chosen, or why the call was escalated
+     */
+    public void modelRouted(String agent, String tier, String reason, long nanos) {
+        Timer.builder("swarm.model.routed")
+                .description("Calls to the models by the tier that answered them")
+                .tag("agent", agent)
+                .tag("tier", tier)
+                .tag("reason", reason)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the time a call answered by a faster tier saved, as estimated by the model router.
+     */
+    public void routingSaved(String agent, long nanos) {
+        Counter.builder("swarm.model.routing.saved")
+                .description("Estimated time saved by the calls answered by a faster tier")
+                .baseUnit("seconds")
+                .tag("agent", agent)
+                .register(registry)
+                .increment(nanos / 1e9);
+    }
+
+    /**
+     * Publishes the adaptive concurrency limit of a rate limiting scope.
+     */
+    public void concurrencyLimit(String scope, Supplier<Number> limit) {
+        Gauge.builder("swarm.model.concurrency.limit", limit)
+                .description("Concurrent calls allowed to an API key or a model")
+                .tag("scope", scope)
+                .strongReference(true)
+                .register(registry);
+    }
+
+    /**
+     * Runs a workflow step in its own span, nested in the current one, and times it.
+     *
+     * @param runId the run the step belongs to
+     * @param step the step name, such as {@code research} or {@code implementation/module-1}
+     * @param work the step
+     * @return the result of the step
+     */
+    public <T> T step(String runId, String step, Callable<T> work) throws Exception {
+        Span span = tracer.spanBuilder("swarm " + step)
+                .setAttribute(RUN_ID, runId)
+                .setAttribute(STEP, step)
+                .startSpan();
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "failed";
+        try (Scope scope = span.makeCurrent()) {
+            T result = work.call();
+            outcome = "completed";
+            return result;
+        } catch (Exception e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+            int slash = step.indexOf('/');
+            sample.stop(Timer.builder("swarm.phase.duration")
+                    .description("Duration of the workflow phases and of their parallel branches")
+                    .tag("phase", slash < 0 ? step : step.substring(0, slash))
+                    .tag("branch", String.valueOf(slash >= 0))
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Marks the current step as resumed from a checkpoint.
+     */
+    public void resumed() {
+        Span.current().setAttribute(RESUMED, true);
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of a text without encoding it.
+     */
+    public static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.dloiacono.ai.observability;
+
+import com.github.dloiacono.ai.replay.RunLog;
+import com.github.dloiacono.ai.replay.RunReplay;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import com.github.dloiacono.ai.tools.ParallelToolCalls;
+import dev.langchain4j.agent.tool.Tool;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Times every tool call of {@link Instrumented} beans, tagged with the tool, the method and the
+ * outcome. Tools report failures as strings, so a result starting with {@code Error} or
+ * {@code Conflict} counts as a failed call.
+ * <p>
+ * On streaming runs, every call and its outcome are also published as {@link RunEvent}s. Calls
+ * are also recorded to the {@link RunLog}, and checked against it when replaying a run.
+ * <p>
+ * A call already started by {@link ParallelToolCalls} is not run again: it returns the result of
+ * the started call, which was timed and recorded on its own thread.
+ */
+@Instrumented
+@Interceptor
+@Priority(Interceptor.Priority.APPLICATION)
+public class ToolCallInterceptor {
+
+    /** Longest argument summary published with a tool call event. */
+    private static final int MAX_SUMMARY_CHARS = 200;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    RunLog runLog;
+
+    @Inject
+    RunReplay runReplay;
+
+    @Inject
+    ParallelToolCalls parallelToolCalls;
+
+    @AroundInvoke
+    Object timeToolCall(InvocationContext context) throws Exception {
+        if (!context.getMethod().isAnnotationPresent(Tool.class)) {
+            return context.proceed();
+        }
+        RunContext run = RunContext.current();
+        CompletableFuture<Object> dispatched = parallelToolCalls.take(run, context.getMethod(), context.getParameters());
+        if (dispatched != null) {
+            return ParallelToolCalls.await(dispatched);
+        }
+        String source = context.getMethod().getDeclaringClass().getSimpleName() + "." + context.getMethod().getName();
+        if (run.streaming()) {
+            run.emit(RunEvent.Type.TOOL_CALL, source, summarize(context.getParameters()));
+        }
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "exception";
+        Object result = null;
+        try {
+            result = context.proceed();
+            outcome = outcomeOf(result);
+            return result;
+        } catch (Exception e) {
+            result = "Exception: " + e.getMessage();
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("swarm.tool.calls")
+                    .description("Latency of the tool calls made by the agents")
+                    .tag("tool", context.getMethod().getDeclaringClass().getSimpleName())
+                    .tag("method", context.getMethod().getName())
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            if (run.streaming()) {
+                run.emit(RunEvent.Type.TOOL_RESULT, source,
+                        outcome + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            runLog.tool(run, source, context.getParameters(), result, startedAt, System.nanoTime() - start);
+            runReplay.toolCalled(source, context.getParameters(), result);
+        }
+    }
+
+    /**
+     * @return the first argument of a call, usually the path or the request, cut to a readable length
+     */
+    private static String summarize(Object[] parameters) {
+        if (parameters == null || parameters.length == 0 || parameters[0] == null) {
+            return "";
+        }
+        String first = String.valueOf(parameters[0]);
+        return first.length() <= MAX_SUMMARY_CHARS ? first : first.substring(0, MAX_SUMMARY_CHARS) + "...";
+    }
+
+    private static String outcomeOf(Object result) {
+        if (result instanceof String text) {
+            if (text.startsWith("Error")) {
+                return "error";
+            }
+            if (text.startsWith("Conflict")) {
+                return "conflict";
+            }
+        }
+        return "success";
+    }
+}
@@ -0,0 +1,418 @@
+package com.github.dloiacono.ai.project;
+
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.tree.ModifiersTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.tree.TypeParameterTree;
+import com.sun.source.tree.VariableTree;
+import com.sun.source.util.JavacTask;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.lang.model.element.Modifier;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Compact skeletons of the source and build files of a project: the types, fields, signatures
+ * and annotations of Java sources, without the method bodies, and the coordinates, modules,
+ * dependencies and plugins of Maven and Gradle builds.
+ * <p>
+ * Outlines are cached by file hash, so only the files changed since the last outline are parsed
+ * again. Java sources are parsed with the JDK compiler's tree API, all the changed files of a call
+ * in a single parse; when no compiler is available, as in a JRE, they are only listed.
+ */
+@ApplicationScoped
+public class CodeOutline {
+
+    private static final Logger LOG = Logger.getLogger(CodeOutline.class);
+
+    /** Annotation arguments longer than this, such as prompts, are elided. */
+    private static final int MAX_ANNOTATION_ARGUMENTS_CHARS = 60;
+
+    private static final Pattern GRADLE_LINE = Pattern.compile(
+            "^\\s*(id\\b|kotlin\\(|`?java`?\\b|application\\b|include\\b|group\\s*=|version\\s*=|rootProject\\.name"
+                    + "|(implementation|api|compileOnly|runtimeOnly|testImplementation|testRuntimeOnly|testCompileOnly"
+                    + "|annotationProcessor|kapt|ksp|developmentOnly|platform|enforcedPlatform)\\b).*");
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    @ConfigProperty(name = "swarm.outline.cache-entries", defaultValue = "20000")
+    int cacheEntries;
+
+    private final Map<String, String> cache = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > cacheEntries;
+        }
+    };
+
+    /**
+     * @return whether a file is outlined rather than just listed
+     */
+    public static boolean isOutlined(String relativePath) {
+        String name = fileName(relativePath);
+        return name.endsWith(".java") || name.equals("pom.xml") || isGradle(name);
+    }
+
+    /**
+     * Outlines files of a project.
+     *
+     * @param root the project directory
+     * @param entries the files to outline, see {@link #isOutlined(String)}
+     * @return the outline of each file, by relative path, in the order of the entries
+     */
+    public Map<String, String> outline(Path root, List<ProjectIndex.Entry> entries) {
+        Map<String, String> outlines = new LinkedHashMap<>();
+        Map<String, String> uncachedSources = new LinkedHashMap<>();
+        Map<String, ProjectIndex.Entry> byPath = new LinkedHashMap<>();
+        for (ProjectIndex.Entry entry : entries) {
+            outlines.put(entry.relativePath(), null);
+            byPath.put(entry.relativePath(), entry);
+            String cached = cached(entry);
+            if (cached != null) {
+                outlines.put(entry.relativePath(), cached);
+                continue;
+            }
+            String content;
+            try {
+                content = projectIndex.content(root, entry);
+            } catch (IOException e) {
+                outlines.put(entry.relativePath(), "Error reading file: " + e.getMessage() + "\n");
+                continue;
+            }
+            String name = fileName(entry.relativePath());
+            if (name.endsWith(".java")) {
+                uncachedSources.put(entry.relativePath(), content);
+            } else {
+                String outline = name.equals("pom.xml") ? outlinePom(content) : outlineGradle(content);
+                outlines.put(entry.relativePath(), cache(entry, outline));
+            }
+        }
+        if (!uncachedSources.isEmpty()) {
+            parseJava(uncachedSources).forEach((relativePath, outline) ->
+                    outlines.put(relativePath, cache(byPath.get(relativePath), outline)));
+        }
+        return outlines;
+    }
+
+    private String cached(ProjectIndex.Entry entry) {
+        synchronized (cache) {
+            return cache.get(cacheKey(entry));
+        }
+    }
+
+    private String cache(ProjectIndex.Entry entry, String outline) {
+        synchronized (cache) {
+            cache.put(cacheKey(entry), outline);
+        }
+        return outline;
+    }
+
+    private static String cacheKey(ProjectIndex.Entry entry) {
+        // The same content outlines differently as a source or as a build file
+        return fileName(entry.relativePath()) + ":" + entry.hash();
+    }
+
+    private static Map<String, String> parseJava(Map<String, String> sources) {
+        Map<String, String> outlines = new LinkedHashMap<>();
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            sources.keySet().forEach(relativePath -> outlines.put(relativePath, "(no Java compiler available to outline it)\n"));
+            return outlines;
+        }
+        List<JavaFileObject> files = new ArrayList<>(sources.size());
+        Map<URI, String> paths = new LinkedHashMap<>();
+        sources.forEach((relativePath, content) -> {
+            // Named by position, relative paths are not always valid URIs
+            URI uri = URI.create("string:///source-" + paths.size() + ".java");
+            paths.put(uri, relativePath);
+            files.add(new SimpleJavaFileObject(uri, JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return content;
+                }
+            });
+        });
+        try {
+            // Syntax errors still produce a tree, so diagnostics are simply ignored
+            JavacTask task = (JavacTask) compiler.getTask(null, null, diagnostic -> { }, List.of("-proc:none"), null, files);
+            for (CompilationUnitTree unit : task.parse()) {
+                outlines.put(paths.get(unit.getSourceFile().toUri()), outlineUnit(unit));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf("Could not parse %d Java sources: %s", sources.size(), e.getMessage());
+            sources.keySet().forEach(relativePath -> outlines.putIfAbsent(relativePath, "(could not be parsed)\n"));
+        }
+        return outlines;
+    }
+
+    private static String outlineUnit(CompilationUnitTree unit) {
+        StringBuilder outline = new StringBuilder();
+        if (unit.getPackageName() != null) {
+            outline.append("package ").append(unit.getPackageName()).append(";\n");
+        }
+        for (Tree type : unit.getTypeDecls()) {
+            if (type instanceof ClassTree classTree) {
+                outlineClass(classTree, "", outline);
+            }
+        }
+        return outline.toString();
+    }
+
+    private static void outlineClass(ClassTree type, String indent, StringBuilder outline) {
+        outline.append(indent).append(modifiers(type.getModifiers(), "\n" + indent));
+        outline.append(switch (type.getKind()) {
+            case INTERFACE -> "interface ";
+            case ENUM -> "enum ";
+            case RECORD -> "record ";
+            case ANNOTATION_TYPE -> "@interface ";
+            default -> "class ";
+        });
+        outline.append(type.getSimpleName()).append(typeParameters(type.getTypeParameters()));
+
+        List<String> components = new ArrayList<>();
+        List<String> constants = new ArrayList<>();
+        List<Tree> members = new ArrayList<>();
+        for (Tree member : type.getMembers()) {
+            if (member instanceof VariableTree variable && type.getKind() == Tree.Kind.RECORD
+                    && !variable.getModifiers().getFlags().contains(Modifier.STATIC)) {
+                components.add(variable.getType() + " " + variable.getName());
+            } else if (member instanceof VariableTree variable && isEnumConstant(type, variable)) {
+                constants.add(variable.getName().toString());
+            } else {
+                members.add(member);
+            }
+        }
+        if (type.getKind() == Tree.Kind.RECORD) {
+            outline.append('(').append(String.join(", ", components)).append(')');
+        }
+        if (type.getExtendsClause() != null) {
+            outline.append(" extends ").append(type.getExtendsClause());
+        }
+        if (!type.getImplementsClause().isEmpty()) {
+            outline.append(type.getKind() == Tree.Kind.INTERFACE ? " extends " : " implements ")
+                    .append(join(type.getImplementsClause()));
+        }
+        outline.append(" {\n");
+        String memberIndent = indent + "    ";
+        if (!constants.isEmpty()) {
+            outline.append(memberIndent).append(String.join(", ", constants)).append(";\n");
+        }
+        for (Tree member : members) {
+            if (member instanceof ClassTree nested) {
+                outlineClass(nested, memberIndent, outline);
+            } else if (member instanceof MethodTree method) {
+                if (type.getKind() == Tree.Kind.RECORD && method.getName().contentEquals("<init>")
+                        && method.getParameters().isEmpty()) {
+                    // Compact canonical constructor, already described by the record header
+                    continue;
+                }
+                outline.append(memberIndent).append(signature(type, method)).append(";\n");
+            } else if (member instanceof VariableTree field) {
+                outline.append(memberIndent).append(modifiers(field.getModifiers(), " "))
+                        .append(field.getType()).append(' ').append(field.getName()).append(";\n");
+            }
+        }
+        outline.append(indent).append("}\n");
+    }
+
+    private static boolean isEnumConstant(ClassTree type, VariableTree variable) {
+        return type.getKind() == Tree.Kind.ENUM
+                && variable.getInitializer() instanceof NewClassTree creation
+                && creation.getIdentifier().toString().equals(type.getSimpleName().toString());
+    }
+
+    private static String signature(ClassTree type, MethodTree method) {
+        StringBuilder signature = new StringBuilder(modifiers(method.getModifiers(), " "));
+        String typeParameters = typeParameters(method.getTypeParameters());
+        if (!typeParameters.isEmpty()) {
+            signature.append(typeParameters).append(' ');
+        }
+        if (method.getName().contentEquals("<init>")) {
+            signature.append(type.getSimpleName());
+        } else {
+            signature.append(method.getReturnType()).append(' ').append(method.getName());
+        }
+        signature.append('(').append(method.getParameters().stream()
+                .map(parameter -> annotations(parameter.getModifiers(), " ") + parameter.getType() + " " + parameter.getName())
+                .collect(Collectors.joining(", "))).append(')');
+        if (!method.getThrows().isEmpty()) {
+            signature.append(" throws ").append(join(method.getThrows()));
+        }
+        if (method.getDefaultValue() != null) {
+            signature.append(" default ").append(method.getDefaultValue());
+        }
+        return signature.toString();
+    }
+
+    /**
+     * @param annotationSeparator what follows each annotation, a new line for types
+     * @return the annotations and modifiers
+     */
+    private static String modifiers(ModifiersTree modifiers, String annotationSeparator) {
+        StringBuilder text = new StringBuilder(annotations(modifiers, annotationSeparator));
+        for (Modifier modifier : modifiers.getFlags()) {
+            text.append(modifier).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static String annotations(ModifiersTree modifiers, String separator) {
+        StringBuilder text = new StringBuilder();
+        for (AnnotationTree annotation : modifiers.getAnnotations()) {
+            text.append('@').append(annotation.getAnnotationType());
+            if (!annotation.getArguments().isEmpty()) {
+                String arguments = join(annotation.getArguments());
+                text.append('(').append(arguments.length() <= MAX_ANNOTATION_ARGUMENTS_CHARS ? arguments : "...").append(')');
+            }
+            text.append(separator);
+        }
+        return text.toString();
+    }
+
+    private static String typeParameters(List<? extends TypeParameterTree> parameters) {
+        return parameters.isEmpty() ? "" : "<" + join(parameters) + ">";
+    }
+
+    private static String join(List<? extends Tree> trees) {
+        return trees.stream().map(Tree::toString).collect(Collectors.joining(", "));
+    }
+
+    static String outlinePom(String content) {
+        Document pom;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+            pom = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            return "(invalid pom.xml: " + e.getMessage() + ")\n";
+        }
+        Element project = pom.getDocumentElement();
+        StringBuilder outline = new StringBuilder();
+        Element parent = child(project, "parent");
+        if (parent != null) {
+            outline.append("parent: ").append(coordinates(parent)).append('\n');
+        }
+        outline.append("project: ").append(coordinates(project));
+        String packaging = text(project, "packaging");
+        outline.append(packaging != null ? " (" + packaging + ")" : "").append('\n');
+        appendList(outline, "modules", children(child(project, "modules"), "module").stream().map(Node::getTextContent).toList());
+        Element dependencyManagement = child(project, "dependencyManagement");
+        appendList(outline, "managed dependencies", dependencies(child(dependencyManagement, "dependencies")));
+        appendList(outline, "dependencies", dependencies(child(project, "dependencies")));
+        Element build = child(project, "build");
+        appendList(outline, "plugins", children(child(build, "plugins"), "plugin").stream().map(CodeOutline::coordinates).toList());
+        List<String> profiles = children(child(project, "profiles"), "profile").stream()
+                .map(profile -> text(profile, "id"))
+                .toList();
+        appendList(outline, "profiles", profiles);
+        return outline.toString();
+    }
+
+    private static List<String> dependencies(Element dependencies) {
+        return children(dependencies, "dependency").stream()
+                .map(dependency -> {
+                    String scope = text(dependency, "scope");
+                    String type = text(dependency, "type");
+                    return coordinates(dependency) + (type != null ? " " + type : "") + (scope != null ? " [" + scope + "]" : "");
+                })
+                .toList();
+    }
+
+    private static String coordinates(Element element) {
+        String groupId = text(element, "groupId");
+        String version = text(element, "version");
+        return (groupId != null ? groupId : "") + ":" + text(element, "artifactId") + (version != null ? ":" + version : "");
+    }
+
+    private static void appendList(StringBuilder outline, String title, List<String> items) {
+        if (items.isEmpty()) {
+            return;
+        }
+        outline.append(title).append(":\n");
+        for (String item : items) {
+            outline.append("  ").append(item).append('\n');
+        }
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> children = children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        if (parent == null) {
+            return children;
+        }
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i) instanceof Element element && element.getTagName().equals(name)) {
+                children.add(element);
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element parent, String name) {
+        Element child = child(parent, name);
+        return child == null ? null : child.getTextContent().strip();
+    }
+
+    /**
+     * Keeps the lines of a Gradle build or settings script that declare plugins, coordinates,
+     * included modules and dependencies. Gradle scripts are programs, so this is a best effort.
+     */
+    static String outlineGradle(String content) {
+        StringBuilder outline = new StringBuilder();
+        for (String line : content.split("\n")) {
+            Matcher matcher = GRADLE_LINE.matcher(line);
+            if (matcher.matches()) {
+                outline.append(line.strip()).append('\n');
+            }
+        }
+        return outline.isEmpty() ? "(no plugins, modules or dependencies declared)\n" : outline.toString();
+    }
+
+    private static boolean isGradle(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.equals("build.gradle") || lower.equals("build.gradle.kts")
+                || lower.equals("settings.gradle") || lower.equals("settings.gradle.kts");
+    }
+
+    private static String fileName(String relativePath) {
+        int slash = relativePath.lastIndexOf('/');
+        return slash < 0 ? relativePath : relativePath.substring(slash + 1);
+    }
+}
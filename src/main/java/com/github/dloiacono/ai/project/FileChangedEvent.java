@@ -0,0 +1,12 @@
+package com.github.dloiacono.ai.project;
+
+import java.nio.file.Path;
+
+/**
+ * CDI event fired after a tool has changed a file, so indexes and caches can update the entry
+ * instead of rescanning the project.
+ *
+ * @param path the absolute, normalized path of the changed file
+ */
+public record FileChangedEvent(Path path) {
+}
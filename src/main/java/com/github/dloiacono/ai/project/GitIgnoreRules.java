@@ -0,0 +1,141 @@
+package com.github.dloiacono.ai.project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The ignore rules that apply to one directory: the patterns of its own {@code .gitignore}
+ * layered on top of the rules inherited from its parent directories.
+ */
+public final class GitIgnoreRules {
+
+    public static final GitIgnoreRules NONE = new GitIgnoreRules(null, null, List.of());
+
+    private final GitIgnoreRules parent;
+    private final Path base;
+    private final List<Rule> rules;
+
+    private GitIgnoreRules(GitIgnoreRules parent, Path base, List<Rule> rules) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+    }
+
+    /**
+     * Returns the rules for a directory, reading its {@code .gitignore} if there is one.
+     *
+     * @param parent the rules inherited from the parent directory
+     * @param directory the directory being entered
+     * @return the rules for the directory, or {@code parent} when it has no {@code .gitignore}
+     */
+    public static GitIgnoreRules forDirectory(GitIgnoreRules parent, Path directory) {
+        Path gitignore = directory.resolve(".gitignore");
+        if (!Files.isRegularFile(gitignore)) {
+            return parent;
+        }
+        try {
+            List<Rule> rules = new ArrayList<>();
+            for (String line : Files.readAllLines(gitignore)) {
+                Rule rule = Rule.parse(line);
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+            return rules.isEmpty() ? parent : new GitIgnoreRules(parent, directory, List.copyOf(rules));
+        } catch (IOException e) {
+            // An unreadable .gitignore should not hide the rest of the project
+            return parent;
+        }
+    }
+
+    /**
+     * Checks whether a path is ignored. Later and deeper rules win, as in git.
+     *
+     * @param path the path to check
+     * @param directory whether the path is a directory
+     * @return true if the path is ignored
+     */
+    public boolean isIgnored(Path path, boolean directory) {
+        boolean ignored = parent != null && parent.isIgnored(path, directory);
+        if (base == null || !path.startsWith(base)) {
+            return ignored;
+        }
+        String relative = base.relativize(path).toString().replace('\\', '/');
+        for (Rule rule : rules) {
+            if ((!rule.directoryOnly || directory) && rule.pattern.matcher(relative).matches()) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    private record Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+
+        static Rule parse(String line) {
+            String pattern = line.stripTrailing();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                return null;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            // A slash anywhere but at the end anchors the pattern to the .gitignore directory
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                return null;
+            }
+            String regex = (anchored ? "" : "(?:.*/)?") + globToRegex(pattern);
+            return new Rule(Pattern.compile(regex), negated, directoryOnly);
+        }
+
+        private static String globToRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*') {
+                    boolean doubleStar = i + 1 < glob.length() && glob.charAt(i + 1) == '*';
+                    if (doubleStar && i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                        regex.append("(?:.*/)?");
+                        i += 2;
+                    } else if (doubleStar) {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else if (c == '[') {
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String set = glob.substring(i + 1, end);
+                        if (set.startsWith("!")) {
+                            set = "^" + set.substring(1);
+                        }
+                        regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                        i = end;
+                    }
+                } else if (c == '\\' && i + 1 < glob.length()) {
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.github.dloiacono.ai.project;
+
+import com.github.dloiacono.ai.project.ProjectScanner.ProjectFile;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent, incrementally updated index of the files of each project the tools work on.
+ * <p>
+ * The first query for a project loads the index from disk (or builds it), later queries only
+ * re-stat the tree once the refresh interval has passed and re-read the files whose size or
+ * modification time changed. Files written through the tools are updated as soon as the
+ * {@link FileChangedEvent} is observed. Only projects on the default file system are persisted; the
+ * index of an in-memory workspace lives as long as the workspace.
+ */
+@ApplicationScoped
+public class ProjectIndex {
+
+    private static final Logger LOG = Logger.getLogger(ProjectIndex.class);
+
+    private static final int MAGIC = 0x53574958; // "SWIX"
+    private static final int VERSION = 1;
+
+    @ConfigProperty(name = "swarm.index.directory", defaultValue = "target/swarm-index")
+    String indexDirectory;
+
+    @ConfigProperty(name = "swarm.index.refresh-interval", defaultValue = "5s")
+    Duration refreshInterval;
+
+    @ConfigProperty(name = "swarm.index.max-cached-file-bytes", defaultValue = "262144")
+    long maxCachedFileBytes;
+
+    private final Map<Path, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, PathMatcher> matchers = new ConcurrentHashMap<>();
+
+    /**
+     * An indexed file.
+     *
+     * @param relativePath the path relative to the project root, with '/' separators
+     * @param size the size in bytes
+     * @param lastModified the last modification time in milliseconds
+     * @param hash the hex encoded SHA-256 of the content
+     * @param binary whether the file looks binary
+     * @param text the cached content, or null for binary files and files over the cache limit
+     */
+    public record Entry(String relativePath, long size, long lastModified, String hash, boolean binary, String text) {
+    }
+
+    /**
+     * Returns the indexed files whose relative path or file name matches a glob pattern.
+     *
+     * @param root the project directory
+     * @param glob the glob pattern, e.g. {@code **}{@code /*.java}
+     * @return the matching entries, sorted by relative path
+     */
+    public List<Entry> find(Path root, String glob) {
+        PathMatcher matcher = matchers.computeIfAbsent(glob, g -> FileSystems.getDefault().getPathMatcher("glob:" + g));
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : snapshot(root).entries()) {
+            Path relativePath = Paths.get(entry.relativePath());
+            if (matcher.matches(relativePath) || matcher.matches(relativePath.getFileName())) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all indexed files of a project.
+     *
+     * @param root the project directory
+     * @return the entries, sorted by relative path
+     */
+    public List<Entry> entries(Path root) {
+        return snapshot(root).entries();
+    }
+
+    /**
+     * Returns the content of an indexed file, from the cache when possible.
+     *
+     * @param root the project directory
+     * @param entry the entry to read
+     * @return the text content of the file
+     * @throws IOException if the file is not cached and cannot be read
+     */
+    public String content(Path root, Entry entry) throws IOException {
+        if (entry.text() != null) {
+            return entry.text();
+        }
+        return Files.readString(root.toAbsolutePath().normalize().resolve(entry.relativePath()));
+    }
+
+    void onFileChanged(@Observes FileChangedEvent event) {
+        for (Snapshot snapshot : snapshots.values()) {
+            if (event.path().startsWith(snapshot.root)) {
+                snapshot.update(event.path());
+            }
+        }
+    }
+
+    void onWorkspaceClosed(@Observes WorkspaceClosedEvent event) {
+        snapshots.keySet().removeIf(root -> root.startsWith(event.root()));
+    }
+
+    private Snapshot snapshot(Path root) {
+        Path normalized = root.toAbsolutePath().normalize();
+        Snapshot snapshot = snapshots.computeIfAbsent(normalized, Snapshot::new);
+        snapshot.refreshIfStale();
+        return snapshot;
+    }
+
+    private final class Snapshot {
+
+        private final Path root;
+        private final Path indexFile;
+        private final TreeMap<String, Entry> entries = new TreeMap<>();
+        private long lastRefresh;
+        private boolean loaded;
+        private boolean dirty;
+
+        Snapshot(Path root) {
+            this.root = root;
+            this.indexFile = Paths.get(indexDirectory).toAbsolutePath()
+                    .resolve(hex(sha256(root.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16) + ".idx");
+        }
+
+        synchronized List<Entry> entries() {
+            return List.copyOf(entries.values());
+        }
+
+        synchronized void refreshIfStale() {
+            if (!loaded) {
+                load();
+                loaded = true;
+            } else if (System.currentTimeMillis() - lastRefresh < refreshInterval.toMillis()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            int reread = 0;
+            TreeMap<String, Entry> previous = new TreeMap<>(entries);
+            entries.clear();
+            for (ProjectFile file : ProjectScanner.scan(root).files()) {
+                Entry known = previous.remove(file.relativePath());
+                if (known != null && known.size() == file.size() && known.lastModified() == file.lastModified()) {
+                    entries.put(file.relativePath(), known);
+                } else {
+                    Entry entry = read(file.path(), file.relativePath(), file.size(), file.lastModified());
+                    if (entry != null) {
+                        entries.put(file.relativePath(), entry);
+                        reread++;
+                    }
+                }
+            }
+            dirty |= reread > 0 || !previous.isEmpty();
+            lastRefresh = System.currentTimeMillis();
+            LOG.debugf("Refreshed index of %s in %d ms: %d files, %d re-read, %d removed",
+                    root, (System.nanoTime() - start) / 1_000_000, entries.size(), reread, previous.size());
+            save();
+        }
+
+        synchronized void update(Path file) {
+            Path relative = root.relativize(file);
+            if (relative.getParent() != null) {
+                for (Path segment : relative.getParent()) {
+                    if (ProjectScanner.isSkippedDirectory(segment.toString())) {
+                        return;
+                    }
+                }
+            }
+            String relativePath = relative.toString().replace('\\', '/');
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                Entry entry = read(file, relativePath, attrs.size(), attrs.lastModifiedTime().toMillis());
+                if (entry != null) {
+                    entries.put(relativePath, entry);
+                }
+            } catch (IOException e) {
+                entries.remove(relativePath);
+            }
+            dirty = true;
+        }
+
+        private Entry read(Path file, String relativePath, long size, long lastModified) {
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                boolean binary = TextFiles.isBinary(bytes, bytes.length);
+                String text = !binary && bytes.length <= maxCachedFileBytes ? TextFiles.decode(bytes) : null;
+                return new Entry(relativePath, size, lastModified, hex(sha256(bytes)), binary, text);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private boolean persistent() {
+            return root.getFileSystem() == FileSystems.getDefault();
+        }
+
+        private void load() {
+            if (!persistent() || !Files.isRegularFile(indexFile)) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString())) {
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String relativePath = in.readUTF();
+                    long size = in.readLong();
+                    long lastModified = in.readLong();
+                    String hash = in.readUTF();
+                    boolean binary = in.readBoolean();
+                    String text = null;
+                    if (in.readBoolean()) {
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        text = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    entries.put(relativePath, new Entry(relativePath, size, lastModified, hash, binary, text));
+                }
+            } catch (IOException e) {
+                LOG.warnf("Discarding unreadable project index %s: %s", indexFile, e.getMessage());
+                entries.clear();
+            }
+        }
+
+        private void save() {
+            if (!dirty || !persistent()) {
+                return;
+            }
+            try {
+                Files.createDirectories(indexFile.getParent());
+                Path temp = Files.createTempFile(indexFile.getParent(), "index", ".tmp");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(root.toString());
+                    out.writeInt(entries.size());
+                    for (Entry entry : entries.values()) {
+                        out.writeUTF(entry.relativePath());
+                        out.writeLong(entry.size());
+                        out.writeLong(entry.lastModified());
+                        out.writeUTF(entry.hash());
+                        out.writeBoolean(entry.binary());
+                        out.writeBoolean(entry.text() != null);
+                        if (entry.text() != null) {
+                            byte[] bytes = entry.text().getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                        }
+                    }
+                }
+                Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                dirty = false;
+            } catch (IOException e) {
+                // The in-memory index stays valid, it will simply be rebuilt on the next start
+                LOG.warnf("Could not persist project index %s: %s", indexFile, e.getMessage());
+            }
+        }
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+}
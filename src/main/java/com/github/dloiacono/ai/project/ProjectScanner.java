@@ -0,0 +1,135 @@
+package com.github.dloiacono.ai.project;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Lists the files of a project without reading them. Directories are walked in parallel on the
+ * common fork/join pool, honouring {@code .gitignore} files and skipping hidden and build directories.
+ */
+public final class ProjectScanner {
+
+    /** Directories that only contain build output or caches. */
+    public static final Set<String> SKIPPED_DIRECTORIES =
+            Set.of("target", "build", "node_modules", "__pycache__", "dist", "out");
+
+    private ProjectScanner() {
+    }
+
+    /**
+     * A file found by the scanner.
+     *
+     * @param path the absolute path of the file
+     * @param relativePath the path relative to the scanned root, with '/' separators
+     * @param size the size in bytes
+     * @param lastModified the last modification time in milliseconds
+     */
+    public record ProjectFile(Path path, String relativePath, long size, long lastModified) {
+    }
+
+    /**
+     * The outcome of a scan.
+     *
+     * @param files the files found, sorted by relative path
+     * @param ignoredEntries the number of files and directories excluded by {@code .gitignore} rules
+     */
+    public record ScanResult(List<ProjectFile> files, int ignoredEntries) {
+    }
+
+    /**
+     * Scans a project directory.
+     *
+     * @param root the project directory
+     * @return the files of the project
+     */
+    public static ScanResult scan(Path root) {
+        DirectoryTask task = new DirectoryTask(root, root, GitIgnoreRules.NONE);
+        List<ProjectFile> files = ForkJoinPool.commonPool().invoke(task);
+        files.sort(Comparator.comparing(ProjectFile::relativePath));
+        return new ScanResult(files, task.ignoredEntries());
+    }
+
+    /**
+     * Checks whether a directory is skipped regardless of {@code .gitignore} rules.
+     *
+     * @param name the directory name
+     * @return true for hidden and build directories
+     */
+    public static boolean isSkippedDirectory(String name) {
+        return (name.startsWith(".") && !name.equals(".") && !name.equals(".."))
+                || SKIPPED_DIRECTORIES.contains(name);
+    }
+
+    private static final class DirectoryTask extends RecursiveTask<List<ProjectFile>> {
+
+        private final Path root;
+        private final Path directory;
+        private final GitIgnoreRules inherited;
+        private int ignored;
+
+        DirectoryTask(Path root, Path directory, GitIgnoreRules inherited) {
+            this.root = root;
+            this.directory = directory;
+            this.inherited = inherited;
+        }
+
+        @Override
+        protected List<ProjectFile> compute() {
+            GitIgnoreRules rules = GitIgnoreRules.forDirectory(inherited, directory);
+            List<ProjectFile> files = new ArrayList<>();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (isSkippedDirectory(entry.getFileName().toString())) {
+                            continue;
+                        }
+                        if (rules.isIgnored(entry, true)) {
+                            ignored++;
+                            continue;
+                        }
+                        DirectoryTask child = new DirectoryTask(root, entry, rules);
+                        child.fork();
+                        subdirectories.add(child);
+                    } else if (attrs.isRegularFile()) {
+                        if (rules.isIgnored(entry, false)) {
+                            ignored++;
+                            continue;
+                        }
+                        String relativePath = root.relativize(entry).toString().replace('\\', '/');
+                        files.add(new ProjectFile(entry, relativePath, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                }
+            } catch (IOException e) {
+                // Unreadable directories are left out, as Files.walkFileTree callers did before
+            }
+
+            for (DirectoryTask child : subdirectories) {
+                files.addAll(child.join());
+                ignored += child.ignored;
+            }
+            return files;
+        }
+
+        int ignoredEntries() {
+            return ignored;
+        }
+    }
+}
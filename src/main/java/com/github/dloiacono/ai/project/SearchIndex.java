@@ -0,0 +1,414 @@
+package com.github.dloiacono.ai.project;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory inverted index of the text files of each project, ranked with BM25.
+ * <p>
+ * Identifiers are split on camelCase and snake_case boundaries as well as indexed whole, so
+ * {@code readFileLines} is found by {@code read file lines}, {@code readFileLines} or
+ * {@code file_lines}. Each posting keeps the lines a term appears on, so a search returns the
+ * matching lines of the best files without reading the others.
+ * <p>
+ * The index of a project is built from the {@link ProjectIndex} on the first search, then kept
+ * up to date: files written through the tools are re-indexed as soon as the
+ * {@link FileChangedEvent} is observed, and every search re-indexes the files whose hash changed
+ * in the project index since.
+ */
+@ApplicationScoped
+public class SearchIndex {
+
+    private static final Logger LOG = Logger.getLogger(SearchIndex.class);
+
+    /** BM25 term frequency saturation. */
+    private static final double K1 = 1.2;
+
+    /** BM25 document length normalization. */
+    private static final double B = 0.75;
+
+    /** Lines recorded per term and file, enough to pick the best snippets. */
+    private static final int MAX_LINES_PER_POSTING = 16;
+
+    /** Longest snippet line returned. */
+    private static final int MAX_LINE_CHARS = 200;
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    @ConfigProperty(name = "swarm.search.max-file-bytes", defaultValue = "1048576")
+    long maxFileBytes;
+
+    private final Map<Path, Index> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * A file matching a search.
+     *
+     * @param relativePath the path relative to the project root, with '/' separators
+     * @param score the BM25 score of the file
+     * @param lines the lines of the file matching the most query terms, in file order
+     */
+    public record Hit(String relativePath, double score, List<Line> lines) {
+    }
+
+    /**
+     * A line of a matching file.
+     *
+     * @param number the line number, starting at 1
+     * @param text the line, cut to a readable length
+     */
+    public record Line(int number, String text) {
+    }
+
+    /**
+     * Searches the text files of a project.
+     *
+     * @param root the project directory
+     * @param query words or identifiers to look for
+     * @param topK the maximum number of files returned
+     * @param linesPerHit the maximum number of lines returned per file
+     * @return the best matching files, best first
+     */
+    public List<Hit> search(Path root, String query, int topK, int linesPerHit) {
+        Path normalized = root.toAbsolutePath().normalize();
+        Index index = indexes.computeIfAbsent(normalized, Index::new);
+        index.sync(projectIndex.entries(normalized));
+        List<Hit> hits = index.search(distinct(tokenize(query)), topK, linesPerHit);
+        return hits.stream().map(hit -> withText(normalized, hit)).toList();
+    }
+
+    /**
+     * @return the number of files indexed for a project, 0 if it was never searched
+     */
+    public int indexedFiles(Path root) {
+        Index index = indexes.get(root.toAbsolutePath().normalize());
+        return index == null ? 0 : index.size();
+    }
+
+    void onFileChanged(@Observes FileChangedEvent event) {
+        for (Index index : indexes.values()) {
+            if (event.path().startsWith(index.root)) {
+                index.update(event.path());
+            }
+        }
+    }
+
+    void onWorkspaceClosed(@Observes WorkspaceClosedEvent event) {
+        indexes.keySet().removeIf(root -> root.startsWith(event.root()));
+    }
+
+    /**
+     * Splits a text into lower-case terms: every identifier, and the parts of identifiers made of
+     * several camelCase or snake_case words. Terms of a single character are dropped.
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isIdentifierPart(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                addIdentifier(text, start, i, terms);
+            }
+        }
+        return terms;
+    }
+
+    private static void addIdentifier(String text, int start, int end, List<String> terms) {
+        int parts = 0;
+        int partStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || text.charAt(i) == '_' || (i > partStart && isWordStart(text, i))) {
+                if (i > partStart) {
+                    addTerm(text.substring(partStart, i), terms);
+                    parts++;
+                }
+                partStart = i < end && text.charAt(i) == '_' ? i + 1 : i;
+            }
+        }
+        if (parts > 1) {
+            addTerm(text.substring(start, end), terms);
+        }
+    }
+
+    /**
+     * @return whether a new word starts at {@code i} of an identifier: at a lower to upper case
+     *         change, at the last capital of an acronym followed by a lower case letter
+     *         (HTTPServer), or between letters and digits
+     */
+    private static boolean isWordStart(String text, int i) {
+        char previous = text.charAt(i - 1);
+        char current = text.charAt(i);
+        if (previous == '_') {
+            return false;
+        }
+        if (Character.isLowerCase(previous) && Character.isUpperCase(current)) {
+            return true;
+        }
+        if (Character.isUpperCase(previous) && Character.isUpperCase(current)
+                && i + 1 < text.length() && Character.isLowerCase(text.charAt(i + 1))) {
+            return true;
+        }
+        return Character.isDigit(previous) != Character.isDigit(current);
+    }
+
+    private static void addTerm(String term, List<String> terms) {
+        if (term.length() > 1) {
+            terms.add(term.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static List<String> distinct(List<String> terms) {
+        return List.copyOf(new LinkedHashSet<>(terms));
+    }
+
+    private Hit withText(Path root, Hit hit) {
+        String[] lines;
+        try {
+            lines = TextFiles.decode(Files.readAllBytes(root.resolve(hit.relativePath()))).split("\n", -1);
+        } catch (IOException e) {
+            return new Hit(hit.relativePath(), hit.score(), List.of());
+        }
+        List<Line> withText = new ArrayList<>(hit.lines().size());
+        for (Line line : hit.lines()) {
+            if (line.number() <= lines.length) {
+                String text = lines[line.number() - 1].strip();
+                withText.add(new Line(line.number(),
+                        text.length() <= MAX_LINE_CHARS ? text : text.substring(0, MAX_LINE_CHARS) + "..."));
+            }
+        }
+        return new Hit(hit.relativePath(), hit.score(), withText);
+    }
+
+    /**
+     * An indexed file.
+     */
+    private static final class Doc {
+
+        final String relativePath;
+        final String hash;
+        final int length;
+        final Set<String> terms;
+
+        Doc(String relativePath, String hash, int length, Set<String> terms) {
+            this.relativePath = relativePath;
+            this.hash = hash;
+            this.length = length;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * The occurrences of a term in a file.
+     */
+    private static final class Posting {
+
+        int frequency;
+        int[] lines = new int[4];
+        int lineCount;
+
+        void add(int line) {
+            frequency++;
+            if (lineCount > 0 && lines[lineCount - 1] == line) {
+                return;
+            }
+            if (lineCount < MAX_LINES_PER_POSTING) {
+                if (lineCount == lines.length) {
+                    lines = Arrays.copyOf(lines, Math.min(lines.length * 2, MAX_LINES_PER_POSTING));
+                }
+                lines[lineCount++] = line;
+            }
+        }
+    }
+
+    private final class Index {
+
+        private final Path root;
+        private final Map<String, Doc> docs = new HashMap<>();
+        private final Map<String, Map<Doc, Posting>> postings = new HashMap<>();
+        private long totalLength;
+
+        Index(Path root) {
+            this.root = root;
+        }
+
+        synchronized int size() {
+            return docs.size();
+        }
+
+        /**
+         * Re-indexes the files whose hash changed in the project index and drops the deleted ones.
+         */
+        synchronized void sync(List<ProjectIndex.Entry> entries) {
+            long start = System.nanoTime();
+            Set<String> present = new HashSet<>(entries.size() * 2);
+            int indexed = 0;
+            for (ProjectIndex.Entry entry : entries) {
+                if (entry.binary() || entry.size() > maxFileBytes) {
+                    continue;
+                }
+                present.add(entry.relativePath());
+                Doc doc = docs.get(entry.relativePath());
+                if (doc != null && doc.hash.equals(entry.hash())) {
+                    continue;
+                }
+                try {
+                    put(entry.relativePath(), entry.hash(), projectIndex.content(root, entry));
+                    indexed++;
+                } catch (IOException e) {
+                    remove(entry.relativePath());
+                }
+            }
+            int removed = 0;
+            for (String relativePath : new ArrayList<>(docs.keySet())) {
+                if (!present.contains(relativePath)) {
+                    remove(relativePath);
+                    removed++;
+                }
+            }
+            if (indexed > 0 || removed > 0) {
+                LOG.debugf("Search index of %s updated in %d ms: %d files, %d indexed, %d removed",
+                        root, (System.nanoTime() - start) / 1_000_000, docs.size(), indexed, removed);
+            }
+        }
+
+        synchronized void update(Path file) {
+            String relativePath = root.relativize(file).toString().replace('\\', '/');
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                if (bytes.length > maxFileBytes || TextFiles.isBinary(bytes, bytes.length)) {
+                    remove(relativePath);
+                    return;
+                }
+                put(relativePath, ProjectIndex.hex(ProjectIndex.sha256(bytes)), TextFiles.decode(bytes));
+            } catch (IOException e) {
+                remove(relativePath);
+            }
+        }
+
+        private void put(String relativePath, String hash, String text) {
+            remove(relativePath);
+            Map<String, Posting> terms = new HashMap<>();
+            int length = 0;
+            int line = 1;
+            int lineStart = 0;
+            for (int i = 0; i <= text.length(); i++) {
+                if (i == text.length() || text.charAt(i) == '\n') {
+                    for (String term : tokenize(text.substring(lineStart, i))) {
+                        terms.computeIfAbsent(term, t -> new Posting()).add(line);
+                        length++;
+                    }
+                    line++;
+                    lineStart = i + 1;
+                }
+            }
+            Doc doc = new Doc(relativePath, hash, length, Set.copyOf(terms.keySet()));
+            docs.put(relativePath, doc);
+            terms.forEach((term, posting) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(doc, posting));
+            totalLength += length;
+        }
+
+        private void remove(String relativePath) {
+            Doc doc = docs.remove(relativePath);
+            if (doc == null) {
+                return;
+            }
+            for (String term : doc.terms) {
+                Map<Doc, Posting> docsWithTerm = postings.get(term);
+                docsWithTerm.remove(doc);
+                if (docsWithTerm.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+            totalLength -= doc.length;
+        }
+
+        synchronized List<Hit> search(List<String> terms, int topK, int linesPerHit) {
+            if (docs.isEmpty() || terms.isEmpty() || topK <= 0) {
+                return List.of();
+            }
+            int count = docs.size();
+            double averageLength = Math.max(1.0, (double) totalLength / count);
+            Map<Doc, Double> scores = new HashMap<>();
+            for (String term : terms) {
+                Map<Doc, Posting> docsWithTerm = postings.get(term);
+                if (docsWithTerm == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (count - docsWithTerm.size() + 0.5) / (docsWithTerm.size() + 0.5));
+                docsWithTerm.forEach((doc, posting) -> {
+                    double tf = posting.frequency;
+                    double norm = K1 * (1 - B + B * doc.length / averageLength);
+                    scores.merge(doc, idf * tf * (K1 + 1) / (tf + norm), Double::sum);
+                });
+            }
+
+            PriorityQueue<Map.Entry<Doc, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<Doc, Double> score : scores.entrySet()) {
+                best.add(score);
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+            List<Hit> hits = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                Map.Entry<Doc, Double> score = best.poll();
+                hits.add(new Hit(score.getKey().relativePath, score.getValue(), bestLines(score.getKey(), terms, linesPerHit)));
+            }
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+            return hits;
+        }
+
+        /**
+         * @return the lines of a file matching the most distinct query terms, earliest first on ties
+         */
+        private List<Line> bestLines(Doc doc, List<String> terms, int linesPerHit) {
+            Map<Integer, Integer> matches = new HashMap<>();
+            for (String term : terms) {
+                Map<Doc, Posting> docsWithTerm = postings.get(term);
+                Posting posting = docsWithTerm == null ? null : docsWithTerm.get(doc);
+                if (posting != null) {
+                    for (int i = 0; i < posting.lineCount; i++) {
+                        matches.merge(posting.lines[i], 1, Integer::sum);
+                    }
+                }
+            }
+            return matches.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(Math.max(0, linesPerHit))
+                    .map(Map.Entry::getKey)
+                    .sorted()
+                    .map(number -> new Line(number, null))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.dloiacono.ai.project;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for telling text files from binary ones.
+ */
+public final class TextFiles {
+
+    /** How many leading bytes are inspected, the same window git uses. */
+    private static final int SNIFF_LENGTH = 8000;
+
+    private TextFiles() {
+    }
+
+    /**
+     * Checks whether file content looks binary, i.e. has a NUL byte near the start.
+     *
+     * @param content the file content, or its first bytes
+     * @param length the number of valid bytes in {@code content}
+     * @return true if the content is binary
+     */
+    public static boolean isBinary(byte[] content, int length) {
+        int limit = Math.min(length, SNIFF_LENGTH);
+        for (int i = 0; i < limit; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes file content as UTF-8, replacing malformed sequences.
+     *
+     * @param content the file content
+     * @return the decoded text
+     */
+    public static String decode(byte[] content) {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
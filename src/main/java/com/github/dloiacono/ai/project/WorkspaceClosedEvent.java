@@ -0,0 +1,12 @@
+package com.github.dloiacono.ai.project;
+
+import java.nio.file.Path;
+
+/**
+ * CDI event fired once a run's workspace is no longer used, so indexes can drop what they hold
+ * for the projects under it.
+ *
+ * @param root the absolute, normalized root of the workspace
+ */
+public record WorkspaceClosedEvent(Path root) {
+}
@@ -0,0 +1,97 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrency limit adjusted by additive increase, multiplicative decrease (AIMD): each
+ * successful call raises it by {@code 1 / limit}, about one more call per round of calls, while a
+ * rate limit response halves it and a slow call lowers it by 10%. A burst of failures from calls
+ * started together only lowers it once.
+ */
+final class AdaptiveConcurrency {
+
+    /** What a call says about the load of the provider. */
+    enum Signal {
+        SUCCESS,
+        SLOW,
+        RATE_LIMITED,
+        /** Says nothing about the load, e.g. an invalid request. */
+        NONE
+    }
+
+    private final int max;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private long decreasedAt = System.nanoTime();
+
+    /**
+     * @param initial the initial limit
+     * @param max the highest limit
+     */
+    AdaptiveConcurrency(int initial, int max) {
+        this.max = Math.max(1, max);
+        this.limit = Math.max(1, Math.min(initial, this.max));
+    }
+
+    /**
+     * Waits for a call to be allowed.
+     *
+     * @return when the call started, to pass to {@link #release}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await(1, TimeUnit.SECONDS);
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a call and adjusts the limit.
+     *
+     * @param startedAt what {@link #acquire()} returned
+     */
+    void release(long startedAt, Signal signal) {
+        lock.lock();
+        try {
+            inFlight--;
+            switch (signal) {
+                case SUCCESS -> limit = Math.min(max, limit + 1 / limit);
+                case SLOW -> decrease(startedAt, 0.9);
+                case RATE_LIMITED -> decrease(startedAt, 0.5);
+                case NONE -> {
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    double limit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease(long startedAt, double factor) {
+        // Calls started before the last decrease were sent at the old limit
+        if (startedAt - decreasedAt > 0) {
+            limit = Math.max(1, limit * factor);
+            decreasedAt = System.nanoTime();
+        }
+    }
+}
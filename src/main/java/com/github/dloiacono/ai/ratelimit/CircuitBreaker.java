@@ -0,0 +1,70 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import java.time.Duration;
+
+/**
+ * Stops calling a provider that keeps failing: after a number of failures in a row the circuit
+ * opens and calls fail at once, until a single trial call is let through after a while. The
+ * circuit closes again if it succeeds, and stays open for another while if not.
+ */
+final class CircuitBreaker {
+
+    private final String scope;
+    private final int failureThreshold;
+    private final long openNanos;
+    private int failures;
+    private long openedAt;
+    private boolean open;
+    private boolean trialInFlight;
+
+    /**
+     * @param scope what the circuit protects, for error messages
+     * @param failureThreshold the failures in a row opening the circuit, 0 or less to never open it
+     * @param openFor how long the circuit stays open before a trial call
+     */
+    CircuitBreaker(String scope, int failureThreshold, Duration openFor) {
+        this.scope = scope;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openFor.toNanos();
+    }
+
+    /**
+     * @throws CircuitOpenException if the circuit is open
+     */
+    synchronized void check() {
+        if (!open) {
+            return;
+        }
+        long openForNanos = System.nanoTime() - openedAt;
+        if (openForNanos < openNanos || trialInFlight) {
+            throw new CircuitOpenException(scope, Duration.ofNanos(Math.max(0, openNanos - openForNanos)));
+        }
+        trialInFlight = true;
+    }
+
+    synchronized void success() {
+        failures = 0;
+        open = false;
+        trialInFlight = false;
+    }
+
+    synchronized void failure() {
+        failures++;
+        if (trialInFlight || (failureThreshold > 0 && failures >= failureThreshold && !open)) {
+            open = true;
+            openedAt = System.nanoTime();
+        }
+        trialInFlight = false;
+    }
+
+    /**
+     * Ends a call that says nothing about the health of the provider.
+     */
+    synchronized void neutral() {
+        trialInFlight = false;
+    }
+
+    synchronized boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling a model whose provider kept failing, until its circuit breaker lets
+ * a trial call through.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String scope, Duration retryIn) {
+        super("Calls to " + scope + " are suspended after repeated failures, next attempt in "
+                + Math.max(1, retryIn.toSeconds()) + " s");
+    }
+}
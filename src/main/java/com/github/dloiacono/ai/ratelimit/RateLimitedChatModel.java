@@ -0,0 +1,62 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.util.Set;
+
+/**
+ * A chat model whose calls are scheduled and retried by the {@link RateLimiter}.
+ */
+final class RateLimitedChatModel implements ChatModel {
+
+    private final String name;
+    private final ChatModel delegate;
+    private final RateLimiter limiter;
+    private final String keyScope;
+
+    RateLimitedChatModel(String name, ChatModel delegate, RateLimiter limiter, String keyScope) {
+        this.name = name;
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.keyScope = keyScope;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        for (int attempt = 0; ; attempt++) {
+            RateLimiter.Permit permit = limiter.acquire(name, keyScope, request);
+            try {
+                ChatResponse response = delegate.chat(request);
+                permit.succeeded(response);
+                return response;
+            } catch (RuntimeException e) {
+                if (!limiter.retry(name, e, permit.failed(e), attempt)) {
+                    throw e;
+                }
+            } finally {
+                // Only has an effect when the call threw an Error
+                permit.release();
+            }
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
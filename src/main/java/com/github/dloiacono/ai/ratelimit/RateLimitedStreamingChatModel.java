@@ -0,0 +1,154 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A streaming chat model whose calls are scheduled and retried by the {@link RateLimiter}.
+ * <p>
+ * The caller is not blocked: the wait for the limits and the retries happen on a virtual thread.
+ * A call is only retried if none of its response was streamed yet, since the handler cannot take
+ * it back.
+ */
+final class RateLimitedStreamingChatModel implements StreamingChatModel {
+
+    private final String name;
+    private final StreamingChatModel delegate;
+    private final RateLimiter limiter;
+    private final String keyScope;
+
+    RateLimitedStreamingChatModel(String name, StreamingChatModel delegate, RateLimiter limiter, String keyScope) {
+        this.name = name;
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.keyScope = keyScope;
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        RunContext run = RunContext.current();
+        attempt(run, request, handler, 0, 0);
+    }
+
+    private void attempt(RunContext run, ChatRequest request, StreamingChatResponseHandler handler, int attempt, long delayNanos) {
+        Thread.ofVirtual().name("rate-limited-" + name).start(() -> {
+            try (RunContext.Scope scope = RunContext.bind(run)) {
+                LockSupport.parkNanos(delayNanos);
+                RateLimiter.Permit permit;
+                try {
+                    permit = limiter.acquire(name, keyScope, request);
+                } catch (RuntimeException e) {
+                    handler.onError(e);
+                    return;
+                }
+                Attempt handled = new Attempt(run, request, handler, attempt, permit);
+                try {
+                    delegate.chat(request, handled);
+                } catch (RuntimeException | Error e) {
+                    // Failed before streaming started, e.g. while building the request
+                    handled.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Forwards one attempt to the caller's handler, unless it failed before streaming anything
+     * and can be retried. Only the first outcome of the attempt is taken into account, since a
+     * model may report a failure to the handler and then throw it as well.
+     */
+    private final class Attempt implements StreamingChatResponseHandler {
+
+        private final RunContext run;
+        private final ChatRequest request;
+        private final StreamingChatResponseHandler handler;
+        private final int attempt;
+        private final RateLimiter.Permit permit;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private volatile boolean streamed;
+
+        Attempt(RunContext run, ChatRequest request, StreamingChatResponseHandler handler, int attempt,
+                RateLimiter.Permit permit) {
+            this.run = run;
+            this.request = request;
+            this.handler = handler;
+            this.attempt = attempt;
+            this.permit = permit;
+        }
+
+        @Override
+        public void onPartialResponse(String partialResponse) {
+            streamed = true;
+            handler.onPartialResponse(partialResponse);
+        }
+
+        @Override
+        public void onPartialThinking(PartialThinking partialThinking) {
+            streamed = true;
+            handler.onPartialThinking(partialThinking);
+        }
+
+        @Override
+        public void onPartialToolCall(PartialToolCall partialToolCall) {
+            streamed = true;
+            handler.onPartialToolCall(partialToolCall);
+        }
+
+        @Override
+        public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+            streamed = true;
+            handler.onCompleteToolCall(completeToolCall);
+        }
+
+        @Override
+        public void onCompleteResponse(ChatResponse response) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            permit.succeeded(response);
+            handler.onCompleteResponse(response);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            RateLimiter.Failure failure = permit.failed(error);
+            long delay = streamed ? -1 : limiter.retryDelay(name, error, failure, attempt);
+            if (delay < 0) {
+                handler.onError(error);
+            } else {
+                attempt(run, request, handler, attempt + 1, delay);
+            }
+        }
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
@@ -0,0 +1,432 @@
+package com.github.dloiacono.ai.ratelimit;
+
+import com.github.dloiacono.ai.context.ContextBudgeter;
+import com.github.dloiacono.ai.model.LocalChatModel;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.exception.HttpException;
+import dev.langchain4j.exception.RateLimitException;
+import dev.langchain4j.exception.RetriableException;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules the calls to the chat models so that parallel branches and concurrent jobs queue for
+ * the provider's quota instead of failing on it.
+ * <p>
+ * Each call goes through two scopes: its API key, shared by every model name using that key, and
+ * its model name. A scope can limit requests and input tokens per minute with
+ * {@linkplain TokenBucket token buckets}, and concurrent calls with an
+ * {@linkplain AdaptiveConcurrency adaptive limit} that backs off on rate limit responses and slow
+ * calls and grows again while calls succeed. The API key scope takes the {@code swarm.rate-limit.*}
+ * settings, except for the per-minute quotas of local models, and the model scope takes the
+ * {@code swarm.rate-limit.<name>.*} ones, if any.
+ * <p>
+ * Rate limited, overloaded and failed calls are retried with exponential backoff and full jitter,
+ * or after the delay the provider asked for. Failures other than rate limits open the API key's
+ * {@linkplain CircuitBreaker circuit breaker} when they keep happening.
+ */
+@ApplicationScoped
+public class RateLimiter {
+
+    private static final Logger LOG = Logger.getLogger(RateLimiter.class);
+
+    private static final String LOCAL_SCOPE = "key:local";
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    @ConfigProperty(name = "swarm.rate-limit.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.rate-limit.requests-per-minute", defaultValue = "50")
+    double requestsPerMinute;
+
+    @ConfigProperty(name = "swarm.rate-limit.tokens-per-minute", defaultValue = "30000")
+    double tokensPerMinute;
+
+    @ConfigProperty(name = "swarm.rate-limit.initial-concurrency", defaultValue = "4")
+    int initialConcurrency;
+
+    @ConfigProperty(name = "swarm.rate-limit.max-concurrency", defaultValue = "16")
+    int maxConcurrency;
+
+    @ConfigProperty(name = "swarm.rate-limit.slow-call", defaultValue = "60s")
+    Duration slowCall;
+
+    @ConfigProperty(name = "swarm.rate-limit.max-retries", defaultValue = "5")
+    int maxRetries;
+
+    @ConfigProperty(name = "swarm.rate-limit.backoff", defaultValue = "1s")
+    Duration backoff;
+
+    @ConfigProperty(name = "swarm.rate-limit.max-backoff", defaultValue = "60s")
+    Duration maxBackoff;
+
+    @ConfigProperty(name = "swarm.rate-limit.circuit-breaker.failures", defaultValue = "5")
+    int breakerFailures;
+
+    @ConfigProperty(name = "swarm.rate-limit.circuit-breaker.open-for", defaultValue = "30s")
+    Duration breakerOpenFor;
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    /**
+     * What a failed call says about the provider.
+     */
+    enum Failure {
+        /** A rate limit or overload response: back off and retry. */
+        RATE_LIMITED,
+        /** A server error, a timeout or a connection failure: retry. */
+        TRANSIENT,
+        /** Retrying would fail the same way, e.g. an invalid request. */
+        PERMANENT
+    }
+
+    /**
+     * @param local whether the model is a {@link LocalChatModel local stand-in}, which has no API key
+     * @return the model, with its calls scheduled, unless rate limiting is disabled
+     */
+    public ChatModel limited(String name, boolean local, ChatModel model) {
+        return enabled ? new RateLimitedChatModel(name, model, this, keyScope(name, local)) : model;
+    }
+
+    /**
+     * @see #limited(String, boolean, ChatModel)
+     */
+    public StreamingChatModel limited(String name, boolean local, StreamingChatModel model) {
+        return enabled ? new RateLimitedStreamingChatModel(name, model, this, keyScope(name, local)) : model;
+    }
+
+    /**
+     * Waits until a call may be made in every scope.
+     *
+     * @throws CircuitOpenException if the circuit of a scope is open
+     * @throws IllegalStateException if interrupted while waiting
+     */
+    Permit acquire(String name, String keyScope, ChatRequest request) {
+        List<Scope> callScopes = List.of(scope(keyScope, null), scope("model:" + name, name));
+        for (Scope scope : callScopes) {
+            scope.breaker.check();
+        }
+        int tokens = estimateTokens(request);
+        long[] startedAt = new long[callScopes.size()];
+        int acquired = 0;
+        try {
+            long waitNanos = 0;
+            for (Scope scope : callScopes) {
+                if (scope.requests != null) {
+                    waitNanos = Math.max(waitNanos, scope.requests.reserve(1));
+                }
+                if (scope.tokens != null) {
+                    waitNanos = Math.max(waitNanos, scope.tokens.reserve(tokens));
+                }
+            }
+            if (waitNanos > 0) {
+                telemetry.modelThrottled(name, waitNanos);
+                sleep(waitNanos);
+            }
+            // Always in the same order, API key then model name, so waiting calls cannot deadlock
+            for (; acquired < callScopes.size(); acquired++) {
+                AdaptiveConcurrency concurrency = callScopes.get(acquired).concurrency;
+                startedAt[acquired] = concurrency != null ? concurrency.acquire() : System.nanoTime();
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            for (int i = 0; i < callScopes.size(); i++) {
+                Scope scope = callScopes.get(i);
+                if (i < acquired && scope.concurrency != null) {
+                    scope.concurrency.release(startedAt[i], AdaptiveConcurrency.Signal.NONE);
+                }
+                scope.breaker.neutral();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call the " + name + " model", e);
+            }
+            throw (RuntimeException) e;
+        }
+        return new Permit(callScopes, startedAt, tokens);
+    }
+
+    /**
+     * Waits before retrying a failed call, if it should be retried.
+     *
+     * @param attempt the number of the failed attempt, from 0
+     * @return whether to retry
+     */
+    boolean retry(String name, Throwable error, Failure failure, int attempt) {
+        long delay = retryDelay(name, error, failure, attempt);
+        if (delay < 0) {
+            return false;
+        }
+        sleep(delay);
+        return true;
+    }
+
+    /**
+     * @return how long to wait before retrying a failed call, or -1 if it should not be retried
+     */
+    long retryDelay(String name, Throwable error, Failure failure, int attempt) {
+        if (failure == Failure.PERMANENT || attempt >= maxRetries) {
+            return -1;
+        }
+        // Full jitter: a random delay up to the exponential backoff, so retries do not come in waves
+        long ceiling = Math.min(maxBackoff.toNanos(), backoff.toNanos() << Math.min(attempt, 30));
+        long delay = ThreadLocalRandom.current().nextLong(Math.max(1, ceiling) + 1);
+        delay = Math.max(delay, retryAfterNanos(error));
+        telemetry.modelRetried(name, failure.name().toLowerCase());
+        LOG.infof("Retrying the call to the %s model in %d ms (attempt %d of %d): %s", name,
+                TimeUnit.NANOSECONDS.toMillis(delay), attempt + 2, maxRetries + 1, error.getMessage());
+        return delay;
+    }
+
+    /**
+     * Classifies a failed call.
+     */
+    static Failure classify(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RateLimitException) {
+                return Failure.RATE_LIMITED;
+            }
+            int status = statusOf(cause);
+            if (status == 429 || status == 503 || status == 529) {
+                return Failure.RATE_LIMITED;
+            }
+            if (status == 408 || status >= 500) {
+                return Failure.TRANSIENT;
+            }
+            if (status > 0) {
+                return Failure.PERMANENT;
+            }
+            String message = String.valueOf(cause.getMessage());
+            if (message.contains("rate_limit_error") || message.contains("overloaded_error")) {
+                return Failure.RATE_LIMITED;
+            }
+            if (cause instanceof RetriableException || cause instanceof IOException
+                    || cause instanceof java.util.concurrent.TimeoutException) {
+                return Failure.TRANSIENT;
+            }
+            if (cause == cause.getCause()) {
+                break;
+            }
+        }
+        return Failure.PERMANENT;
+    }
+
+    private static int statusOf(Throwable error) {
+        if (error instanceof HttpException http) {
+            return http.statusCode();
+        }
+        if (error instanceof WebApplicationException web && web.getResponse() != null) {
+            return web.getResponse().getStatus();
+        }
+        return 0;
+    }
+
+    private static long retryAfterNanos(Throwable error) {
+        for (Throwable cause = error; cause != null && cause != cause.getCause(); cause = cause.getCause()) {
+            if (cause instanceof WebApplicationException web && web.getResponse() != null) {
+                String retryAfter = web.getResponse().getHeaderString("retry-after");
+                if (retryAfter != null) {
+                    try {
+                        return TimeUnit.MILLISECONDS.toNanos((long) (Double.parseDouble(retryAfter.strip()) * 1000));
+                    } catch (NumberFormatException e) {
+                        // An HTTP date, rarely sent by model providers
+                        return 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the estimated input tokens of a request
+     */
+    private static int estimateTokens(ChatRequest request) {
+        int tokens = 0;
+        for (ChatMessage message : request.messages()) {
+            tokens += ContextBudgeter.estimateTokens(message.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * @return the name of the API key scope of a model, which never contains the key itself
+     */
+    private static String keyScope(String name, boolean local) {
+        if (local) {
+            return LOCAL_SCOPE;
+        }
+        Config config = ConfigProvider.getConfig();
+        String provider = config.getOptionalValue("quarkus.langchain4j." + name + ".chat-model.provider", String.class)
+                .orElse("default");
+        Optional<String> apiKey = config.getOptionalValue("quarkus.langchain4j." + provider + "." + name + ".api-key", String.class)
+                .or(() -> config.getOptionalValue("quarkus.langchain4j." + provider + ".api-key", String.class));
+        return "key:" + provider + apiKey.map(key -> "#" + fingerprint(key)).orElse("");
+    }
+
+    private static String fingerprint(String apiKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 4);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Scope scope(String scopeName, String modelName) {
+        return scopes.computeIfAbsent(scopeName, key -> {
+            Scope scope = modelName == null ? keyScope(key) : modelScope(key, modelName);
+            if (scope.concurrency != null) {
+                telemetry.concurrencyLimit(key, scope.concurrency::limit);
+            }
+            return scope;
+        });
+    }
+
+    private Scope keyScope(String scopeName) {
+        // The per-minute quotas are the provider's, local models only have a concurrency limit
+        boolean local = scopeName.equals(LOCAL_SCOPE);
+        LOG.infof("Rate limiting %s: %s requests/min, %s tokens/min, concurrency %d to %d", scopeName,
+                local ? "unlimited" : requestsPerMinute, local ? "unlimited" : tokensPerMinute,
+                initialConcurrency, maxConcurrency);
+        return new Scope(
+                !local && requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute) : null,
+                !local && tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute) : null,
+                maxConcurrency > 0 ? new AdaptiveConcurrency(initialConcurrency, maxConcurrency) : null,
+                new CircuitBreaker(scopeName, breakerFailures, breakerOpenFor));
+    }
+
+    private Scope modelScope(String scopeName, String name) {
+        Config config = ConfigProvider.getConfig();
+        double requests = config.getOptionalValue("swarm.rate-limit." + name + ".requests-per-minute", Double.class).orElse(0.0);
+        double tokens = config.getOptionalValue("swarm.rate-limit." + name + ".tokens-per-minute", Double.class).orElse(0.0);
+        int concurrency = config.getOptionalValue("swarm.rate-limit." + name + ".max-concurrency", Integer.class).orElse(0);
+        return new Scope(
+                requests > 0 ? new TokenBucket(requests) : null,
+                tokens > 0 ? new TokenBucket(tokens) : null,
+                concurrency > 0 ? new AdaptiveConcurrency(Math.min(initialConcurrency, concurrency), concurrency) : null,
+                // Failures are counted per API key
+                new CircuitBreaker(scopeName, 0, breakerOpenFor));
+    }
+
+    private static void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call a model");
+            }
+        }
+    }
+
+    /**
+     * The limits of an API key or a model name. Absent limits are null.
+     */
+    private record Scope(TokenBucket requests, TokenBucket tokens, AdaptiveConcurrency concurrency,
+                         CircuitBreaker breaker) {
+    }
+
+    /**
+     * A call allowed by every scope, to be ended with {@link #succeeded}, {@link #failed} or
+     * {@link #release}. Only the first of them counts, so a permit is never given back twice.
+     */
+    final class Permit {
+
+        private final List<Scope> callScopes;
+        private final long[] startedAt;
+        private final int estimatedTokens;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        private Permit(List<Scope> callScopes, long[] startedAt, int estimatedTokens) {
+            this.callScopes = callScopes;
+            this.startedAt = startedAt;
+            this.estimatedTokens = estimatedTokens;
+        }
+
+        void succeeded(ChatResponse response) {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            long latency = System.nanoTime() - startedAt[startedAt.length - 1];
+            AdaptiveConcurrency.Signal signal = latency > slowCall.toNanos()
+                    ? AdaptiveConcurrency.Signal.SLOW : AdaptiveConcurrency.Signal.SUCCESS;
+            Integer inputTokens = response.tokenUsage() != null ? response.tokenUsage().inputTokenCount() : null;
+            for (int i = 0; i < callScopes.size(); i++) {
+                Scope scope = callScopes.get(i);
+                if (scope.concurrency != null) {
+                    scope.concurrency.release(startedAt[i], signal);
+                }
+                if (scope.tokens != null && inputTokens != null) {
+                    scope.tokens.adjust(estimatedTokens - inputTokens);
+                }
+                scope.breaker.success();
+            }
+        }
+
+        Failure failed(Throwable error) {
+            Failure failure = classify(error);
+            if (!ended.compareAndSet(false, true)) {
+                return failure;
+            }
+            AdaptiveConcurrency.Signal signal = failure == Failure.RATE_LIMITED
+                    ? AdaptiveConcurrency.Signal.RATE_LIMITED : AdaptiveConcurrency.Signal.NONE;
+            for (int i = 0; i < callScopes.size(); i++) {
+                Scope scope = callScopes.get(i);
+                if (scope.concurrency != null) {
+                    scope.concurrency.release(startedAt[i], signal);
+                }
+                if (failure == Failure.TRANSIENT) {
+                    scope.breaker.failure();
+                } else {
+                    scope.breaker.neutral();
+                }
+            }
+            return failure;
+        }
+
+        /**
+         * Gives the permit back without telling the limits anything about the call, when it ended
+         * in a way that says nothing about the provider, such as an {@link Error}.
+         */
+        void release() {
+            if (!ended.compareAndSet(false, true)) {
+                return;
+            }
+            for (int i = 0; i < callScopes.size(); i++) {
+                Scope scope = callScopes.get(i);
+                if (scope.concurrency != null) {
+                    scope.concurrency.release(startedAt[i], AdaptiveConcurrency.Signal.NONE);
+                }
+                scope.breaker.neutral();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.dloiacono.ai.ratelimit;
+
+/**
+ * A token bucket handing out reservations: taking more than is available leaves the bucket in
+ * debt, and the caller waits for the debt to be refilled. Requests larger than the bucket are
+ * therefore delayed rather than refused.
+ */
+final class TokenBucket {
+
+    private final double capacity;
+    private final double perNano;
+    private double available;
+    private long refilledAt;
+
+    /**
+     * @param perMinute the refill rate, which is also the capacity, so a minute's quota can be used at once
+     */
+    TokenBucket(double perMinute) {
+        this.capacity = perMinute;
+        this.perNano = perMinute / 60e9;
+        this.available = perMinute;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Takes tokens from the bucket.
+     *
+     * @return how long to wait before using them, in nanoseconds
+     */
+    synchronized long reserve(double tokens) {
+        refill();
+        available -= tokens;
+        return available >= 0 ? 0 : (long) (-available / perNano);
+    }
+
+    /**
+     * Gives back tokens reserved in excess, or takes more when the reservation was too small.
+     */
+    synchronized void adjust(double tokens) {
+        refill();
+        available = Math.min(capacity, available + tokens);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) * perNano);
+        refilledAt = now;
+    }
+}
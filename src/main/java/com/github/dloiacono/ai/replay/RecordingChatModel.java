@@ -0,0 +1,52 @@
+package com.github.dloiacono.ai.replay;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+
+import java.util.Set;
+
+/**
+ * A chat model recording its exchanges to the {@link RunLog}.
+ */
+final class RecordingChatModel implements ChatModel {
+
+    private final String name;
+    private final ChatModel delegate;
+    private final RunLog log;
+
+    RecordingChatModel(String name, ChatModel delegate, RunLog log) {
+        this.name = name;
+        this.delegate = delegate;
+        this.log = log;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        RunContext run = RunContext.current();
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        ChatResponse response = delegate.chat(request);
+        log.chat(run, name, request, response, startedAt, System.nanoTime() - start);
+        return response;
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
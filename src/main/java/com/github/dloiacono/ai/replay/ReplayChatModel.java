@@ -0,0 +1,70 @@
+package com.github.dloiacono.ai.replay;
+
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A chat model answering with the responses of a recorded run, through the {@link RunReplay}.
+ */
+final class ReplayChatModel implements ChatModel, StreamingChatModel {
+
+    private final String name;
+    private final RunReplay replay;
+
+    ReplayChatModel(String name, RunReplay replay) {
+        this.name = name;
+        this.replay = replay;
+    }
+
+    // Both interfaces define these defaults, and they are the same
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return ChatModel.super.defaultRequestParameters();
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return ChatModel.super.listeners();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return ChatModel.super.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return ChatModel.super.supportedCapabilities();
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest request) {
+        return replay.respond(name, request);
+    }
+
+    @Override
+    public void doChat(ChatRequest request, StreamingChatResponseHandler handler) {
+        ChatResponse response;
+        try {
+            response = replay.respond(name, request);
+        } catch (RuntimeException e) {
+            handler.onError(e);
+            return;
+        }
+        if (response.aiMessage().text() != null) {
+            handler.onPartialResponse(response.aiMessage().text());
+        }
+        handler.onCompleteResponse(response);
+    }
+}
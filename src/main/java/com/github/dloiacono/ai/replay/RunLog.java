@@ -0,0 +1,204 @@
+package com.github.dloiacono.ai.replay;
+
+import com.github.dloiacono.ai.project.ProjectIndex;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records runs to an append-only binary log, {@code swarm.run-log.file}, when
+ * {@code swarm.run-log.record} is set: the start and end of each run, every chat exchange with a
+ * model and every tool call, with their timings. The start of a run is followed by the text files
+ * its workspace held, as seen by the {@link ProjectIndex}, so that a replay starts from the same
+ * project. The log can hold any number of runs and is {@linkplain RunReplay replayed} by run ID.
+ * <p>
+ * Recording never fails a run: a record that cannot be written is skipped with a warning.
+ *
+ * @see RunLogFormat
+ */
+@ApplicationScoped
+public class RunLog {
+
+    private static final Logger LOG = Logger.getLogger(RunLog.class);
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    @ConfigProperty(name = "swarm.run-log.record", defaultValue = "false")
+    boolean record;
+
+    @ConfigProperty(name = "swarm.run-log.file", defaultValue = "target/run-log/runs.swlog")
+    String file;
+
+    private final Map<String, AtomicInteger> steps = new ConcurrentHashMap<>();
+    private RunLogWriter writer;
+    private volatile boolean unavailable;
+
+    /**
+     * @return whether runs are recorded
+     */
+    public boolean recording() {
+        return record && !unavailable;
+    }
+
+    public Path file() {
+        return Paths.get(file);
+    }
+
+    /**
+     * @return the model, recording its exchanges if runs are recorded
+     */
+    public ChatModel recorded(String name, ChatModel model) {
+        return record ? new RecordingChatModel(name, model, this) : model;
+    }
+
+    /**
+     * @return the model, recording its exchanges if runs are recorded
+     */
+    public StreamingChatModel recorded(String name, StreamingChatModel model) {
+        return record ? new RecordingStreamingChatModel(name, model, this) : model;
+    }
+
+    public void runStarted(RunContext run, String needs) {
+        if (recording()) {
+            // Step 0 of the run, or of its new execution
+            steps.put(run.runId(), new AtomicInteger());
+            long startedAt = System.currentTimeMillis();
+            append(run.runId(), RunLogRecord.Kind.RUN_STARTED, "supervisor", 0, startedAt, 0, List.of(needs));
+            Path root = run.workspace().root();
+            for (ProjectIndex.Entry file : projectIndex.entries(root)) {
+                if (file.binary()) {
+                    continue;
+                }
+                try {
+                    append(run.runId(), RunLogRecord.Kind.FILE, "workspace", 0, startedAt, 0,
+                            List.of(file.relativePath(), projectIndex.content(root, file)));
+                } catch (IOException e) {
+                    LOG.warnf("Not recording %s of run %s: %s", file.relativePath(), run.runId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param result the final response, or the error
+     */
+    public void runFinished(RunContext run, String result, long startedAt, long durationNanos) {
+        if (recording()) {
+            append(run.runId(), RunLogRecord.Kind.RUN_FINISHED, "supervisor", 0, startedAt, durationNanos, List.of(result));
+            steps.remove(run.runId());
+        }
+    }
+
+    public void chat(RunContext run, String model, ChatRequest request, ChatResponse response, long startedAt, long durationNanos) {
+        if (!recording()) {
+            return;
+        }
+        String requestJson = requestJson(request);
+        List<String> fields = List.of(requestJson,
+                ChatMessageSerializer.messageToJson(response.aiMessage()),
+                String.valueOf(response.tokenUsage() != null ? response.tokenUsage().inputTokenCount() : null),
+                String.valueOf(response.tokenUsage() != null ? response.tokenUsage().outputTokenCount() : null),
+                String.valueOf(response.finishReason()));
+        append(run.runId(), RunLogRecord.Kind.CHAT, model, chatKey(model, requestJson), startedAt,
+                durationNanos, fields);
+    }
+
+    /**
+     * @param source the tool, as {@code Class.method}
+     * @param result what the tool returned, or the exception it threw
+     */
+    public void tool(RunContext run, String source, Object[] arguments, Object result, long startedAt, long durationNanos) {
+        if (!recording()) {
+            return;
+        }
+        List<String> values = arguments(arguments);
+        List<String> fields = new ArrayList<>(values);
+        fields.add(String.valueOf(result));
+        append(run.runId(), RunLogRecord.Kind.TOOL, source, toolKey(source, values), startedAt,
+                durationNanos, fields);
+    }
+
+    static String requestJson(ChatRequest request) {
+        return ChatMessageSerializer.messagesToJson(request.messages());
+    }
+
+    static long chatKey(String model, String requestJson) {
+        return RunLogRecord.hash(model, requestJson);
+    }
+
+    static List<String> arguments(Object[] arguments) {
+        List<String> values = new ArrayList<>(arguments == null ? 0 : arguments.length);
+        if (arguments != null) {
+            for (Object argument : arguments) {
+                values.add(String.valueOf(argument));
+            }
+        }
+        return values;
+    }
+
+    static long toolKey(String source, List<String> arguments) {
+        String[] parts = new String[arguments.size() + 1];
+        parts[0] = source;
+        for (int i = 0; i < arguments.size(); i++) {
+            parts[i + 1] = arguments.get(i);
+        }
+        return RunLogRecord.hash(parts);
+    }
+
+    private void append(String runId, RunLogRecord.Kind kind, String source, long key, long startedAt,
+                        long durationNanos, List<String> fields) {
+        int step = steps.computeIfAbsent(runId, id -> new AtomicInteger()).getAndIncrement();
+        RunLogRecord record = new RunLogRecord(kind, runId, step, source, key, startedAt, durationNanos, fields);
+        try {
+            RunLogWriter log = writer();
+            if (log != null && !log.append(record)) {
+                LOG.warnf("Not recording %s %s of run %s, it is too large", kind, source, runId);
+            }
+        } catch (IOException e) {
+            LOG.warnf("Could not record %s %s of run %s: %s", kind, source, runId, e.getMessage());
+        }
+    }
+
+    private synchronized RunLogWriter writer() {
+        if (writer == null && !unavailable) {
+            try {
+                writer = RunLogWriter.open(file());
+                LOG.infof("Recording runs to %s", file().toAbsolutePath());
+            } catch (IOException e) {
+                unavailable = true;
+                LOG.warnf("Not recording runs, %s cannot be opened: %s", file, e.getMessage());
+            }
+        }
+        return writer;
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.warnf("Could not close the run log %s: %s", file, e.getMessage());
+            }
+            writer = null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.dloiacono.ai.replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The binary layout of the run log and of its index.
+ * <p>
+ * The log starts with a magic number and a version, followed by the records. A record is its
+ * length, then a fixed part: kind, flags, step, key, start time and duration, then the run ID and
+ * the source, and finally the fields. Strings and counts are written as UTF-8 with variable-length
+ * sizes, and the fields are deflated when they are long enough to gain from it.
+ * <p>
+ * The index holds one fixed-size entry per record, in the order they were appended: the hash of
+ * the run ID, the key, the record's offset in the log, its duration, its step and its kind. It is
+ * enough to find the records of a run, and to add up their timings, without reading the log.
+ */
+final class RunLogFormat {
+
+    static final int MAGIC = 0x5357524c; // "SWRL"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int INDEX_ENTRY_BYTES = 40;
+    /** Larger records are not logged, which also bounds what a reader maps past a chunk. */
+    static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    /** Bytes of a record from its kind to its duration. */
+    private static final int FIXED_BYTES = 30;
+    private static final int DEFLATE_ABOVE_BYTES = 512;
+    private static final byte DEFLATED = 1;
+
+    private RunLogFormat() {
+    }
+
+    /**
+     * @return the record with its length first, as appended to the log
+     */
+    static byte[] encode(RunLogRecord record) {
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        writeVarint(fields, record.fields().size());
+        for (String field : record.fields()) {
+            writeString(fields, field);
+        }
+        byte[] body = fields.toByteArray();
+        byte flags = 0;
+        byte[] stored = body;
+        if (body.length > DEFLATE_ABOVE_BYTES) {
+            byte[] deflated = deflate(body);
+            if (deflated.length < body.length) {
+                stored = deflated;
+                flags = DEFLATED;
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length + 64);
+        ByteBuffer fixed = ByteBuffer.allocate(Integer.BYTES + FIXED_BYTES)
+                .putInt(0)
+                .put((byte) record.kind().ordinal())
+                .put(flags)
+                .putInt(record.step())
+                .putLong(record.key())
+                .putLong(record.startedAt())
+                .putLong(record.durationNanos());
+        out.write(fixed.array(), 0, fixed.position());
+        writeString(out, record.runId());
+        writeString(out, record.source());
+        writeVarint(out, body.length);
+        out.write(stored, 0, stored.length);
+
+        byte[] encoded = out.toByteArray();
+        ByteBuffer.wrap(encoded).putInt(0, encoded.length - Integer.BYTES);
+        return encoded;
+    }
+
+    /**
+     * @param record the record, without its length, from its kind to its end
+     * @throws IOException if the record is corrupt
+     */
+    static RunLogRecord decode(ByteBuffer record) throws IOException {
+        try {
+            RunLogRecord.Kind kind = RunLogRecord.Kind.values()[record.get()];
+            byte flags = record.get();
+            int step = record.getInt();
+            long key = record.getLong();
+            long startedAt = record.getLong();
+            long durationNanos = record.getLong();
+            String runId = readString(record);
+            String source = readString(record);
+            int bodyLength = readVarint(record);
+
+            ByteBuffer body;
+            if ((flags & DEFLATED) != 0) {
+                byte[] inflated = new byte[bodyLength];
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(record);
+                    int length = 0;
+                    while (length < bodyLength && !inflater.finished()) {
+                        int inflatedBytes = inflater.inflate(inflated, length, bodyLength - length);
+                        if (inflatedBytes == 0 && inflater.needsInput()) {
+                            throw new IOException("Truncated record");
+                        }
+                        length += inflatedBytes;
+                    }
+                } finally {
+                    inflater.end();
+                }
+                body = ByteBuffer.wrap(inflated);
+            } else {
+                body = record;
+            }
+            int count = readVarint(body);
+            List<String> fields = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fields.add(readString(body));
+            }
+            return new RunLogRecord(kind, runId, step, source, key, startedAt, durationNanos, fields);
+        } catch (RuntimeException | DataFormatException e) {
+            throw new IOException("Corrupt record: " + e, e);
+        }
+    }
+
+    /**
+     * @return the run ID of an encoded record, without its length, read without decoding the rest
+     */
+    static String runIdOf(ByteBuffer record) {
+        record.position(record.position() + FIXED_BYTES);
+        return readString(record);
+    }
+
+    /**
+     * @return the source of an encoded record, without its length, read without decoding the rest
+     */
+    static String sourceOf(ByteBuffer record) {
+        runIdOf(record);
+        return readString(record);
+    }
+
+    static void writeIndexEntry(ByteBuffer entry, RunLogRecord record, long offset) {
+        entry.putLong(RunLogRecord.hash(record.runId()))
+                .putLong(record.key())
+                .putLong(offset)
+                .putLong(record.durationNanos())
+                .putInt(record.step())
+                .put((byte) record.kind().ordinal())
+                .put(new byte[3]);
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Invalid variable-length size");
+    }
+}
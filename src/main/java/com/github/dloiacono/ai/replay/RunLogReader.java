@@ -0,0 +1,204 @@
+package com.github.dloiacono.ai.replay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads a run log and its index through memory mappings, so that finding the records of a run in a
+ * log of several gigabytes only touches the index and the pages of those records.
+ * <p>
+ * Files are mapped in chunks of 1 GB, each overlapping the next by the largest record size, so a
+ * record starting in a chunk always ends in it. The reader sees the records appended before it
+ * was opened.
+ */
+public final class RunLogReader implements Closeable {
+
+    /**
+     * An index entry.
+     *
+     * @param runHash the hash of the run ID
+     * @param key the key of the record
+     * @param offset the position of the record in the log
+     * @param durationNanos how long the call took
+     * @param step the position of the record in its run
+     * @param kind the kind of record
+     */
+    public record Entry(long runHash, long key, long offset, long durationNanos, int step, RunLogRecord.Kind kind) {
+    }
+
+    private final FileChannel log;
+    private final FileChannel indexChannel;
+    private final MappedFile records;
+    private final MappedFile index;
+    private final int size;
+
+    private RunLogReader(FileChannel log, FileChannel indexChannel) throws IOException {
+        this.log = log;
+        this.indexChannel = indexChannel;
+        this.records = new MappedFile(log, log.size());
+        long indexSize = indexChannel.size();
+        this.index = new MappedFile(indexChannel, indexSize);
+        this.size = (int) Math.min(Integer.MAX_VALUE, indexSize / RunLogFormat.INDEX_ENTRY_BYTES);
+    }
+
+    /**
+     * @throws IOException if the file is not a run log, or cannot be opened
+     */
+    public static RunLogReader open(Path file) throws IOException {
+        FileChannel log = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            FileChannel index = FileChannel.open(indexOf(file), StandardOpenOption.READ);
+            RunLogReader reader = new RunLogReader(log, index);
+            ByteBuffer header = reader.records.slice(0, RunLogFormat.HEADER_BYTES);
+            if (header.getInt() != RunLogFormat.MAGIC || header.getInt() != RunLogFormat.VERSION) {
+                reader.close();
+                throw new IOException(file + " is not a run log of this version");
+            }
+            return reader;
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    static Path indexOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * @return the number of records
+     */
+    public int size() {
+        return size;
+    }
+
+    public Entry entry(int position) {
+        ByteBuffer entry = index.slice((long) position * RunLogFormat.INDEX_ENTRY_BYTES, RunLogFormat.INDEX_ENTRY_BYTES);
+        return new Entry(entry.getLong(), entry.getLong(), entry.getLong(), entry.getLong(), entry.getInt(),
+                RunLogRecord.Kind.values()[entry.get()]);
+    }
+
+    /**
+     * Returns the records of the last execution of a run, from its start, by step. A run executed
+     * again, e.g. when resumed, starts over with step 0.
+     *
+     * @return the entries, or an empty list if the run is not in the log
+     */
+    public List<Entry> entries(String runId) {
+        long runHash = RunLogRecord.hash(runId);
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Entry entry = entry(i);
+            if (entry.runHash() != runHash) {
+                continue;
+            }
+            // Run hashes could collide, so the start of the run is checked by its ID
+            if (entry.kind() == RunLogRecord.Kind.RUN_STARTED && runId.equals(runIdOf(entry))) {
+                entries.clear();
+            }
+            entries.add(entry);
+        }
+        if (entries.isEmpty() || entries.get(0).kind() != RunLogRecord.Kind.RUN_STARTED) {
+            return List.of();
+        }
+        entries.sort(Comparator.comparingInt(Entry::step));
+        return entries;
+    }
+
+    /**
+     * @return the IDs of the runs in the log, in the order they started
+     */
+    public Set<String> runs() {
+        Set<String> runs = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            Entry entry = entry(i);
+            if (entry.kind() == RunLogRecord.Kind.RUN_STARTED) {
+                runs.add(runIdOf(entry));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @throws IOException if the record is corrupt
+     */
+    public RunLogRecord read(Entry entry) throws IOException {
+        return RunLogFormat.decode(record(entry));
+    }
+
+    /**
+     * @return the model name or tool of a record, read without decoding its fields
+     */
+    public String source(Entry entry) {
+        return RunLogFormat.sourceOf(record(entry));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (log; indexChannel) {
+            // Mappings are released when no longer reachable
+        }
+    }
+
+    private String runIdOf(Entry entry) {
+        return RunLogFormat.runIdOf(record(entry));
+    }
+
+    private ByteBuffer record(Entry entry) {
+        int length = records.slice(entry.offset(), Integer.BYTES).getInt();
+        if (length <= 0 || length > RunLogFormat.MAX_RECORD_BYTES) {
+            throw new IllegalStateException("Corrupt run log: record of " + length + " bytes at " + entry.offset());
+        }
+        return records.slice(entry.offset() + Integer.BYTES, length);
+    }
+
+    /**
+     * A read-only file mapped lazily, chunk by chunk.
+     */
+    private static final class MappedFile {
+
+        private static final long CHUNK_BYTES = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private final MappedByteBuffer[] chunks;
+
+        MappedFile(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+            this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+        }
+
+        ByteBuffer slice(long offset, int length) {
+            if (offset < 0 || offset + length > size) {
+                throw new IllegalStateException("Corrupt run log: " + length + " bytes at " + offset
+                        + " are past the end of the file");
+            }
+            int chunk = (int) (offset / CHUNK_BYTES);
+            return chunk(chunk).slice((int) (offset - chunk * CHUNK_BYTES), length);
+        }
+
+        private synchronized MappedByteBuffer chunk(int chunk) {
+            if (chunks[chunk] == null) {
+                long start = chunk * CHUNK_BYTES;
+                try {
+                    chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(size - start, CHUNK_BYTES + RunLogFormat.MAX_RECORD_BYTES));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not map the run log: " + e.getMessage(), e);
+                }
+            }
+            return chunks[chunk];
+        }
+    }
+}
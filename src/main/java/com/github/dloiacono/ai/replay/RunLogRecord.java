@@ -0,0 +1,61 @@
+package com.github.dloiacono.ai.replay;
+
+import java.util.List;
+
+/**
+ * A record of the {@linkplain RunLog run log}: the start or the end of a run, a chat exchange
+ * with a model, or a tool call.
+ * <p>
+ * The fields depend on the kind of record:
+ * <ul>
+ * <li>{@link Kind#RUN_STARTED}: the user needs</li>
+ * <li>{@link Kind#RUN_FINISHED}: the final response, or the error</li>
+ * <li>{@link Kind#CHAT}: the request messages and the response message as JSON, the input and
+ * output token counts and the finish reason</li>
+ * <li>{@link Kind#TOOL}: the arguments, then the result</li>
+ * <li>{@link Kind#FILE}: the path, relative to the workspace, and the content of a text file the
+ * run's workspace held when the run started; these records follow the start of the run</li>
+ * </ul>
+ *
+ * @param kind the kind of record
+ * @param runId the run identifier
+ * @param step the position of the record in its run, in the order the calls completed
+ * @param source the model name, the tool as {@code Class.method}, or the agent for run records
+ * @param key what identifies the call for replay: the hash of the model name and request, or of
+ *            the tool and its arguments; 0 for run and file records
+ * @param startedAt when the call started, in milliseconds since the epoch
+ * @param durationNanos how long the call took
+ * @param fields the content of the record
+ */
+public record RunLogRecord(Kind kind, String runId, int step, String source, long key, long startedAt,
+                           long durationNanos, List<String> fields) {
+
+    /**
+     * The kinds of records. They are stored by position, so new kinds go at the end.
+     */
+    public enum Kind {
+        RUN_STARTED,
+        RUN_FINISHED,
+        CHAT,
+        TOOL,
+        FILE
+    }
+
+    public String field(int index) {
+        return fields.get(index);
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the parts, each followed by a 0 character
+     */
+    public static long hash(String... parts) {
+        long hash = 0xcbf29ce484222325L;
+        for (String part : parts) {
+            for (int i = 0; i < part.length(); i++) {
+                hash = (hash ^ part.charAt(i)) * 0x100000001b3L;
+            }
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
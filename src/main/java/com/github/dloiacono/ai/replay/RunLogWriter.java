@@ -0,0 +1,174 @@
+package com.github.dloiacono.ai.replay;
+
+import org.jboss.logging.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends records to a run log and to its index, {@code <log>.idx}.
+ * <p>
+ * A record is appended to the log before its index entry, so after a crash the index can only
+ * lack the last records: opening the log indexes them again, and cuts off a record that was only
+ * partly written.
+ */
+public final class RunLogWriter implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(RunLogWriter.class);
+
+    /** Position of the record offset in an index entry, after the run hash and the key. */
+    private static final int OFFSET_IN_ENTRY = 2 * Long.BYTES;
+
+    private final FileChannel log;
+    private final FileChannel index;
+    private long logEnd;
+    private long indexEnd;
+
+    private RunLogWriter(FileChannel log, FileChannel index) {
+        this.log = log;
+        this.index = index;
+    }
+
+    /**
+     * Opens a run log for appending, creating it if needed.
+     *
+     * @throws IOException if the file is not a run log, or cannot be opened
+     */
+    public static RunLogWriter open(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        FileChannel log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            FileChannel index = FileChannel.open(RunLogReader.indexOf(file),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            RunLogWriter writer = new RunLogWriter(log, index);
+            try {
+                writer.recover(file);
+            } catch (IOException e) {
+                writer.close();
+                throw e;
+            }
+            return writer;
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return false if the record was too large to be logged
+     */
+    public synchronized boolean append(RunLogRecord record) throws IOException {
+        byte[] encoded = RunLogFormat.encode(record);
+        if (encoded.length - Integer.BYTES > RunLogFormat.MAX_RECORD_BYTES) {
+            return false;
+        }
+        long offset = logEnd;
+        writeFully(log, ByteBuffer.wrap(encoded), offset);
+        logEnd += encoded.length;
+
+        ByteBuffer entry = ByteBuffer.allocate(RunLogFormat.INDEX_ENTRY_BYTES);
+        RunLogFormat.writeIndexEntry(entry, record, offset);
+        writeFully(index, entry.flip(), indexEnd);
+        indexEnd += RunLogFormat.INDEX_ENTRY_BYTES;
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try (log; index) {
+            if (log.isOpen()) {
+                log.force(false);
+            }
+            if (index.isOpen()) {
+                index.force(false);
+            }
+        }
+    }
+
+    private void recover(Path file) throws IOException {
+        long logSize = log.size();
+        if (logSize < RunLogFormat.HEADER_BYTES) {
+            log.truncate(0);
+            index.truncate(0);
+            writeFully(log, ByteBuffer.allocate(RunLogFormat.HEADER_BYTES)
+                    .putInt(RunLogFormat.MAGIC).putInt(RunLogFormat.VERSION).flip(), 0);
+            logEnd = RunLogFormat.HEADER_BYTES;
+            return;
+        }
+        ByteBuffer header = read(log, 0, RunLogFormat.HEADER_BYTES);
+        if (header.getInt() != RunLogFormat.MAGIC || header.getInt() != RunLogFormat.VERSION) {
+            throw new IOException(file + " is not a run log of this version");
+        }
+
+        // The end of the last indexed record that is complete in the log
+        long entries = index.size() / RunLogFormat.INDEX_ENTRY_BYTES;
+        logEnd = RunLogFormat.HEADER_BYTES;
+        while (entries > 0) {
+            long offset = read(index, (entries - 1) * RunLogFormat.INDEX_ENTRY_BYTES + OFFSET_IN_ENTRY, Long.BYTES).getLong();
+            long end = offset + Integer.BYTES;
+            if (end <= logSize) {
+                end += read(log, offset, Integer.BYTES).getInt();
+                if (end <= logSize) {
+                    logEnd = end;
+                    break;
+                }
+            }
+            entries--;
+        }
+        indexEnd = entries * RunLogFormat.INDEX_ENTRY_BYTES;
+        index.truncate(indexEnd);
+
+        // Records appended after the last index entry
+        int recovered = 0;
+        while (logEnd + Integer.BYTES <= logSize) {
+            int length = read(log, logEnd, Integer.BYTES).getInt();
+            if (length <= 0 || length > RunLogFormat.MAX_RECORD_BYTES || logEnd + Integer.BYTES + length > logSize) {
+                break;
+            }
+            RunLogRecord record;
+            try {
+                record = RunLogFormat.decode(read(log, logEnd + Integer.BYTES, length));
+            } catch (IOException e) {
+                break;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(RunLogFormat.INDEX_ENTRY_BYTES);
+            RunLogFormat.writeIndexEntry(entry, record, logEnd);
+            writeFully(index, entry.flip(), indexEnd);
+            indexEnd += RunLogFormat.INDEX_ENTRY_BYTES;
+            logEnd += Integer.BYTES + length;
+            recovered++;
+        }
+        if (recovered > 0) {
+            LOG.infof("Indexed %d records of %s missing from its index", recovered, file);
+        }
+        if (logEnd < logSize) {
+            LOG.warnf("Cutting off %d bytes of a partly written record at the end of %s", logSize - logEnd, file);
+            log.truncate(logEnd);
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
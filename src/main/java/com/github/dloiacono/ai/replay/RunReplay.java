@@ -0,0 +1,352 @@
+package com.github.dloiacono.ai.replay;
+
+import com.github.dloiacono.ai.SwarmRunner;
+import com.github.dloiacono.ai.project.WorkspaceClosedEvent;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a run recorded in the {@linkplain RunLog run log}, {@code swarm.run-log.replay}, against
+ * the current code: the models answer with the recorded responses while the agents and the tools
+ * run for real, in an in-memory workspace. That workspace is first filled with the files the
+ * recorded run's workspace held when it started, so the tools see the same project. This makes
+ * realistic workloads repeatable offline, to catch performance regressions of the swarm itself.
+ * <p>
+ * A request is answered with the recorded response to the same request of the same model. When
+ * the code changed so that no request is the same, the recorded responses of the model are used
+ * in order. The result of each tool call is compared with the recorded one. With
+ * {@code swarm.run-log.replay-latency}, each response also takes as long as it did when recorded.
+ */
+@ApplicationScoped
+public class RunReplay {
+
+    private static final Logger LOG = Logger.getLogger(RunReplay.class);
+
+    /** Divergences from the recorded run listed in the report. */
+    private static final int MAX_DIVERGENCES = 20;
+
+    // Outcomes of the model requests and tool calls, as reported
+    private static final String EXACT = "responses to the same request";
+    private static final String IN_ORDER = "responses taken in order";
+    private static final String MISSING = "requests without a response";
+    private static final String UNUSED = "responses not used";
+    private static final String SAME = "tool calls, same result";
+    private static final String DIFFERENT = "tool calls, different result";
+    private static final String UNRECORDED = "tool calls not recorded";
+
+    @Inject
+    RunLog runLog;
+
+    @Inject
+    SwarmRunner swarmRunner;
+
+    @Inject
+    Event<WorkspaceClosedEvent> workspaceClosed;
+
+    @ConfigProperty(name = "swarm.run-log.replay")
+    Optional<String> replayedRunId;
+
+    @ConfigProperty(name = "swarm.run-log.replay-latency", defaultValue = "false")
+    boolean replayLatency;
+
+    @ConfigProperty(name = "swarm.file-cache.max-chars", defaultValue = "16777216")
+    long fileCacheChars;
+
+    private volatile Session session;
+
+    /**
+     * The outcome of a replay.
+     *
+     * @param runId the replayed run
+     * @param succeeded whether the replayed run completed
+     * @param recordedNanos how long the recorded run took, -1 if it did not finish
+     * @param recordedModelNanos how long the recorded run spent in the models
+     * @param replayNanos how long the replayed run took
+     * @param waitedNanos how long the replayed run waited for the recorded latencies
+     * @param counts the number of model responses and tool calls by outcome
+     * @param divergences the first differences with the recorded run
+     */
+    public record Report(String runId, boolean succeeded, long recordedNanos, long recordedModelNanos,
+                         long replayNanos, long waitedNanos, Map<String, Integer> counts, List<String> divergences) {
+
+        /**
+         * @return whether the run completed with every model request answered
+         */
+        public boolean passed() {
+            return succeeded && counts.getOrDefault(MISSING, 0) == 0;
+        }
+
+        public String format() {
+            StringBuilder report = new StringBuilder();
+            report.append(String.format("Replay of run %s: %s%n", runId, succeeded ? "completed" : "failed"));
+            if (recordedNanos >= 0) {
+                report.append(String.format("  %-32s %8.1f s, %.1f s of it in the models%n", "recorded run",
+                        recordedNanos / 1e9, recordedModelNanos / 1e9));
+            }
+            report.append(String.format("  %-32s %8.1f s, %.1f s of it waiting for recorded latencies%n",
+                    "replayed run", replayNanos / 1e9, waitedNanos / 1e9));
+            report.append(String.format("  %-32s %8.1f s%n", "swarm time (replayed - waited)",
+                    (replayNanos - waitedNanos) / 1e9));
+            counts.forEach((outcome, count) -> report.append(String.format("  %-32s %8d%n", outcome, count)));
+            divergences.forEach(divergence -> report.append("  ").append(divergence).append(System.lineSeparator()));
+            return report.toString();
+        }
+    }
+
+    /**
+     * @return whether a replay was requested with {@code swarm.run-log.replay}
+     */
+    public boolean enabled() {
+        return replayedRunId.isPresent();
+    }
+
+    public ChatModel chatModel(String name) {
+        return new ReplayChatModel(name, this);
+    }
+
+    public StreamingChatModel streamingChatModel(String name) {
+        return new ReplayChatModel(name, this);
+    }
+
+    /**
+     * Replays the run and waits for it to finish.
+     *
+     * @throws IllegalArgumentException if the run is not in the log
+     * @throws IOException if the log cannot be read
+     */
+    public Report replay() throws IOException {
+        String runId = replayedRunId.orElseThrow();
+        try (RunLogReader reader = RunLogReader.open(runLog.file())) {
+            List<RunLogReader.Entry> entries = reader.entries(runId);
+            if (entries.isEmpty()) {
+                List<String> runs = new ArrayList<>(reader.runs());
+                throw new IllegalArgumentException("Run " + runId + " is not in " + runLog.file() + ", the last runs are "
+                        + runs.subList(Math.max(0, runs.size() - 10), runs.size()));
+            }
+            String needs = reader.read(entries.get(0)).field(0);
+            long recordedNanos = -1;
+            long recordedModelNanos = 0;
+            for (RunLogReader.Entry entry : entries) {
+                switch (entry.kind()) {
+                    case RUN_FINISHED -> recordedNanos = entry.durationNanos();
+                    case CHAT -> recordedModelNanos += entry.durationNanos();
+                    default -> {
+                    }
+                }
+            }
+
+            String replayId = "replay-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            LOG.infof("Replaying run %s (%d records) as %s", runId, entries.size(), replayId);
+            Session replayed = new Session(reader, entries);
+            session = replayed;
+            Workspace workspace = Workspace.inMemory(replayId);
+            boolean succeeded = false;
+            long start = System.nanoTime();
+            try {
+                int files = seed(workspace, reader, entries);
+                LOG.infof("Replay workspace seeded with %d files of the recorded workspace", files);
+                swarmRunner.run(RunContext.create(replayId, fileCacheChars, workspace), needs, false);
+                succeeded = true;
+            } catch (Exception e) {
+                LOG.warnf(e, "Replay of run %s failed", runId);
+            } finally {
+                session = null;
+                workspace.close();
+                workspaceClosed.fire(new WorkspaceClosedEvent(workspace.root()));
+            }
+            long replayNanos = System.nanoTime() - start;
+            return replayed.report(runId, succeeded, recordedNanos, recordedModelNanos, replayNanos);
+        }
+    }
+
+    /**
+     * Writes the files the recorded run's workspace held when it started into the replay workspace.
+     *
+     * @return the number of files written
+     */
+    private static int seed(Workspace workspace, RunLogReader reader, List<RunLogReader.Entry> entries)
+            throws IOException {
+        int files = 0;
+        for (RunLogReader.Entry entry : entries) {
+            if (entry.kind() != RunLogRecord.Kind.FILE) {
+                continue;
+            }
+            RunLogRecord record = reader.read(entry);
+            Path file = workspace.resolve(record.field(0));
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, record.field(1));
+            files++;
+        }
+        return files;
+    }
+
+    /**
+     * @return the recorded response to a request
+     * @throws IllegalStateException if no recorded response is left for the model
+     */
+    ChatResponse respond(String model, ChatRequest request) {
+        Session replayed = session;
+        if (replayed == null) {
+            throw new IllegalStateException("No run is being replayed");
+        }
+        RunLogRecord record = replayed.respond(model, request);
+        if (replayLatency) {
+            long start = System.nanoTime();
+            long deadline = start + record.durationNanos();
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+            replayed.waitedNanos.addAndGet(System.nanoTime() - start);
+        }
+        TokenUsage usage = record.field(2).equals("null") ? null
+                : new TokenUsage(Integer.valueOf(record.field(2)), Integer.valueOf(record.field(3)));
+        return ChatResponse.builder()
+                .aiMessage((AiMessage) ChatMessageDeserializer.messageFromJson(record.field(1)))
+                .modelName("replay-" + model)
+                .tokenUsage(usage)
+                .finishReason(record.field(4).equals("null") ? null : FinishReason.valueOf(record.field(4)))
+                .build();
+    }
+
+    /**
+     * Compares the result of a tool call with the recorded one, when replaying.
+     */
+    public void toolCalled(String source, Object[] arguments, Object result) {
+        Session replayed = session;
+        if (replayed != null) {
+            replayed.toolCalled(source, RunLog.arguments(arguments), String.valueOf(result));
+        }
+    }
+
+    /**
+     * The recorded calls of the run being replayed, consumed as the replay makes them.
+     */
+    private static final class Session {
+
+        private final RunLogReader reader;
+        private final Map<Long, List<RunLogReader.Entry>> chatsByKey = new HashMap<>();
+        private final Map<String, List<RunLogReader.Entry>> chatsByModel = new HashMap<>();
+        private final Map<Long, List<RunLogReader.Entry>> toolsByKey = new HashMap<>();
+        private final Map<String, Integer> counts = new LinkedHashMap<>();
+        private final List<String> divergences = new ArrayList<>();
+        private final AtomicLong waitedNanos = new AtomicLong();
+
+        Session(RunLogReader reader, List<RunLogReader.Entry> entries) {
+            this.reader = reader;
+            for (String outcome : List.of(EXACT, IN_ORDER, MISSING, UNUSED, SAME, DIFFERENT, UNRECORDED)) {
+                counts.put(outcome, 0);
+            }
+            for (RunLogReader.Entry entry : entries) {
+                switch (entry.kind()) {
+                    case CHAT -> {
+                        chatsByKey.computeIfAbsent(entry.key(), key -> new ArrayList<>()).add(entry);
+                        chatsByModel.computeIfAbsent(reader.source(entry), model -> new ArrayList<>()).add(entry);
+                    }
+                    case TOOL -> toolsByKey.computeIfAbsent(entry.key(), key -> new ArrayList<>()).add(entry);
+                    default -> {
+                    }
+                }
+            }
+        }
+
+        synchronized RunLogRecord respond(String model, ChatRequest request) {
+            String requestJson = RunLog.requestJson(request);
+            for (RunLogReader.Entry entry : chatsByKey.getOrDefault(RunLog.chatKey(model, requestJson), List.of())) {
+                RunLogRecord record = read(entry);
+                if (record.source().equals(model) && record.field(0).equals(requestJson)) {
+                    return use(entry, record, EXACT);
+                }
+            }
+            List<RunLogReader.Entry> recorded = chatsByModel.getOrDefault(model, List.of());
+            if (recorded.isEmpty()) {
+                count(MISSING);
+                throw new IllegalStateException("No recorded response left for the " + model + " model");
+            }
+            RunLogReader.Entry entry = recorded.get(0);
+            diverged("Request " + entry.step() + " to the " + model + " model differs from the recorded one");
+            return use(entry, read(entry), IN_ORDER);
+        }
+
+        synchronized void toolCalled(String source, List<String> arguments, String result) {
+            List<RunLogReader.Entry> recorded = toolsByKey.getOrDefault(RunLog.toolKey(source, arguments), List.of());
+            for (RunLogReader.Entry entry : recorded) {
+                RunLogRecord record = read(entry);
+                List<String> fields = record.fields();
+                if (record.source().equals(source) && fields.subList(0, fields.size() - 1).equals(arguments)) {
+                    recorded.remove(entry);
+                    if (fields.get(fields.size() - 1).equals(result)) {
+                        count(SAME);
+                    } else {
+                        count(DIFFERENT);
+                        diverged("Call " + entry.step() + " to " + source + " returned a different result");
+                    }
+                    return;
+                }
+            }
+            count(UNRECORDED);
+            diverged("Call to " + source + " was not recorded");
+        }
+
+        synchronized Report report(String runId, boolean succeeded, long recordedNanos, long recordedModelNanos,
+                                   long replayNanos) {
+            counts.put(UNUSED, chatsByModel.values().stream().mapToInt(List::size).sum());
+            return new Report(runId, succeeded, recordedNanos, recordedModelNanos, replayNanos, waitedNanos.get(),
+                    Collections.unmodifiableMap(new LinkedHashMap<>(counts)), List.copyOf(divergences));
+        }
+
+        private RunLogRecord use(RunLogReader.Entry entry, RunLogRecord record, String outcome) {
+            chatsByKey.get(entry.key()).remove(entry);
+            chatsByModel.get(record.source()).remove(entry);
+            count(outcome);
+            return record;
+        }
+
+        private void count(String outcome) {
+            counts.merge(outcome, 1, Integer::sum);
+        }
+
+        private void diverged(String divergence) {
+            if (divergences.size() < MAX_DIVERGENCES) {
+                divergences.add(divergence);
+            }
+        }
+
+        private RunLogRecord read(RunLogReader.Entry entry) {
+            try {
+                return reader.read(entry);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read record " + entry.step() + " of the run log: "
+                        + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.dloiacono.ai.run;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded LRU cache of file contents and existence checks for one run.
+ * <p>
+ * The file tools are the only writers of the files a run works on, so entries are kept up to
+ * date by the tools themselves instead of being revalidated against the disk on every hit.
+ */
+public class FileContentCache {
+
+    private final long maxChars;
+    private final LinkedHashMap<Path, Cached> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedChars;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A cached file. {@code content} is null when only the existence of the file is known.
+     */
+    private record Cached(boolean exists, String content) {
+
+        long weight() {
+            return content == null ? 0 : content.length();
+        }
+    }
+
+    /**
+     * @param maxChars the maximum number of characters of file content kept in memory, 0 or less
+     *         to cache nothing
+     */
+    public FileContentCache(long maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the cached content of a file.
+     *
+     * @param path the absolute, normalized path
+     * @return the content, or null if it is not cached
+     */
+    public synchronized String content(Path path) {
+        Cached cached = entries.get(path);
+        if (cached != null && cached.exists() && cached.content() != null) {
+            hits.incrementAndGet();
+            return cached.content();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns whether a file is known to exist.
+     *
+     * @param path the absolute, normalized path
+     * @return true or false when known, null if the cache has no entry for the path
+     */
+    public synchronized Boolean exists(Path path) {
+        Cached cached = entries.get(path);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.exists();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Records the content of a file after it has been read or written.
+     *
+     * @param path the absolute, normalized path
+     * @param content the full content of the file
+     */
+    public synchronized void put(Path path, String content) {
+        if (maxChars <= 0) {
+            return;
+        }
+        if (content.length() > maxChars) {
+            // Too large to be worth caching, but the file is known to exist
+            store(path, new Cached(true, null));
+            return;
+        }
+        store(path, new Cached(true, content));
+    }
+
+    /**
+     * Records whether a file exists without caching its content.
+     *
+     * @param path the absolute, normalized path
+     * @param exists whether the file exists
+     */
+    public synchronized void putExists(Path path, boolean exists) {
+        if (maxChars <= 0) {
+            return;
+        }
+        Cached cached = entries.get(path);
+        if (cached == null || cached.exists() != exists) {
+            store(path, new Cached(exists, null));
+        }
+    }
+
+    /**
+     * Updates a cached file after content has been appended to it. The entry is dropped when
+     * the previous content is not cached.
+     *
+     * @param path the absolute, normalized path
+     * @param appended the appended content
+     */
+    public synchronized void append(Path path, String appended) {
+        Cached cached = entries.get(path);
+        if (cached != null && cached.content() != null) {
+            put(path, cached.content() + appended);
+        } else {
+            invalidate(path);
+        }
+    }
+
+    /**
+     * Drops the entry of a file.
+     *
+     * @param path the absolute, normalized path
+     */
+    public synchronized void invalidate(Path path) {
+        Cached removed = entries.remove(path);
+        if (removed != null) {
+            cachedChars -= removed.weight();
+        }
+    }
+
+    /**
+     * @return a one line summary of the hit, miss and eviction counters
+     */
+    public synchronized String stats() {
+        long total = hits.get() + misses.get();
+        return String.format("file cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d entries, %d chars",
+                hits.get(), misses.get(), total == 0 ? 0.0 : 100.0 * hits.get() / total,
+                evictions.get(), entries.size(), cachedChars);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private void store(Path path, Cached cached) {
+        Cached previous = entries.put(path, cached);
+        if (previous != null) {
+            cachedChars -= previous.weight();
+        }
+        cachedChars += cached.weight();
+
+        Iterator<Map.Entry<Path, Cached>> eldest = entries.entrySet().iterator();
+        while (cachedChars > maxChars && eldest.hasNext()) {
+            Map.Entry<Path, Cached> entry = eldest.next();
+            if (entry.getKey().equals(path)) {
+                continue;
+            }
+            cachedChars -= entry.getValue().weight();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+}
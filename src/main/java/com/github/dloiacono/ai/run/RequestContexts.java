@@ -0,0 +1,35 @@
+package com.github.dloiacono.ai.run;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ArcContainer;
+import io.quarkus.arc.ManagedContext;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs work in a CDI request context of its own, so request scoped beans such as the AI services
+ * and their chat memory are not shared with other work running at the same time.
+ */
+public final class RequestContexts {
+
+    private RequestContexts() {
+    }
+
+    /**
+     * Calls a task in a new request context, terminated when the task returns. Outside of Quarkus
+     * the task is simply called.
+     */
+    public static <T> T call(Callable<T> task) throws Exception {
+        ArcContainer container = Arc.container();
+        if (container == null) {
+            return task.call();
+        }
+        ManagedContext requestContext = container.requestContext();
+        requestContext.activate();
+        try {
+            return task.call();
+        } finally {
+            requestContext.terminate();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.github.dloiacono.ai.run;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Persists the completed steps of a run, so a failed or interrupted run can be resumed where it
+ * stopped instead of from scratch.
+ * <p>
+ * A step is a workflow phase, such as {@code research}, or a part of one, such as
+ * {@code implementation/module-2}. Its checkpoint holds the step's output and the content of the
+ * files it wrote, under {@code <directory>/<runId>/<step>.ckpt}.
+ * <p>
+ * Checkpoints are only reused when a run is resumed, and each one at most once: a step run again
+ * within the same execution, such as a second call of the developers to fix their code, always
+ * does its work. The checkpoints of a run are deleted once it ends with all its steps completed.
+ * Runs that are not {@linkplain RunContext#persistent() persistent} are never checkpointed.
+ */
+@ApplicationScoped
+public class RunCheckpoints {
+
+    private static final Logger LOG = Logger.getLogger(RunCheckpoints.class);
+
+    private static final int MAGIC = 0x53574350; // "SWCP"
+    private static final String EXTENSION = ".ckpt";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+(/[A-Za-z0-9._-]+)*");
+
+    @ConfigProperty(name = "swarm.checkpoint.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.checkpoint.directory", defaultValue = "target/checkpoints")
+    String directory;
+
+    /** Steps of the runs being resumed whose checkpoint has not been reused yet, by run. */
+    private final Map<String, Set<String>> resumable = new ConcurrentHashMap<>();
+
+    /** Runs with a step that failed or did not complete, whose checkpoints are kept when they end. */
+    private final Set<String> unfinished = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A completed step.
+     *
+     * @param step the step name
+     * @param label what the step worked on, such as the module name, used to check a resumed step is the same
+     * @param output the output of the step
+     * @param files the files the step wrote, by path, with their content when the step completed
+     */
+    public record Checkpoint(String step, String label, String output, Map<String, String> files) {
+    }
+
+    /**
+     * Prepares the checkpoints of a run.
+     *
+     * @param run the run
+     * @param resume whether to keep the checkpoints of a previous execution of the run
+     * @return the steps already completed, in name order; empty unless resuming
+     */
+    public List<String> start(RunContext run, boolean resume) {
+        String runId = run.runId();
+        Path root = runDirectory(runId);
+        resumable.remove(runId);
+        unfinished.remove(runId);
+        if (!enabled || !run.persistent() || !Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> checkpoints = files.filter(p -> p.toString().endsWith(EXTENSION)).sorted().toList();
+            if (resume) {
+                List<String> steps = checkpoints.stream().map(p -> stepOf(root, p)).toList();
+                Set<String> pending = ConcurrentHashMap.newKeySet();
+                pending.addAll(steps);
+                resumable.put(runId, pending);
+                return steps;
+            }
+            // A new execution of the same run ID starts over
+            for (Path checkpoint : checkpoints) {
+                Files.deleteIfExists(checkpoint);
+            }
+        } catch (IOException e) {
+            LOG.warnf("Could not read the checkpoints of run %s: %s", runId, e.getMessage());
+        }
+        return List.of();
+    }
+
+    /**
+     * Looks up a step completed by a previous execution of a resumed run. The checkpoint is only
+     * returned once; later calls of the step do their work.
+     *
+     * @param runId the run identifier
+     * @param step the step name
+     * @param label what the step works on, with a digest of its inputs; a checkpoint with another
+     *         label is ignored
+     * @return the checkpoint, or empty if the run is not resumed or the step has not completed
+     */
+    public Optional<Checkpoint> completed(String runId, String step, String label) {
+        Set<String> pending = resumable.get(runId);
+        if (!enabled || pending == null || !pending.remove(step)) {
+            return Optional.empty();
+        }
+        Path file = checkpointFile(runId, step);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return Optional.empty();
+            }
+            String storedLabel = readString(in);
+            if (!storedLabel.equals(label)) {
+                LOG.infof("Ignoring checkpoint of step %s of run %s, it was for '%s'", step, runId, storedLabel);
+                return Optional.empty();
+            }
+            String output = readString(in);
+            int fileCount = in.readInt();
+            Map<String, String> files = new LinkedHashMap<>();
+            for (int i = 0; i < fileCount; i++) {
+                files.put(readString(in), readString(in));
+            }
+            return Optional.of(new Checkpoint(step, storedLabel, output, files));
+        } catch (IOException e) {
+            LOG.warnf("Ignoring unreadable checkpoint %s: %s", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Records that a step completed.
+     *
+     * @param runId the run identifier
+     * @param step the step name
+     * @param label what the step worked on
+     * @param output the output of the step
+     * @param writtenFiles the absolute paths of the files the step wrote
+     */
+    public void complete(String runId, String step, String label, String output, Collection<Path> writtenFiles) {
+        RunContext run = RunContext.current();
+        if (!enabled || !run.persistent()) {
+            return;
+        }
+        Path file = checkpointFile(runId, step);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                writeString(out, label);
+                writeString(out, output);
+                List<Path> files = writtenFiles.stream().filter(Files::isRegularFile).sorted().toList();
+                out.writeInt(files.size());
+                for (Path written : files) {
+                    writeString(out, run.relativize(written));
+                    writeString(out, Files.readString(written));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warnf("Could not checkpoint step %s of run %s: %s", step, runId, e.getMessage());
+        }
+    }
+
+    /**
+     * Records that a step of a run failed or did not complete, so that the run keeps its
+     * checkpoints when it ends and can be resumed.
+     */
+    public void unfinished(String runId) {
+        unfinished.add(runId);
+    }
+
+    /**
+     * Ends a run. The checkpoints of a run that succeeded with all its steps completed are deleted;
+     * the others are kept for a resume.
+     *
+     * @param run the run
+     * @param succeeded whether the run returned a response
+     */
+    public void finish(RunContext run, boolean succeeded) {
+        String runId = run.runId();
+        resumable.remove(runId);
+        boolean complete = !unfinished.remove(runId);
+        if (!enabled || !run.persistent() || !succeeded || !complete) {
+            return;
+        }
+        Path root = runDirectory(runId);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            LOG.warnf("Could not delete the checkpoints of run %s: %s", runId, e.getMessage());
+        }
+    }
+
+    /**
+     * Validates a run identifier given by the user.
+     *
+     * @throws IllegalArgumentException if it cannot be used as a directory name
+     */
+    public static String checkRunId(String runId) {
+        if (runId == null || !NAME.matcher(runId).matches() || runId.contains("/") || runId.startsWith(".")) {
+            throw new IllegalArgumentException("Invalid run ID '" + runId + "', use letters, digits, '.', '_' and '-'");
+        }
+        return runId;
+    }
+
+    private Path runDirectory(String runId) {
+        return Paths.get(directory).resolve(checkRunId(runId));
+    }
+
+    private Path checkpointFile(String runId, String step) {
+        if (!NAME.matcher(step).matches()) {
+            throw new IllegalArgumentException("Invalid step name: " + step);
+        }
+        return runDirectory(runId).resolve(step + EXTENSION);
+    }
+
+    private static String stepOf(Path root, Path checkpoint) {
+        String relative = root.relativize(checkpoint).toString().replace('\\', '/');
+        return relative.substring(0, relative.length() - EXTENSION.length());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,386 @@
+package com.github.dloiacono.ai.run;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ArcContainer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * State that belongs to a single swarm run and is shared by every agent and tool taking part in it.
+ * <p>
+ * The context is bound to the thread driving the run with {@link #bind(RunContext)}; tools look it
+ * up with {@link #current()}. Binding also records the context in the active request context, so
+ * tools called back on another thread of the same request, as happens with streaming agents, still
+ * find it. Code running outside of a run gets a shared default context, which caches no file
+ * content since nothing bounds its lifetime or keeps it in step with changes made outside the swarm.
+ * <p>
+ * Paths used by the tools are resolved inside the run's {@link Workspace}, the working directory
+ * unless the run was given its own.
+ */
+public final class RunContext {
+
+    /** Default size of the file content cache, in characters. */
+    public static final long DEFAULT_FILE_CACHE_CHARS = 16L * 1024 * 1024;
+
+    private static final ThreadLocal<RunContext> CURRENT = new ThreadLocal<>();
+    private static final RunContext DEFAULT = new RunContext("default", 0, workingDirectory());
+
+    private final String runId;
+    private final Workspace workspace;
+    private final FileContentCache fileCache;
+    private final Map<Path, String> writeOwners;
+    private final String shardId;
+    private final List<Set<Path>> writeJournals;
+    private final Consumer<RunEvent> events;
+    private final List<AtomicBoolean> cancellations;
+    private final boolean persistent;
+
+    private RunContext(String runId, long fileCacheChars, Workspace workspace) {
+        this(runId, workspace, new FileContentCache(fileCacheChars), new ConcurrentHashMap<>(), null, List.of(), null,
+                List.of(), true);
+    }
+
+    private RunContext(String runId, Workspace workspace, FileContentCache fileCache, Map<Path, String> writeOwners,
+                       String shardId, List<Set<Path>> writeJournals, Consumer<RunEvent> events,
+                       List<AtomicBoolean> cancellations, boolean persistent) {
+        this.runId = runId;
+        this.workspace = workspace;
+        this.fileCache = fileCache;
+        this.writeOwners = writeOwners;
+        this.shardId = shardId;
+        this.writeJournals = writeJournals;
+        this.events = events;
+        this.cancellations = cancellations;
+        this.persistent = persistent;
+    }
+
+    /**
+     * Creates the context of a new run.
+     *
+     * @param fileCacheChars the maximum number of characters kept in the run's file cache
+     * @return the new context, not yet bound to any thread
+     */
+    public static RunContext create(long fileCacheChars) {
+        return create(UUID.randomUUID().toString(), fileCacheChars);
+    }
+
+    /**
+     * Creates the context of a run with a given identifier, typically to resume it.
+     *
+     * @param runId the run identifier
+     * @param fileCacheChars the maximum number of characters kept in the run's file cache
+     * @return the new context, not yet bound to any thread
+     */
+    public static RunContext create(String runId, long fileCacheChars) {
+        return create(runId, fileCacheChars, workingDirectory());
+    }
+
+    /**
+     * Creates the context of a run working in its own directory.
+     *
+     * @param runId the run identifier
+     * @param fileCacheChars the maximum number of characters kept in the run's file cache
+     * @param workspace the directory relative paths are resolved against
+     * @return the new context, not yet bound to any thread
+     */
+    public static RunContext create(String runId, long fileCacheChars, Path workspace) {
+        return create(runId, fileCacheChars, Workspace.onDisk(workspace));
+    }
+
+    /**
+     * Creates the context of a run working in its own workspace, on disk or in memory.
+     *
+     * @param runId the run identifier
+     * @param fileCacheChars the maximum number of characters kept in the run's file cache
+     * @param workspace the workspace the tools work in, closed by the caller after the run
+     * @return the new context, not yet bound to any thread
+     */
+    public static RunContext create(String runId, long fileCacheChars, Workspace workspace) {
+        return new RunContext(runId, fileCacheChars, workspace);
+    }
+
+    /**
+     * @return the context bound to the current thread, or the shared default context
+     */
+    public static RunContext current() {
+        RunContext context = CURRENT.get();
+        if (context != null) {
+            return context;
+        }
+        RunContextHolder holder = holder();
+        context = holder != null ? holder.get() : null;
+        return context != null ? context : DEFAULT;
+    }
+
+    /**
+     * Binds a context to the current thread until the returned scope is closed.
+     *
+     * @param context the context to bind
+     * @return a scope that restores the previously bound context when closed
+     */
+    public static Scope bind(RunContext context) {
+        RunContext previous = CURRENT.get();
+        CURRENT.set(context);
+        RunContextHolder holder = holder();
+        RunContext previousInRequest = holder != null ? holder.get() : null;
+        if (holder != null) {
+            holder.set(context);
+        }
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+            if (holder != null) {
+                holder.set(previousInRequest);
+            }
+        };
+    }
+
+    private static RunContextHolder holder() {
+        ArcContainer container = Arc.container();
+        if (container == null || !container.requestContext().isActive()) {
+            return null;
+        }
+        return container.instance(RunContextHolder.class).get();
+    }
+
+    /**
+     * Returns a view of this run for one of several shards working on it concurrently. The shard
+     * shares the run's state, but the files it writes are recorded as its own.
+     *
+     * @param shardId the identifier of the shard
+     * @return the shard's context
+     */
+    public RunContext forShard(String shardId) {
+        return new RunContext(runId, workspace, fileCache, writeOwners, shardId, writeJournals, events, cancellations,
+                persistent);
+    }
+
+    /**
+     * Returns a view of this run that also records every file written through it, and through
+     * the contexts derived from it, in {@code journal}.
+     *
+     * @param journal the set receiving the absolute paths of written files, must be thread safe
+     * @return the journaling context
+     */
+    public RunContext withWriteJournal(Set<Path> journal) {
+        List<Set<Path>> journals = new ArrayList<>(writeJournals);
+        journals.add(journal);
+        return new RunContext(runId, workspace, fileCache, writeOwners, shardId, List.copyOf(journals), events,
+                cancellations, persistent);
+    }
+
+    /**
+     * Returns a view of this run that streams its events, such as tokens and tool calls, to a
+     * consumer. Agents called within it use their streaming variant.
+     *
+     * @param events the consumer of the run's events, called from several threads
+     * @return the streaming context
+     */
+    public RunContext withEvents(Consumer<RunEvent> events) {
+        return new RunContext(runId, workspace, fileCache, writeOwners, shardId, writeJournals, events, cancellations,
+                persistent);
+    }
+
+    /**
+     * Returns a view of this run that is cancelled once {@code cancelled} is set, as are the
+     * contexts derived from it. Work still running in a cancelled context fails at its next file
+     * write or model call.
+     *
+     * @param cancelled the flag cancelling the context
+     * @return the cancellable context
+     */
+    public RunContext withCancellation(AtomicBoolean cancelled) {
+        List<AtomicBoolean> flags = new ArrayList<>(cancellations);
+        flags.add(cancelled);
+        return new RunContext(runId, workspace, fileCache, writeOwners, shardId, writeJournals, events, List.copyOf(flags),
+                persistent);
+    }
+
+    /**
+     * Returns a view of this run that leaves nothing behind outside its workspace: its steps are
+     * not checkpointed and its agents neither use nor fill the response cache. Meant for synthetic
+     * runs, such as those of a load test.
+     *
+     * @return the non-persistent context
+     */
+    public RunContext withoutPersistence() {
+        return new RunContext(runId, workspace, fileCache, writeOwners, shardId, writeJournals, events, cancellations,
+                false);
+    }
+
+    /**
+     * @return whether the run checkpoints its steps and uses the response cache
+     */
+    public boolean persistent() {
+        return persistent;
+    }
+
+    /**
+     * @return whether the context has been cancelled
+     */
+    public boolean cancelled() {
+        for (AtomicBoolean cancelled : cancellations) {
+            if (cancelled.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @throws CancellationException if the context has been cancelled
+     */
+    public void checkNotCancelled() {
+        if (cancelled()) {
+            throw new CancellationException("Run " + runId + (shardId != null ? " shard " + shardId : "")
+                    + " was cancelled, its remaining work is abandoned");
+        }
+    }
+
+    /**
+     * @return whether the run streams its events
+     */
+    public boolean streaming() {
+        return events != null;
+    }
+
+    /**
+     * Publishes an event of the run, if it streams its events.
+     */
+    public void emit(RunEvent.Type type, String source, String text) {
+        if (events != null) {
+            events.accept(RunEvent.of(type, source, text));
+        }
+    }
+
+    /**
+     * A claim on the files of a write, see {@link #claimWrites(Collection)}.
+     *
+     * @param owner the shard owning one of the files, or null if the claim was granted
+     * @param conflict the file owned by {@code owner}, or null
+     * @param claimed the files the claim made the current shard the owner of
+     */
+    public record WriteClaim(String owner, Path conflict, List<Path> claimed) {
+
+        public boolean granted() {
+            return owner == null;
+        }
+    }
+
+    /**
+     * Claims the files of a write for the current shard, unless another shard of the run already
+     * wrote one of them; the files claimed so far are then released again. Outside of a shard
+     * every write is allowed. Once the files are written, {@link #recordWrites(Collection)} adds
+     * them to the write journals; a write that fails gives its claim back with
+     * {@link #releaseWrites(WriteClaim)}, so that it neither blocks other shards nor is journaled.
+     *
+     * @param paths the absolute, normalized paths of the files
+     * @return the claim
+     * @throws CancellationException if the context has been cancelled
+     */
+    public WriteClaim claimWrites(Collection<Path> paths) {
+        checkNotCancelled();
+        if (shardId == null) {
+            return new WriteClaim(null, null, List.of());
+        }
+        List<Path> claimed = new ArrayList<>();
+        for (Path path : paths) {
+            String owner = writeOwners.putIfAbsent(path, shardId);
+            if (owner == null) {
+                claimed.add(path);
+            } else if (!owner.equals(shardId)) {
+                releaseWrites(new WriteClaim(null, null, claimed));
+                return new WriteClaim(owner, path, List.of());
+            }
+        }
+        return new WriteClaim(null, null, List.copyOf(claimed));
+    }
+
+    /**
+     * Gives back the files a claim made the current shard the owner of, after the write failed.
+     * Files the shard owned before the claim stay its own.
+     *
+     * @param claim the claim, or null if the write failed before claiming its files
+     */
+    public void releaseWrites(WriteClaim claim) {
+        if (claim == null) {
+            return;
+        }
+        for (Path path : claim.claimed()) {
+            writeOwners.remove(path, shardId);
+        }
+    }
+
+    /**
+     * Adds the files of a successful write to the write journals.
+     *
+     * @param paths the absolute, normalized paths of the written files
+     */
+    public void recordWrites(Collection<Path> paths) {
+        for (Set<Path> journal : writeJournals) {
+            journal.addAll(paths);
+        }
+    }
+
+    /**
+     * Resolves a path used by a tool inside the run's workspace.
+     *
+     * @param path a path relative to the workspace, or an absolute path taken as relative to it
+     * @return the resolved path
+     * @throws WorkspaceEscapeException if the path leads out of the workspace
+     * @see Workspace#resolve(String)
+     */
+    public Path resolve(String path) {
+        return workspace.resolve(path);
+    }
+
+    /**
+     * Returns the path of a file relative to the workspace, or the absolute path of a file outside it.
+     */
+    public String relativize(Path path) {
+        return workspace.relativize(path);
+    }
+
+    public String runId() {
+        return runId;
+    }
+
+    public String shardId() {
+        return shardId;
+    }
+
+    public Workspace workspace() {
+        return workspace;
+    }
+
+    public FileContentCache fileCache() {
+        return fileCache;
+    }
+
+    private static Workspace workingDirectory() {
+        return Workspace.onDisk(Paths.get("").toAbsolutePath());
+    }
+
+    /**
+     * A binding of a context to a thread.
+     */
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
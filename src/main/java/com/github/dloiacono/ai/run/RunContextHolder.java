@@ -0,0 +1,21 @@
+package com.github.dloiacono.ai.run;
+
+import jakarta.enterprise.context.RequestScoped;
+
+/**
+ * The {@link RunContext} bound in the current request, found by tools running on threads other
+ * than the one that bound it.
+ */
+@RequestScoped
+class RunContextHolder {
+
+    private volatile RunContext context;
+
+    RunContext get() {
+        return context;
+    }
+
+    void set(RunContext context) {
+        this.context = context;
+    }
+}
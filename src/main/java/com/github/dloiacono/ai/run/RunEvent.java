@@ -0,0 +1,38 @@
+package com.github.dloiacono.ai.run;
+
+import java.time.Instant;
+
+/**
+ * Something that happened during a streaming run: tokens produced by an agent, tool and model
+ * calls and phase changes, in the order they happened.
+ *
+ * @param type the kind of event
+ * @param source the agent, tool, model or phase the event comes from
+ * @param text the token, the tool arguments or result summary, the model call summary, or the phase outcome
+ * @param at when the event happened
+ */
+public record RunEvent(Type type, String source, String text, Instant at) {
+
+    public enum Type {
+        /** Text produced by an agent, streamed as the model generates it. */
+        TOKEN,
+        /** A tool is being called. */
+        TOOL_CALL,
+        /** A tool returned. */
+        TOOL_RESULT,
+        /** A local model answered; the text is its input and output tokens and how long it took. */
+        MODEL_CALL,
+        /** A model call was routed to a tier; the text is the tier, the reason, how long it took and the time saved. */
+        MODEL_ROUTED,
+        /** A phase or a parallel branch of a phase started. */
+        PHASE_STARTED,
+        /** A phase or a parallel branch of a phase finished. */
+        PHASE_FINISHED,
+        /** The run finished; the text is the final response or the error. */
+        RUN_FINISHED
+    }
+
+    public static RunEvent of(Type type, String source, String text) {
+        return new RunEvent(type, source, text, Instant.now());
+    }
+}
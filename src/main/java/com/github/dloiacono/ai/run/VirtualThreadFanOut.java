@@ -0,0 +1,152 @@
+package com.github.dloiacono.ai.run;
+
+import io.opentelemetry.context.Context;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs independent branches of work concurrently on virtual threads and collects their results
+ * in submission order.
+ * <p>
+ * At most {@code maxConcurrency} branches run at a time, and each one is given {@code timeout}
+ * from the moment it starts. Every branch runs with the caller's {@link RunContext} and trace
+ * context and, inside Quarkus, with its own request context, so request scoped AI services get a
+ * fresh instance and chat memory per branch.
+ * <p>
+ * A branch that times out, or is still running when the caller is interrupted, is cancelled: its
+ * thread is interrupted and its {@link RunContext} is cancelled, so whatever it still does fails at
+ * its next file write or model call instead of changing the run's files behind the caller's back.
+ */
+public final class VirtualThreadFanOut {
+
+    private VirtualThreadFanOut() {
+    }
+
+    /**
+     * The outcome of one branch.
+     *
+     * @param value the result, or null if the branch failed or timed out
+     * @param error the failure, a {@link CancellationException} for a branch cancelled before it
+     *         finished, or null
+     * @param timedOut whether the branch was cancelled after its timeout
+     * @param elapsed the time the branch ran, excluding the time spent waiting for a slot
+     */
+    public record Branch<T>(T value, Throwable error, boolean timedOut, Duration elapsed) {
+
+        public boolean succeeded() {
+            return error == null && !timedOut;
+        }
+
+        /**
+         * @return whether the branch was cancelled because the caller was interrupted
+         */
+        public boolean cancelled() {
+            return error instanceof CancellationException;
+        }
+
+        /**
+         * @return the message of the failure, or the name of its type when it has none
+         */
+        public String errorMessage() {
+            if (error == null) {
+                return null;
+            }
+            return error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+        }
+    }
+
+    /**
+     * Runs the tasks and waits for all of them to complete, fail or time out.
+     *
+     * @param tasks the branches to run
+     * @param maxConcurrency the maximum number of branches running at once
+     * @param timeout the time each branch may run
+     * @return one outcome per task, in the order of {@code tasks}, even when the caller is
+     *         interrupted: the branches that did not finish are then reported as cancelled
+     */
+    public static <T> List<Branch<T>> run(List<? extends Callable<T>> tasks, int maxConcurrency, Duration timeout) {
+        RunContext run = RunContext.current();
+        Context trace = Context.current();
+        Semaphore slots = new Semaphore(Math.max(1, maxConcurrency));
+        List<Future<Branch<T>>> futures = new ArrayList<>(tasks.size());
+        List<AtomicBoolean> cancellations = new ArrayList<>(tasks.size());
+
+        // Not closed with try-with-resources: close() would wait for timed out branches to give up
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            for (Callable<T> task : tasks) {
+                AtomicBoolean cancelled = new AtomicBoolean();
+                cancellations.add(cancelled);
+                RunContext branchRun = run.withCancellation(cancelled);
+                futures.add(executor.submit(() -> runBranch(executor, trace.wrap(task), branchRun, cancelled, slots, timeout)));
+            }
+            List<Branch<T>> branches = new ArrayList<>(tasks.size());
+            boolean interrupted = false;
+            for (Future<Branch<T>> future : futures) {
+                if (!interrupted) {
+                    try {
+                        branches.add(future.get());
+                        continue;
+                    } catch (ExecutionException e) {
+                        branches.add(new Branch<>(null, e.getCause(), false, Duration.ZERO));
+                        continue;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        interrupted = true;
+                        cancellations.forEach(cancelled -> cancelled.set(true));
+                        futures.forEach(f -> f.cancel(true));
+                    }
+                }
+                // The caller was interrupted: keep what finished, report the rest as cancelled
+                branches.add(future.state() == Future.State.SUCCESS ? future.resultNow()
+                        : new Branch<>(null, new CancellationException("Cancelled before it finished: the caller was interrupted"),
+                                false, Duration.ZERO));
+            }
+            return branches;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static <T> Branch<T> runBranch(ExecutorService executor, Callable<T> task, RunContext run,
+                                           AtomicBoolean cancelled, Semaphore slots, Duration timeout)
+            throws InterruptedException {
+        slots.acquire();
+        long start = System.nanoTime();
+        // Bound inside the branch's request context, so tools called back on other threads find it too
+        Future<T> work = executor.submit(() -> RequestContexts.call(() -> {
+            try (RunContext.Scope scope = RunContext.bind(run)) {
+                return task.call();
+            }
+        }));
+        try {
+            T value = work.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return new Branch<>(value, null, false, Duration.ofNanos(System.nanoTime() - start));
+        } catch (TimeoutException e) {
+            cancelled.set(true);
+            work.cancel(true);
+            return new Branch<>(null, null, true, Duration.ofNanos(System.nanoTime() - start));
+        } catch (ExecutionException e) {
+            return new Branch<>(null, e.getCause(), false, Duration.ofNanos(System.nanoTime() - start));
+        } catch (InterruptedException e) {
+            // The fan-out was cancelled while this branch ran
+            cancelled.set(true);
+            work.cancel(true);
+            throw e;
+        } finally {
+            slots.release();
+        }
+    }
+}
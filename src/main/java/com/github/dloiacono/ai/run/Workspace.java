@@ -0,0 +1,151 @@
+package com.github.dloiacono.ai.run;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+
+/**
+ * The directory tree the tools of a run work in, on any {@link FileSystem}.
+ * <p>
+ * The workspace is the root of everything the agents see: relative paths are resolved against
+ * it, and absolute paths are taken as relative to it, unless they already point inside it. A path
+ * that would leave the workspace, through {@code ..} or a symbolic link, is rejected with a
+ * {@link WorkspaceEscapeException}.
+ * <p>
+ * A workspace is either a directory of the default file system or an in-memory file system of
+ * its own, which never touches the disk and is discarded when the workspace is closed.
+ */
+public final class Workspace implements Closeable {
+
+    private final Path root;
+    private final FileSystem inMemory;
+    private volatile Path realRoot;
+
+    private Workspace(Path root, FileSystem inMemory) {
+        this.root = root.toAbsolutePath().normalize();
+        this.inMemory = inMemory;
+    }
+
+    /**
+     * @param root the directory of the workspace, which does not need to exist yet
+     * @return a workspace on the default file system
+     */
+    public static Workspace onDisk(Path root) {
+        return new Workspace(root, null);
+    }
+
+    /**
+     * @param name the name of the file system, used in its paths' URIs
+     * @return an empty workspace in memory, to be closed when the run is over
+     */
+    public static Workspace inMemory(String name) {
+        FileSystem fileSystem = Jimfs.newFileSystem(name, Configuration.unix());
+        Path root = fileSystem.getPath("/workspace");
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Workspace(root, fileSystem);
+    }
+
+    /**
+     * @return the absolute, normalized root directory of the workspace
+     */
+    public Path root() {
+        return root;
+    }
+
+    public boolean isInMemory() {
+        return inMemory != null;
+    }
+
+    /**
+     * Resolves a path used by a tool.
+     *
+     * @param path a path relative to the workspace, or an absolute path taken as relative to it
+     * @return the absolute, normalized path inside the workspace
+     * @throws WorkspaceEscapeException if the path leads out of the workspace
+     */
+    public Path resolve(String path) {
+        Path given;
+        try {
+            given = root.getFileSystem().getPath(path.replace('\\', '/'));
+        } catch (InvalidPathException e) {
+            throw new WorkspaceEscapeException(path, e.getReason());
+        }
+        Path resolved = given.normalize();
+        if (!resolved.startsWith(root)) {
+            if (resolved.isAbsolute()) {
+                resolved = resolved.getRoot().relativize(resolved);
+            }
+            resolved = root.resolve(resolved).normalize();
+        }
+        if (!resolved.startsWith(root)) {
+            throw new WorkspaceEscapeException(path, "it leads out of the workspace");
+        }
+        checkLinks(path, resolved);
+        return resolved;
+    }
+
+    /**
+     * @return the path of a file relative to the workspace, or its absolute path if it is outside
+     */
+    public String relativize(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        return absolute.startsWith(root) ? root.relativize(absolute).toString() : absolute.toString();
+    }
+
+    /**
+     * Discards an in-memory workspace and everything written to it. Workspaces on disk are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        if (inMemory != null) {
+            inMemory.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return inMemory != null ? root.toUri().toString() : root.toString();
+    }
+
+    /**
+     * Rejects paths whose nearest existing ancestor is a link to outside the workspace.
+     */
+    private void checkLinks(String path, Path resolved) {
+        Path realRoot = this.realRoot;
+        if (realRoot == null) {
+            // The root may be created after the workspace
+            realRoot = realPath(root);
+            if (realRoot == null) {
+                return;
+            }
+            this.realRoot = realRoot;
+        }
+        Path existing = resolved;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        Path real = existing != null ? realPath(existing) : null;
+        if (real != null && !real.startsWith(realRoot)) {
+            throw new WorkspaceEscapeException(path, "it goes through a link leading out of the workspace");
+        }
+    }
+
+    private static Path realPath(Path path) {
+        try {
+            return Files.exists(path) ? path.toRealPath() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
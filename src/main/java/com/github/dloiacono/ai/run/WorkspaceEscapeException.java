@@ -0,0 +1,14 @@
+package com.github.dloiacono.ai.run;
+
+/**
+ * Thrown when a tool is given a path leading out of the run's {@link Workspace}.
+ * <p>
+ * Not an {@link IllegalArgumentException}: the tool executor rethrows those and aborts the agent,
+ * while the message of other exceptions is returned to the model, which can then fix the path.
+ */
+public class WorkspaceEscapeException extends SecurityException {
+
+    public WorkspaceEscapeException(String path, String reason) {
+        super("Error: Invalid path " + path + ": " + reason);
+    }
+}
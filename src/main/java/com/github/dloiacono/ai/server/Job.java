@@ -0,0 +1,192 @@
+package com.github.dloiacono.ai.server;
+
+import com.github.dloiacono.ai.run.RunEvent;
+import com.github.dloiacono.ai.run.Workspace;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A swarm run submitted through the HTTP API.
+ * <p>
+ * A job goes from {@link Status#QUEUED} to {@link Status#RUNNING} and ends up
+ * {@link Status#SUCCEEDED}, {@link Status#FAILED} or {@link Status#CANCELLED}. Every transition
+ * is made under the job's lock, so a cancellation never interrupts a worker that has moved on to
+ * another job.
+ * <p>
+ * While it runs, the job publishes the events of its run, tokens, tool calls and phase changes,
+ * to the subscribers of {@link #events()}.
+ */
+public final class Job {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean finished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /**
+     * The state of a job as returned by the API.
+     */
+    public record View(String id, Status status, String needs, String workspace, String result, String error,
+                       Instant submittedAt, Instant startedAt, Instant finishedAt) {
+    }
+
+    private final String id;
+    private final String needs;
+    private final Workspace workspace;
+    private final Instant submittedAt = Instant.now();
+    private final CompletableFuture<View> completion = new CompletableFuture<>();
+    private final BroadcastProcessor<RunEvent> events = BroadcastProcessor.create();
+
+    private Status status = Status.QUEUED;
+    private Thread worker;
+    private String result;
+    private String error;
+    private Instant startedAt;
+    private Instant finishedAt;
+
+    Job(String id, String needs, Workspace workspace) {
+        this.id = id;
+        this.needs = needs;
+        this.workspace = workspace;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String needs() {
+        return needs;
+    }
+
+    public Workspace workspace() {
+        return workspace;
+    }
+
+    /**
+     * @return a future completed with the final state of the job when it finishes
+     */
+    public CompletableFuture<View> completion() {
+        return completion;
+    }
+
+    /**
+     * @return the events published by the job's run from now on, completed when the job finishes;
+     *         up to {@code buffer} events are kept for a slow subscriber, which fails beyond that
+     */
+    public Multi<RunEvent> events(int buffer) {
+        return events.onOverflow().buffer(buffer);
+    }
+
+    /**
+     * Publishes an event of the job's run. Called concurrently by the branches of parallel phases.
+     */
+    void publish(RunEvent event) {
+        synchronized (events) {
+            events.onNext(event);
+        }
+    }
+
+    public synchronized View view() {
+        return new View(id, status, needs, workspace.toString(), result, error, submittedAt, startedAt, finishedAt);
+    }
+
+    synchronized Status status() {
+        return status;
+    }
+
+    synchronized Instant finishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Marks the job as running on the given worker.
+     *
+     * @return false if the job was cancelled while queued
+     */
+    synchronized boolean start(Thread worker) {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        this.status = Status.RUNNING;
+        this.worker = worker;
+        this.startedAt = Instant.now();
+        return true;
+    }
+
+    void succeed(String result) {
+        finish(Status.SUCCEEDED, result, null);
+    }
+
+    void fail(String error) {
+        finish(Status.FAILED, null, error);
+    }
+
+    /**
+     * Cancels the job, interrupting its worker if it is running.
+     *
+     * @return false if the job had already finished
+     */
+    boolean cancel() {
+        View view;
+        synchronized (this) {
+            if (status.finished()) {
+                return false;
+            }
+            view = finishLocked(Status.CANCELLED, null, "Cancelled");
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+        completeEvents();
+        completion.complete(view);
+        return true;
+    }
+
+    /**
+     * Detaches the job from its worker once the worker is done with it, clearing any interrupt
+     * left by a cancellation so it does not leak into the worker's next job.
+     */
+    synchronized void release() {
+        worker = null;
+        Thread.interrupted();
+    }
+
+    /**
+     * @return whether no worker is running the job, even one still winding down after a cancellation
+     */
+    synchronized boolean detached() {
+        return worker == null;
+    }
+
+    private void finish(Status finalStatus, String result, String error) {
+        View view;
+        synchronized (this) {
+            if (status.finished()) {
+                return;
+            }
+            view = finishLocked(finalStatus, result, error);
+        }
+        completeEvents();
+        completion.complete(view);
+    }
+
+    private void completeEvents() {
+        synchronized (events) {
+            events.onComplete();
+        }
+    }
+
+    private View finishLocked(Status finalStatus, String result, String error) {
+        this.status = finalStatus;
+        this.result = result;
+        this.error = error;
+        this.finishedAt = Instant.now();
+        return view();
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.dloiacono.ai.server;
+
+import com.github.dloiacono.ai.run.RunEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * HTTP API of the swarm server: submit a job, poll or stream its state, cancel it.
+ */
+@Path("/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+public class JobResource {
+
+    /** Seconds a client is asked to wait before submitting again when the queue is full. */
+    private static final int RETRY_AFTER_SECONDS = 30;
+
+    @Inject
+    JobService jobService;
+
+    @ConfigProperty(name = "swarm.server.stream-buffer", defaultValue = "10000")
+    int streamBuffer;
+
+    /**
+     * The body of a job submission.
+     *
+     * @param needs the user needs to run the swarm on
+     */
+    public record JobRequest(String needs) {
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response submit(JobRequest request, @Context UriInfo uriInfo) {
+        if (request == null || request.needs() == null || request.needs().isBlank()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(new Error("needs is mandatory")).build();
+        }
+        Optional<Job> job = jobService.submit(request.needs());
+        if (job.isEmpty()) {
+            return Response.status(Response.Status.TOO_MANY_REQUESTS)
+                    .header("Retry-After", RETRY_AFTER_SECONDS)
+                    .entity(new Error("The job queue is full (" + jobService.queued() + " jobs waiting), retry later"))
+                    .build();
+        }
+        return Response.accepted(job.get().view())
+                .location(uriInfo.getAbsolutePathBuilder().path(job.get().id()).build())
+                .build();
+    }
+
+    @GET
+    public List<Job.View> list() {
+        return jobService.jobs();
+    }
+
+    @GET
+    @Path("{id}")
+    public Job.View get(@PathParam("id") String id) {
+        return find(id).view();
+    }
+
+    /**
+     * Streams the state of a job as server-sent events: the current state, then the final one.
+     */
+    @GET
+    @Path("{id}/events")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<Job.View> events(@PathParam("id") String id) {
+        Job job = find(id);
+        Job.View current = job.view();
+        if (current.status().finished()) {
+            return Multi.createFrom().item(current);
+        }
+        return Multi.createBy().concatenating().streams(
+                Multi.createFrom().item(current),
+                Uni.createFrom().completionStage(job.completion()).toMulti());
+    }
+
+    /**
+     * Streams the run of a job as server-sent events, as it happens: the tokens generated by the
+     * agents, the tool calls and the phase changes, ending with the final response. Only the events
+     * published after the subscription are sent.
+     */
+    @GET
+    @Path("{id}/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<RunEvent> stream(@PathParam("id") String id) {
+        return find(id).events(streamBuffer);
+    }
+
+    @DELETE
+    @Path("{id}")
+    public Response cancel(@PathParam("id") String id) {
+        Job job = find(id);
+        if (!jobService.cancel(job)) {
+            return Response.status(Response.Status.CONFLICT).entity(job.view()).build();
+        }
+        return Response.ok(job.view()).build();
+    }
+
+    private Job find(String id) {
+        return jobService.job(id).orElseThrow(() -> new NotFoundException("No job " + id));
+    }
+
+    /**
+     * The body of an error response.
+     */
+    public record Error(String message) {
+    }
+}
@@ -0,0 +1,232 @@
+package com.github.dloiacono.ai.server;
+
+import com.github.dloiacono.ai.SwarmRunner;
+import com.github.dloiacono.ai.project.WorkspaceClosedEvent;
+import com.github.dloiacono.ai.run.RequestContexts;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.Workspace;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Runs the jobs submitted through the HTTP API.
+ * <p>
+ * Jobs wait in a bounded queue and are taken by a fixed number of worker virtual threads. When
+ * the queue is full, new jobs are rejected instead of piling up. Each job runs in its own request
+ * context, so it gets its own AI service instances and chat memory, and in its own workspace
+ * directory, so concurrent jobs do not overwrite each other's files. That directory is deleted
+ * once the job is forgotten, {@code swarm.server.job-retention} after it finished. With
+ * {@code swarm.server.in-memory-workspaces}, that workspace is an in-memory file system discarded
+ * when the job ends. Jobs always run in streaming mode, so their progress can be followed live.
+ */
+@ApplicationScoped
+public class JobService {
+
+    private static final Logger LOG = Logger.getLogger(JobService.class);
+
+    @Inject
+    SwarmRunner swarmRunner;
+
+    @Inject
+    Event<WorkspaceClosedEvent> workspaceClosed;
+
+    @ConfigProperty(name = "swarm.server.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.server.workers", defaultValue = "4")
+    int workers;
+
+    @ConfigProperty(name = "swarm.server.queue-capacity", defaultValue = "32")
+    int queueCapacity;
+
+    @ConfigProperty(name = "swarm.server.workspace-root", defaultValue = "target/workspaces")
+    String workspaceRoot;
+
+    @ConfigProperty(name = "swarm.server.in-memory-workspaces", defaultValue = "false")
+    boolean inMemoryWorkspaces;
+
+    @ConfigProperty(name = "swarm.server.job-retention", defaultValue = "1h")
+    Duration jobRetention;
+
+    @ConfigProperty(name = "swarm.file-cache.max-chars", defaultValue = "16777216")
+    long fileCacheChars;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final List<Thread> workerThreads = new ArrayList<>();
+    private BlockingQueue<Job> queue;
+    private volatile boolean stopped;
+
+    void start(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        for (int i = 0; i < Math.max(1, workers); i++) {
+            workerThreads.add(Thread.ofVirtual().name("swarm-worker-" + i).start(this::work));
+        }
+        LOG.infof("Started %d swarm workers, queue capacity %d", workerThreads.size(), queueCapacity);
+    }
+
+    void stop(@Observes ShutdownEvent event) {
+        stopped = true;
+        workerThreads.forEach(Thread::interrupt);
+        jobs.values().forEach(Job::cancel);
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param needs the user needs to run the swarm on
+     * @return the queued job, or empty if the queue is full
+     * @throws IllegalStateException if the server mode is disabled
+     */
+    public Optional<Job> submit(String needs) {
+        if (queue == null) {
+            throw new IllegalStateException("Server mode is disabled, set swarm.server.enabled=true");
+        }
+        purgeFinishedJobs();
+        String id = UUID.randomUUID().toString();
+        Workspace workspace = inMemoryWorkspaces
+                ? Workspace.inMemory(id)
+                : Workspace.onDisk(Paths.get(workspaceRoot).resolve(id));
+        Job job = new Job(id, needs, workspace);
+        // Registered first, so a worker can never take a job that cannot be looked up
+        jobs.put(id, job);
+        if (!queue.offer(job)) {
+            jobs.remove(id);
+            closeWorkspace(job);
+            return Optional.empty();
+        }
+        return Optional.of(job);
+    }
+
+    public Optional<Job> job(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * @return the known jobs, most recently submitted first
+     */
+    public List<Job.View> jobs() {
+        return jobs.values().stream()
+                .map(Job::view)
+                .sorted(Comparator.comparing(Job.View::submittedAt).reversed())
+                .toList();
+    }
+
+    /**
+     * Cancels a job: a queued job is removed from the queue and its workspace closed, a running
+     * job has its worker interrupted.
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancel(Job job) {
+        if (queue != null && queue.remove(job)) {
+            // No worker will ever take the job, so nothing else closes its workspace
+            boolean cancelled = job.cancel();
+            closeWorkspace(job);
+            return cancelled;
+        }
+        return job.cancel();
+    }
+
+    public int queued() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    private void work() {
+        while (!stopped) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!job.start(Thread.currentThread())) {
+                closeWorkspace(job);
+                continue;
+            }
+            try {
+                Files.createDirectories(job.workspace().root());
+                RunContext run = RunContext.create(job.id(), fileCacheChars, job.workspace()).withEvents(job::publish);
+                job.succeed(RequestContexts.call(() -> swarmRunner.run(run, job.needs(), false)));
+            } catch (Exception e) {
+                if (job.status() == Job.Status.CANCELLED) {
+                    LOG.infof("Job %s cancelled", job.id());
+                } else {
+                    LOG.warnf(e, "Job %s failed", job.id());
+                    job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+                }
+            } finally {
+                job.release();
+                closeWorkspace(job);
+            }
+        }
+    }
+
+    /**
+     * Closes the workspace of a job that is over, discarding it if it is in memory, and lets the
+     * project indexes drop what they hold for it.
+     */
+    private void closeWorkspace(Job job) {
+        try {
+            job.workspace().close();
+        } catch (IOException e) {
+            LOG.warnf(e, "Could not close the workspace of job %s", job.id());
+        }
+        workspaceClosed.fire(new WorkspaceClosedEvent(job.workspace().root()));
+    }
+
+    /**
+     * Forgets the jobs that finished longer than the retention period ago, deleting the
+     * workspace directories of those that ran on disk.
+     */
+    private void purgeFinishedJobs() {
+        Instant expired = Instant.now().minus(jobRetention);
+        for (Job job : jobs.values()) {
+            // A cancelled job is finished before its worker lets go of it, so wait for the worker too
+            if (job.finishedAt() != null && job.finishedAt().isBefore(expired) && job.detached()
+                    && jobs.remove(job.id(), job) && !job.workspace().isInMemory()) {
+                deleteWorkspace(job);
+            }
+        }
+    }
+
+    private void deleteWorkspace(Job job) {
+        Path root = job.workspace().root();
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warnf("Could not delete the workspace %s of job %s: %s", root, job.id(), e.getMessage());
+        }
+    }
+}
@@ -3,14 +3,53 @@ package com.github.dloiacono.ai.tools;
 import com.github.dloiacono.ai.agents.ResearcherAgent;
 import com.github.dloiacono.ai.agents.SoftwareArchitectAgent;
 import com.github.dloiacono.ai.agents.SoftwareDeveloperAgent;
+import com.github.dloiacono.ai.cache.AgentResponseCache;
+import com.github.dloiacono.ai.cache.AgentResponseCache.CachedResponse;
+import com.github.dloiacono.ai.context.ContextBudgeter;
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.run.RunCheckpoints;
+import com.github.dloiacono.ai.run.RunCheckpoints.Checkpoint;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.run.RunEvent;
+import com.github.dloiacono.ai.run.VirtualThreadFanOut;
+import com.github.dloiacono.ai.run.VirtualThreadFanOut.Branch;
 import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
+import io.smallrye.mutiny.Multi;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @ApplicationScoped
+@Instrumented
 public class AgentOrchestrator {
 
+    private static final Logger LOG = Logger.getLogger(AgentOrchestrator.class);
+
+    /** Checkpointed steps of the workflow, see {@link RunCheckpoints}. */
+    private static final String RESEARCH = "research";
+    private static final String ARCHITECTURE = "architecture";
+    private static final String IMPLEMENTATION = "implementation";
+
     @Inject
     ResearcherAgent researcherAgent;
 
@@ -20,19 +59,93 @@ public class AgentOrchestrator {
     @Inject
     SoftwareDeveloperAgent softwareDeveloperAgent;
 
+    @Inject
+    AgentResponseCache responseCache;
+
+    @Inject
+    WriteFileTool writeFileTool;
+
+    @Inject
+    RunCheckpoints checkpoints;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    @Inject
+    ContextBudgeter contextBudgeter;
+
+    @ConfigProperty(name = "swarm.orchestrator.research.max-concurrency", defaultValue = "4")
+    int researchMaxConcurrency;
+
+    @ConfigProperty(name = "swarm.orchestrator.research.branch-timeout", defaultValue = "5m")
+    Duration researchBranchTimeout;
+
+    @ConfigProperty(name = "swarm.orchestrator.development.max-concurrency", defaultValue = "3")
+    int developmentMaxConcurrency;
+
+    @ConfigProperty(name = "swarm.orchestrator.development.shard-timeout", defaultValue = "15m")
+    Duration developmentShardTimeout;
+
     @Tool("Call the ResearcherAgent to conduct research on requirements, technologies, and best practices")
     public String callResearcher(@P("The user needs to investigate") String needs) {
         try {
-            return researcherAgent.invoke(needs);
+            return checkpointed(RESEARCH, inputs(RESEARCH, needs), () -> research(needs));
+        } catch (Exception e) {
+            return "Error calling ResearcherAgent: " + e.getMessage();
+        }
+    }
+
+    @Tool("""
+    Call several ResearcherAgents in parallel, one per independent sub-question of the user needs,
+    and get their reports merged into a single research report.
+    Use it instead of callResearcher when the needs split into independent topics.
+    """)
+    public String callResearchersInParallel(
+            @P("The user needs to investigate") String needs,
+            @P("The independent sub-questions, one per researcher") List<String> subQuestions) {
+        if (subQuestions == null || subQuestions.isEmpty()) {
+            return callResearcher(needs);
+        }
+
+        try {
+            return checkpointed(RESEARCH, inputs(RESEARCH, needs, String.join("\n", subQuestions)),
+                    () -> researchInParallel(needs, subQuestions));
         } catch (Exception e) {
             return "Error calling ResearcherAgent: " + e.getMessage();
         }
     }
 
+    private String researchInParallel(String needs, List<String> subQuestions) throws IncompleteStep {
+        List<Callable<String>> branches = new ArrayList<>(subQuestions.size());
+        for (int i = 0; i < subQuestions.size(); i++) {
+            String folder = "research/topic-" + (i + 1);
+            String branchNeeds = needs + "\n\nFocus ONLY on this sub-question: " + subQuestions.get(i)
+                    + "\nWrite your MD files under the " + folder + " folder.";
+            String step = RESEARCH + "/topic-" + (i + 1);
+            String subQuestion = subQuestions.get(i);
+            branches.add(() -> checkpointed(step, inputs(subQuestion, branchNeeds), () -> research(branchNeeds)));
+        }
+        List<Branch<String>> results = VirtualThreadFanOut.run(branches, researchMaxConcurrency, researchBranchTimeout);
+
+        StringBuilder merged = new StringBuilder("=== MERGED RESEARCH REPORT ===\n\n");
+        for (int i = 0; i < results.size(); i++) {
+            Branch<String> result = results.get(i);
+            merged.append("## Sub-question ").append(i + 1).append(": ").append(subQuestions.get(i)).append("\n\n");
+            if (result.succeeded()) {
+                merged.append(result.value()).append("\n\n");
+            } else if (result.timedOut()) {
+                merged.append("Error: ResearcherAgent did not finish within ").append(researchBranchTimeout).append("\n\n");
+            } else {
+                merged.append("Error calling ResearcherAgent: ").append(result.errorMessage()).append("\n\n");
+            }
+        }
+        return completedIf(results, merged.toString());
+    }
+
     @Tool("Call the SiftwareArchitectAgent to design system architecture based on research findings")
     public String callSoftwareArchitect(@P("The research findings and requirements to design architecture for") String researchOutput) {
         try {
-            return softwareArchitectAgent.invoke(researchOutput);
+            return checkpointed(ARCHITECTURE, inputs(ARCHITECTURE, researchOutput), () -> architect(researchOutput));
         } catch (Exception e) {
             return "Error calling ArchitectAgent: " + e.getMessage();
         }
@@ -43,9 +156,258 @@ public class AgentOrchestrator {
             @P("The architecture specification") String architectureSpec,
             @P("The Implementation requirements") String requirements) {
         try {
-            return softwareDeveloperAgent.invoke(architectureSpec, requirements);
+            return checkpointed(IMPLEMENTATION, inputs(IMPLEMENTATION, architectureSpec, requirements),
+                    () -> develop(architectureSpec, requirements));
         } catch (Exception e) {
             return "Error calling CoderAgent: " + e.getMessage();
         }
     }
+
+    @Tool("""
+    Call several CoderAgents in parallel, one per module of the architecture specification, to implement large designs faster.
+    Each CoderAgent only writes the files of its own module; writes to files owned by another module are rejected.
+    Pass the module names, or an empty list to use the modules listed in the specification.
+    """)
+    public String callSoftwareDevelopersInParallel(
+            @P("The architecture specification") String architectureSpec,
+            @P("The Implementation requirements") String requirements,
+            @P("The independent modules to implement, one per CoderAgent") List<String> modules) {
+        List<String> shards = modules == null || modules.isEmpty() ? modulesOf(architectureSpec) : modules;
+        if (shards.size() < 2) {
+            return callSoftwareDeveloper(architectureSpec, requirements);
+        }
+        try {
+            return checkpointed(IMPLEMENTATION, inputs(IMPLEMENTATION, architectureSpec, requirements, String.join("\n", shards)),
+                    () -> developInParallel(architectureSpec, requirements, shards));
+        } catch (Exception e) {
+            return "Error calling CoderAgent: " + e.getMessage();
+        }
+    }
+
+    private String developInParallel(String architectureSpec, String requirements, List<String> shards) throws IncompleteStep {
+        List<Callable<String>> branches = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            String module = shards.get(i);
+            String shardId = "module-" + (i + 1);
+            String shardRequirements = requirements + "\n\nImplement ONLY the module '" + module + "'."
+                    + " Other modules are implemented at the same time by other developers: do not write their files,"
+                    + " and only read the files of other modules if you need their interfaces.";
+            branches.add(() -> {
+                // The branch's own context, which the fan-out cancels if the shard times out
+                try (RunContext.Scope scope = RunContext.bind(RunContext.current().forShard(shardId))) {
+                    return checkpointed(IMPLEMENTATION + "/" + shardId, inputs(module, architectureSpec, shardRequirements),
+                            () -> develop(architectureSpec, shardRequirements));
+                }
+            });
+        }
+        List<Branch<String>> results = VirtualThreadFanOut.run(branches, developmentMaxConcurrency, developmentShardTimeout);
+
+        StringBuilder merged = new StringBuilder("=== IMPLEMENTATION REPORT (" + shards.size() + " modules) ===\n\n");
+        for (int i = 0; i < results.size(); i++) {
+            Branch<String> result = results.get(i);
+            merged.append("## Module ").append(i + 1).append(": ").append(shards.get(i)).append("\n\n");
+            if (result.succeeded()) {
+                merged.append(result.value()).append("\n\n");
+            } else if (result.timedOut()) {
+                merged.append("Error: CoderAgent did not finish within ").append(developmentShardTimeout).append("\n\n");
+            } else {
+                merged.append("Error calling CoderAgent: ").append(result.errorMessage()).append("\n\n");
+            }
+        }
+        return completedIf(results, merged.toString());
+    }
+
+    private String research(String needs) throws Exception {
+        return cached(ResearcherAgent.class, Map.of("needs", needs), () -> call("researcher",
+                () -> researcherAgent.invoke(needs), () -> researcherAgent.stream(needs)));
+    }
+
+    private String architect(String researchOutput) throws Exception {
+        String requirements = contextBudgeter.fit("architect", "requirements", researchOutput);
+        return cached(SoftwareArchitectAgent.class, Map.of("requirements", requirements), () -> call("architect",
+                () -> softwareArchitectAgent.invoke(requirements), () -> softwareArchitectAgent.stream(requirements)));
+    }
+
+    /**
+     * Calls a developer. The requirements are usually short and specific to the call, so they are
+     * kept whole when possible and the specification gets what is left of the budget.
+     */
+    private String develop(String architectureSpec, String requirements) throws Exception {
+        String fittedRequirements = contextBudgeter.fit("coder", "requirements", requirements);
+        String specifications = contextBudgeter.fit("coder", "specifications", architectureSpec,
+                ContextBudgeter.estimateTokens(fittedRequirements));
+        return cached(SoftwareDeveloperAgent.class, Map.of("specifications", specifications, "requirements", fittedRequirements),
+                () -> call("developer", () -> softwareDeveloperAgent.invoke(specifications, fittedRequirements),
+                        () -> softwareDeveloperAgent.stream(specifications, fittedRequirements)));
+    }
+
+    /**
+     * Calls an agent, through its streaming variant when the run streams its events: the tokens
+     * are published as the model generates them and the whole response is returned at the end.
+     */
+    private static String call(String agent, Supplier<String> invoke, Supplier<Multi<String>> stream) {
+        RunContext run = RunContext.current();
+        if (!run.streaming()) {
+            return invoke.get();
+        }
+        String source = run.shardId() != null ? agent + "/" + run.shardId() : agent;
+        return stream.get()
+                .onItem().invoke(token -> run.emit(RunEvent.Type.TOKEN, source, token))
+                .collect().with(Collectors.joining())
+                .await().indefinitely();
+    }
+
+    /**
+     * Runs a step of the workflow unless a previous execution of the resumed run completed it with
+     * the same inputs, in which case the files the step wrote are restored and its output is
+     * returned. The step is checkpointed when it returns normally; a failure or an
+     * {@link IncompleteStep} leaves it to be run again on resume.
+     * Every step runs in its own span, and publishes its start and outcome on streaming runs.
+     *
+     * @param label what the step works on and a digest of its inputs, see {@link #inputs(String, String...)}
+     */
+    private String checkpointed(String step, String label, Callable<String> work) throws Exception {
+        RunContext run = RunContext.current();
+        String runId = run.runId();
+        return telemetry.step(runId, step, () -> {
+            run.emit(RunEvent.Type.PHASE_STARTED, step, label);
+            String outcome = "failed";
+            try {
+                Optional<Checkpoint> done = checkpoints.completed(runId, step, label);
+                if (done.isPresent() && restore(done.get().files())) {
+                    LOG.infof("Run %s: step %s already completed, skipping it", runId, step);
+                    telemetry.resumed();
+                    outcome = "resumed";
+                    return done.get().output();
+                }
+                Set<Path> written = ConcurrentHashMap.newKeySet();
+                String output;
+                try (RunContext.Scope scope = RunContext.bind(run.withWriteJournal(written))) {
+                    output = work.call();
+                } catch (IncompleteStep e) {
+                    outcome = "incomplete";
+                    return e.output;
+                }
+                checkpoints.complete(runId, step, label, output, written);
+                outcome = "completed";
+                return output;
+            } finally {
+                if (outcome.equals("failed") || outcome.equals("incomplete")) {
+                    checkpoints.unfinished(runId);
+                }
+                run.emit(RunEvent.Type.PHASE_FINISHED, step, outcome);
+            }
+        });
+    }
+
+    /**
+     * Labels a step with what it works on and a digest of its inputs, so that a checkpoint is only
+     * reused for a step given the same inputs.
+     */
+    private static String inputs(String label, String... inputs) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String input : inputs) {
+            digest.update(String.valueOf(input).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return label + " #" + HexFormat.of().formatHex(digest.digest(), 0, 8);
+    }
+
+    private static String completedIf(List<? extends Branch<?>> branches, String output) throws IncompleteStep {
+        if (branches.stream().allMatch(Branch::succeeded)) {
+            return output;
+        }
+        throw new IncompleteStep(output);
+    }
+
+    /**
+     * Invokes an agent through the response cache. A hit writes back the files the agent wrote
+     * when the response was cached, since the agent's tool calls are skipped along with the model.
+     * Failed calls are not cached.
+     */
+    private String cached(Class<?> agent, Map<String, String> variables, Callable<String> invocation) throws Exception {
+        Optional<String> key = responseCache.key(agent, variables);
+        if (key.isEmpty()) {
+            return invocation.call();
+        }
+        Optional<CachedResponse> hit = responseCache.get(key.get());
+        if (hit.isPresent() && restore(hit.get().files())) {
+            LOG.infof("Reusing cached response of %s (%d files restored)", agent.getSimpleName(), hit.get().files().size());
+            return hit.get().response();
+        }
+
+        Set<Path> written = ConcurrentHashMap.newKeySet();
+        String response;
+        try (RunContext.Scope scope = RunContext.bind(RunContext.current().withWriteJournal(written))) {
+            response = invocation.call();
+        }
+        responseCache.put(key.get(), response, written);
+        return response;
+    }
+
+    private boolean restore(Map<String, String> files) {
+        List<WriteFileTool.FileContent> batch = files.entrySet().stream()
+                .filter(file -> !file.getValue().isEmpty())
+                .map(file -> new WriteFileTool.FileContent(file.getKey(), file.getValue()))
+                .toList();
+        if (batch.isEmpty()) {
+            return true;
+        }
+        String result = writeFileTool.writeFiles(batch, false);
+        if (!result.startsWith("Successfully")) {
+            LOG.warnf("Ignoring cached response, its files could not be restored: %s", result);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the modules of an architecture specification: the sub-headings of the first markdown
+     * section whose title mentions modules or components.
+     */
+    static List<String> modulesOf(String architectureSpec) {
+        List<String> modules = new ArrayList<>();
+        int sectionLevel = -1;
+        for (String line : architectureSpec.split("\n")) {
+            String trimmed = line.strip();
+            int level = 0;
+            while (level < trimmed.length() && trimmed.charAt(level) == '#') {
+                level++;
+            }
+            if (level == 0 || level == trimmed.length() || trimmed.charAt(level) != ' ') {
+                continue;
+            }
+            String title = trimmed.substring(level).strip();
+            if (sectionLevel < 0) {
+                String lower = title.toLowerCase(Locale.ROOT);
+                if (lower.contains("module") || lower.contains("component")) {
+                    sectionLevel = level;
+                }
+            } else if (level <= sectionLevel) {
+                break;
+            } else if (level == sectionLevel + 1) {
+                modules.add(title);
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * Thrown by a step that returned an output but did not complete, such as a parallel phase
+     * with a failed branch.
+     */
+    private static final class IncompleteStep extends Exception {
+
+        private final String output;
+
+        IncompleteStep(String output) {
+            super(null, null, false, false);
+            this.output = output;
+        }
+    }
 }
@@ -0,0 +1,203 @@
+package com.github.dloiacono.ai.tools;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes a batch of files all or nothing.
+ * <p>
+ * Every file is first written to a hidden temporary file next to its target. Only when all of
+ * them have been written are they renamed over their targets, with the previous versions moved
+ * aside so they can be put back if a later rename fails. A failure at any step leaves the tree
+ * as it was before the batch, apart from empty directories that could not be removed. The hidden
+ * temporary and backup files are removed whatever the outcome; a backup is only kept, and
+ * reported, when it holds the previous content of a file that could not be restored.
+ */
+final class AtomicBatchWriter {
+
+    private static final Logger LOG = Logger.getLogger(AtomicBatchWriter.class);
+
+    private final Map<Path, String> files = new LinkedHashMap<>();
+    private final boolean sync;
+
+    private final List<Path> createdDirectories = new ArrayList<>();
+    private final Map<Path, Path> temporaries = new LinkedHashMap<>();
+    private final Map<Path, Path> backups = new LinkedHashMap<>();
+    private final List<Path> committed = new ArrayList<>();
+
+    /**
+     * @param sync whether to fsync the files and their directories before returning
+     */
+    AtomicBatchWriter(boolean sync) {
+        this.sync = sync;
+    }
+
+    void add(Path path, String content) {
+        files.put(path.toAbsolutePath().normalize(), content);
+    }
+
+    boolean contains(Path path) {
+        return files.containsKey(path.toAbsolutePath().normalize());
+    }
+
+    Collection<Path> paths() {
+        return files.keySet();
+    }
+
+    /**
+     * Writes and commits every file of the batch.
+     *
+     * @return the absolute paths of the written files
+     * @throws IOException if any file could not be written, after the batch has been rolled back
+     */
+    List<Path> commit() throws IOException {
+        try {
+            for (Path target : files.keySet()) {
+                if (Files.isDirectory(target)) {
+                    throw new IOException("Cannot write file, a directory exists at " + target);
+                }
+            }
+            createDirectories();
+            for (Map.Entry<Path, String> file : files.entrySet()) {
+                Path temporary = sibling(file.getKey(), "tmp");
+                temporaries.put(file.getKey(), temporary);
+                writeTemporary(temporary, file.getValue());
+            }
+            for (Map.Entry<Path, Path> temporary : temporaries.entrySet()) {
+                Path target = temporary.getKey();
+                if (Files.exists(target)) {
+                    Path backup = sibling(target, "bak");
+                    Files.move(target, backup, StandardCopyOption.ATOMIC_MOVE);
+                    backups.put(target, backup);
+                }
+                Files.move(temporary.getValue(), target, StandardCopyOption.ATOMIC_MOVE);
+                committed.add(target);
+            }
+        } catch (IOException | RuntimeException e) {
+            rollback();
+            throw e;
+        }
+
+        for (Path backup : backups.values()) {
+            delete(backup);
+        }
+        if (sync) {
+            for (Path directory : new TreeSet<>(files.keySet().stream().map(Path::getParent).toList())) {
+                syncDirectory(directory);
+            }
+        }
+        return List.copyOf(files.keySet());
+    }
+
+    private void createDirectories() throws IOException {
+        // One pass over the distinct parents, shortest first, remembering what did not exist
+        TreeSet<Path> parents = new TreeSet<>(Comparator.comparingInt(Path::getNameCount).thenComparing(Path::compareTo));
+        for (Path file : files.keySet()) {
+            parents.add(file.getParent());
+        }
+        for (Path parent : parents) {
+            if (Files.isDirectory(parent)) {
+                continue;
+            }
+            List<Path> missing = new ArrayList<>();
+            for (Path directory = parent; directory != null && !Files.exists(directory); directory = directory.getParent()) {
+                missing.add(0, directory);
+            }
+            Files.createDirectories(parent);
+            createdDirectories.addAll(missing);
+        }
+    }
+
+    private void writeTemporary(Path temporary, String content) throws IOException {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(true);
+            }
+        }
+    }
+
+    private void rollback() {
+        for (int i = committed.size() - 1; i >= 0; i--) {
+            Path target = committed.get(i);
+            Path backup = backups.remove(target);
+            if (backup != null) {
+                restore(backup, target);
+            } else {
+                delete(target);
+            }
+        }
+        // A backup without a committed file means the failure happened between the two renames
+        for (Map.Entry<Path, Path> backup : backups.entrySet()) {
+            restore(backup.getValue(), backup.getKey());
+        }
+        for (Path temporary : temporaries.values()) {
+            delete(temporary);
+        }
+        for (int i = createdDirectories.size() - 1; i >= 0; i--) {
+            try {
+                Files.deleteIfExists(createdDirectories.get(i));
+            } catch (IOException ignored) {
+                // Not empty or already gone
+            }
+        }
+    }
+
+    /**
+     * Puts a backup back over its target, copying it when it cannot be moved. The backup is only
+     * left behind when neither works, since it then holds the only copy of the previous content.
+     */
+    private static void restore(Path backup, Path target) {
+        try {
+            Files.move(backup, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (IOException e) {
+            LOG.debugf("Could not move %s back to %s, copying it: %s", backup, target, e.getMessage());
+        }
+        try {
+            Files.copy(backup, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOG.warnf("Could not restore %s, its previous content is kept in %s: %s", target, backup, e.getMessage());
+            return;
+        }
+        delete(backup);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warnf("Could not delete %s: %s", path, e.getMessage());
+        }
+    }
+
+    private static Path sibling(Path target, String kind) {
+        return target.resolveSibling("." + target.getFileName() + ".swarm-" + kind + "-" + Long.toHexString(System.nanoTime()));
+    }
+
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Not every platform allows opening a directory; the file contents are already synced
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.build.ProjectBuild;
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.agent.tool.P;
+import dev.langchain4j.agent.tool.Tool;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tool for compiling a Java project and running its tests in-process, so that the developer can
+ * loop on its tests without a build tool. The tests are not sandboxed.
+ */
+@ApplicationScoped
+@Instrumented
+public class BuildTool {
+
+    @Inject
+    ProjectBuild projectBuild;
+
+    /**
+     * Compiles the Java sources of a project, main and test, recompiling only what changed.
+     *
+     * @param projectPath the path to the project folder
+     * @return a summary and the compiler errors with their file, line and column
+     */
+    @Tool("""
+    Compiles the Java sources of a project (main and test) in-process and returns the compiler errors with their
+    file:line:column. Only changed files and the files depending on them are recompiled, so it takes well under a
+    second: call it after every change.
+    """)
+    public String compileProject(
+            @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
+        try {
+            return projectBuild.compile(path).format();
+        } catch (IOException e) {
+            return "Error: Failed to read the sources of " + projectPath + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Compiles a project, then runs its JUnit 5 test classes matching a pattern.
+     *
+     * @param projectPath the path to the project folder
+     * @param testPattern a glob on the test class names, empty for all test classes
+     * @return the compiler errors if any, else the test counts and the failed tests
+     */
+    @Tool("""
+    Compiles a Java project in-process, then runs its JUnit 5 test classes and returns the number of tests run,
+    passed, failed and skipped, and each failure with its message and location. Returns the compiler errors instead
+    when the project does not compile. Use it to loop until all tests pass.
+    The tests are NOT sandboxed: they run inside the swarm's own JVM with its permissions, so they must not touch
+    anything outside the project, call System.exit or start servers. A test that runs too long fails with a timeout.
+    """)
+    public String runTests(
+            @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath,
+            @P("testPattern (string) - glob on the test class names, e.g. 'Calculator*Test', empty for all tests") String testPattern) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
+        try {
+            return projectBuild.test(path, testPattern).format();
+        } catch (IOException e) {
+            return "Error: Failed to read the sources of " + projectPath + ": " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Error: Interrupted while running the tests of " + projectPath;
+        }
+    }
+}
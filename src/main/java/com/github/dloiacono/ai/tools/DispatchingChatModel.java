@@ -0,0 +1,50 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import io.opentelemetry.context.Context;
+
+import java.util.Set;
+
+/**
+ * A chat model starting the file reads of its responses through {@link ParallelToolCalls}.
+ */
+final class DispatchingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ParallelToolCalls toolCalls;
+
+    DispatchingChatModel(ChatModel delegate, ParallelToolCalls toolCalls) {
+        this.delegate = delegate;
+        this.toolCalls = toolCalls;
+    }
+
+    @Override
+    public ChatResponse chat(ChatRequest request) {
+        RunContext.current().checkNotCancelled();
+        toolCalls.nextTurn(RunContext.current());
+        ChatResponse response = delegate.chat(request);
+        toolCalls.dispatch(RunContext.current(), Context.current(), response.aiMessage());
+        return response;
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
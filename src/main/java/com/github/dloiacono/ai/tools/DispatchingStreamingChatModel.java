@@ -0,0 +1,94 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.model.ModelProvider;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.CompleteToolCall;
+import dev.langchain4j.model.chat.response.PartialThinking;
+import dev.langchain4j.model.chat.response.PartialToolCall;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import io.opentelemetry.context.Context;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A streaming chat model starting the file reads of its responses through
+ * {@link ParallelToolCalls} once they complete.
+ */
+final class DispatchingStreamingChatModel implements StreamingChatModel {
+
+    private final StreamingChatModel delegate;
+    private final ParallelToolCalls toolCalls;
+
+    DispatchingStreamingChatModel(StreamingChatModel delegate, ParallelToolCalls toolCalls) {
+        this.delegate = delegate;
+        this.toolCalls = toolCalls;
+    }
+
+    @Override
+    public void chat(ChatRequest request, StreamingChatResponseHandler handler) {
+        // The response may complete on a thread the run is not bound to
+        RunContext run = RunContext.current();
+        try {
+            run.checkNotCancelled();
+        } catch (CancellationException e) {
+            handler.onError(e);
+            return;
+        }
+        toolCalls.nextTurn(run);
+        Context trace = Context.current();
+        delegate.chat(request, new StreamingChatResponseHandler() {
+
+            @Override
+            public void onPartialResponse(String partialResponse) {
+                handler.onPartialResponse(partialResponse);
+            }
+
+            @Override
+            public void onPartialThinking(PartialThinking partialThinking) {
+                handler.onPartialThinking(partialThinking);
+            }
+
+            @Override
+            public void onPartialToolCall(PartialToolCall partialToolCall) {
+                handler.onPartialToolCall(partialToolCall);
+            }
+
+            @Override
+            public void onCompleteToolCall(CompleteToolCall completeToolCall) {
+                handler.onCompleteToolCall(completeToolCall);
+            }
+
+            @Override
+            public void onCompleteResponse(ChatResponse response) {
+                toolCalls.dispatch(run, trace, response.aiMessage());
+                handler.onCompleteResponse(response);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                handler.onError(error);
+            }
+        });
+    }
+
+    @Override
+    public ChatRequestParameters defaultRequestParameters() {
+        return delegate.defaultRequestParameters();
+    }
+
+    @Override
+    public ModelProvider provider() {
+        return delegate.provider();
+    }
+
+    @Override
+    public Set<Capability> supportedCapabilities() {
+        return delegate.supportedCapabilities();
+    }
+}
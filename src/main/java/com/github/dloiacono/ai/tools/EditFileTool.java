@@ -0,0 +1,248 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.project.FileChangedEvent;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.agent.tool.P;
+import dev.langchain4j.agent.tool.Tool;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tool for editing existing files in place, so small changes to large files do not require
+ * generating and rewriting the whole file.
+ */
+@ApplicationScoped
+@Instrumented
+public class EditFileTool {
+
+    @Inject
+    Event<FileChangedEvent> fileChanged;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    /**
+     * Replaces the single occurrence of a text in a file.
+     *
+     * @param filePath the path to the file to edit
+     * @param search the exact text to replace, which must occur exactly once
+     * @param replacement the new text
+     * @return a message indicating success, or the conflict that prevented the edit
+     */
+    @Tool("""
+    Replaces one exact occurrence of a text in an existing file, without rewriting the rest of it.
+    The search text must appear EXACTLY ONCE in the file: include enough surrounding lines to make it unique.
+
+    Example: replaceInFile("src/main/java/Example.java", "return a + b;", "return Math.addExact(a, b);")
+    """)
+    public String replaceInFile(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY search (string) - the exact text to replace, including whitespace") String search,
+            @P("MANDATORY replacement (string) - the new text, may be empty to delete") String replacement) {
+        if (search == null || search.isEmpty()) {
+            return "Error: search parameter is null or empty";
+        }
+        if (replacement == null) {
+            return "Error: replacement parameter is null, pass an empty string to delete the text";
+        }
+        return edit(filePath, content -> {
+            int first = content.indexOf(search);
+            if (first < 0) {
+                throw new EditConflict("search text not found in " + filePath
+                        + " - read the file again, it may differ from what you expect");
+            }
+            int second = content.indexOf(search, first + 1);
+            if (second >= 0) {
+                throw new EditConflict("search text found more than once in " + filePath + " (lines "
+                        + lineOf(content, first) + " and " + lineOf(content, second) + ") - include more context");
+            }
+            return content.substring(0, first) + replacement + content.substring(first + search.length());
+        });
+    }
+
+    /**
+     * Replaces a range of lines in a file.
+     *
+     * @param filePath the path to the file to edit
+     * @param startLine the first line to replace, starting at 1
+     * @param endLine the last line to replace, inclusive; {@code startLine - 1} inserts before startLine
+     * @param content the new lines
+     * @return a message indicating success or failure
+     */
+    @Tool("""
+    Replaces lines startLine..endLine (1-based, inclusive) of an existing file with new content.
+    Use endLine = startLine - 1 to insert before startLine without removing anything, and empty content to delete lines.
+    """)
+    public String replaceRange(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY startLine (integer) - the first line to replace, starting at 1") int startLine,
+            @P("MANDATORY endLine (integer) - the last line to replace, inclusive") int endLine,
+            @P("MANDATORY content (string) - the new lines, may be empty to delete") String content) {
+        if (content == null) {
+            return "Error: content parameter is null, pass an empty string to delete lines";
+        }
+        return edit(filePath, current -> {
+            Lines lines = Lines.split(current);
+            if (startLine < 1 || endLine < startLine - 1 || endLine > lines.lines().size()) {
+                throw new EditConflict("invalid line range " + startLine + "-" + endLine + ", the file has "
+                        + lines.lines().size() + " lines");
+            }
+            List<String> edited = lines.lines().subList(startLine - 1, endLine);
+            edited.clear();
+            if (!content.isEmpty()) {
+                edited.addAll(Lines.split(content).lines());
+            }
+            return lines.join();
+        });
+    }
+
+    /**
+     * Applies a unified diff to a file. Either every hunk applies or the file is left untouched.
+     *
+     * @param filePath the path to the file to patch
+     * @param patch the unified diff, with {@code @@ -l,s +l,s @@} hunk headers
+     * @return a message indicating success, or the hunks that did not apply
+     */
+    @Tool("""
+    Applies a unified diff (hunks with '@@ -start,count +start,count @@' headers, ' ' context, '-' removed and '+' added lines)
+    to an existing file. Hunks are applied all or nothing; conflicting hunks are reported.
+    """)
+    public String applyPatch(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY patch (string) - the unified diff to apply") String patch) {
+        if (patch == null || patch.isBlank()) {
+            return "Error: patch parameter is null or empty";
+        }
+        List<UnifiedDiff.Hunk> hunks;
+        try {
+            hunks = UnifiedDiff.parse(patch);
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid patch: " + e.getMessage();
+        }
+        return edit(filePath, current -> {
+            Lines lines = Lines.split(current);
+            List<String> conflicts = UnifiedDiff.apply(lines.lines(), hunks);
+            if (!conflicts.isEmpty()) {
+                throw new EditConflict(conflicts.size() + " of " + hunks.size() + " hunks do not apply to "
+                        + filePath + ", nothing was changed:\n  " + String.join("\n  ", conflicts));
+            }
+            return lines.join();
+        });
+    }
+
+    private String edit(String filePath, Edit edit) {
+        if (filePath == null || filePath.trim().isEmpty()) {
+            return "Error: filePath parameter is null or empty";
+        }
+        Path path = RunContext.current().resolve(filePath);
+        if (!Files.isRegularFile(path)) {
+            return "Error: File not found at path: " + filePath + " - use writeFile to create new files";
+        }
+        Path edited = path.toAbsolutePath().normalize();
+        RunContext.WriteClaim claim = RunContext.current().claimWrites(List.of(edited));
+        if (!claim.granted()) {
+            return WriteFileTool.writeConflict(filePath, claim.owner());
+        }
+        boolean completed = false;
+        try (PathLocks.Held lock = PathLocks.lock(edited)) {
+            // Read under the lock so a concurrent writer cannot slip in between read and write
+            byte[] before = Files.readAllBytes(path);
+            telemetry.bytesRead("EditFileTool", before.length);
+            String updated = edit.apply(new String(before, StandardCharsets.UTF_8));
+            byte[] after = updated.getBytes(StandardCharsets.UTF_8);
+            long written = writeChangedTail(path, before, after);
+            completed = true;
+            telemetry.bytesWritten("EditFileTool", written);
+            RunContext.current().recordWrites(List.of(edited));
+
+            RunContext.current().fileCache().put(edited, updated);
+            fileChanged.fire(new FileChangedEvent(edited));
+            return "Successfully edited file: " + RunContext.current().relativize(path) + " (" + written + " of " + after.length + " bytes written)";
+        } catch (EditConflict e) {
+            return "Conflict: " + e.getMessage();
+        } catch (IOException e) {
+            return "Error editing file: " + e.getMessage();
+        } finally {
+            if (!completed) {
+                RunContext.current().releaseWrites(claim);
+            }
+        }
+    }
+
+    /**
+     * Writes only the part of the file from the first changed byte onwards.
+     *
+     * @return the number of bytes written
+     */
+    private static long writeChangedTail(Path path, byte[] before, byte[] after) throws IOException {
+        int common = Arrays.mismatch(before, after);
+        if (common < 0) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer tail = ByteBuffer.wrap(after, common, after.length - common);
+            long position = common;
+            while (tail.hasRemaining()) {
+                position += channel.write(tail, position);
+            }
+            channel.truncate(after.length);
+        }
+        return after.length - common;
+    }
+
+    private static int lineOf(String content, int index) {
+        int line = 1;
+        for (int i = 0; i < index; i++) {
+            if (content.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return line;
+    }
+
+    @FunctionalInterface
+    private interface Edit {
+        String apply(String content);
+    }
+
+    private static final class EditConflict extends RuntimeException {
+        EditConflict(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * The lines of a file, remembering the line separator and whether the file ended with one.
+     */
+    private record Lines(List<String> lines, String separator, boolean trailingSeparator) {
+
+        static Lines split(String content) {
+            String separator = content.contains("\r\n") ? "\r\n" : "\n";
+            List<String> lines = new ArrayList<>(Arrays.asList(content.split("\r?\n", -1)));
+            boolean trailing = !lines.isEmpty() && lines.get(lines.size() - 1).isEmpty();
+            if (trailing) {
+                lines.remove(lines.size() - 1);
+            }
+            return new Lines(lines, separator, trailing || content.isEmpty());
+        }
+
+        String join() {
+            String joined = String.join(separator, lines);
+            return trailingSeparator && !lines.isEmpty() ? joined + separator : joined;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.github.dloiacono.ai.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sparse index of line start offsets of a file, used to read line ranges without loading the
+ * file. Every {@value #STRIDE}th line start is recorded; the lines in between are found by
+ * scanning forward from the nearest checkpoint.
+ * <p>
+ * The index is built lazily: a read only scans the file up to the lines it asks for, so reading
+ * lines near the start of a large file touches only the pages before them. The line count is
+ * known once the file has been scanned to its end.
+ * <p>
+ * Large files are scanned through memory-mapped windows, small ones through positional reads,
+ * so no more than one window of the file is ever held at a time.
+ */
+final class LineIndex {
+
+    static final int STRIDE = 1000;
+
+    /** Files (and windows) at least this large are memory-mapped instead of read into the heap. */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final int WINDOW = 8 * 1024 * 1024;
+
+    final long size;
+    final long lastModified;
+    private long[] checkpoints = new long[16];
+    private int checkpointCount = 1; // line 1 starts at offset 0
+    /** Offset up to which the line ends have been counted. */
+    private long scanned;
+    private long newlines;
+    private long lineCount = -1;
+
+    LineIndex(long size, long lastModified) {
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the number of lines, scanning the rest of the file if needed.
+     */
+    synchronized long lineCount(FileChannel channel) throws IOException {
+        scan(channel, Long.MAX_VALUE);
+        return lineCount;
+    }
+
+    /**
+     * @return the number of lines, or -1 if the file has not been scanned to its end yet
+     */
+    synchronized long knownLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the byte offset where a line starts.
+     *
+     * @param line the 1-based line number
+     * @return the offset, or -1 if the file has fewer lines
+     */
+    synchronized long startOf(FileChannel channel, long line) throws IOException {
+        scan(channel, line - 1);
+        if (newlines < line - 1) {
+            return -1;
+        }
+        int checkpoint = (int) Math.min((line - 1) / STRIDE, checkpointCount - 1);
+        long current = (long) checkpoint * STRIDE + 1;
+        long offset = checkpoints[checkpoint];
+        long start = current == line ? offset : skipLines(channel, offset, line - current);
+        return start < size ? start : -1;
+    }
+
+    /**
+     * Counts line ends from where the last scan stopped, until {@code lineEnds} have been seen or
+     * the end of the file is reached.
+     */
+    private void scan(FileChannel channel, long lineEnds) throws IOException {
+        while (newlines < lineEnds && scanned < size) {
+            ByteBuffer window = window(channel, scanned, Math.min(WINDOW, size - scanned));
+            int limit = window.limit();
+            int i = 0;
+            while (i < limit && newlines < lineEnds) {
+                if (window.get(i++) == '\n') {
+                    newlines++;
+                    if (newlines % STRIDE == 0 && scanned + i < size) {
+                        if (checkpointCount == checkpoints.length) {
+                            checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+                        }
+                        checkpoints[checkpointCount++] = scanned + i;
+                    }
+                }
+            }
+            scanned += i;
+        }
+        if (scanned == size && lineCount < 0) {
+            lineCount = size > 0 && lastByte(channel, size) != '\n' ? newlines + 1 : newlines;
+        }
+    }
+
+    /**
+     * Returns the offset just past the given number of line ends, starting at {@code offset}.
+     * Stops at the end of the file.
+     */
+    long skipLines(FileChannel channel, long offset, long lines) throws IOException {
+        if (lines <= 0) {
+            return offset;
+        }
+        long remaining = lines;
+        for (long position = offset; position < size; position += WINDOW) {
+            ByteBuffer window = window(channel, position, Math.min(WINDOW, size - position));
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                if (window.get(i) == '\n' && --remaining == 0) {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes at the start of a range that continue a UTF-8 sequence begun
+     * before it, at most 3.
+     */
+    static int continuationBytes(byte[] bytes, int length) {
+        int count = 0;
+        while (count < Math.min(length, 3) && isContinuation(bytes[count])) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the length of a range without the UTF-8 sequence cut at its end, if any, so that
+     * decoding it produces no replacement character.
+     *
+     * @param start the offset of the first complete sequence in the range
+     */
+    static int completeLength(byte[] bytes, int start, int length) {
+        int lead = length - 1;
+        while (lead >= start && lead > length - 4 && isContinuation(bytes[lead])) {
+            lead--;
+        }
+        if (lead < start || isContinuation(bytes[lead])) {
+            return length; // Malformed, leave it to the decoder
+        }
+        int b = bytes[lead] & 0xFF;
+        int needed = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+        return lead + needed <= length ? length : lead;
+    }
+
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Reads a range of bytes.
+     */
+    static byte[] read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer window = window(channel, offset, length);
+        byte[] bytes = new byte[window.limit()];
+        window.get(0, bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer window(FileChannel channel, long position, long length) throws IOException {
+        if (length >= MAP_THRESHOLD) {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } catch (UnsupportedOperationException e) {
+                // In-memory file systems cannot map their files, read them instead
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static byte lastByte(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, size - 1);
+        return buffer.get(0);
+    }
+}
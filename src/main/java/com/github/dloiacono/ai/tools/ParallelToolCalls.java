@@ -0,0 +1,313 @@
+package com.github.dloiacono.ai.tools;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import io.opentelemetry.context.Context;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the file reads of a model turn concurrently.
+ * <p>
+ * The extension executes the tool calls of a response one after another. When a response starts
+ * with several calls to {@link ReadFileTool} or {@link ProjectContextTool}, the
+ * {@linkplain #dispatching(ChatModel) wrapped chat models} start them all on virtual threads as
+ * soon as the response arrives. The extension then gets each result from the
+ * {@link com.github.dloiacono.ai.observability.ToolCallInterceptor} instead of running the call
+ * again, in the order of the response. A turn therefore takes about as long as its slowest read.
+ * <p>
+ * Only the reads before the first call to another tool are started, since later calls may depend
+ * on it. Writes are never started ahead of the extension: it may stop before running them, and a
+ * file written that way would be one the model was never told about. The started calls belong to
+ * their turn: when the next model call of the same run context starts, the calls the extension
+ * did not take are dropped, so they can never answer a call of a later turn.
+ */
+@ApplicationScoped
+public class ParallelToolCalls {
+
+    private static final Logger LOG = Logger.getLogger(ParallelToolCalls.class);
+
+    /** Set on the threads running the dispatched calls, which must not look for a dispatched result. */
+    private static final ThreadLocal<Boolean> DISPATCHING = new ThreadLocal<>();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @ConfigProperty(name = "swarm.tool-calls.parallel", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "swarm.tool-calls.max-concurrency", defaultValue = "8")
+    int maxConcurrency;
+
+    @Inject
+    ReadFileTool readFileTool;
+
+    @Inject
+    ProjectContextTool projectContextTool;
+
+    private final Map<String, ToolMethod> tools = new HashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /** The turn of each run context whose started calls may still be taken by the extension. */
+    private final Map<RunContext, Turn> turns = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * A tool method and the bean to call it on, through its client proxy so that it is intercepted.
+     */
+    private record ToolMethod(Object bean, Method method) {
+    }
+
+    /**
+     * A call identified by its method and arguments, as the interceptor sees it.
+     */
+    private record Call(Method method, List<Object> arguments) {
+    }
+
+    /**
+     * A call ready to be dispatched.
+     *
+     * @param requestId the ID of the tool execution request of the response
+     */
+    private record Prepared(String requestId, ToolMethod tool, Object[] arguments) {
+
+        Call call() {
+            return new Call(tool.method(), Arrays.asList(arguments));
+        }
+    }
+
+    /**
+     * A started call of a turn.
+     */
+    private record Dispatched(String requestId, Call call, CompletableFuture<Object> result) {
+    }
+
+    /**
+     * The calls started for one model response, in the order of its tool execution requests.
+     */
+    private static final class Turn {
+
+        private final List<Dispatched> calls;
+
+        Turn(List<Dispatched> calls) {
+            this.calls = new ArrayList<>(calls);
+        }
+
+        /**
+         * @return the result of the first call of the turn matching {@code call}, or null
+         */
+        synchronized CompletableFuture<Object> take(Call call) {
+            for (Iterator<Dispatched> iterator = calls.iterator(); iterator.hasNext(); ) {
+                Dispatched dispatched = iterator.next();
+                if (dispatched.call().equals(call)) {
+                    iterator.remove();
+                    return dispatched.result();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Cancels the calls the extension did not take, those not running yet never run.
+         *
+         * @return the request IDs of the dropped calls
+         */
+        synchronized List<String> drop() {
+            List<String> dropped = new ArrayList<>(calls.size());
+            for (Dispatched dispatched : calls) {
+                dispatched.result().cancel(false);
+                dropped.add(dispatched.requestId());
+            }
+            calls.clear();
+            return dropped;
+        }
+    }
+
+    @PostConstruct
+    void registerTools() {
+        register(readFileTool, ReadFileTool.class);
+        register(projectContextTool, ProjectContextTool.class);
+    }
+
+    private void register(Object bean, Class<?> type) {
+        for (Method method : type.getDeclaredMethods()) {
+            Tool tool = method.getAnnotation(Tool.class);
+            if (tool != null) {
+                tools.put(tool.name().isEmpty() ? method.getName() : tool.name(), new ToolMethod(bean, method));
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the model, dispatching the tool calls of its responses, unless disabled
+     */
+    public ChatModel dispatching(ChatModel model) {
+        return enabled ? new DispatchingChatModel(model, this) : model;
+    }
+
+    /**
+     * @see #dispatching(ChatModel)
+     */
+    public StreamingChatModel dispatching(StreamingChatModel model) {
+        return enabled ? new DispatchingStreamingChatModel(model, this) : model;
+    }
+
+    /**
+     * Ends the current turn of a run context as its next model call starts, dropping the calls
+     * the extension did not take.
+     */
+    void nextTurn(RunContext run) {
+        Turn turn = turns.remove(run);
+        if (turn != null) {
+            List<String> dropped = turn.drop();
+            if (!dropped.isEmpty()) {
+                LOG.debugf("Dropped %d started tool calls the extension did not run: %s", dropped.size(), dropped);
+            }
+        }
+    }
+
+    /**
+     * Starts the file reads of a response, if it starts with several of them.
+     *
+     * @param run the run context the response belongs to
+     * @param trace the trace context of the model call
+     */
+    void dispatch(RunContext run, Context trace, AiMessage message) {
+        nextTurn(run);
+        if (message == null || !message.hasToolExecutionRequests() || message.toolExecutionRequests().size() < 2) {
+            return;
+        }
+        List<Prepared> calls = new ArrayList<>();
+        for (ToolExecutionRequest request : message.toolExecutionRequests()) {
+            Prepared call = prepare(run, request);
+            if (call == null) {
+                break;
+            }
+            calls.add(call);
+        }
+        if (calls.size() < 2) {
+            return;
+        }
+
+        Semaphore slots = new Semaphore(Math.max(1, maxConcurrency));
+        List<Dispatched> started = new ArrayList<>(calls.size());
+        for (Prepared call : calls) {
+            CompletableFuture<Object> future = CompletableFuture.supplyAsync(() -> invoke(call, run, trace, slots), executor);
+            started.add(new Dispatched(call.requestId(), call.call(), future));
+        }
+        turns.put(run, new Turn(started));
+        LOG.debugf("Dispatched %d of %d tool calls concurrently", calls.size(), message.toolExecutionRequests().size());
+    }
+
+    /**
+     * Takes the dispatched result of a call of the current turn, if there is one.
+     *
+     * @return the result, or null if the call was not dispatched
+     */
+    public CompletableFuture<Object> take(RunContext run, Method method, Object[] arguments) {
+        if (Boolean.TRUE.equals(DISPATCHING.get())) {
+            return null;
+        }
+        Turn turn = turns.get(run);
+        return turn != null ? turn.take(new Call(method, Arrays.asList(arguments))) : null;
+    }
+
+    /**
+     * Waits for a dispatched call, and returns its result or throws its exception.
+     */
+    public static Object await(CompletableFuture<Object> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException completion && completion.getCause() != null
+                    ? completion.getCause() : e.getCause();
+            if (cause instanceof Exception exception) {
+                throw exception;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * @return the call with its arguments bound, or null if it cannot be dispatched
+     */
+    private Prepared prepare(RunContext run, ToolExecutionRequest request) {
+        ToolMethod tool = tools.get(request.name());
+        if (tool == null) {
+            return null;
+        }
+        try {
+            JsonNode json = request.arguments() == null || request.arguments().isBlank()
+                    ? MAPPER.createObjectNode() : MAPPER.readTree(request.arguments());
+            Parameter[] parameters = tool.method().getParameters();
+            Object[] arguments = new Object[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                JsonNode value = json.get(parameters[i].getName());
+                if (value == null || value.isNull()) {
+                    // Left to the extension, which reports missing arguments its own way
+                    return null;
+                }
+                arguments[i] = MAPPER.convertValue(value, MAPPER.constructType(parameters[i].getParameterizedType()));
+                if (arguments[i] instanceof String path && parameters[i].getName().equals("filePath")) {
+                    // A path outside the workspace is reported by the extension, in order
+                    run.resolve(path);
+                }
+            }
+            return new Prepared(request.id(), tool, arguments);
+        } catch (Exception e) {
+            // Invalid arguments or a path outside the workspace: the extension reports the error in order
+            return null;
+        }
+    }
+
+    private Object invoke(Prepared call, RunContext run, Context trace, Semaphore slots) {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+        DISPATCHING.set(Boolean.TRUE);
+        try (RunContext.Scope scope = RunContext.bind(run); io.opentelemetry.context.Scope traceScope = trace.makeCurrent()) {
+            return call.tool().method().invoke(call.tool().bean(), call.arguments());
+        } catch (InvocationTargetException e) {
+            throw new CompletionException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new CompletionException(e);
+        } finally {
+            DISPATCHING.remove();
+            slots.release();
+        }
+    }
+}
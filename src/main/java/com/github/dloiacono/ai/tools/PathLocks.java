@@ -0,0 +1,59 @@
+package com.github.dloiacono.ai.tools;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks serializing writes to the same path across concurrent agents. Paths are hashed
+ * onto a fixed set of locks, so two paths may share a lock but a path always maps to the same one.
+ */
+final class PathLocks {
+
+    private static final int STRIPES = 64;
+    private static final ReentrantLock[] LOCKS = new ReentrantLock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private PathLocks() {
+    }
+
+    /**
+     * Locks the stripes of the given paths, always in stripe order so that two callers locking
+     * overlapping sets of paths cannot deadlock.
+     *
+     * @param paths the absolute, normalized paths about to be written
+     * @return a handle releasing the locks when closed
+     */
+    static Held lock(Collection<Path> paths) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Path path : paths) {
+            stripes.add(Math.floorMod(path.hashCode(), STRIPES));
+        }
+        for (int stripe : stripes) {
+            LOCKS[stripe].lock();
+        }
+        return () -> {
+            for (int stripe : stripes.descendingSet()) {
+                LOCKS[stripe].unlock();
+            }
+        };
+    }
+
+    static Held lock(Path path) {
+        ReentrantLock lock = LOCKS[Math.floorMod(path.hashCode(), STRIPES)];
+        lock.lock();
+        return lock::unlock;
+    }
+
+    interface Held extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
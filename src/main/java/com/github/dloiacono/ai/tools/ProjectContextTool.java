@@ -1,8 +1,19 @@
 package com.github.dloiacono.ai.tools;
 
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.project.CodeOutline;
+import com.github.dloiacono.ai.project.ProjectIndex;
+import com.github.dloiacono.ai.project.ProjectScanner;
+import com.github.dloiacono.ai.project.ProjectScanner.ProjectFile;
+import com.github.dloiacono.ai.project.ProjectScanner.ScanResult;
+import com.github.dloiacono.ai.project.TextFiles;
+import com.github.dloiacono.ai.run.RunContext;
 import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.IOException;
 import java.nio.file.*;
@@ -13,9 +24,26 @@ import java.util.*;
  * Tool for analyzing project folders and providing context about their structure and content.
  */
 @ApplicationScoped
+@Instrumented
 public class ProjectContextTool {
 
+    /** Rough number of bytes per model token, used to turn token budgets into byte budgets. */
+    private static final int BYTES_PER_TOKEN = 4;
 
+    /** Maximum number of omitted files listed by name in a budgeted read. */
+    private static final int MAX_LISTED_OMISSIONS = 200;
+
+    @ConfigProperty(name = "swarm.project-context.max-tokens", defaultValue = "50000")
+    int defaultMaxTokens;
+
+    @Inject
+    ProjectIndex projectIndex;
+
+    @Inject
+    CodeOutline codeOutline;
+
+    @Inject
+    SwarmTelemetry telemetry;
 
     /**
      * Reads ALL files in the project without any filters or limitations.
@@ -23,11 +51,11 @@ public class ProjectContextTool {
      * @param projectPath the path to the project folder
      * @return the content of all files in the project
      */
-    @Tool("Reads ALL files in the project without any filters - use with caution for large projects")
+    @Tool("Reads ALL files in the project without any filters - use with caution for large projects, prefer readProjectFilesWithinBudget")
     public String readAllProjectFiles(
             @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath) {
         try {
-            Path path = Paths.get(projectPath);
+            Path path = RunContext.current().resolve(projectPath);
             if (!Files.exists(path) || !Files.isDirectory(path)) {
                 return "Error: Invalid project path or not a directory: " + projectPath;
             }
@@ -48,6 +76,7 @@ public class ProjectContextTool {
                     try {
                         // Read file content without any size limitations
                         String fileContent = Files.readString(file);
+                        telemetry.bytesRead("ProjectContextTool", attrs.size());
                         content.append(fileContent);
                         if (!fileContent.endsWith("\n")) {
                             content.append("\n");
@@ -85,50 +114,194 @@ public class ProjectContextTool {
     }
 
     /**
-     * Gets the content of specific files in the project.
+     * Reads the text files of a project until a token budget is spent. Binary files and files
+     * matched by {@code .gitignore} are skipped, and the files that did not fit are listed at the end,
+     * so memory use is bounded by the budget rather than by the size of the project.
+     *
+     * @param projectPath the path to the project folder
+     * @param maxTokens the approximate token budget, or 0 or less for the configured default
+     * @return the content of the files that fit in the budget, followed by the list of omitted files
+     */
+    @Tool("""
+    Reads the text files of a project up to a token budget, skipping binary and .gitignore'd files.
+    Stops once the budget is spent and lists the files that were left out.
+    """)
+    public String readProjectFilesWithinBudget(
+            @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath,
+            @P("maxTokens (integer) - approximate token budget for the returned content, 0 for the default") int maxTokens) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.exists(path) || !Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
+
+        long budget = (long) (maxTokens > 0 ? maxTokens : defaultMaxTokens) * BYTES_PER_TOKEN;
+        ScanResult scan = ProjectScanner.scan(path);
+
+        StringBuilder content = new StringBuilder();
+        content.append("=== PROJECT FILES CONTENT (BUDGET: ").append(budget / BYTES_PER_TOKEN).append(" TOKENS) ===\n");
+        content.append("Project Path: ").append(projectPath).append("\n\n");
+
+        List<String> omitted = new ArrayList<>();
+        int includedCount = 0;
+        int omittedCount = 0;
+        int binaryCount = 0;
+        int failedCount = 0;
+        long remaining = budget;
+        boolean exhausted = false;
+
+        for (ProjectFile file : scan.files()) {
+            if (exhausted || file.size() > remaining) {
+                // Keep going past a file that does not fit: smaller ones after it may still fit
+                if (omitted.size() < MAX_LISTED_OMISSIONS) {
+                    omitted.add(file.relativePath() + " (" + file.size() + " bytes)");
+                }
+                omittedCount++;
+                continue;
+            }
+            byte[] bytes;
+            try {
+                bytes = Files.readAllBytes(file.path());
+                telemetry.bytesRead("ProjectContextTool", bytes.length);
+            } catch (IOException e) {
+                content.append("=== FILE: ").append(file.relativePath()).append(" ===\n");
+                content.append("Error reading file: ").append(e.getMessage()).append("\n\n");
+                failedCount++;
+                continue;
+            }
+            if (TextFiles.isBinary(bytes, bytes.length)) {
+                binaryCount++;
+                continue;
+            }
+            String fileContent = TextFiles.decode(bytes);
+            content.append("=== FILE: ").append(file.relativePath()).append(" ===\n");
+            content.append("--- CONTENT ---\n");
+            content.append(fileContent);
+            if (!fileContent.endsWith("\n")) {
+                content.append("\n");
+            }
+            content.append("--- END OF FILE ---\n\n");
+            includedCount++;
+            remaining -= bytes.length;
+            exhausted = remaining <= 0;
+        }
+
+        content.append("=== SUMMARY ===\n");
+        content.append("Files included: ").append(includedCount).append("\n");
+        content.append("Binary files skipped: ").append(binaryCount).append("\n");
+        if (failedCount > 0) {
+            content.append("Files that could not be read: ").append(failedCount).append("\n");
+        }
+        content.append("Entries excluded by .gitignore: ").append(scan.ignoredEntries()).append("\n");
+        content.append("Files omitted (budget exceeded): ").append(omittedCount).append("\n");
+        for (String name : omitted) {
+            content.append("  - ").append(name).append("\n");
+        }
+        if (omittedCount > omitted.size()) {
+            content.append("  ... and ").append(omittedCount - omitted.size()).append(" more\n");
+        }
+        return content.toString();
+    }
+
+    /**
+     * Gets the content of specific files in the project. The files come from the project index, so
+     * the files of hidden and build directories and the files matched by {@code .gitignore} are left
+     * out, binary files are only listed with their size, and files changed outside the tools are
+     * seen once the index refresh interval has passed.
      *
      * @param projectPath the path to the project folder
      * @param filePattern glob pattern to match files (e.g., "**//*.java", "pom.xml", "package.json")
      * @return the content of matching files
      */
-    @Tool("Gets the content of specific files in a project based on a glob pattern")
+    @Tool("""
+    Gets the content of specific files in a project based on a glob pattern.
+    Files under hidden directories and build directories (target, build, node_modules, __pycache__, dist, out)
+    and files matched by .gitignore are left out; binary files are listed with their size only.
+    Files changed without the file tools may take a few seconds to show their new content.
+    """)
     public String getProjectFiles(String projectPath, String filePattern) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.exists(path) || !Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
+
+        StringBuilder content = new StringBuilder();
+        content.append("=== FILES MATCHING PATTERN: ").append(filePattern).append(" ===\n\n");
+
+        List<ProjectIndex.Entry> entries;
         try {
-            Path path = Paths.get(projectPath);
-            if (!Files.exists(path) || !Files.isDirectory(path)) {
-                return "Error: Invalid project path or not a directory: " + projectPath;
+            // Served from the project index: only files changed since the last call are read again
+            entries = projectIndex.find(path, filePattern);
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid file pattern: " + e.getMessage();
+        }
+        for (ProjectIndex.Entry entry : entries) {
+            content.append("--- ").append(entry.relativePath()).append(" ---\n");
+            if (entry.binary()) {
+                content.append("Binary file, ").append(entry.size()).append(" bytes\n\n");
+                continue;
+            }
+            try {
+                content.append(projectIndex.content(path, entry)).append("\n\n");
+            } catch (IOException e) {
+                content.append("Error reading file: ").append(e.getMessage()).append("\n\n");
             }
+        }
 
-            StringBuilder content = new StringBuilder();
-            content.append("=== FILES MATCHING PATTERN: ").append(filePattern).append(" ===\n\n");
+        return content.toString();
+    }
 
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + filePattern);
-            
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Path relativePath = path.relativize(file);
-                    if (matcher.matches(relativePath) || matcher.matches(file.getFileName())) {
-                        content.append("--- ").append(relativePath).append(" ---\n");
-                        try {
-                            String fileContent = Files.readString(file);
-                            content.append(fileContent).append("\n\n");
-                        } catch (IOException e) {
-                            content.append("Error reading file: ").append(e.getMessage()).append("\n\n");
-                        }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+    /**
+     * Outlines a project: the skeleton of its Java sources, with types, fields, annotations and
+     * method signatures but no bodies, and the modules, dependencies and plugins of its Maven and
+     * Gradle builds. The other files are only listed.
+     *
+     * @param projectPath the path to the project folder
+     * @param filePattern glob pattern restricting the outlined files, empty for all of them
+     * @return the outline of the project
+     */
+    @Tool("""
+    Outlines a project: packages, types, fields, annotations and method signatures of the Java sources (no method bodies),
+    and modules, dependencies and plugins of pom.xml and build.gradle files; other files are only listed.
+    Much smaller than the file contents: use it first to understand the shape of a project.
+    """)
+    public String getProjectOutline(
+            @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath,
+            @P("filePattern (string) - glob pattern of the files to outline, e.g. '**/*.java', empty for all") String filePattern) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.exists(path) || !Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
 
-            return content.toString();
+        List<ProjectIndex.Entry> entries;
+        try {
+            entries = filePattern == null || filePattern.isBlank() ? projectIndex.entries(path) : projectIndex.find(path, filePattern);
+        } catch (IllegalArgumentException e) {
+            return "Error: Invalid file pattern: " + e.getMessage();
+        }
+        List<ProjectIndex.Entry> outlined = new ArrayList<>();
+        List<ProjectIndex.Entry> others = new ArrayList<>();
+        for (ProjectIndex.Entry entry : entries) {
+            if (!entry.binary() && CodeOutline.isOutlined(entry.relativePath())) {
+                outlined.add(entry);
+            } else {
+                others.add(entry);
+            }
+        }
 
-        } catch (IOException e) {
-            return "Error getting project files: " + e.getMessage();
+        StringBuilder content = new StringBuilder();
+        content.append("=== PROJECT OUTLINE ===\n");
+        content.append("Project Path: ").append(projectPath).append("\n");
+        content.append("Files outlined: ").append(outlined.size()).append(", other files: ").append(others.size()).append("\n\n");
+        codeOutline.outline(path, outlined).forEach((relativePath, outline) -> {
+            content.append("--- ").append(relativePath).append(" ---\n");
+            content.append(outline).append("\n");
+        });
+        if (!others.isEmpty()) {
+            content.append("=== OTHER FILES ===\n");
+            for (ProjectIndex.Entry entry : others) {
+                content.append(entry.relativePath()).append(" (").append(entry.size()).append(" bytes)\n");
+            }
         }
+        return content.toString();
     }
-
-
-
-
 }
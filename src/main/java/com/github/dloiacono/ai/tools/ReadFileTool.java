@@ -1,20 +1,53 @@
 package com.github.dloiacono.ai.tools;
 
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.run.FileContentCache;
+import com.github.dloiacono.ai.run.RunContext;
+import com.github.dloiacono.ai.project.FileChangedEvent;
 import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Tool for reading files from the filesystem.
  */
 @ApplicationScoped
+@Instrumented
 public class ReadFileTool {
 
+    /** Number of line indexes kept for files read by range. */
+    private static final int MAX_LINE_INDEXES = 32;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    @ConfigProperty(name = "swarm.read.max-range-bytes", defaultValue = "262144")
+    int maxRangeBytes;
+
+    @ConfigProperty(name = "swarm.read.page-bytes", defaultValue = "16384")
+    int pageBytes;
+
+    private final Map<Path, LineIndex> lineIndexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, LineIndex> eldest) {
+            return size() > MAX_LINE_INDEXES;
+        }
+    };
+
   /**
    * Reads the content of a file at the specified path.
    *
@@ -25,14 +58,24 @@ public class ReadFileTool {
   public String readFile(
       @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath) {
         try {
-            Path path = Paths.get(filePath);
+            Path path = RunContext.current().resolve(filePath);
+            Path key = path.toAbsolutePath().normalize();
+            FileContentCache cache = RunContext.current().fileCache();
+            String cached = cache.content(key);
+            if (cached != null) {
+                return cached;
+            }
             if (!Files.exists(path)) {
+                cache.putExists(key, false);
                 return "Error: File not found at path: " + filePath;
             }
             if (!Files.isReadable(path)) {
                 return "Error: File is not readable: " + filePath;
             }
-            return Files.readString(path);
+            String content = Files.readString(path);
+            telemetry.bytesRead("ReadFileTool", SwarmTelemetry.utf8Length(content));
+            cache.put(key, content);
+            return content;
         } catch (IOException e) {
             return "Error reading file: " + e.getMessage();
         }
@@ -51,10 +94,196 @@ public class ReadFileTool {
             if (filePath == null || filePath.trim().isEmpty()) {
                 return "false";
             }
-            Path path = Paths.get(filePath);
-            return Files.exists(path) ? "true" : "false";
+            Path path = RunContext.current().resolve(filePath);
+            Path key = path.toAbsolutePath().normalize();
+            FileContentCache cache = RunContext.current().fileCache();
+            Boolean known = cache.exists(key);
+            if (known != null) {
+                return known ? "true" : "false";
+            }
+            boolean exists = Files.exists(path);
+            cache.putExists(key, exists);
+            return exists ? "true" : "false";
         } catch (Exception e) {
             return "false";
         }
     }
+
+    /**
+     * Reads a range of lines of a file without loading the rest of it.
+     *
+     * @param filePath the path to the file to read
+     * @param startLine the first line to read, starting at 1
+     * @param endLine the last line to read, inclusive
+     * @return the requested lines preceded by a header with the range and the total line count
+     */
+    @Tool("Reads only the lines startLine..endLine (1-based, inclusive) of a file - use for large files instead of readFile")
+    public String readLines(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY startLine (integer) - the first line to read, starting at 1") long startLine,
+            @P("MANDATORY endLine (integer) - the last line to read, inclusive") long endLine) {
+        Path path = RunContext.current().resolve(filePath);
+        if (!Files.isRegularFile(path)) {
+            return "Error: File not found at path: " + filePath;
+        }
+        if (startLine < 1 || endLine < startLine) {
+            return "Error: Invalid line range " + startLine + "-" + endLine;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            LineIndex index = lineIndex(path, channel);
+            long from = index.startOf(channel, startLine);
+            if (from < 0) {
+                return "Error: File has only " + index.lineCount(channel) + " lines: " + filePath;
+            }
+            // Only scans the file up to the end of the range, unless the range goes past its end
+            long to = endLine < Long.MAX_VALUE ? index.startOf(channel, endLine + 1) : -1;
+            long last = endLine;
+            if (to < 0) {
+                to = index.size;
+                last = index.lineCount(channel);
+            }
+            int length = (int) Math.min(to - from, maxRangeBytes);
+            byte[] bytes = LineIndex.read(channel, from, length);
+            int complete = length < to - from ? LineIndex.completeLength(bytes, 0, length) : length;
+            String lines = new String(bytes, 0, complete, StandardCharsets.UTF_8);
+            telemetry.bytesRead("ReadFileTool", length);
+            long lineCount = index.knownLineCount();
+            return "Lines " + startLine + "-" + last + (lineCount >= 0 ? " of " + lineCount : "") + " in " + filePath
+                    + (length < to - from ? " (truncated to " + complete + " bytes)" : "") + ":\n" + lines;
+        } catch (IOException e) {
+            return "Error reading file: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads a range of bytes of a file.
+     *
+     * @param filePath the path to the file to read
+     * @param offset the offset of the first byte to read
+     * @param length the number of bytes to read
+     * @return the bytes decoded as UTF-8, preceded by a header with the range and the file size
+     */
+    @Tool("Reads length bytes of a file starting at byte offset, decoded as UTF-8")
+    public String readBytes(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY offset (integer) - the offset of the first byte to read") long offset,
+            @P("MANDATORY length (integer) - the number of bytes to read") int length) {
+        Path path = RunContext.current().resolve(filePath);
+        if (!Files.isRegularFile(path)) {
+            return "Error: File not found at path: " + filePath;
+        }
+        if (offset < 0 || length <= 0) {
+            return "Error: Invalid byte range, offset " + offset + " length " + length;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (offset >= size) {
+                return "Error: Offset " + offset + " is past the end of the file (" + size + " bytes): " + filePath;
+            }
+            int count = (int) Math.min(Math.min(length, maxRangeBytes), size - offset);
+            byte[] bytes = LineIndex.read(channel, offset, count);
+            telemetry.bytesRead("ReadFileTool", count);
+            // Move the range to code point boundaries, unless it is too short to hold a whole one
+            int start = offset > 0 ? LineIndex.continuationBytes(bytes, count) : 0;
+            int end = offset + count < size ? LineIndex.completeLength(bytes, start, count) : count;
+            if (end <= start) {
+                start = 0;
+                end = count;
+            }
+            return "Bytes " + (offset + start) + "-" + (offset + end) + " of " + size + " in " + filePath + ":\n"
+                    + new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "Error reading file: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Reads a file one page at a time. Pages end on a line boundary whenever possible.
+     *
+     * @param filePath the path to the file to read
+     * @param cursor the cursor returned by the previous page, 0 for the first page
+     * @return the page content followed by the cursor of the next page
+     */
+    @Tool("Reads a file page by page: pass cursor 0 for the first page, then the 'Next cursor' value of the previous page")
+    public String readPage(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath,
+            @P("MANDATORY cursor (integer) - 0 for the first page, otherwise the 'Next cursor' of the previous page") long cursor) {
+        Path path = RunContext.current().resolve(filePath);
+        if (!Files.isRegularFile(path)) {
+            return "Error: File not found at path: " + filePath;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (cursor < 0 || cursor > size) {
+                return "Error: Invalid cursor " + cursor + " for file of " + size + " bytes: " + filePath;
+            }
+            byte[] bytes = LineIndex.read(channel, cursor, (int) Math.min(pageBytes, size - cursor));
+            telemetry.bytesRead("ReadFileTool", bytes.length);
+            int length = bytes.length;
+            // A cursor not returned by a previous page may point inside a code point
+            int start = cursor > 0 ? LineIndex.continuationBytes(bytes, length) : 0;
+            if (cursor + length < size) {
+                // Cut the page after its last complete line, unless the page is one long line
+                int lastNewline = length - 1;
+                while (lastNewline >= start && bytes[lastNewline] != '\n') {
+                    lastNewline--;
+                }
+                if (lastNewline >= start) {
+                    length = lastNewline + 1;
+                } else if (LineIndex.completeLength(bytes, start, length) > start) {
+                    length = LineIndex.completeLength(bytes, start, length);
+                }
+            }
+            long next = cursor + length;
+            return new String(bytes, start, length - start, StandardCharsets.UTF_8)
+                    + (next < size ? "\n--- Next cursor: " + next + " (of " + size + " bytes) ---" : "\n--- End of file ---");
+        } catch (IOException e) {
+            return "Error reading file: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Returns the size and line count of a file without returning its content.
+     *
+     * @param filePath the path to the file
+     * @return the size in bytes, the number of lines and the last modification time
+     */
+    @Tool("Returns the size in bytes and the number of lines of a file without reading its content")
+    public String fileInfo(
+            @P("MANDATORY filePath (string) - the RELATIVE full file path") String filePath) {
+        Path path = RunContext.current().resolve(filePath);
+        if (!Files.isRegularFile(path)) {
+            return "Error: File not found at path: " + filePath;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            LineIndex index = lineIndex(path, channel);
+            return "File: " + filePath + "\nSize: " + index.size + " bytes\nLines: " + index.lineCount(channel)
+                    + "\nLast Modified: " + Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return "Error reading file: " + e.getMessage();
+        }
+    }
+
+    void onFileChanged(@Observes FileChangedEvent event) {
+        synchronized (lineIndexes) {
+            lineIndexes.remove(event.path());
+        }
+    }
+
+    private LineIndex lineIndex(Path path, FileChannel channel) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        synchronized (lineIndexes) {
+            LineIndex index = lineIndexes.get(key);
+            if (index != null && index.size == attrs.size() && index.lastModified == lastModified) {
+                return index;
+            }
+        }
+        LineIndex index = new LineIndex(attrs.size(), lastModified);
+        synchronized (lineIndexes) {
+            lineIndexes.put(key, index);
+        }
+        return index;
+    }
 }
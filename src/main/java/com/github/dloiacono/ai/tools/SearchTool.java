@@ -0,0 +1,81 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.project.SearchIndex;
+import com.github.dloiacono.ai.project.SearchIndex.Hit;
+import com.github.dloiacono.ai.project.SearchIndex.Line;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.agent.tool.P;
+import dev.langchain4j.agent.tool.Tool;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Tool for finding the files and lines of a project relevant to a question, without reading the
+ * whole project.
+ */
+@ApplicationScoped
+@Instrumented
+public class SearchTool {
+
+    @Inject
+    SearchIndex searchIndex;
+
+    @ConfigProperty(name = "swarm.search.default-top-k", defaultValue = "10")
+    int defaultTopK;
+
+    @ConfigProperty(name = "swarm.search.lines-per-file", defaultValue = "5")
+    int linesPerFile;
+
+    /**
+     * Searches the text files of a project, ranked with BM25.
+     *
+     * @param projectPath the path to the project folder
+     * @param query the words or identifiers to look for
+     * @param topK the maximum number of files to return, 0 or less for the default
+     * @return the best matching files with their matching lines, best first
+     */
+    @Tool("""
+    Searches the files of a project for words or identifiers (camelCase and snake_case names are split into words)
+    and returns the best matching files with their matching lines. Use it to find the code you need
+    instead of reading the whole project, then read the relevant ranges with readLines.
+    """)
+    public String searchProject(
+            @P("MANDATORY projectPath (string) - the RELATIVE full project path") String projectPath,
+            @P("MANDATORY query (string) - words or identifiers to look for, e.g. 'calculator divide by zero'") String query,
+            @P("topK (integer) - maximum number of files to return, 0 for the default") int topK) {
+        Path path = RunContext.current().resolve(projectPath);
+        if (!Files.isDirectory(path)) {
+            return "Error: Invalid project path or not a directory: " + projectPath;
+        }
+        if (query == null || query.isBlank()) {
+            return "Error: The query is empty";
+        }
+
+        long start = System.nanoTime();
+        List<Hit> hits = searchIndex.search(path, query, topK > 0 ? topK : defaultTopK, linesPerFile);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        if (hits.isEmpty()) {
+            return "No match for '" + query + "' in " + searchIndex.indexedFiles(path) + " files";
+        }
+
+        StringBuilder result = new StringBuilder();
+        result.append("=== SEARCH RESULTS ===\n");
+        result.append(hits.size()).append(" files for '").append(query).append("' (")
+                .append(searchIndex.indexedFiles(path)).append(" files searched in ").append(elapsedMillis).append(" ms)\n\n");
+        for (int i = 0; i < hits.size(); i++) {
+            Hit hit = hits.get(i);
+            result.append(i + 1).append(". ").append(hit.relativePath())
+                    .append(String.format(" (score %.2f)", hit.score())).append('\n');
+            for (Line line : hit.lines()) {
+                result.append("   ").append(line.number()).append(": ").append(line.text()).append('\n');
+            }
+        }
+        return result.toString();
+    }
+}
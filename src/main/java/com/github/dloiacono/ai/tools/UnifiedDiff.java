@@ -0,0 +1,139 @@
+package com.github.dloiacono.ai.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal unified diff support: parses the hunks of a single-file diff and applies them to a list
+ * of lines. Hunks whose context does not match at the stated position are searched for nearby,
+ * and reported as conflicts when they cannot be found.
+ */
+final class UnifiedDiff {
+
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*");
+
+    /** How far from the stated position a hunk is searched for when the file has drifted. */
+    private static final int MAX_FUZZ = 200;
+
+    private UnifiedDiff() {
+    }
+
+    record Hunk(String header, int oldStart, List<String> expected, List<String> replacement) {
+    }
+
+    /**
+     * Parses the hunks of a unified diff. File headers and "\ No newline" markers are ignored.
+     *
+     * @throws IllegalArgumentException if the diff has no hunks or a malformed line
+     */
+    static List<Hunk> parse(String diff) {
+        List<Hunk> hunks = new ArrayList<>();
+        String header = null;
+        int oldStart = 0;
+        List<String> expected = null;
+        List<String> replacement = null;
+
+        for (String line : diff.split("\n", -1)) {
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            Matcher matcher = HUNK_HEADER.matcher(line);
+            if (matcher.matches()) {
+                if (header != null) {
+                    hunks.add(new Hunk(header, oldStart, expected, replacement));
+                }
+                header = line;
+                oldStart = Integer.parseInt(matcher.group(1));
+                expected = new ArrayList<>();
+                replacement = new ArrayList<>();
+            } else if (header == null || line.startsWith("\\")) {
+                // File headers before the first hunk, and "\ No newline at end of file"
+                continue;
+            } else if (line.startsWith("+")) {
+                replacement.add(line.substring(1));
+            } else if (line.startsWith("-")) {
+                expected.add(line.substring(1));
+            } else if (line.startsWith(" ")) {
+                expected.add(line.substring(1));
+                replacement.add(line.substring(1));
+            } else if (line.isEmpty()) {
+                // Some generators drop the leading space of empty context lines
+                expected.add("");
+                replacement.add("");
+            } else {
+                throw new IllegalArgumentException("Malformed diff line: " + line);
+            }
+        }
+        if (header != null) {
+            hunks.add(new Hunk(header, oldStart, trimTrailingBlank(expected, replacement), replacement));
+        }
+        if (hunks.isEmpty()) {
+            throw new IllegalArgumentException("The patch has no @@ hunk headers");
+        }
+        return hunks;
+    }
+
+    /**
+     * Applies hunks to the lines of a file, in place.
+     *
+     * @return the conflicts, empty when every hunk was applied
+     */
+    static List<String> apply(List<String> lines, List<Hunk> hunks) {
+        List<String> conflicts = new ArrayList<>();
+        int delta = 0;
+        for (Hunk hunk : hunks) {
+            // An empty old range means "insert after line oldStart"
+            int stated = Math.max(0, hunk.expected().isEmpty() ? hunk.oldStart() : hunk.oldStart() - 1) + delta;
+            int position = locate(lines, hunk.expected(), stated);
+            if (position < 0) {
+                String first = hunk.expected().isEmpty() ? "" : " starting with '" + hunk.expected().get(0) + "'";
+                conflicts.add(hunk.header() + ": context" + first + " not found near line " + (stated + 1));
+                continue;
+            }
+            List<String> target = lines.subList(position, position + hunk.expected().size());
+            target.clear();
+            target.addAll(hunk.replacement());
+            delta += hunk.replacement().size() - hunk.expected().size() + (position - stated);
+        }
+        return conflicts;
+    }
+
+    private static int locate(List<String> lines, List<String> expected, int stated) {
+        int start = Math.min(stated, lines.size());
+        for (int fuzz = 0; fuzz <= MAX_FUZZ; fuzz++) {
+            if (matchesAt(lines, expected, start - fuzz)) {
+                return start - fuzz;
+            }
+            if (fuzz > 0 && matchesAt(lines, expected, start + fuzz)) {
+                return start + fuzz;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matchesAt(List<String> lines, List<String> expected, int position) {
+        if (position < 0 || position + expected.size() > lines.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!lines.get(position + i).stripTrailing().equals(expected.get(i).stripTrailing())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the empty line produced by a trailing newline at the end of the diff text.
+     */
+    private static List<String> trimTrailingBlank(List<String> expected, List<String> replacement) {
+        if (!expected.isEmpty() && !replacement.isEmpty()
+                && expected.get(expected.size() - 1).isEmpty() && replacement.get(replacement.size() - 1).isEmpty()) {
+            expected.remove(expected.size() - 1);
+            replacement.remove(replacement.size() - 1);
+        }
+        return expected;
+    }
+}
@@ -1,21 +1,46 @@
 package com.github.dloiacono.ai.tools;
 
+import com.github.dloiacono.ai.observability.Instrumented;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.project.FileChangedEvent;
+import com.github.dloiacono.ai.run.RunContext;
 import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.model.output.structured.Description;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
 
 /**
  * Tool for writing content to files in the filesystem.
  */
 @ApplicationScoped
+@Instrumented
 public class WriteFileTool {
 
+    @Inject
+    Event<FileChangedEvent> fileChanged;
+
+    @Inject
+    SwarmTelemetry telemetry;
+
+    /**
+     * One file of a {@link #writeFiles(List, boolean)} batch.
+     *
+     * @param filePath the relative path of the file
+     * @param content the complete content of the file
+     */
+    public record FileContent(
+            @Description("the RELATIVE full file path") String filePath,
+            @Description("the complete file content") String content) {
+    }
+
     /**
      * Writes the provided content to a file at the specified path.
      * Creates the file if it doesn't exist, or overwrites it if it does.
@@ -40,6 +65,7 @@ public class WriteFileTool {
     public String writeFile(
             @P("MANDATORY content (string) - the ACTUAL file content to write - CANNOT be null - MUST contain the complete file content") String content,
             @P("MANDATORY filePath (string) - the RELATIVE full file path - CANNOT be null or empty") String filePath) {
+        RunContext.WriteClaim claim = null;
         try {
             // Debug logging and null checks
             if (filePath == null || filePath.trim().isEmpty()) {
@@ -52,20 +78,30 @@ public class WriteFileTool {
                 return "Error: content parameter is empty. Please provide the actual file content to write - do not pass empty strings.";
             }
             
-            // Convert to relative path if absolute path is provided
-            String relativePath = convertToRelativePath(filePath);
-            Path path = Paths.get(relativePath);
-            
-            // Create parent directories if they don't exist
-            Path parent = path.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                Files.createDirectories(parent);
+            Path path = RunContext.current().resolve(filePath);
+            Path written = path.toAbsolutePath().normalize();
+            claim = RunContext.current().claimWrites(List.of(written));
+            if (!claim.granted()) {
+                return writeConflict(filePath, claim.owner());
             }
-            
-            // Write the content to the file
-            Files.writeString(path, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            return "Successfully wrote " + content.length() + " characters to file: " + relativePath;
+
+            try (PathLocks.Held lock = PathLocks.lock(written)) {
+                // Create parent directories if they don't exist
+                Path parent = path.getParent();
+                if (parent != null && !Files.exists(parent)) {
+                    Files.createDirectories(parent);
+                }
+
+                // Write the content to the file
+                Files.writeString(path, content, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                RunContext.current().fileCache().put(written, content);
+            }
+            RunContext.current().recordWrites(List.of(written));
+            telemetry.bytesWritten("WriteFileTool", SwarmTelemetry.utf8Length(content));
+            fileChanged.fire(new FileChangedEvent(written));
+            return "Successfully wrote " + content.length() + " characters to file: " + RunContext.current().relativize(path);
         } catch (IOException e) {
+            RunContext.current().releaseWrites(claim);
             return "Error writing to file: " + e.getMessage();
         }
     }
@@ -90,6 +126,7 @@ public class WriteFileTool {
     public String appendToFile(
             @P("MANDATORY content (string) - the ACTUAL content to append - CANNOT be null - MUST contain the actual content") String content,
             @P("MANDATORY filePath (string) - the RELATIVE full file path - CANNOT be null or empty") String filePath) {
+        RunContext.WriteClaim claim = null;
         try {
             // Debug logging and null checks
             if (filePath == null || filePath.trim().isEmpty()) {
@@ -99,40 +136,108 @@ public class WriteFileTool {
                 return "Error: content parameter is null. Please provide the actual content to append.";
             }
             
-            // Convert to relative path if absolute path is provided
-            String relativePath = convertToRelativePath(filePath);
-            Path path = Paths.get(relativePath);
-            
-            // Create parent directories if they don't exist
-            Path parent = path.getParent();
-            if (parent != null && !Files.exists(parent)) {
-                Files.createDirectories(parent);
+            Path path = RunContext.current().resolve(filePath);
+            Path written = path.toAbsolutePath().normalize();
+            claim = RunContext.current().claimWrites(List.of(written));
+            if (!claim.granted()) {
+                return writeConflict(filePath, claim.owner());
             }
-            
-            // Append the content to the file
-            Files.writeString(path, content, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            return "Successfully appended " + content.length() + " characters to file: " + relativePath;
+
+            try (PathLocks.Held lock = PathLocks.lock(written)) {
+                // Create parent directories if they don't exist
+                Path parent = path.getParent();
+                if (parent != null && !Files.exists(parent)) {
+                    Files.createDirectories(parent);
+                }
+
+                // Append the content to the file
+                Files.writeString(path, content, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                RunContext.current().fileCache().append(written, content);
+            }
+            RunContext.current().recordWrites(List.of(written));
+            telemetry.bytesWritten("WriteFileTool", SwarmTelemetry.utf8Length(content));
+            fileChanged.fire(new FileChangedEvent(written));
+            return "Successfully appended " + content.length() + " characters to file: " + RunContext.current().relativize(path);
         } catch (IOException e) {
+            RunContext.current().releaseWrites(claim);
             return "Error appending to file: " + e.getMessage();
         }
     }
 
     /**
-     * Converts an absolute path to a relative path.
+     * Writes several files in one call. All files are written or none are: each file goes to a
+     * temporary file first and the batch is committed with atomic renames.
      *
-     * @param filePath the original file path (absolute or relative)
-     * @return a relative path
+     * @param files the files to write
+     * @param sync whether to fsync the files before returning
+     * @return a message indicating success or failure
      */
-    private String convertToRelativePath(String filePath) {
-        if (filePath == null) {
-            return null;
+    @Tool("""
+    Writes MANY files in a single call, creating or overwriting them - use it to scaffold projects
+    instead of calling writeFile once per file. Either all files are written or none are.
+
+    Each entry needs a filePath (RELATIVE path) and the complete content of the file.
+    """)
+    public String writeFiles(
+            @P("MANDATORY files - the list of files to write, each with filePath and complete content") List<FileContent> files,
+            @P("sync (boolean) - true to flush the files to disk before returning") boolean sync) {
+        if (files == null || files.isEmpty()) {
+            return "Error: files parameter is null or empty";
         }
-        
-        // If it's already a relative path, return as-is
-        if (!filePath.startsWith("/") && !filePath.matches("^[A-Za-z]:\\\\.*")) {
-            return filePath;
+        AtomicBatchWriter batch = new AtomicBatchWriter(sync);
+        for (FileContent file : files) {
+            if (file == null || file.filePath() == null || file.filePath().trim().isEmpty()) {
+                return "Error: every file needs a non-empty filePath, nothing was written";
+            }
+            if (file.content() == null || file.content().trim().isEmpty()) {
+                return "Error: content of " + file.filePath() + " is null or empty, nothing was written";
+            }
+            Path path = RunContext.current().resolve(file.filePath());
+            if (batch.contains(path)) {
+                return "Error: " + file.filePath() + " appears more than once in the batch, nothing was written";
+            }
+            batch.add(path, file.content());
+        }
+
+        // Claimed only once the whole batch is valid, and given back if it is not written
+        RunContext.WriteClaim claim = RunContext.current().claimWrites(batch.paths());
+        if (!claim.granted()) {
+            return writeConflict(RunContext.current().relativize(claim.conflict()), claim.owner()) + " - nothing was written";
         }
 
-        return System.getProperty("user.dir") + "/target/run-test/" + filePath;
+        List<Path> written;
+        try (PathLocks.Held lock = PathLocks.lock(batch.paths())) {
+            written = batch.commit();
+        } catch (IOException e) {
+            RunContext.current().releaseWrites(claim);
+            return "Error writing files, nothing was written: " + e.getMessage();
+        } catch (RuntimeException e) {
+            RunContext.current().releaseWrites(claim);
+            throw e;
+        }
+        RunContext.current().recordWrites(written);
+
+        long characters = 0;
+        for (int i = 0; i < written.size(); i++) {
+            String content = files.get(i).content();
+            RunContext.current().fileCache().put(written.get(i), content);
+            fileChanged.fire(new FileChangedEvent(written.get(i)));
+            characters += content.length();
+            telemetry.bytesWritten("WriteFileTool", SwarmTelemetry.utf8Length(content));
+        }
+        return "Successfully wrote " + written.size() + " files (" + characters + " characters): "
+                + String.join(", ", files.stream().map(FileContent::filePath).toList());
+    }
+
+    /**
+     * Describes a write rejected because another developer shard of the run owns the file.
+     *
+     * @param filePath the path of the rejected write
+     * @param owner the shard that wrote the file first
+     * @return the error message returned to the agent
+     */
+    static String writeConflict(String filePath, String owner) {
+        return "Error: Conflict - " + filePath + " was already written by developer shard '" + owner
+                + "'. Only write the files of your own module.";
     }
 }
@@ -0,0 +1,91 @@
+package com.github.dloiacono.ai.memory;
+
+import com.github.dloiacono.ai.agents.ResearcherAgent;
+import com.github.dloiacono.ai.run.RequestContexts;
+import com.github.dloiacono.ai.run.RunContext;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.quarkiverse.langchain4j.runtime.RequestScopeStateDefaultMemoryIdProvider;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a replayed run spills its chat memory to the same segments as the recorded run,
+ * although quarkus-langchain4j gives the memory another ID on every run.
+ */
+@QuarkusTest
+@TestProfile(SpillingChatMemoryStoreTest.Profile.class)
+class SpillingChatMemoryStoreTest {
+
+    @Inject
+    SpillingChatMemoryStore store;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayedRunSpillsToTheSameSegmentAsTheRecordedOne() throws Exception {
+        String recorded = spilledResult("recorded-run", directory.resolve("recorded"));
+        String replayed = spilledResult("replayed-run", directory.resolve("replayed"));
+
+        assertTrue(recorded.contains("of .swarm/memory/memory-ResearcherAgent-1.txt"), recorded);
+        assertEquals(recorded, replayed);
+    }
+
+    /**
+     * Runs a memory of the researcher through the store in a request context of its own, as a
+     * run does, and returns the large tool result once spilled.
+     */
+    private String spilledResult(String runId, Path workspace) throws Exception {
+        return RequestContexts.call(() -> {
+            // The ID quarkus-langchain4j gives the memory of an AI service method without @MemoryId
+            Object memoryId = new RequestScopeStateDefaultMemoryIdProvider().getMemoryId()
+                    + "#" + ResearcherAgent.class.getName() + ".invoke";
+            try (RunContext.Scope scope = RunContext.bind(RunContext.create(runId, 0, workspace))) {
+                store.updateMessages(memoryId, messages());
+                String result = ((ToolExecutionResultMessage) store.getMessages(memoryId).get(2)).text();
+                store.deleteMessages(memoryId);
+                return result;
+            }
+        });
+    }
+
+    private static List<ChatMessage> messages() {
+        ToolExecutionRequest read = ToolExecutionRequest.builder()
+                .id("call-1")
+                .name("readFile")
+                .arguments("{\"filePath\": \"research/report.md\"}")
+                .build();
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(UserMessage.from("Research a blog engine"));
+        messages.add(AiMessage.from(read));
+        messages.add(ToolExecutionResultMessage.from(read, "report line\n".repeat(2000)));
+        for (int i = 0; i < 4; i++) {
+            messages.add(UserMessage.from("Recent message " + i));
+        }
+        return messages;
+    }
+
+    public static class Profile implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of("ANTHROPIC_API_KEY", "test", "swarm.chat-memory.max-chars", "4096");
+        }
+    }
+}
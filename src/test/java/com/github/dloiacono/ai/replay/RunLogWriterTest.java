@@ -0,0 +1,139 @@
+package com.github.dloiacono.ai.replay;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a run log torn by a crash is recovered when it is opened again: a partly written
+ * record is cut off and the records missing from the index are indexed again.
+ */
+class RunLogWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void cutsOffARecordTornMidway() throws IOException {
+        Path file = directory.resolve("runs.swlog");
+        long[] ends = write(file, run("run-1", 3));
+
+        truncate(file, ends[2] - 7);
+
+        reopen(file);
+        assertEquals(ends[1], Files.size(file));
+        assertEquals(2 * RunLogFormat.INDEX_ENTRY_BYTES, Files.size(RunLogReader.indexOf(file)));
+        assertEquals(List.of("needs", "chat 1"), fields(file, "run-1"));
+    }
+
+    @Test
+    void reindexesTheRecordsAfterATornIndexEntry() throws IOException {
+        Path file = directory.resolve("runs.swlog");
+        long[] ends = write(file, run("run-1", 4));
+        Path index = RunLogReader.indexOf(file);
+
+        truncate(index, 2 * RunLogFormat.INDEX_ENTRY_BYTES - 9);
+
+        reopen(file);
+        assertEquals(ends[3], Files.size(file));
+        assertEquals(4 * RunLogFormat.INDEX_ENTRY_BYTES, Files.size(index));
+        assertEquals(List.of("needs", "chat 1", "chat 2", "chat 3"), fields(file, "run-1"));
+    }
+
+    @Test
+    void reindexesTheCompleteRecordsAndCutsOffTheTornOne() throws IOException {
+        Path file = directory.resolve("runs.swlog");
+        long[] ends = write(file, run("run-1", 4));
+        Path index = RunLogReader.indexOf(file);
+
+        truncate(index, RunLogFormat.INDEX_ENTRY_BYTES + 3);
+        truncate(file, ends[3] - 1);
+
+        reopen(file);
+        assertEquals(ends[2], Files.size(file));
+        assertEquals(3 * RunLogFormat.INDEX_ENTRY_BYTES, Files.size(index));
+        assertEquals(List.of("needs", "chat 1", "chat 2"), fields(file, "run-1"));
+    }
+
+    @Test
+    void appendsAfterTheRecoveredRecords() throws IOException {
+        Path file = directory.resolve("runs.swlog");
+        long[] ends = write(file, run("run-1", 2));
+        truncate(file, ends[1] - 1);
+        truncate(RunLogReader.indexOf(file), 0);
+
+        try (RunLogWriter writer = RunLogWriter.open(file)) {
+            writer.append(record("run-2", 0, RunLogRecord.Kind.RUN_STARTED, "other needs"));
+        }
+
+        assertEquals(List.of("needs"), fields(file, "run-1"));
+        assertEquals(List.of("other needs"), fields(file, "run-2"));
+    }
+
+    /**
+     * Appends records to a new log.
+     *
+     * @return the end of each record in the log
+     */
+    private static long[] write(Path file, List<RunLogRecord> records) throws IOException {
+        long[] ends = new long[records.size()];
+        long end = RunLogFormat.HEADER_BYTES;
+        try (RunLogWriter writer = RunLogWriter.open(file)) {
+            for (int i = 0; i < records.size(); i++) {
+                assertTrue(writer.append(records.get(i)));
+                end += RunLogFormat.encode(records.get(i)).length;
+                ends[i] = end;
+            }
+        }
+        assertEquals(end, Files.size(file));
+        return ends;
+    }
+
+    private static void reopen(Path file) throws IOException {
+        RunLogWriter.open(file).close();
+    }
+
+    private static List<String> fields(Path file, String runId) throws IOException {
+        List<String> fields = new ArrayList<>();
+        try (RunLogReader reader = RunLogReader.open(file)) {
+            for (RunLogReader.Entry entry : reader.entries(runId)) {
+                fields.add(reader.read(entry).field(0));
+            }
+        }
+        return fields;
+    }
+
+    private static void truncate(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * @return the start of a run followed by chat records, one long enough to be deflated
+     */
+    private static List<RunLogRecord> run(String runId, int records) {
+        List<RunLogRecord> run = new ArrayList<>();
+        run.add(record(runId, 0, RunLogRecord.Kind.RUN_STARTED, "needs"));
+        for (int step = 1; step < records; step++) {
+            run.add(record(runId, step, RunLogRecord.Kind.CHAT, "chat " + step,
+                    step == 2 ? "response ".repeat(200) : "response"));
+        }
+        return run;
+    }
+
+    private static RunLogRecord record(String runId, int step, RunLogRecord.Kind kind, String... fields) {
+        return new RunLogRecord(kind, runId, step, "model", RunLogRecord.hash(runId, String.valueOf(step)),
+                1_000L * step, 10L * step, List.of(fields));
+    }
+}
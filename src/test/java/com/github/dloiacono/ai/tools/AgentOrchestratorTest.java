@@ -0,0 +1,101 @@
+package com.github.dloiacono.ai.tools;
+
+import com.github.dloiacono.ai.agents.ResearcherAgent;
+import com.github.dloiacono.ai.cache.AgentResponseCache;
+import com.github.dloiacono.ai.observability.SwarmTelemetry;
+import com.github.dloiacono.ai.run.RunCheckpoints;
+import com.github.dloiacono.ai.run.RunContext;
+import io.smallrye.mutiny.Multi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a resumed run only reuses the checkpoint of a step given the same inputs.
+ */
+class AgentOrchestratorTest {
+
+    private static final String RUN_ID = "run-1";
+
+    @TempDir
+    Path directory;
+
+    private final List<String> researched = new ArrayList<>();
+    private AgentOrchestrator orchestrator;
+    private RunCheckpoints checkpoints;
+
+    @BeforeEach
+    void setUp() throws ReflectiveOperationException {
+        checkpoints = new RunCheckpoints();
+        set(checkpoints, "enabled", true);
+        set(checkpoints, "directory", directory.resolve("checkpoints").toString());
+
+        orchestrator = new AgentOrchestrator();
+        orchestrator.checkpoints = checkpoints;
+        orchestrator.researcherAgent = new ResearcherAgent() {
+            @Override
+            public String invoke(String needs) {
+                researched.add(needs);
+                return "Report on " + needs;
+            }
+
+            @Override
+            public Multi<String> stream(String needs) {
+                return Multi.createFrom().item(invoke(needs));
+            }
+        };
+        orchestrator.responseCache = new AgentResponseCache() {
+            @Override
+            public Optional<String> key(Class<?> agent, Map<String, String> variables) {
+                return Optional.empty();
+            }
+        };
+        orchestrator.telemetry = new SwarmTelemetry() {
+            @Override
+            public <T> T step(String runId, String step, Callable<T> work) throws Exception {
+                return work.call();
+            }
+
+            @Override
+            public void resumed() {
+            }
+        };
+    }
+
+    @Test
+    void resumesWithOtherNeedsDoNotShareTheResearchCheckpoint() {
+        assertEquals("Report on a blog", execute("a blog", false));
+        assertEquals("Report on a shop", execute("a shop", true));
+        assertEquals("Report on a shop", execute("a shop", true));
+
+        assertEquals(List.of("a blog", "a shop"), researched);
+    }
+
+    /**
+     * Runs the research step in an execution of the run that is interrupted right after it, so
+     * its checkpoint is kept for the next one.
+     */
+    private String execute(String needs, boolean resume) {
+        RunContext run = RunContext.create(RUN_ID, 0, directory.resolve("workspace"));
+        checkpoints.start(run, resume);
+        try (RunContext.Scope scope = RunContext.bind(run)) {
+            return orchestrator.callResearcher(needs);
+        }
+    }
+
+    private static void set(Object target, String field, Object value) throws ReflectiveOperationException {
+        Field declared = target.getClass().getDeclaredField(field);
+        declared.setAccessible(true);
+        declared.set(target, value);
+    }
+}